@@ -0,0 +1,28 @@
+package com.mass.concurrent;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Lock registries that can acquire a lock without parking the calling thread while it waits for its turn.
+ *
+ * @author kmassaroni
+ */
+public interface AsyncLockRegistry<K> {
+    /**
+     * Start acquiring the lock of a key, and return right away. The future fails with a TimeoutException if the lock
+     * isn't acquired in time. Cancelling the future gives up the lock, or its place in line.
+     *
+     * @param timeout
+     *            - negative to wait forever
+     * @return the lock handle, once this caller holds the lock
+     */
+    public ListenableFuture<LockHandle> acquireAsync(K key, long timeout, TimeUnit unit);
+
+    /**
+     * @return true if a caller whose asynchronous acquire failed, like on a zookeeper error, can fall back on the
+     *         reentrant lock of the key, which then synchronizes the key within the JVM, like a best-effort lock
+     */
+    public boolean isBestEffort();
+}
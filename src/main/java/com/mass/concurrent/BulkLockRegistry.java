@@ -0,0 +1,22 @@
+package com.mass.concurrent;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lock registries that can acquire the locks of several keys together, in fewer round trips than one at a time.
+ *
+ * @author kmassaroni
+ */
+public interface BulkLockRegistry<K> {
+    /**
+     * Acquire the locks of all these keys, or none of them. Like the lock handles of an AsyncLockRegistry, the locks
+     * don't belong to the calling thread, so they don't reenter the locks that it already holds, and it has to wait for
+     * them like anybody else.
+     *
+     * @param timeout
+     *            - negative to wait forever
+     * @return one handle that releases all the locks, or null if they weren't all acquired in time
+     */
+    public LockHandle acquireAll(Collection<K> keys, long timeout, TimeUnit unit) throws InterruptedException;
+}
@@ -0,0 +1,39 @@
+package com.mass.concurrent;
+
+/**
+ * Lock registries with a circuit breaker in front of their cluster locks report whether it's open, and how often it
+ * tripped, and turned callers away.
+ *
+ * @author kmassaroni
+ */
+public interface CircuitBreakerMetrics {
+    public enum CircuitState {
+        /**
+         * The locks go to the cluster.
+         */
+        CLOSED,
+        /**
+         * The cluster is unreachable, and the locks don't even try it.
+         */
+        OPEN,
+        /**
+         * The cluster might be back, and the next lock checks, before the others go to it again.
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * @return the state of the circuit breaker right now
+     */
+    public CircuitState getCircuitState();
+
+    /**
+     * @return how many times the circuit breaker opened
+     */
+    public long getCircuitTripCount();
+
+    /**
+     * @return how many locks failed fast, or fell back on the JVM lock, because the circuit breaker was open
+     */
+    public long getCircuitFastFailCount();
+}
@@ -0,0 +1,21 @@
+package com.mass.concurrent;
+
+/**
+ * Locks whose hold can be handed over from the thread that holds it to a LockHandle, so the lock stays held after
+ * that thread moves on, until any thread releases the handle. This is how a lock outlives the method call that took
+ * it, like when the method returns a future.
+ *
+ * @author kmassaroni
+ */
+public interface DetachableLock {
+    /**
+     * Detach the current thread's hold of this lock. The current thread has to hold it exactly once, and it doesn't
+     * hold it anymore afterwards. Other threads still wait for it, until the handle is released.
+     *
+     * @throws IllegalMonitorStateException
+     *             if the current thread doesn't hold the lock exactly once
+     * @throws UnsupportedOperationException
+     *             if this lock can't be detached, like when it's backed by a lock that's bound to its thread
+     */
+    public LockHandle detach();
+}
@@ -0,0 +1,14 @@
+package com.mass.concurrent;
+
+/**
+ * A lock that was acquired asynchronously. Unlike a ReentrantLock, a handle isn't owned by the thread that acquired it,
+ * so any thread can release it, like the one that finishes the work it guards.
+ *
+ * @author kmassaroni
+ */
+public interface LockHandle {
+    /**
+     * Release the lock. Releasing it again does nothing.
+     */
+    public void release();
+}
@@ -0,0 +1,19 @@
+package com.mass.concurrent;
+
+/**
+ * Lock registries that reap the cluster lock paths of the keys that nobody's locked for a while report how many they
+ * reclaimed.
+ *
+ * @author kmassaroni
+ */
+public interface LockPathReaperMetrics {
+    /**
+     * @return how many idle lock paths were deleted
+     */
+    public long getReclaimedLockPathCount();
+
+    /**
+     * @return how many times the lock paths were swept
+     */
+    public long getLockPathSweepCount();
+}
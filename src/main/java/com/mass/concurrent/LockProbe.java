@@ -0,0 +1,16 @@
+package com.mass.concurrent;
+
+/**
+ * Lock registries that can tell if the lock of a key is taken, more cheaply than trying to lock it, like the zookeeper
+ * lock registries, which just read the lock nodes.
+ *
+ * @author kmassaroni
+ */
+public interface LockProbe<K> {
+    /**
+     * This is only a hint, since the lock can be taken or released right after.
+     *
+     * @return true if some thread, on any node, holds the lock of this key, or waits for it
+     */
+    public boolean isLocked(K key);
+}
@@ -5,6 +5,14 @@ import java.util.concurrent.locks.ReentrantLock;
 import com.mass.core.PositiveDuration;
 
 public interface LockRegistry<K> {
+    /**
+     * Get the lock of a key. The lock can be a handle that only keeps a backing lock while some thread holds it, or
+     * waits for it, so the lock, tryLock and unlock methods, the conditions, and isLocked, isHeldByCurrentThread and
+     * getHoldCount all go to the backing lock. The queue methods of ReentrantLock, hasQueuedThreads, hasQueuedThread,
+     * getQueueLength and isFair, are final, so they can't: they only see the handle, and say that nobody's waiting.
+     * Conditions only work if the backing lock supports them, which zookeeper locks that are migrating hash buckets
+     * don't.
+     */
     public ReentrantLock getLock(K key);
 
     /**
@@ -0,0 +1,13 @@
+package com.mass.concurrent;
+
+/**
+ * Lock registries that can report on their footprint implement this.
+ *
+ * @author kmassaroni
+ */
+public interface LockRegistryMetrics {
+    /**
+     * @return the number of locks that are held, or waited for, right now. Locks that nobody's using aren't kept.
+     */
+    public int getLiveLockCount();
+}
@@ -0,0 +1,23 @@
+package com.mass.concurrent;
+
+import java.util.concurrent.locks.ReadWriteLock;
+
+import com.mass.core.PositiveDuration;
+
+/**
+ * Like a LockRegistry, but its locks let many readers, or one writer, hold a key at a time.
+ * 
+ * @author kmassaroni
+ * @param <K>
+ */
+public interface ReadWriteLockRegistry<K> {
+    public ReadWriteLock getReadWriteLock(K key);
+
+    /**
+     * Get the lock-registry level timeout duration. This overrides the global default timeout duration, defined in the
+     * SynchronizerConfiguration bean, and this is overridden by the annotation-level timeout duration.
+     * 
+     * @return null if this lock registry has no explicitly defined timeout duration
+     */
+    public PositiveDuration getTimeoutDuration();
+}
@@ -0,0 +1,24 @@
+package com.mass.concurrent;
+
+/**
+ * Lock registries with sticky locks, that keep their cluster locks for a while after they're released, report how
+ * often a lock re-enters a lock it kept.
+ *
+ * @author kmassaroni
+ */
+public interface StickyLockMetrics {
+    /**
+     * @return how many locks took back a cluster lock that this JVM kept, with no round trip
+     */
+    public long getStickyHitCount();
+
+    /**
+     * @return how many locks had to acquire a new cluster lock
+     */
+    public long getStickyMissCount();
+
+    /**
+     * @return hits / (hits + misses), or 0 before the first lock
+     */
+    public double getStickyHitRatio();
+}
@@ -0,0 +1,346 @@
+package com.mass.concurrent.sync.springaop;
+
+import static java.lang.String.format;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.mass.concurrent.LockRegistry;
+import com.mass.core.PositiveDuration;
+
+/**
+ * Flat combining for the calls of one @Synchronized(combineWith) method. Calls queue up by target and lock key, and
+ * whichever caller gets the lock drains the queue, and makes one call of the batch method for all of them, so one lock
+ * acquisition covers the whole batch. The other callers wait for their calls to be done, without taking the lock.
+ * <p>
+ * The combining caller can linger with the lock, for up to the max linger time, to let more calls join a batch that
+ * isn't full yet. Everything after the max batch size waits for the next batch.
+ *
+ * @author kmassaroni
+ */
+final class FlatCombiner {
+    private final String lockName;
+    private final LockRegistry<Object> lockRegistry;
+    private final long timeoutMillis;
+    private final Method batchMethod;
+    private final int keyIndex;
+    private final boolean returnsResults;
+    private final int maxBatchSize;
+    private final long lingerNanos;
+    private final ConcurrentMap<QueueKey, CallQueue> queues = Maps.newConcurrentMap();
+
+    /**
+     * @param keyIndex
+     *            - the index of the @Synchronized parameter, which the batch method takes as it is
+     * @param returnsResults
+     *            - the batch method returns a List of the results of its calls, in order. Otherwise the calls all
+     *            return null.
+     * @param maxBatchSize
+     *            - 0 if batches aren't limited
+     * @param maxBatchLinger
+     *            - (nullable) how long to wait for more calls, when a batch isn't full
+     */
+    public FlatCombiner(final String lockName, final LockRegistry<Object> lockRegistry,
+            final PositiveDuration timeoutDuration, final Method batchMethod, final int keyIndex,
+            final boolean returnsResults, final int maxBatchSize, final PositiveDuration maxBatchLinger) {
+        Preconditions.checkArgument(lockRegistry != null, "Undefined lock registry.");
+        Preconditions.checkArgument(timeoutDuration != null, "Undefined timeout duration.");
+        Preconditions.checkArgument(batchMethod != null, "Undefined batch method.");
+        Preconditions.checkArgument(keyIndex >= 0, "Parameter index out of range: %s", keyIndex);
+        Preconditions.checkArgument(maxBatchSize >= 0, "Negative max batch size: %s", maxBatchSize);
+
+        this.lockName = lockName;
+        this.lockRegistry = lockRegistry;
+        timeoutMillis = timeoutDuration.getMillis();
+        this.batchMethod = batchMethod;
+        this.keyIndex = keyIndex;
+        this.returnsResults = returnsResults;
+        this.maxBatchSize = maxBatchSize;
+        lingerNanos = maxBatchLinger == null ? 0 : TimeUnit.MILLISECONDS.toNanos(maxBatchLinger.getMillis());
+    }
+
+    /**
+     * Queue up a call, and wait until it's done, either by this thread or by another one that has the lock.
+     *
+     * @return the result of this call, from the result list of the batch method
+     */
+    public Object call(final Object target, final Object lockKey, final Object[] args) throws Throwable {
+        final QueueKey key = new QueueKey(target, lockKey);
+        final Call call = new Call(args);
+        final CallQueue queue = enqueue(key, call);
+
+        while (true) {
+            if (!awaitTurn(queue, call)) {
+                return call.get();
+            }
+
+            try {
+                combine(target, lockKey, queue, call);
+            } finally {
+                synchronized (queue) {
+                    queue.combining = false;
+
+                    if (queue.pending.isEmpty()) {
+                        queue.retired = true;
+                        queues.remove(key, queue);
+                    }
+
+                    queue.notifyAll();
+                }
+            }
+        }
+    }
+
+    private CallQueue enqueue(final QueueKey key, final Call call) {
+        while (true) {
+            CallQueue queue = queues.get(key);
+
+            if (queue == null) {
+                final CallQueue newQueue = new CallQueue();
+                queue = queues.putIfAbsent(key, newQueue);
+                queue = queue == null ? newQueue : queue;
+            }
+
+            synchronized (queue) {
+                // a queue is retired when it's empty, so it might have been dropped in the meantime
+                if (!queue.retired) {
+                    queue.pending.add(call);
+                    queue.notifyAll();
+                    return queue;
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until the call is done, or until this thread gets to combine.
+     *
+     * @return true if this thread combines the next batch, or false if the call is done
+     */
+    private static boolean awaitTurn(final CallQueue queue, final Call call) throws InterruptedException {
+        synchronized (queue) {
+            try {
+                while (!call.done && queue.combining) {
+                    queue.wait();
+                }
+            } catch (final InterruptedException e) {
+                if (queue.pending.remove(call)) {
+                    throw e;
+                }
+
+                // it's in a batch already, so it has to finish
+                while (!call.done) {
+                    queue.waitUninterruptibly();
+                }
+
+                Thread.currentThread().interrupt();
+            }
+
+            if (call.done) {
+                return false;
+            }
+
+            queue.combining = true;
+            return true;
+        }
+    }
+
+    private void combine(final Object target, final Object lockKey, final CallQueue queue, final Call call)
+            throws InterruptedException {
+        final ReentrantLock lock = lockRegistry.getLock(lockKey);
+        Preconditions.checkState(lock != null, "Can't get interprocess lock for registry %s, for key %s", lockName,
+                lockKey);
+        final boolean locked;
+
+        try {
+            locked = lock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            withdraw(queue, call);
+            throw e;
+        }
+
+        if (!locked) {
+            withdraw(queue, call);
+            call.fail(new UncheckedTimeoutException(format(
+                    "Timed out getting interprocess synchronizer lock for registry %s, for key %s", lockName,
+                    lockKey)));
+            return;
+        }
+
+        try {
+            invoke(target, drain(queue));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void withdraw(final CallQueue queue, final Call call) {
+        synchronized (queue) {
+            queue.pending.remove(call);
+        }
+    }
+
+    private List<Call> drain(final CallQueue queue) {
+        synchronized (queue) {
+            final long deadline = System.nanoTime() + lingerNanos;
+            long remaining = lingerNanos;
+
+            while (remaining > 0 && !isFull(queue.pending.size())) {
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(queue, remaining);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+
+                remaining = deadline - System.nanoTime();
+            }
+
+            final int size = isFull(queue.pending.size()) && maxBatchSize > 0 ? maxBatchSize : queue.pending.size();
+            final List<Call> batch = Lists.newArrayList(queue.pending.subList(0, size));
+            queue.pending.subList(0, size).clear();
+            return batch;
+        }
+    }
+
+    private boolean isFull(final int size) {
+        return maxBatchSize > 0 && size >= maxBatchSize;
+    }
+
+    private void invoke(final Object target, final List<Call> batch) {
+        final Object[] batchArgs = new Object[batch.get(0).args.length];
+
+        for (int i = 0; i < batchArgs.length; i++) {
+            if (i == keyIndex) {
+                batchArgs[i] = batch.get(0).args[i];
+                continue;
+            }
+
+            final List<Object> args = Lists.newArrayListWithCapacity(batch.size());
+
+            for (final Call call : batch) {
+                args.add(call.args[i]);
+            }
+
+            batchArgs[i] = args;
+        }
+
+        final Object results;
+
+        try {
+            results = batchMethod.invoke(target, batchArgs);
+        } catch (final InvocationTargetException e) {
+            fail(batch, e.getCause());
+            return;
+        } catch (final Throwable e) {
+            fail(batch, e);
+            return;
+        }
+
+        if (!returnsResults) {
+            for (final Call call : batch) {
+                call.complete(null);
+            }
+
+            return;
+        }
+
+        if (!(results instanceof List) || ((List<?>) results).size() != batch.size()) {
+            fail(batch, new IllegalStateException(format("Batch method %s returned %s results for %s calls.",
+                    batchMethod.getName(), results instanceof List ? ((List<?>) results).size() : "no", batch.size())));
+            return;
+        }
+
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).complete(((List<?>) results).get(i));
+        }
+    }
+
+    private static void fail(final List<Call> batch, final Throwable failure) {
+        for (final Call call : batch) {
+            call.fail(failure);
+        }
+    }
+
+    /**
+     * The queue of one target and lock key. Everything in it is guarded by its monitor, which its callers wait on.
+     */
+    private static class CallQueue {
+        private final List<Call> pending = Lists.newLinkedList();
+        private boolean combining;
+        private boolean retired;
+
+        public void waitUninterruptibly() {
+            try {
+                wait();
+            } catch (final InterruptedException e) {
+                // restored by the caller
+            }
+        }
+    }
+
+    private static class Call {
+        private final Object[] args;
+        private Object result;
+        private Throwable failure;
+        private volatile boolean done;
+
+        public Call(final Object[] args) {
+            this.args = args;
+        }
+
+        public void complete(final Object result) {
+            this.result = result;
+            done = true;
+        }
+
+        public void fail(final Throwable failure) {
+            this.failure = failure;
+            done = true;
+        }
+
+        public Object get() throws Throwable {
+            if (failure != null) {
+                throw failure;
+            }
+
+            return result;
+        }
+    }
+
+    /**
+     * Calls on different beans of the same class don't combine.
+     */
+    private static class QueueKey {
+        private final Object target;
+        private final Object lockKey;
+
+        public QueueKey(final Object target, final Object lockKey) {
+            this.target = target;
+            this.lockKey = lockKey;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(target) + lockKey.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof QueueKey)) {
+                return false;
+            }
+
+            final QueueKey other = (QueueKey) obj;
+            return target == other.target && lockKey.equals(other.lockKey);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.mass.concurrent.sync.springaop;
+
+/**
+ * A parsed @Synchronized(key = "...") expression, ready to evaluate against a synchronized method argument.
+ *
+ * @author kmassaroni
+ */
+interface LockKeyExpression {
+    public String getExpressionString();
+
+    /**
+     * @param root
+     *            - the synchronized method argument, which is the root object of the expression
+     */
+    public Object getValue(Object root);
+}
@@ -0,0 +1,268 @@
+package com.mass.concurrent.sync.springaop;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.util.StringUtils;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+
+/**
+ * Parses each @Synchronized(key = "...") expression once, and caches it by its expression string. Simple property
+ * chains, like "owner.id", are resolved to their getter methods on the first evaluation for each argument class, and
+ * then evaluated by invoking those getters directly. Everything else is evaluated by a parsed SpEL expression.
+ *
+ * @author kmassaroni
+ */
+final class LockKeyExpressions {
+    private static final Pattern PROPERTY_CHAIN = Pattern
+            .compile("[A-Za-z_$][A-Za-z0-9_$]*(\\.[A-Za-z_$][A-Za-z0-9_$]*)*");
+
+    /**
+     * Words that SpEL reads as literals or operators, rather than property names.
+     */
+    private static final Set<String> SPEL_KEYWORDS = ImmutableSet.of("true", "false", "null", "new", "and", "or",
+            "not", "eq", "ne", "lt", "gt", "le", "ge", "div", "mod", "instanceof", "matches", "between");
+
+    private static final ExpressionParser parser = new SpelExpressionParser();
+    private static final ConcurrentMap<String, LockKeyExpression> expressions = Maps.newConcurrentMap();
+
+    private LockKeyExpressions() {
+    }
+
+    /**
+     * Get the cached expression for this expression string, or parse it, if it's the first time we've seen it.
+     */
+    public static LockKeyExpression forExpression(final String expression) {
+        Preconditions.checkArgument(expression != null, "Undefined lock key expression.");
+
+        final LockKeyExpression cached = expressions.get(expression);
+
+        if (cached != null) {
+            return cached;
+        }
+
+        final LockKeyExpression parsed = isPropertyChain(expression) ? newPropertyChainExpression(expression)
+                : newSpelExpression(expression);
+        final LockKeyExpression existing = expressions.putIfAbsent(expression, parsed);
+        return existing == null ? parsed : existing;
+    }
+
+    static boolean isPropertyChain(final String expression) {
+        if (expression == null || !PROPERTY_CHAIN.matcher(expression).matches()) {
+            return false;
+        }
+
+        for (final String property : Splitter.on('.').split(expression)) {
+            if (SPEL_KEYWORDS.contains(property.toLowerCase(Locale.ENGLISH))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    static LockKeyExpression newSpelExpression(final String expression) {
+        return new SpelLockKeyExpression(expression);
+    }
+
+    static LockKeyExpression newPropertyChainExpression(final String expression) {
+        Preconditions.checkArgument(isPropertyChain(expression), "Not a simple property chain: %s", expression);
+        return new PropertyChainLockKeyExpression(expression, new SpelLockKeyExpression(expression));
+    }
+
+    /**
+     * Full SpEL evaluation. The expression is parsed once, and all evaluations share one evaluation context, which is
+     * fully initialized up front, and never modified after that, so that it's safe to share between threads.
+     */
+    private static class SpelLockKeyExpression implements LockKeyExpression {
+        private final Expression expression;
+        private final EvaluationContext context;
+
+        public SpelLockKeyExpression(final String expression) {
+            this.expression = parser.parseExpression(expression);
+
+            final StandardEvaluationContext standardContext = new StandardEvaluationContext();
+            standardContext.getPropertyAccessors();
+            standardContext.getMethodResolvers();
+            standardContext.getConstructorResolvers();
+            standardContext.getTypeConverter();
+            standardContext.getTypeLocator();
+            standardContext.getTypeComparator();
+            standardContext.getOperatorOverloader();
+            context = standardContext;
+        }
+
+        @Override
+        public String getExpressionString() {
+            return expression.getExpressionString();
+        }
+
+        @Override
+        public Object getValue(final Object root) {
+            return expression.getValue(context, root);
+        }
+    }
+
+    /**
+     * Evaluates a chain of property names by invoking their getters directly. The getters are resolved once per
+     * runtime class, for each link in the chain. This falls back to SpEL for anything it can't resolve to a getter,
+     * like public fields, and for null links, so that those fail the same way that they always have.
+     */
+    private static class PropertyChainLockKeyExpression implements LockKeyExpression {
+        private final String expression;
+        private final String[] properties;
+        private final ConcurrentMap<Class<?>, Getter>[] getters;
+        /**
+         * Usually each link in the chain only ever sees one class, so check the last one before the map lookup. These
+         * are racy, but getters are immutable, so the worst case is a redundant map lookup.
+         */
+        private final Getter[] lastGetters;
+        private final LockKeyExpression fallback;
+
+        @SuppressWarnings("unchecked")
+        public PropertyChainLockKeyExpression(final String expression, final LockKeyExpression fallback) {
+            Preconditions.checkArgument(fallback != null, "Undefined fallback expression.");
+            this.expression = expression;
+            this.fallback = fallback;
+            properties = Iterables.toArray(Splitter.on('.').split(expression), String.class);
+
+            // java can't create a generic array, so the array of maps starts out raw
+            @SuppressWarnings("rawtypes")
+            final ConcurrentMap[] rawGetters = new ConcurrentMap[properties.length];
+            getters = rawGetters;
+            lastGetters = new Getter[properties.length];
+
+            for (int i = 0; i < properties.length; i++) {
+                getters[i] = Maps.newConcurrentMap();
+            }
+        }
+
+        @Override
+        public String getExpressionString() {
+            return expression;
+        }
+
+        @Override
+        public Object getValue(final Object root) {
+            Object value = root;
+
+            for (int i = 0; i < properties.length; i++) {
+                if (value == null) {
+                    return fallback.getValue(root);
+                }
+
+                final Method getter = getGetter(i, value.getClass());
+
+                if (getter == null) {
+                    return fallback.getValue(root);
+                }
+
+                value = invoke(getter, value);
+            }
+
+            return value;
+        }
+
+        private Method getGetter(final int link, final Class<?> c) {
+            final Getter last = lastGetters[link];
+
+            if (last != null && last.type == c) {
+                return last.method;
+            }
+
+            final ConcurrentMap<Class<?>, Getter> linkGetters = getters[link];
+            Getter getter = linkGetters.get(c);
+
+            if (getter == null) {
+                getter = new Getter(c, findGetter(c, properties[link]));
+                linkGetters.putIfAbsent(c, getter);
+            }
+
+            lastGetters[link] = getter;
+            return getter.method;
+        }
+
+        private static Object invoke(final Method getter, final Object target) {
+            try {
+                return getter.invoke(target);
+            } catch (final InvocationTargetException e) {
+                throw Throwables.propagate(e.getCause());
+            } catch (final IllegalAccessException e) {
+                throw new IllegalStateException("Can't invoke lock key getter " + getter, e);
+            }
+        }
+
+        private static Method findGetter(final Class<?> c, final String property) {
+            final String suffix = StringUtils.capitalize(property);
+            final Method getter = findPublicMethod(c, "get" + suffix);
+
+            if (getter != null) {
+                return getter;
+            }
+
+            final Method isGetter = findPublicMethod(c, "is" + suffix);
+
+            if (isGetter != null
+                    && (isGetter.getReturnType() == boolean.class || isGetter.getReturnType() == Boolean.class)) {
+                return isGetter;
+            }
+
+            return null;
+        }
+
+        private static Method findPublicMethod(final Class<?> c, final String name) {
+            final Method method;
+
+            try {
+                method = c.getMethod(name);
+            } catch (final NoSuchMethodException e) {
+                return null;
+            } catch (final SecurityException e) {
+                return null;
+            }
+
+            if (Modifier.isStatic(method.getModifiers()) || method.getReturnType() == void.class) {
+                return null;
+            }
+
+            if (!Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+                try {
+                    method.setAccessible(true);
+                } catch (final SecurityException e) {
+                    return null;
+                }
+            }
+
+            return method;
+        }
+    }
+
+    /**
+     * Getter cache entry, which can be empty, when a class has no getter for a property.
+     */
+    private static class Getter {
+        private final Class<?> type;
+        private final Method method;
+
+        public Getter(final Class<?> type, final Method method) {
+            this.type = type;
+            this.method = method;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.mass.concurrent.sync.springaop;
+
+/**
+ * Derives the lock key for one invocation of a @Synchronized method, from its arguments.
+ *
+ * @author kmassaroni
+ */
+interface LockKeyExtractor {
+    public Object getLockKey(Object[] args);
+}
@@ -0,0 +1,96 @@
+package com.mass.concurrent.sync.springaop;
+
+import static org.apache.commons.lang.StringUtils.isBlank;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Factory methods for the lock key extractors that go into a SynchronizedMethodPlan.
+ *
+ * @author kmassaroni
+ */
+final class LockKeyExtractors {
+    private LockKeyExtractors() {
+    }
+
+    /**
+     * The lock key is always the same, like the lock name of a method-level @Synchronized annotation.
+     */
+    public static LockKeyExtractor constant(final Object lockKey) {
+        return new ConstantLockKeyExtractor(lockKey);
+    }
+
+    /**
+     * The lock key is the synchronized argument itself, or it's derived from the synchronized argument, by the key
+     * expression on the @Synchronized annotation.
+     */
+    public static LockKeyExtractor argument(final int parameterIndex, final Synchronized annotation) {
+        Preconditions.checkArgument(annotation != null, "Undefined @Synchronized annotation.");
+        return argument(parameterIndex, annotation.key());
+    }
+
+    /**
+     * Like argument(int, Synchronized), for the key expression of any lock annotation, like @SynchronizedRead.
+     * 
+     * @param keyExpression
+     *            - (nullable) blank to lock on the argument itself
+     */
+    public static LockKeyExtractor argument(final int parameterIndex, final String keyExpression) {
+        if (isBlank(keyExpression)) {
+            return new ArgumentLockKeyExtractor(parameterIndex);
+        }
+
+        return new ArgumentExpressionLockKeyExtractor(parameterIndex, keyExpression);
+    }
+
+    private static class ConstantLockKeyExtractor implements LockKeyExtractor {
+        private final Object lockKey;
+
+        public ConstantLockKeyExtractor(final Object lockKey) {
+            Preconditions.checkArgument(lockKey != null, "Undefined lock key.");
+            this.lockKey = lockKey;
+        }
+
+        @Override
+        public Object getLockKey(final Object[] args) {
+            return lockKey;
+        }
+    }
+
+    private static class ArgumentLockKeyExtractor implements LockKeyExtractor {
+        private final int parameterIndex;
+
+        public ArgumentLockKeyExtractor(final int parameterIndex) {
+            Preconditions.checkArgument(parameterIndex >= 0, "Parameter index out of range: %s", parameterIndex);
+            this.parameterIndex = parameterIndex;
+        }
+
+        @Override
+        public Object getLockKey(final Object[] args) {
+            final Object lockKeyArg = args[parameterIndex];
+            Preconditions.checkArgument(lockKeyArg != null, "Undefined lock key argument.");
+            return lockKeyArg;
+        }
+    }
+
+    /**
+     * The key expression is parsed when the extractor is built, so a bad expression fails when the plan is resolved.
+     */
+    private static class ArgumentExpressionLockKeyExtractor implements LockKeyExtractor {
+        private final int parameterIndex;
+        private final LockKeyExpression expression;
+
+        public ArgumentExpressionLockKeyExtractor(final int parameterIndex, final String keyExpression) {
+            Preconditions.checkArgument(parameterIndex >= 0, "Parameter index out of range: %s", parameterIndex);
+            this.parameterIndex = parameterIndex;
+            expression = LockKeyExpressions.forExpression(keyExpression);
+        }
+
+        @Override
+        public Object getLockKey(final Object[] args) {
+            final Object lockKeyArg = args[parameterIndex];
+            Preconditions.checkArgument(lockKeyArg != null, "Undefined lock key argument.");
+            return expression.getValue(lockKeyArg);
+        }
+    }
+}
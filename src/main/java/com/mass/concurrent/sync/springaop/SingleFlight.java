@@ -0,0 +1,127 @@
+package com.mass.concurrent.sync.springaop;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * The calls in flight of one single-flight method, by lock key. The first caller of a key makes the call, and the
+ * callers that come in while it's in flight wait for it, and share its result, or its exception, instead of making the
+ * same call again. A call that returns a ListenableFuture is in flight until the future is done, so the callers share
+ * the future.
+ * <p>
+ * A thread that calls the same key again, from inside its own call, isn't collapsed into it, because it would wait for
+ * itself.
+ *
+ * @author kmassaroni
+ */
+final class SingleFlight {
+    private final ConcurrentMap<Object, Flight> flights = Maps.newConcurrentMap();
+    private final AtomicLong collapsed = new AtomicLong();
+
+    /**
+     * A call that can throw anything, like a join point.
+     */
+    public static interface Call {
+        Object call() throws Throwable;
+    }
+
+    /**
+     * Make the call, or wait for the same call that's already in flight for this key.
+     */
+    public Object call(final Object key, final Call call) throws Throwable {
+        Preconditions.checkArgument(key != null, "Undefined single flight key.");
+        Preconditions.checkArgument(call != null, "Undefined single flight call.");
+
+        final Flight flight = new Flight(Thread.currentThread());
+        final Flight inFlight = flights.putIfAbsent(key, flight);
+
+        if (inFlight != null) {
+            if (inFlight.caller == Thread.currentThread()) {
+                return call.call();
+            }
+
+            collapsed.incrementAndGet();
+            return inFlight.await();
+        }
+
+        Object result = null;
+        Throwable failure = null;
+
+        try {
+            result = call.call();
+        } catch (final Throwable e) {
+            failure = e;
+        }
+
+        if (result instanceof ListenableFuture && !((ListenableFuture<?>) result).isDone()) {
+            flight.land(result, null);
+            ((ListenableFuture<?>) result).addListener(new Runnable() {
+                @Override
+                public void run() {
+                    flights.remove(key, flight);
+                }
+            }, MoreExecutors.directExecutor());
+        } else {
+            flights.remove(key, flight);
+            flight.land(result, failure);
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the number of calls that waited for a call in flight, instead of making their own
+     */
+    public long getCollapsedCount() {
+        return collapsed.get();
+    }
+
+    /**
+     * @return the number of keys with a call in flight right now
+     */
+    public int size() {
+        return flights.size();
+    }
+
+    private static class Flight {
+        // only set while the call is running, to tell reentrant calls apart
+        private volatile Thread caller;
+        private final CountDownLatch landed = new CountDownLatch(1);
+        private Object result;
+        private Throwable failure;
+
+        public Flight(final Thread caller) {
+            this.caller = caller;
+        }
+
+        /**
+         * The latch publishes the result to the waiting threads.
+         */
+        public void land(final Object result, final Throwable failure) {
+            this.result = result;
+            this.failure = failure;
+            caller = null;
+            landed.countDown();
+        }
+
+        public Object await() throws Throwable {
+            landed.await();
+
+            if (failure != null) {
+                throw failure;
+            }
+
+            return result;
+        }
+    }
+}
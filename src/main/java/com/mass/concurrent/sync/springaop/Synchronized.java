@@ -35,4 +35,32 @@ public @interface Synchronized {
      * @return
      */
     String key() default "";
+
+    /**
+     * Skip the method, instead of waiting for the lock, if some thread anywhere already holds it, like for a scheduled
+     * job that runs on every node, but only has to run once. A skipped method returns null, or zero or false for a
+     * primitive return type, or a future of null, if it returns a ListenableFuture. The timeout configuration doesn't
+     * apply, because it never waits.
+     */
+    boolean skipIfLocked() default false;
+
+    /**
+     * Collapse concurrent calls with the same lock key into one, like for an expensive idempotent read that fills a
+     * cache. The callers that come in while a call of the same method and key is in flight wait for it, and share its
+     * result or exception, instead of taking the lock and making the same call again. Only the lock key tells calls
+     * apart, so the other arguments shouldn't change the result. Calls are collapsed on each JVM, so the lock only sees
+     * one call per key, per JVM, at a time.
+     */
+    boolean singleFlight() default false;
+
+    /**
+     * The name of a batch method to combine concurrent calls with the same lock key into, like to append a pile of
+     * events to the same ledger under one lock. Whichever caller gets the lock drains the calls that are waiting, and
+     * calls the batch method once, for all of them, instead of the method itself. The batch method is a public method
+     * of the same class, with the same parameters, except that it takes a List of the arguments of each call in place
+     * of every parameter other than the @Synchronized one. Unless the method is void, the batch method returns a List
+     * of the results of each call, in the same order. The max batch size and linger time come from the
+     * SynchronizerLockRegistryConfiguration.
+     */
+    String combineWith() default "";
 }
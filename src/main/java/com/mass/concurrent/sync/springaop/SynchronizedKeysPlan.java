@@ -0,0 +1,211 @@
+package com.mass.concurrent.sync.springaop;
+
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.mass.concurrent.BulkLockRegistry;
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
+import com.mass.core.PositiveDuration;
+
+/**
+ * The plan of a method with @Synchronized parameters, which can lock several keys, maybe in different lock registries.
+ * Each @Synchronized parameter has its own SynchronizedMethodPlan. A Collection or array argument locks each of its
+ * elements, with the key expression applied to each element.
+ * <p>
+ * The keys of a call are all locked up front, in a canonical order: by lock registry name, and then by the value of
+ * their SynchronizerLockKey. Every method that locks the same keys locks them in the same order, so they can't deadlock
+ * each other. They're all locked within the shortest timeout of the parameters.
+ * <p>
+ * If all the keys are in the same lock registry, and it's a BulkLockRegistry, like the zookeeper lock registries, they
+ * can be locked together, instead of one at a time.
+ * <p>
+ * Most methods have one @Synchronized parameter, with a single key, so they just use its plan.
+ *
+ * @author kmassaroni
+ */
+final class SynchronizedKeysPlan {
+    private final ImmutableList<SynchronizedMethodPlan> plans;
+    private final ImmutableList<SynchronizerLockKeyFactory<Object>> keyFactories;
+    private final boolean[] spread;
+    private final SynchronizedMethodPlan singlePlan;
+    private final PositiveDuration timeoutDuration;
+    private final BulkLockRegistry<Object> bulkLockRegistry;
+
+    /**
+     * @param plans
+     *            - the plan of each @Synchronized parameter
+     * @param keyFactories
+     *            - the key factory of each plan's lock registry, for the canonical order
+     * @param parameterTypes
+     *            - the parameter types of the method
+     */
+    @SuppressWarnings("unchecked")
+    public SynchronizedKeysPlan(final List<SynchronizedMethodPlan> plans,
+            final List<SynchronizerLockKeyFactory<Object>> keyFactories, final Class<?>[] parameterTypes) {
+        Preconditions.checkArgument(plans != null && !plans.isEmpty(), "Undefined synchronized method plans.");
+        Preconditions.checkArgument(keyFactories != null && keyFactories.size() == plans.size(),
+                "Expected a key factory for each plan.");
+        Preconditions.checkArgument(parameterTypes != null, "Undefined parameter types.");
+
+        this.plans = ImmutableList.copyOf(plans);
+        this.keyFactories = ImmutableList.copyOf(keyFactories);
+        spread = new boolean[plans.size()];
+        PositiveDuration shortest = null;
+
+        for (int i = 0; i < plans.size(); i++) {
+            final SynchronizedMethodPlan plan = plans.get(i);
+            final Class<?> parameterType = parameterTypes[plan.getParameterIndex()];
+            spread[i] = parameterType.isArray() || Collection.class.isAssignableFrom(parameterType);
+
+            if (shortest == null || plan.getTimeoutDuration().getMillis() < shortest.getMillis()) {
+                shortest = plan.getTimeoutDuration();
+            }
+        }
+
+        singlePlan = plans.size() == 1 && !spread[0] ? plans.get(0) : null;
+        timeoutDuration = shortest;
+
+        final LockRegistry<Object> lockRegistry = plans.get(0).getLockRegistry();
+        boolean oneRegistry = true;
+
+        for (final SynchronizedMethodPlan plan : plans) {
+            oneRegistry &= plan.getLockRegistry() == lockRegistry;
+        }
+
+        bulkLockRegistry = oneRegistry && lockRegistry instanceof BulkLockRegistry
+                ? (BulkLockRegistry<Object>) lockRegistry : null;
+    }
+
+    /**
+     * @return the plan of the only @Synchronized parameter, or null, if the method can lock several keys
+     */
+    public SynchronizedMethodPlan getSinglePlan() {
+        return singlePlan;
+    }
+
+    public List<SynchronizedMethodPlan> getPlans() {
+        return plans;
+    }
+
+    /**
+     * @return the shortest timeout of all the @Synchronized parameters, which is how long all their locks can take
+     */
+    public PositiveDuration getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    /**
+     * @return the lock registry of all the @Synchronized parameters, if they share one, and it can lock several keys
+     *         together, or null
+     */
+    public BulkLockRegistry<Object> getBulkLockRegistry() {
+        return bulkLockRegistry;
+    }
+
+    /**
+     * @return the distinct keys of this call, in canonical order
+     */
+    public List<PlannedKey> getLockKeys(final Object[] args) {
+        Preconditions.checkArgument(args != null, "Undefined method args.");
+        final Set<PlannedKey> keys = Sets.newHashSet();
+
+        for (int i = 0; i < plans.size(); i++) {
+            final SynchronizedMethodPlan plan = plans.get(i);
+
+            if (!spread[i]) {
+                keys.add(newKey(i, plan.getLockKey(args)));
+                continue;
+            }
+
+            final Object arg = args[plan.getParameterIndex()];
+            Preconditions.checkArgument(arg != null, "Undefined lock key argument.");
+
+            for (final Object element : toElements(arg)) {
+                Preconditions.checkArgument(element != null, "Undefined lock key element in %s", arg);
+                keys.add(newKey(i, SynchronizedMethodUtils.getLockKey(element, plan.getAnnotation())));
+            }
+        }
+
+        final List<PlannedKey> sorted = Lists.newArrayList(keys);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private PlannedKey newKey(final int planIndex, final Object lockKey) {
+        final String canonicalKey = keyFactories.get(planIndex).toKey(lockKey).getValue();
+        return new PlannedKey(plans.get(planIndex), lockKey, canonicalKey);
+    }
+
+    private static Iterable<?> toElements(final Object arg) {
+        if (arg instanceof Collection) {
+            return (Collection<?>) arg;
+        }
+
+        final int length = Array.getLength(arg);
+        final List<Object> elements = Lists.newArrayListWithCapacity(length);
+
+        for (int i = 0; i < length; i++) {
+            elements.add(Array.get(arg, i));
+        }
+
+        return elements;
+    }
+
+    /**
+     * One key of a call, with the plan of the parameter it came from. Keys are equal when they're the same key of the
+     * same lock registry.
+     */
+    public static final class PlannedKey implements Comparable<PlannedKey> {
+        private final SynchronizedMethodPlan plan;
+        private final Object lockKey;
+        private final String canonicalKey;
+
+        public PlannedKey(final SynchronizedMethodPlan plan, final Object lockKey, final String canonicalKey) {
+            this.plan = plan;
+            this.lockKey = lockKey;
+            this.canonicalKey = canonicalKey;
+        }
+
+        public SynchronizedMethodPlan getPlan() {
+            return plan;
+        }
+
+        public Object getLockKey() {
+            return lockKey;
+        }
+
+        @Override
+        public int compareTo(final PlannedKey other) {
+            final int byName = plan.getLockName().compareTo(other.plan.getLockName());
+            return byName != 0 ? byName : canonicalKey.compareTo(other.canonicalKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * plan.getLockName().hashCode() + canonicalKey.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof PlannedKey)) {
+                return false;
+            }
+
+            final PlannedKey other = (PlannedKey) obj;
+            return plan.getLockName().equals(other.plan.getLockName()) && canonicalKey.equals(other.canonicalKey);
+        }
+
+        @Override
+        public String toString() {
+            return plan.getLockName() + "/" + canonicalKey;
+        }
+    }
+}
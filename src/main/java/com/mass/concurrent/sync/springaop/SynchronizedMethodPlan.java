@@ -0,0 +1,167 @@
+package com.mass.concurrent.sync.springaop;
+
+import com.google.common.base.Defaults;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mass.concurrent.AsyncLockRegistry;
+import com.mass.concurrent.LockProbe;
+import com.mass.concurrent.LockRegistry;
+import com.mass.core.PositiveDuration;
+
+/**
+ * This is everything the advice needs to know to synchronize one method, on one target class, resolved once, so that
+ * the advice doesn't have to repeat the reflection on every call.
+ *
+ * @author kmassaroni
+ */
+final class SynchronizedMethodPlan {
+    /**
+     * The parameter index of method-level @Synchronized annotations, which don't have a synchronized parameter.
+     */
+    public static final int NO_PARAMETER = -1;
+
+    private final int parameterIndex;
+    private final Synchronized annotation;
+    private final String lockName;
+    private final LockRegistry<Object> lockRegistry;
+    private final PositiveDuration timeoutDuration;
+    private final LockKeyExtractor keyExtractor;
+    private final boolean async;
+    private final AsyncLockRegistry<Object> asyncLockRegistry;
+    private final LockProbe<Object> lockProbe;
+    private final Object skippedResult;
+    private final SingleFlight singleFlight;
+    private final FlatCombiner combiner;
+
+    public SynchronizedMethodPlan(final int parameterIndex, final Synchronized annotation,
+            final LockRegistry<Object> lockRegistry, final PositiveDuration timeoutDuration,
+            final LockKeyExtractor keyExtractor) {
+        this(parameterIndex, annotation, lockRegistry, timeoutDuration, keyExtractor, Object.class);
+    }
+
+    /**
+     * @param returnType
+     *            - the method's return type. If it's a ListenableFuture, the lock is held until the future is done.
+     */
+    public SynchronizedMethodPlan(final int parameterIndex, final Synchronized annotation,
+            final LockRegistry<Object> lockRegistry, final PositiveDuration timeoutDuration,
+            final LockKeyExtractor keyExtractor, final Class<?> returnType) {
+        this(parameterIndex, annotation, lockRegistry, timeoutDuration, keyExtractor, returnType, null);
+    }
+
+    /**
+     * @param combiner
+     *            - (nullable) combines the calls of a @Synchronized(combineWith) method into batches
+     */
+    @SuppressWarnings("unchecked")
+    public SynchronizedMethodPlan(final int parameterIndex, final Synchronized annotation,
+            final LockRegistry<Object> lockRegistry, final PositiveDuration timeoutDuration,
+            final LockKeyExtractor keyExtractor, final Class<?> returnType, final FlatCombiner combiner) {
+        Preconditions.checkArgument(parameterIndex >= NO_PARAMETER, "Parameter index out of range: %s", parameterIndex);
+        Preconditions.checkArgument(annotation != null, "Undefined @Synchronized annotation.");
+        Preconditions.checkArgument(lockRegistry != null, "Undefined lock registry.");
+        Preconditions.checkArgument(timeoutDuration != null, "Undefined timeout duration.");
+        Preconditions.checkArgument(keyExtractor != null, "Undefined lock key extractor.");
+        Preconditions.checkArgument(returnType != null, "Undefined return type.");
+
+        this.parameterIndex = parameterIndex;
+        this.annotation = annotation;
+        lockName = annotation.value();
+        this.lockRegistry = lockRegistry;
+        this.timeoutDuration = timeoutDuration;
+        this.keyExtractor = keyExtractor;
+        async = ListenableFuture.class.isAssignableFrom(returnType);
+        asyncLockRegistry = async && lockRegistry instanceof AsyncLockRegistry
+                ? (AsyncLockRegistry<Object>) lockRegistry : null;
+        lockProbe = annotation.skipIfLocked() && lockRegistry instanceof LockProbe
+                ? (LockProbe<Object>) lockRegistry : null;
+        skippedResult = async ? Futures.immediateFuture(null) : Defaults.defaultValue(returnType);
+        singleFlight = annotation.singleFlight() ? new SingleFlight() : null;
+        this.combiner = combiner;
+    }
+
+    public int getParameterIndex() {
+        return parameterIndex;
+    }
+
+    public Synchronized getAnnotation() {
+        return annotation;
+    }
+
+    public String getLockName() {
+        return lockName;
+    }
+
+    public LockRegistry<Object> getLockRegistry() {
+        return lockRegistry;
+    }
+
+    public PositiveDuration getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * @return the lock registry, if the method is async, and the lock registry can lock without a thread, or null
+     */
+    public AsyncLockRegistry<Object> getAsyncLockRegistry() {
+        return asyncLockRegistry;
+    }
+
+    public boolean isSkipIfLocked() {
+        return annotation.skipIfLocked();
+    }
+
+    /**
+     * @return how long to wait for the lock: the timeout, or 0, if the method is skipped when it's locked
+     */
+    public long getWaitMillis() {
+        return annotation.skipIfLocked() ? 0 : timeoutDuration.getMillis();
+    }
+
+    /**
+     * @return true if the lock registry can tell that the key is locked, without trying to lock it, so a method that's
+     *         skipped when it's locked can be skipped right away
+     */
+    public boolean isProbablyLocked(final Object lockKey) {
+        return lockProbe != null && lockProbe.isLocked(lockKey);
+    }
+
+    /**
+     * @return what a skipped method returns: null, or the default value of a primitive, or a future of null
+     */
+    public Object getSkippedResult() {
+        return skippedResult;
+    }
+
+    /**
+     * @return the calls in flight of a single-flight method, or null, if its calls aren't collapsed
+     */
+    public SingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * @return the flat combiner of a @Synchronized(combineWith) method, or null, if its calls aren't combined
+     */
+    public FlatCombiner getCombiner() {
+        return combiner;
+    }
+
+    public Object getLockKey(final Object[] args) {
+        Preconditions.checkArgument(args != null, "Undefined method args.");
+        Preconditions.checkArgument(args.length > parameterIndex,
+                "Arguments array doesn't match method signature. @Synchronized parameter index out of bounds.");
+        return keyExtractor.getLockKey(args);
+    }
+
+    @Override
+    public String toString() {
+        return "SynchronizedMethodPlan [parameterIndex=" + parameterIndex + ", lockName=" + lockName
+                + ", timeoutDuration=" + timeoutDuration + ", async=" + async + "]";
+    }
+}
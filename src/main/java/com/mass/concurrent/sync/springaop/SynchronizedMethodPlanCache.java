@@ -0,0 +1,57 @@
+package com.mass.concurrent.sync.springaop;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+/**
+ * Resolved synchronization plans, indexed by join point signature method, and then by target class. The same signature
+ * method can resolve to different plans, on different implementations of the same interface.
+ *
+ * @author kmassaroni
+ * @param <P>
+ *            - the plan type, like SynchronizedMethodPlan
+ */
+class SynchronizedMethodPlanCache<P> {
+    private final ConcurrentMap<Method, ConcurrentMap<Class<?>, P>> plans = Maps.newConcurrentMap();
+
+    /**
+     * @return null if there's no plan for this method yet
+     */
+    public P get(final Method signatureMethod, final Class<?> targetClass) {
+        final ConcurrentMap<Class<?>, P> targetPlans = plans.get(signatureMethod);
+        return targetPlans == null ? null : targetPlans.get(targetClass);
+    }
+
+    /**
+     * @return the plan that's already cached for this method, or the given plan, if there wasn't one already
+     */
+    public P putIfAbsent(final Method signatureMethod, final Class<?> targetClass, final P plan) {
+        Preconditions.checkArgument(signatureMethod != null, "Undefined signature method.");
+        Preconditions.checkArgument(targetClass != null, "Undefined target class.");
+        Preconditions.checkArgument(plan != null, "Undefined synchronized method plan.");
+
+        ConcurrentMap<Class<?>, P> targetPlans = plans.get(signatureMethod);
+
+        if (targetPlans == null) {
+            final ConcurrentMap<Class<?>, P> newTargetPlans = Maps.newConcurrentMap();
+            targetPlans = plans.putIfAbsent(signatureMethod, newTargetPlans);
+            if (targetPlans == null) {
+                targetPlans = newTargetPlans;
+            }
+        }
+
+        final P existing = targetPlans.putIfAbsent(targetClass, plan);
+        return existing == null ? plan : existing;
+    }
+
+    public int size() {
+        int size = 0;
+        for (final ConcurrentMap<Class<?>, P> targetPlans : plans.values()) {
+            size += targetPlans.size();
+        }
+        return size;
+    }
+}
@@ -6,22 +6,23 @@ import static org.apache.commons.lang.StringUtils.isBlank;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.ObjectUtils;
 import org.aspectj.lang.ProceedingJoinPoint;
 import org.joda.time.Duration;
-import org.springframework.expression.EvaluationContext;
-import org.springframework.expression.Expression;
-import org.springframework.expression.ExpressionParser;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
-import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.core.BridgeMethodResolver;
+import org.springframework.core.annotation.AnnotationUtils;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.mass.core.PositiveDuration;
 import com.mass.lang.MethodParameterAnnotation;
+import com.mass.util.HasParameterAnnotationPredicate;
 import com.mass.util.ReflectionUtils;
 
 public final class SynchronizedMethodUtils {
@@ -37,16 +38,29 @@ public final class SynchronizedMethodUtils {
             return synchronizedArgument;
         }
 
-        final ExpressionParser parser = new SpelExpressionParser();
-        final Expression exp = parser.parseExpression(keyExpression);
-        final EvaluationContext context = new StandardEvaluationContext(synchronizedArgument);
-
-        return exp.getValue(context);
+        return LockKeyExpressions.forExpression(keyExpression).getValue(synchronizedArgument);
     }
 
     public static Annotation getMethodLevelSynchronizedAnnotation(final ProceedingJoinPoint joinPoint) {
         final Method ifaceMethod = ReflectionUtils.getSignatureMethod(joinPoint);
-        final Method targetMethod = ReflectionUtils.getTargetMethod(joinPoint);
+        Preconditions.checkArgument(ifaceMethod != null, "Can't read methods in join point: %s", joinPoint);
+        Preconditions.checkArgument(joinPoint.getTarget() != null, "Undefined proxy target in join point.");
+        return getMethodLevelSynchronizedAnnotation(joinPoint.getTarget().getClass(), ifaceMethod);
+    }
+
+    /**
+     * Get the method level @Synchronized annotation of the target class method, or of the signature method, if the
+     * target class method isn't annotated.
+     * 
+     * @param targetClass
+     * @param signatureMethod
+     * @return
+     */
+    public static Annotation getMethodLevelSynchronizedAnnotation(final Class<?> targetClass,
+            final Method signatureMethod) {
+        Preconditions.checkArgument(signatureMethod != null, "Undefined signature method.");
+        final Method ifaceMethod = BridgeMethodResolver.findBridgedMethod(signatureMethod);
+        final Method targetMethod = ReflectionUtils.getTargetMethod(targetClass, ifaceMethod);
 
         if (targetMethod != null) {
             final Annotation annotation = getMethodLevelSynchronizedAnnotation(targetMethod);
@@ -55,7 +69,6 @@ public final class SynchronizedMethodUtils {
             }
         }
 
-        Preconditions.checkArgument(ifaceMethod != null, "Can't read methods in join point: %s", joinPoint);
         return getMethodLevelSynchronizedAnnotation(ifaceMethod);
     }
 
@@ -63,57 +76,178 @@ public final class SynchronizedMethodUtils {
         return method.getAnnotation(Synchronized.class);
     }
 
+    /**
+     * @return the return type of the target class method, which may be narrower than the signature method's
+     */
+    public static Class<?> getReturnType(final Class<?> targetClass, final Method signatureMethod) {
+        Preconditions.checkArgument(signatureMethod != null, "Undefined signature method.");
+        final Method ifaceMethod = BridgeMethodResolver.findBridgedMethod(signatureMethod);
+        final Method targetMethod = ReflectionUtils.getTargetMethod(targetClass, ifaceMethod);
+        return targetMethod != null ? targetMethod.getReturnType() : ifaceMethod.getReturnType();
+    }
+
+    /**
+     * Find the batch method that the calls of a @Synchronized(combineWith) method are combined into: the public method
+     * of the target class with that name, and the same number of parameters, that takes the lock key argument at the
+     * same index, and a List at every other index. The lists hold the arguments of each combined call, in order.
+     * 
+     * @param keyIndex
+     *            - the index of the @Synchronized parameter
+     * @throws IllegalArgumentException
+     *             if there's no such method
+     */
+    public static Method getBatchMethod(final Class<?> targetClass, final Method signatureMethod, final String name,
+            final int keyIndex) {
+        Preconditions.checkArgument(targetClass != null, "Undefined target class.");
+        Preconditions.checkArgument(signatureMethod != null, "Undefined signature method.");
+        final Class<?>[] parameterTypes = signatureMethod.getParameterTypes();
+
+        for (final Method method : targetClass.getMethods()) {
+            if (!method.getName().equals(name) || method.getParameterTypes().length != parameterTypes.length) {
+                continue;
+            }
+
+            boolean matches = true;
+
+            for (int i = 0; i < parameterTypes.length && matches; i++) {
+                final Class<?> batchType = method.getParameterTypes()[i];
+                matches = i == keyIndex ? batchType.isAssignableFrom(parameterTypes[i])
+                        : batchType.isAssignableFrom(List.class);
+            }
+
+            if (matches) {
+                return method;
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("Can't find batch method %s of %s, for %s", name,
+                targetClass.getName(), signatureMethod));
+    }
+
     public static MethodParameterAnnotation getSynchronizedAnnotation(final ProceedingJoinPoint joinPoint) {
-        final Method ifaceMethod = ReflectionUtils.getSynchronizedSignatureMethod(joinPoint);
-        final Method targetMethod = ReflectionUtils.getSynchronizedTargetMethod(joinPoint);
+        Preconditions.checkArgument(joinPoint != null, "Undefined join point.");
+        Preconditions.checkArgument(joinPoint.getTarget() != null, "Undefined proxy target in join point.");
+        final Method signatureMethod = ReflectionUtils.getSignatureMethod(joinPoint);
+        return getSynchronizedAnnotation(joinPoint.getTarget().getClass(), signatureMethod);
+    }
+
+    /**
+     * Find the @Synchronized parameter of a method, on the target class, or on the signature method that it implements,
+     * and make sure that they don't contradict each other.
+     * 
+     * @param targetClass
+     * @param signatureMethod
+     * @return
+     */
+    public static MethodParameterAnnotation getSynchronizedAnnotation(final Class<?> targetClass,
+            final Method signatureMethod) {
+        return getParameterAnnotation(targetClass, signatureMethod, Synchronized.class);
+    }
+
+    /**
+     * Find all the @Synchronized parameters of a method, for a method that locks several keys, in parameter order.
+     * 
+     * @return an empty list if the method has no @Synchronized parameters
+     */
+    public static List<MethodParameterAnnotation> getSynchronizedAnnotations(final Class<?> targetClass,
+            final Method signatureMethod) {
+        return getParameterAnnotations(targetClass, signatureMethod, Synchronized.class);
+    }
+
+    /**
+     * Find the parameter with this lock annotation, like @Synchronized or @SynchronizedRead, on the target class
+     * method, or on the signature method that it implements, and make sure that they don't contradict each other. The
+     * annotation type needs a value() with the lock registry name, and a timeoutDuration().
+     * 
+     * @param targetClass
+     * @param signatureMethod
+     * @param annotationType
+     * @return
+     */
+    public static MethodParameterAnnotation getParameterAnnotation(final Class<?> targetClass,
+            final Method signatureMethod, final Class<? extends Annotation> annotationType) {
+        final List<MethodParameterAnnotation> annotations = getParameterAnnotations(targetClass, signatureMethod,
+                annotationType);
+        Preconditions.checkArgument(annotations.size() == 1,
+                "Expected exactly one parameter with a @%s annotation, but found %s, on method %s.",
+                annotationType.getSimpleName(), annotations.size(), signatureMethod.toGenericString());
+        return annotations.get(0);
+    }
+
+    /**
+     * Like getParameterAnnotation, for all the parameters with this lock annotation. The target class method and the
+     * signature method have to annotate the same parameters.
+     */
+    public static List<MethodParameterAnnotation> getParameterAnnotations(final Class<?> targetClass,
+            final Method signatureMethod, final Class<? extends Annotation> annotationType) {
+        Preconditions.checkArgument(signatureMethod != null, "Undefined signature method.");
+        Preconditions.checkArgument(annotationType != null, "Undefined annotation type.");
+        final String name = annotationType.getSimpleName();
+        final Method bridgedMethod = BridgeMethodResolver.findBridgedMethod(signatureMethod);
+        final boolean annotatedIface = new HasParameterAnnotationPredicate(annotationType).apply(bridgedMethod);
+        final Method ifaceMethod = annotatedIface ? bridgedMethod : null;
+        final Method targetMethod = ReflectionUtils
+                .getAnnotatedTargetMethod(targetClass, bridgedMethod, annotationType);
 
         if (ifaceMethod == null) {
-            Preconditions.checkArgument(targetMethod != null,
-                    "No @Synchronized annotation on interface or override method.");
-            return getSynchronizedAnnotation(targetMethod);
+            Preconditions.checkArgument(targetMethod != null, "No @%s annotation on interface or override method.",
+                    name);
+            return getParameterAnnotations(targetMethod, annotationType);
         }
 
         if (targetMethod == null) {
-            Preconditions.checkArgument(ifaceMethod != null,
-                    "No @Synchronized annotation on interface or override method.");
-            return getSynchronizedAnnotation(ifaceMethod);
+            return getParameterAnnotations(ifaceMethod, annotationType);
         }
 
-        final MethodParameterAnnotation ifaceAnnotation = getSynchronizedAnnotation(ifaceMethod);
-        Preconditions.checkState(ifaceAnnotation != null, "Can't find @Synchronized annotation on iface method: %s",
+        final List<MethodParameterAnnotation> ifaceAnnotations = getParameterAnnotations(ifaceMethod, annotationType);
+        Preconditions.checkState(!ifaceAnnotations.isEmpty(), "Can't find @%s annotation on iface method: %s", name,
                 ifaceMethod);
 
         if (ifaceMethod.equals(targetMethod)) {
-            return ifaceAnnotation;
+            return ifaceAnnotations;
         }
 
-        final MethodParameterAnnotation targetAnnotation = getSynchronizedAnnotation(targetMethod);
-        Preconditions.checkState(targetAnnotation != null, "Can't find @Synchronized annotation on target method: %s",
+        final List<MethodParameterAnnotation> targetAnnotations = getParameterAnnotations(targetMethod,
+                annotationType);
+        Preconditions.checkState(!targetAnnotations.isEmpty(), "Can't find @%s annotation on target method: %s", name,
                 targetMethod);
 
-        if (!equivalentSynchronizedAnnotations(targetAnnotation, ifaceAnnotation)) {
-            final String msg = String.format(
-                    "Mismatching @Synchronized annotations on interface and implementation methods: %s %s",
-                    ifaceMethod.toGenericString(), targetMethod.toGenericString());
-            throw new MismatchingSynchronizedAnnotationsException(msg);
+        if (targetAnnotations.size() != ifaceAnnotations.size()) {
+            throw new MismatchingSynchronizedAnnotationsException(mismatchMessage(name, ifaceMethod, targetMethod));
         }
 
-        if (hasTimeoutConfig(targetAnnotation)) {
-            return targetAnnotation;
+        final List<MethodParameterAnnotation> annotations = Lists.newArrayListWithCapacity(ifaceAnnotations.size());
+
+        for (int i = 0; i < ifaceAnnotations.size(); i++) {
+            final MethodParameterAnnotation targetAnnotation = targetAnnotations.get(i);
+
+            if (!equivalentLockAnnotations(targetAnnotation, ifaceAnnotations.get(i))) {
+                throw new MismatchingSynchronizedAnnotationsException(mismatchMessage(name, ifaceMethod,
+                        targetMethod));
+            }
+
+            annotations.add(hasTimeoutConfig(targetAnnotation.getAnnotation()) ? targetAnnotation : ifaceAnnotations
+                    .get(i));
         }
 
-        return ifaceAnnotation;
+        return annotations;
     }
 
-    private static boolean hasTimeoutConfig(final MethodParameterAnnotation annotation) {
-        return hasTimeoutConfig(annotation.getAnnotation());
+    private static String mismatchMessage(final String name, final Method ifaceMethod, final Method targetMethod) {
+        return String.format("Mismatching @%s annotations on interface and implementation methods: %s %s", name,
+                ifaceMethod.toGenericString(), targetMethod.toGenericString());
     }
 
     private static boolean hasTimeoutConfig(final Annotation annotation) {
-        Preconditions.checkArgument(annotation != null, "Undefined @Synchronized annotation.");
-        Preconditions.checkArgument(annotation instanceof Synchronized,
-                "Expected @Synchronized annotation, but was %s", annotation);
-        return hasTimeoutConfig(Synchronized.class.cast(annotation));
+        Preconditions.checkArgument(annotation != null, "Undefined lock annotation.");
+
+        if (annotation instanceof Synchronized) {
+            return hasTimeoutConfig(Synchronized.class.cast(annotation));
+        }
+
+        final Object timeout = AnnotationUtils.getValue(annotation, "timeoutDuration");
+        Preconditions.checkArgument(timeout instanceof Long, "Expected a lock annotation, but was %s", annotation);
+        return (Long) timeout > 0;
     }
 
     public static boolean hasTimeoutConfig(final Synchronized annotation) {
@@ -127,7 +261,7 @@ public final class SynchronizedMethodUtils {
      * @param rhs
      * @return
      */
-    private static boolean equivalentSynchronizedAnnotations(final MethodParameterAnnotation lhs,
+    private static boolean equivalentLockAnnotations(final MethodParameterAnnotation lhs,
             final MethodParameterAnnotation rhs) {
         Preconditions.checkArgument(lhs != null);
         Preconditions.checkArgument(rhs != null);
@@ -139,48 +273,56 @@ public final class SynchronizedMethodUtils {
         final Annotation lhsAnnotation = lhs.getAnnotation();
         final Annotation rhsAnnotation = rhs.getAnnotation();
 
-        Preconditions.checkArgument(lhsAnnotation instanceof Synchronized,
-                "Expected lhs Synchronized annotation, but was %s", lhsAnnotation);
-        Preconditions.checkArgument(rhsAnnotation instanceof Synchronized,
-                "Expected Synchronized annotation, but was %s", rhsAnnotation);
-
-        final Synchronized lhsSynchronized = Synchronized.class.cast(lhsAnnotation);
-        final Synchronized rhsSynchronized = Synchronized.class.cast(rhsAnnotation);
+        Preconditions.checkArgument(lhsAnnotation != null, "Undefined lhs lock annotation.");
+        Preconditions.checkArgument(rhsAnnotation != null, "Undefined rhs lock annotation.");
+        Preconditions.checkArgument(lhsAnnotation.annotationType().equals(rhsAnnotation.annotationType()),
+                "Expected %s annotation, but was %s", lhsAnnotation.annotationType(), rhsAnnotation);
 
-        return ObjectUtils.equals(lhsSynchronized.value(), rhsSynchronized.value());
+        return ObjectUtils.equals(AnnotationUtils.getValue(lhsAnnotation), AnnotationUtils.getValue(rhsAnnotation));
     }
 
-    private static MethodParameterAnnotation getSynchronizedAnnotation(final Method method) {
+    /**
+     * @return the parameters of this method with this annotation, in parameter order
+     */
+    private static List<MethodParameterAnnotation> getParameterAnnotations(final Method method,
+            final Class<? extends Annotation> annotationType) {
         final Multimap<Class<? extends Annotation>, MethodParameterAnnotation> annotations = ReflectionUtils
                 .getMethodParameterAnnotations(method);
-        final Collection<MethodParameterAnnotation> syncAnnotations = annotations.get(Synchronized.class);
+        final Collection<MethodParameterAnnotation> syncAnnotations = annotations.get(annotationType);
 
         if (CollectionUtils.isEmpty(syncAnnotations)) {
-            return null;
+            return Collections.emptyList();
         }
 
-        Preconditions.checkArgument(syncAnnotations.size() == 1,
-                "Expected exactly one parameter with a @Synchronized annotation, but found %s, on method %s.",
-                syncAnnotations.size(), method.toGenericString());
-
-        return Iterables.getOnlyElement(syncAnnotations);
+        // they're indexed in parameter order
+        return Lists.newArrayList(syncAnnotations);
     }
 
-    public static PositiveDuration toTimeoutDuration(final Synchronized annotation) {
-        if (annotation == null) {
-            return null;
-        }
-
-        final long timeout = annotation.timeoutDuration();
-
+    /**
+     * Convert the timeout configuration of a lock annotation, like @Synchronized or @SynchronizedRead.
+     * 
+     * @param timeout
+     *            - -1 if the annotation has no timeout configuration
+     * @return null if the annotation has no timeout configuration
+     */
+    public static PositiveDuration toTimeoutDuration(final long timeout, final TimeUnit units,
+            final Annotation annotation) {
         if (timeout == -1) {
             return null;
         }
 
         checkArgument(timeout > 0, "Timeout duration out of range: %s, %s", timeout, annotation);
 
-        final long timeoutMillis = annotation.timeoutUnits().toMillis(timeout);
+        final long timeoutMillis = units.toMillis(timeout);
         return new PositiveDuration(Duration.millis(timeoutMillis));
     }
 
+    public static PositiveDuration toTimeoutDuration(final Synchronized annotation) {
+        if (annotation == null) {
+            return null;
+        }
+
+        return toTimeoutDuration(annotation.timeoutDuration(), annotation.timeoutUnits(), annotation);
+    }
+
 }
@@ -0,0 +1,42 @@
+package com.mass.concurrent.sync.springaop;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mark method parameters used as shared read lock keys. Any number of @SynchronizedRead methods can run on the same key
+ * at once, in this process and in others, but never while a @SynchronizedWrite method holds that key. The lock registry
+ * is configured the same way as a @Synchronized lock registry, but read/write locks are separate from the exclusive
+ * locks of @Synchronized methods, so they don't exclude each other, even on the same registry and key. Zookeeper
+ * read/write locks don't take the lock registry's tuning options, like cohort or lean locks, or hash buckets. See the
+ * SynchronizerLockRegistryConfiguration.
+ * 
+ * @author kmassaroni
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface SynchronizedRead {
+
+    /**
+     * The name of the lock registry to use.
+     */
+    String value();
+
+    /**
+     * Timeout duration takes effect when it's set to a positive value.
+     */
+    long timeoutDuration() default -1;
+
+    TimeUnit timeoutUnits() default TimeUnit.DAYS;
+
+    /**
+     * Spring expression language that evaluates to the target lock key. The synchronized method argument is the root
+     * object in the evaluation context.
+     * 
+     * @return
+     */
+    String key() default "";
+}
@@ -0,0 +1,86 @@
+package com.mass.concurrent.sync.springaop;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.ReadWriteLockRegistry;
+import com.mass.core.PositiveDuration;
+
+/**
+ * Like a SynchronizedMethodPlan, for a method with a @SynchronizedRead or @SynchronizedWrite parameter.
+ *
+ * @author kmassaroni
+ */
+final class SynchronizedReadWritePlan {
+    private final int parameterIndex;
+    private final String lockName;
+    private final boolean write;
+    private final ReadWriteLockRegistry<Object> lockRegistry;
+    private final PositiveDuration timeoutDuration;
+    private final LockKeyExtractor keyExtractor;
+
+    /**
+     * @param write
+     *            - take the write lock of the key, instead of the read lock
+     */
+    public SynchronizedReadWritePlan(final int parameterIndex, final String lockName, final boolean write,
+            final ReadWriteLockRegistry<Object> lockRegistry, final PositiveDuration timeoutDuration,
+            final LockKeyExtractor keyExtractor) {
+        Preconditions.checkArgument(parameterIndex >= 0, "Parameter index out of range: %s", parameterIndex);
+        Preconditions.checkArgument(lockName != null, "Undefined lock name.");
+        Preconditions.checkArgument(lockRegistry != null, "Undefined read/write lock registry.");
+        Preconditions.checkArgument(timeoutDuration != null, "Undefined timeout duration.");
+        Preconditions.checkArgument(keyExtractor != null, "Undefined lock key extractor.");
+
+        this.parameterIndex = parameterIndex;
+        this.lockName = lockName;
+        this.write = write;
+        this.lockRegistry = lockRegistry;
+        this.timeoutDuration = timeoutDuration;
+        this.keyExtractor = keyExtractor;
+    }
+
+    public int getParameterIndex() {
+        return parameterIndex;
+    }
+
+    public String getLockName() {
+        return lockName;
+    }
+
+    public boolean isWrite() {
+        return write;
+    }
+
+    public ReadWriteLockRegistry<Object> getLockRegistry() {
+        return lockRegistry;
+    }
+
+    public PositiveDuration getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    public Object getLockKey(final Object[] args) {
+        Preconditions.checkArgument(args != null, "Undefined method args.");
+        Preconditions.checkArgument(args.length > parameterIndex,
+                "Arguments array doesn't match method signature. Lock parameter index out of bounds.");
+        return keyExtractor.getLockKey(args);
+    }
+
+    /**
+     * @return the read or write lock of this key, depending on the annotation
+     */
+    public Lock getLock(final Object lockKey) {
+        final ReadWriteLock lock = lockRegistry.getReadWriteLock(lockKey);
+        Preconditions.checkState(lock != null, "Can't get read/write lock for registry %s, for key %s", lockName,
+                lockKey);
+        return write ? lock.writeLock() : lock.readLock();
+    }
+
+    @Override
+    public String toString() {
+        return "SynchronizedReadWritePlan [parameterIndex=" + parameterIndex + ", lockName=" + lockName + ", write="
+                + write + ", timeoutDuration=" + timeoutDuration + "]";
+    }
+}
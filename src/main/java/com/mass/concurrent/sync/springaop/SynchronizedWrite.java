@@ -0,0 +1,40 @@
+package com.mass.concurrent.sync.springaop;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mark method parameters used as exclusive write lock keys. A @SynchronizedWrite method excludes every other method
+ * with a @SynchronizedWrite or @SynchronizedRead parameter on the same key, in this process and in others. The lock
+ * registry is configured the same way as a @Synchronized lock registry, but read/write locks are separate from the
+ * exclusive locks of @Synchronized methods, so they don't exclude each other, even on the same registry and key.
+ * 
+ * @author kmassaroni
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.PARAMETER)
+public @interface SynchronizedWrite {
+
+    /**
+     * The name of the lock registry to use.
+     */
+    String value();
+
+    /**
+     * Timeout duration takes effect when it's set to a positive value.
+     */
+    long timeoutDuration() default -1;
+
+    TimeUnit timeoutUnits() default TimeUnit.DAYS;
+
+    /**
+     * Spring expression language that evaluates to the target lock key. The synchronized method argument is the root
+     * object in the evaluation context.
+     * 
+     * @return
+     */
+    String key() default "";
+}
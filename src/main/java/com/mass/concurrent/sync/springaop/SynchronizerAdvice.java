@@ -5,8 +5,14 @@ import static com.mass.concurrent.sync.springaop.config.SynchronizerConfiguratio
 import static java.lang.String.format;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
@@ -15,23 +21,62 @@ import org.aspectj.lang.ProceedingJoinPoint;
 import org.aspectj.lang.annotation.Around;
 import org.aspectj.lang.annotation.Aspect;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.BridgeMethodResolver;
 import org.springframework.core.annotation.Order;
+import org.springframework.util.ClassUtils;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.mass.concurrent.AsyncLockRegistry;
+import com.mass.concurrent.DetachableLock;
+import com.mass.concurrent.LockHandle;
 import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.ReadWriteLockRegistry;
+import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
 import com.mass.concurrent.sync.keyfactories.StringLockKeyFactory;
+import com.mass.concurrent.sync.springaop.SynchronizedKeysPlan.PlannedKey;
 import com.mass.concurrent.sync.springaop.config.SynchronizerConfiguration;
 import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
 import com.mass.concurrent.sync.zookeeper.LockRegistryFactory;
 import com.mass.core.PositiveDuration;
 import com.mass.lang.MethodParameterAnnotation;
+import com.mass.util.HasParameterAnnotationPredicate;
+import com.mass.util.ReflectionUtils;
 
 /**
  * Proxy method calls with a @Synchronized parameter. This wraps their method calls in a best-effort interprocess lock.
- * This synchronizes methods that share resources across process boundaries.
+ * This synchronizes methods that share resources across process boundaries. Methods with a @SynchronizedRead
+ * parameter, or a @SynchronizedWrite parameter, get the read or write lock of their key, from the read/write locks of
+ * the same named lock registry. The annotations, lock registry and timeout of each advised method are resolved on its
+ * first call, and cached per target class, in a SynchronizedMethodPlan.
+ * <p>
+ * A @Synchronized method that returns a ListenableFuture holds its lock until the future is done, instead of until
+ * it returns, without a thread waiting on the future. Lock registries that can lock without a thread, like the
+ * zookeeper lock registries, hand out a lock handle for it. Otherwise the lock is detached from the calling thread, if
+ * it's a DetachableLock, like the locks of the local lock registries. A lock that's already held by the calling thread,
+ * or that can't be detached, is released when the method returns, like before. A thread that already holds the lock
+ * reenters it, instead of waiting for a lock handle behind itself, and a best-effort lock registry that can't hand out
+ * a lock handle falls back on the lock.
+ * <p>
+ * A method with @Synchronized(skipIfLocked = true) never waits for its lock. If the lock registry is a LockProbe, it
+ * checks if the key is locked first, which is cheaper than a failed attempt to lock it.
+ * <p>
+ * The calls of a @Synchronized(singleFlight = true) method are collapsed by lock key, in a SingleFlight of its plan,
+ * before they get to the lock. The calls of a @Synchronized(combineWith) method are combined into batches by a
+ * FlatCombiner instead, which takes the lock once for each batch.
+ * <p>
+ * A method can have several @Synchronized parameters, maybe in different lock registries, and a @Synchronized
+ * Collection or array parameter locks each of its elements. All the keys of a call are locked up front, in the
+ * canonical order of their SynchronizedKeysPlan, so methods that lock the same keys can't deadlock each other. Keys
+ * in the same BulkLockRegistry are locked together instead. Methods that lock several keys hold them until they
+ * return, even if they return a ListenableFuture.
  * 
  * @author kmassaroni
  */
@@ -40,10 +85,47 @@ import com.mass.lang.MethodParameterAnnotation;
 public class SynchronizerAdvice {
     private static final Log log = LogFactory.getLog(SynchronizerAdvice.class);
     private static String METHOD_KEYLESS_LOCK_REGISTRY_NAME = "SYNCHRONIZER_KEYLESS_LOCKS";
+    private static final HasParameterAnnotationPredicate hasSynchronizedParameter = new HasParameterAnnotationPredicate(
+            Synchronized.class);
+    private static final HasParameterAnnotationPredicate hasReadParameter = new HasParameterAnnotationPredicate(
+            SynchronizedRead.class);
+    private static final HasParameterAnnotationPredicate hasWriteParameter = new HasParameterAnnotationPredicate(
+            SynchronizedWrite.class);
+
+    // releases a lock handle that was acquired after its caller gave up on it
+    private static final FutureCallback<LockHandle> releaseHandle = new FutureCallback<LockHandle>() {
+        @Override
+        public void onSuccess(final LockHandle handle) {
+            handle.release();
+        }
+
+        @Override
+        public void onFailure(final Throwable failure) {
+        }
+    };
+
+    // what acquireHandle returns when the caller falls back on the reentrant lock of the key
+    private static final LockHandle NO_HANDLE = new LockHandle() {
+        @Override
+        public void release() {
+        }
+    };
 
     private final ImmutableMap<String, LockRegistry<Object>> lockRegistries;
+    private final ImmutableMap<String, SynchronizerLockRegistryConfiguration> lockDefinitions;
+    private final LockRegistryFactory factory;
+    private final ConcurrentMap<String, ReadWriteLockRegistry<Object>> readWriteLockRegistries = Maps
+            .newConcurrentMap();
     private final PositiveDuration globalTimeoutDuration;
     private final LockRegistry<Object> keylessLocks;
+    private final SynchronizedMethodPlanCache<SynchronizedMethodPlan> keylessPlans =
+            new SynchronizedMethodPlanCache<SynchronizedMethodPlan>();
+    private final SynchronizedMethodPlanCache<SynchronizedKeysPlan> argumentPlans =
+            new SynchronizedMethodPlanCache<SynchronizedKeysPlan>();
+    private final SynchronizedMethodPlanCache<SynchronizedReadWritePlan> readPlans =
+            new SynchronizedMethodPlanCache<SynchronizedReadWritePlan>();
+    private final SynchronizedMethodPlanCache<SynchronizedReadWritePlan> writePlans =
+            new SynchronizedMethodPlanCache<SynchronizedReadWritePlan>();
 
     public SynchronizerAdvice(final SynchronizerLockRegistryConfiguration[] locks, final LockRegistryFactory factory) {
         this(locks, factory, null);
@@ -53,6 +135,7 @@ public class SynchronizerAdvice {
     public SynchronizerAdvice(final SynchronizerLockRegistryConfiguration[] locks, final LockRegistryFactory factory,
             final SynchronizerConfiguration globalConfig) {
         Preconditions.checkArgument(factory != null, "Undefined lock registry factory.");
+        this.factory = factory;
 
         globalTimeoutDuration = globalConfig == null ? defaultTimeoutDuration : globalConfig.getGlobalTimeoutDuration();
         Preconditions.checkArgument(globalTimeoutDuration != null, "Undefined global timeout duration.");
@@ -61,8 +144,10 @@ public class SynchronizerAdvice {
 
         if (locks == null) {
             lockRegistries = buildRegistries(new SynchronizerLockRegistryConfiguration[] {}, factory);
+            lockDefinitions = ImmutableMap.of();
         } else {
             lockRegistries = buildRegistries(locks, factory);
+            lockDefinitions = indexDefinitions(locks);
         }
 
         keylessLocks = lockRegistries.get(METHOD_KEYLESS_LOCK_REGISTRY_NAME);
@@ -71,27 +156,67 @@ public class SynchronizerAdvice {
 
     @Around("execution(@com.mass.concurrent.sync.springaop.Synchronized * *(..))")
     public Object synchronizeMethod(final ProceedingJoinPoint joinPoint) throws Throwable {
-        final Annotation annotation = SynchronizedMethodUtils.getMethodLevelSynchronizedAnnotation(joinPoint);
-        Preconditions.checkArgument(annotation != null, "Can't find @Synchronized annotation in %s", joinPoint);
-        final Synchronized sync = Synchronized.class.cast(annotation);
-        final String lockName = sync.value();
+        final SynchronizedMethodPlan plan = getKeylessPlan(joinPoint);
 
-        final ReentrantLock lock = keylessLocks.getLock(lockName);
-        Preconditions.checkState(lock != null, "Can't get interprocess lock for keyless registry %s", lockName);
+        if (plan.getSingleFlight() == null) {
+            return synchronizeKeyless(joinPoint, plan);
+        }
 
-        final PositiveDuration timeoutDuration = getTimeoutDuration(sync, keylessLocks);
-        Preconditions.checkArgument(timeoutDuration != null, "Undefined timeout duration for keyless lock %s.",
-                lockName);
+        return plan.getSingleFlight().call(plan.getLockName(), new SingleFlight.Call() {
+            @Override
+            public Object call() throws Throwable {
+                return synchronizeKeyless(joinPoint, plan);
+            }
+        });
+    }
+
+    private Object synchronizeKeyless(final ProceedingJoinPoint joinPoint, final SynchronizedMethodPlan plan)
+            throws Throwable {
+        final String lockName = plan.getLockName();
+
+        if (plan.isSkipIfLocked() && plan.isProbablyLocked(lockName)) {
+            return skip(plan, lockName);
+        }
 
         if (log.isTraceEnabled()) {
             log.trace("Locking keyless " + lockName);
         }
 
-        if (!lock.tryLock(timeoutDuration.getMillis(), TimeUnit.MILLISECONDS)) {
+        final ReentrantLock lock = keylessLocks.getLock(lockName);
+        Preconditions.checkState(lock != null, "Can't get interprocess lock for keyless registry %s", lockName);
+
+        // a thread that already holds the lock reenters it, instead of waiting for a lock handle behind itself
+        if (plan.getAsyncLockRegistry() != null && lock.getHoldCount() == 0) {
+            final LockHandle handle = acquireHandle(plan.getAsyncLockRegistry(), lockName, plan.getWaitMillis());
+
+            if (handle == null) {
+                if (plan.isSkipIfLocked()) {
+                    return skip(plan, lockName);
+                }
+
+                final String msg = format("Timed out getting interprocess synchronizer lock for keyless lock %s",
+                        lockName);
+                throw new UncheckedTimeoutException(msg);
+            }
+
+            if (handle != NO_HANDLE) {
+                return proceedHoldingUntilDone(joinPoint, handle);
+            }
+        }
+
+        if (!lock.tryLock(plan.getWaitMillis(), TimeUnit.MILLISECONDS)) {
+            if (plan.isSkipIfLocked()) {
+                return skip(plan, lockName);
+            }
+
             final String msg = format("Timed out getting interprocess synchronizer lock for keyless lock %s", lockName);
             throw new UncheckedTimeoutException(msg);
         }
 
+        if (plan.isAsync()) {
+            return proceedHoldingUntilDone(joinPoint, lock);
+        }
+
         try {
             return joinPoint.proceed();
         } finally {
@@ -103,41 +228,81 @@ public class SynchronizerAdvice {
     public Object synchronizeMethodArg(final ProceedingJoinPoint joinPoint) throws Throwable {
         Preconditions.checkState(lockRegistries.size() > 1, "No interprocess lock registries available.");
 
-        final MethodParameterAnnotation annotation = SynchronizedMethodUtils.getSynchronizedAnnotation(joinPoint);
-        Preconditions.checkArgument(annotation != null, "Can't find @Synchronized parameter.");
+        final SynchronizedKeysPlan keysPlan = getArgumentPlan(joinPoint);
+        final SynchronizedMethodPlan plan = keysPlan.getSinglePlan();
+
+        if (plan == null) {
+            return synchronizeKeys(joinPoint, keysPlan);
+        }
 
-        final Object[] args = joinPoint.getArgs();
-        Preconditions.checkArgument(args != null, "Undefined method args.");
-        Preconditions.checkArgument(args.length > annotation.getParameterIndex(),
-                "Arguments array doesn't match method signature. @Synchronized parameter index out of bounds.");
+        final Object lockKey = plan.getLockKey(joinPoint.getArgs());
 
-        final Object lockKeyArg = args[annotation.getParameterIndex()];
+        if (plan.getCombiner() != null) {
+            return plan.getCombiner().call(joinPoint.getTarget(), lockKey, joinPoint.getArgs());
+        }
 
-        final Synchronized sync = Synchronized.class.cast(annotation.getAnnotation());
-        final String lockName = sync.value();
+        if (plan.getSingleFlight() == null) {
+            return synchronizeArg(joinPoint, plan, lockKey);
+        }
 
-        final LockRegistry<Object> lockRegistry = lockRegistries.get(lockName);
-        Preconditions.checkArgument(lockRegistry != null, "No interprocess lock registry named %s", lockName);
+        return plan.getSingleFlight().call(lockKey, new SingleFlight.Call() {
+            @Override
+            public Object call() throws Throwable {
+                return synchronizeArg(joinPoint, plan, lockKey);
+            }
+        });
+    }
 
-        final Object lockKey = SynchronizedMethodUtils.getLockKey(lockKeyArg, sync);
+    private static Object synchronizeArg(final ProceedingJoinPoint joinPoint, final SynchronizedMethodPlan plan,
+            final Object lockKey) throws Throwable {
+        final String lockName = plan.getLockName();
 
-        final ReentrantLock lock = lockRegistry.getLock(lockKey);
+        if (plan.isSkipIfLocked() && plan.isProbablyLocked(lockKey)) {
+            return skip(plan, lockKey);
+        }
+
+        if (log.isTraceEnabled()) {
+            log.trace("Locking " + lockKey);
+        }
+
+        final ReentrantLock lock = plan.getLockRegistry().getLock(lockKey);
         Preconditions.checkState(lock != null, "Can't get interprocess lock for registry %s, for key %s", lockName,
                 lockKey);
 
-        final PositiveDuration timeoutDuration = getTimeoutDuration(sync, lockRegistry);
-        Preconditions.checkArgument(timeoutDuration != null, "Undefined timeout duration for registry %s.", lockName);
+        // a thread that already holds the lock reenters it, instead of waiting for a lock handle behind itself
+        if (plan.getAsyncLockRegistry() != null && lock.getHoldCount() == 0) {
+            final LockHandle handle = acquireHandle(plan.getAsyncLockRegistry(), lockKey, plan.getWaitMillis());
 
-        if (log.isTraceEnabled()) {
-            log.trace("Locking " + lockKey);
+            if (handle == null) {
+                if (plan.isSkipIfLocked()) {
+                    return skip(plan, lockKey);
+                }
+
+                final String msg = format(
+                        "Timed out getting interprocess synchronizer lock for registry %s, for key %s", lockName,
+                        lockKey);
+                throw new UncheckedTimeoutException(msg);
+            }
+
+            if (handle != NO_HANDLE) {
+                return proceedHoldingUntilDone(joinPoint, handle);
+            }
         }
 
-        if (!lock.tryLock(timeoutDuration.getMillis(), TimeUnit.MILLISECONDS)) {
+        if (!lock.tryLock(plan.getWaitMillis(), TimeUnit.MILLISECONDS)) {
+            if (plan.isSkipIfLocked()) {
+                return skip(plan, lockKey);
+            }
+
             final String msg = format("Timed out getting interprocess synchronizer lock for registry %s, for key %s",
                     lockName, lockKey);
             throw new UncheckedTimeoutException(msg);
         }
 
+        if (plan.isAsync()) {
+            return proceedHoldingUntilDone(joinPoint, lock);
+        }
+
         try {
             return joinPoint.proceed();
         } finally {
@@ -145,14 +310,506 @@ public class SynchronizerAdvice {
         }
     }
 
+    /**
+     * Lock all the keys of a call, in their canonical order, within one timeout, and unlock them in reverse order.
+     */
+    private static Object synchronizeKeys(final ProceedingJoinPoint joinPoint, final SynchronizedKeysPlan plan)
+            throws Throwable {
+        final List<PlannedKey> keys = plan.getLockKeys(joinPoint.getArgs());
+        final List<ReentrantLock> locks = Lists.newArrayListWithCapacity(keys.size());
+        final long deadline = System.nanoTime()
+                + TimeUnit.MILLISECONDS.toNanos(plan.getTimeoutDuration().getMillis());
+
+        if (log.isTraceEnabled()) {
+            log.trace("Locking " + keys);
+        }
+
+        if (plan.getBulkLockRegistry() != null && keys.size() > 1 && !isAnyHeldByCurrentThread(keys)) {
+            return synchronizeKeysInBulk(joinPoint, plan, keys);
+        }
+
+        try {
+            for (final PlannedKey key : keys) {
+                final ReentrantLock lock = key.getPlan().getLockRegistry().getLock(key.getLockKey());
+                Preconditions.checkState(lock != null, "Can't get interprocess lock for registry %s, for key %s",
+                        key.getPlan().getLockName(), key.getLockKey());
+
+                if (!lock.tryLock(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                    final String msg = format(
+                            "Timed out getting interprocess synchronizer lock for registry %s, for key %s",
+                            key.getPlan().getLockName(), key.getLockKey());
+                    throw new UncheckedTimeoutException(msg);
+                }
+
+                locks.add(lock);
+            }
+
+            return joinPoint.proceed();
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * Lock all the keys of a call together. The lock handle doesn't belong to this thread, so this is only for keys
+     * that this thread doesn't hold already, which it would have to wait for.
+     */
+    private static Object synchronizeKeysInBulk(final ProceedingJoinPoint joinPoint, final SynchronizedKeysPlan plan,
+            final List<PlannedKey> keys) throws Throwable {
+        final List<Object> lockKeys = Lists.newArrayListWithCapacity(keys.size());
+
+        for (final PlannedKey key : keys) {
+            lockKeys.add(key.getLockKey());
+        }
+
+        final LockHandle handle = plan.getBulkLockRegistry().acquireAll(lockKeys,
+                plan.getTimeoutDuration().getMillis(), TimeUnit.MILLISECONDS);
+
+        if (handle == null) {
+            final String msg = format("Timed out getting interprocess synchronizer locks for registry %s, for keys %s",
+                    keys.get(0).getPlan().getLockName(), lockKeys);
+            throw new UncheckedTimeoutException(msg);
+        }
+
+        try {
+            return joinPoint.proceed();
+        } finally {
+            handle.release();
+        }
+    }
+
+    private static boolean isAnyHeldByCurrentThread(final List<PlannedKey> keys) {
+        for (final PlannedKey key : keys) {
+            if (key.getPlan().getLockRegistry().getLock(key.getLockKey()).getHoldCount() > 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Around("execution(* *(.., @com.mass.concurrent.sync.springaop.SynchronizedRead (*), ..))")
+    public Object synchronizeReadArg(final ProceedingJoinPoint joinPoint) throws Throwable {
+        return synchronizeReadWriteArg(joinPoint, getReadWritePlan(joinPoint, false));
+    }
+
+    @Around("execution(* *(.., @com.mass.concurrent.sync.springaop.SynchronizedWrite (*), ..))")
+    public Object synchronizeWriteArg(final ProceedingJoinPoint joinPoint) throws Throwable {
+        return synchronizeReadWriteArg(joinPoint, getReadWritePlan(joinPoint, true));
+    }
+
+    private static Object synchronizeReadWriteArg(final ProceedingJoinPoint joinPoint,
+            final SynchronizedReadWritePlan plan) throws Throwable {
+        final Object lockKey = plan.getLockKey(joinPoint.getArgs());
+        final Lock lock = plan.getLock(lockKey);
+
+        if (log.isTraceEnabled()) {
+            log.trace((plan.isWrite() ? "Write locking " : "Read locking ") + lockKey);
+        }
+
+        if (!lock.tryLock(plan.getTimeoutDuration().getMillis(), TimeUnit.MILLISECONDS)) {
+            final String msg = format("Timed out getting interprocess %s lock for registry %s, for key %s",
+                    plan.isWrite() ? "write" : "read", plan.getLockName(), lockKey);
+            throw new UncheckedTimeoutException(msg);
+        }
+
+        try {
+            return joinPoint.proceed();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for a lock handle, up to the timeout. This thread waits, like it would for a reentrant lock, but the handle
+     * doesn't belong to it. If the lock registry fails to acquire it, like on a zookeeper error, a best-effort lock
+     * registry falls back on the reentrant lock of the key, like its reentrant locks do.
+     * 
+     * @return null if it timed out, or NO_HANDLE if the caller falls back on the reentrant lock
+     */
+    private static LockHandle acquireHandle(final AsyncLockRegistry<Object> registry, final Object lockKey,
+            final long timeoutMillis) throws Throwable {
+        final ListenableFuture<LockHandle> handle;
+
+        try {
+            handle = registry.acquireAsync(lockKey, timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final RuntimeException e) {
+            return fallBack(registry, lockKey, e);
+        }
+
+        try {
+            return handle.get();
+        } catch (final InterruptedException e) {
+            // the handle might have been acquired anyway
+            handle.cancel(false);
+            Futures.addCallback(handle, releaseHandle);
+            throw e;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                return null;
+            }
+
+            return fallBack(registry, lockKey, e.getCause());
+        }
+    }
+
+    private static LockHandle fallBack(final AsyncLockRegistry<Object> registry, final Object lockKey,
+            final Throwable failure) throws Throwable {
+        if (!registry.isBestEffort()) {
+            throw failure;
+        }
+
+        log.warn(format("Can't get a lock handle for key %s, so falling back on its reentrant lock.", lockKey),
+                failure);
+        return NO_HANDLE;
+    }
+
+    /**
+     * Proceed with a lock that this thread holds. If the method returns a future that isn't done yet, the lock is
+     * detached from this thread, and held until the future is done.
+     */
+    private static Object proceedHoldingUntilDone(final ProceedingJoinPoint joinPoint, final ReentrantLock lock)
+            throws Throwable {
+        final Object result;
+
+        try {
+            result = joinPoint.proceed();
+        } catch (final Throwable e) {
+            lock.unlock();
+            throw e;
+        }
+
+        if (!isPending(result) || !(lock instanceof DetachableLock) || lock.getHoldCount() > 1) {
+            lock.unlock();
+            return result;
+        }
+
+        releaseWhenDone((ListenableFuture<?>) result, ((DetachableLock) lock).detach());
+        return result;
+    }
+
+    /**
+     * Proceed with a lock handle, and release it when the method returns, or when the future that it returns is done.
+     */
+    private static Object proceedHoldingUntilDone(final ProceedingJoinPoint joinPoint, final LockHandle handle)
+            throws Throwable {
+        final Object result;
+
+        try {
+            result = joinPoint.proceed();
+        } catch (final Throwable e) {
+            handle.release();
+            throw e;
+        }
+
+        if (isPending(result)) {
+            releaseWhenDone((ListenableFuture<?>) result, handle);
+        } else {
+            handle.release();
+        }
+
+        return result;
+    }
+
+    /**
+     * Skip a method whose lock is taken, instead of waiting for it.
+     */
+    private static Object skip(final SynchronizedMethodPlan plan, final Object lockKey) {
+        if (log.isDebugEnabled()) {
+            log.debug(format("Skipped, because lock registry %s has key %s locked", plan.getLockName(), lockKey));
+        }
+
+        return plan.getSkippedResult();
+    }
+
+    private static boolean isPending(final Object result) {
+        return result instanceof ListenableFuture && !((ListenableFuture<?>) result).isDone();
+    }
+
+    private static void releaseWhenDone(final ListenableFuture<?> future, final LockHandle handle) {
+        future.addListener(new Runnable() {
+            @Override
+            public void run() {
+                handle.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * Get a configured lock registry by name, like to read its LockRegistryMetrics.
+     * 
+     * @return null if there's no lock registry with this name
+     */
+    public LockRegistry<Object> getLockRegistry(final String name) {
+        return name == null ? null : lockRegistries.get(name);
+    }
+
+    /**
+     * Get the read/write locks of a configured lock registry by name. These are built the first time they're needed,
+     * so lock registries that are only used by @Synchronized methods never build them.
+     * 
+     * @return null if there's no lock registry with this name
+     */
+    public ReadWriteLockRegistry<Object> getReadWriteLockRegistry(final String name) {
+        final ReadWriteLockRegistry<Object> registry = name == null ? null : readWriteLockRegistries.get(name);
+        return registry != null ? registry : newReadWriteLockRegistry(name);
+    }
+
+    private synchronized ReadWriteLockRegistry<Object> newReadWriteLockRegistry(final String name) {
+        final SynchronizerLockRegistryConfiguration definition = name == null ? null : lockDefinitions.get(name);
+
+        if (definition == null) {
+            return null;
+        }
+
+        final ReadWriteLockRegistry<Object> existing = readWriteLockRegistries.get(name);
+
+        if (existing != null) {
+            return existing;
+        }
+
+        final ReadWriteLockRegistry<Object> registry = factory.newReadWriteLockRegistry(definition);
+        Preconditions.checkState(registry != null, "Can't make read/write lock registry %s.", name);
+        readWriteLockRegistries.put(name, registry);
+        return registry;
+    }
+
+    /**
+     * Resolve and cache the plans of all the @Synchronized, @SynchronizedRead and @SynchronizedWrite methods of this
+     * target class, ahead of their first calls.
+     * This throws the same exceptions that the first call of a misconfigured method would throw.
+     * 
+     * @param targetClass
+     *            - the class of a proxied bean
+     * @return the number of plans prepared
+     */
+    public int prepare(final Class<?> targetClass) {
+        Preconditions.checkArgument(targetClass != null, "Undefined target class.");
+
+        int prepared = 0;
+
+        for (final Method signatureMethod : ReflectionUtils.getProxiedMethods(targetClass)) {
+            final Method bridgedMethod = BridgeMethodResolver.findBridgedMethod(signatureMethod);
+            final Method targetMethod = BridgeMethodResolver.findBridgedMethod(ClassUtils.getMostSpecificMethod(
+                    bridgedMethod, targetClass));
+
+            if (hasSynchronizedParameter.apply(bridgedMethod) || hasSynchronizedParameter.apply(targetMethod)) {
+                getArgumentPlan(targetClass, signatureMethod);
+                prepared++;
+            }
+
+            if (hasReadParameter.apply(bridgedMethod) || hasReadParameter.apply(targetMethod)) {
+                getReadWritePlan(targetClass, signatureMethod, false);
+                prepared++;
+            }
+
+            if (hasWriteParameter.apply(bridgedMethod) || hasWriteParameter.apply(targetMethod)) {
+                getReadWritePlan(targetClass, signatureMethod, true);
+                prepared++;
+            }
+
+            if (bridgedMethod.isAnnotationPresent(Synchronized.class)
+                    || targetMethod.isAnnotationPresent(Synchronized.class)) {
+                final SynchronizedMethodPlan plan = getKeylessPlan(targetClass, signatureMethod);
+                keylessLocks.getLock(plan.getLockName());
+                prepared++;
+            }
+        }
+
+        if (prepared > 0 && log.isDebugEnabled()) {
+            log.debug("Prepared " + prepared + " synchronized method plans for " + targetClass.getName());
+        }
+
+        return prepared;
+    }
+
+    private SynchronizedMethodPlan getKeylessPlan(final ProceedingJoinPoint joinPoint) {
+        final Method signatureMethod = ReflectionUtils.getSignatureMethod(joinPoint);
+        return getKeylessPlan(getTargetClass(joinPoint), signatureMethod);
+    }
+
+    private SynchronizedMethodPlan getKeylessPlan(final Class<?> targetClass, final Method signatureMethod) {
+        final SynchronizedMethodPlan plan = keylessPlans.get(signatureMethod, targetClass);
+
+        if (plan != null) {
+            return plan;
+        }
+
+        return keylessPlans.putIfAbsent(signatureMethod, targetClass, newKeylessPlan(targetClass, signatureMethod));
+    }
+
+    private SynchronizedKeysPlan getArgumentPlan(final ProceedingJoinPoint joinPoint) {
+        final Method signatureMethod = ReflectionUtils.getSignatureMethod(joinPoint);
+        return getArgumentPlan(getTargetClass(joinPoint), signatureMethod);
+    }
+
+    private SynchronizedKeysPlan getArgumentPlan(final Class<?> targetClass, final Method signatureMethod) {
+        final SynchronizedKeysPlan plan = argumentPlans.get(signatureMethod, targetClass);
+
+        if (plan != null) {
+            return plan;
+        }
+
+        return argumentPlans.putIfAbsent(signatureMethod, targetClass, newArgumentPlan(targetClass, signatureMethod));
+    }
+
+    private SynchronizedReadWritePlan getReadWritePlan(final ProceedingJoinPoint joinPoint, final boolean write) {
+        final Method signatureMethod = ReflectionUtils.getSignatureMethod(joinPoint);
+        return getReadWritePlan(getTargetClass(joinPoint), signatureMethod, write);
+    }
+
+    private SynchronizedReadWritePlan getReadWritePlan(final Class<?> targetClass, final Method signatureMethod,
+            final boolean write) {
+        final SynchronizedMethodPlanCache<SynchronizedReadWritePlan> plans = write ? writePlans : readPlans;
+        final SynchronizedReadWritePlan plan = plans.get(signatureMethod, targetClass);
+
+        if (plan != null) {
+            return plan;
+        }
+
+        return plans.putIfAbsent(signatureMethod, targetClass, newReadWritePlan(targetClass, signatureMethod, write));
+    }
+
+    private static Class<?> getTargetClass(final ProceedingJoinPoint joinPoint) {
+        final Object target = joinPoint.getTarget();
+        Preconditions.checkArgument(target != null, "Undefined proxy target in join point.");
+        return target.getClass();
+    }
+
+    private SynchronizedMethodPlan newKeylessPlan(final Class<?> targetClass, final Method signatureMethod) {
+        final Annotation annotation = SynchronizedMethodUtils.getMethodLevelSynchronizedAnnotation(targetClass,
+                signatureMethod);
+        Preconditions.checkArgument(annotation != null, "Can't find @Synchronized annotation on %s", signatureMethod);
+        final Synchronized sync = Synchronized.class.cast(annotation);
+        final String lockName = sync.value();
+        Preconditions.checkArgument(sync.combineWith().isEmpty(), "Can't combine keyless calls: %s",
+                signatureMethod);
+
+        final PositiveDuration timeoutDuration = getTimeoutDuration(sync, keylessLocks);
+        Preconditions.checkArgument(timeoutDuration != null, "Undefined timeout duration for keyless lock %s.",
+                lockName);
+
+        return new SynchronizedMethodPlan(SynchronizedMethodPlan.NO_PARAMETER, sync, keylessLocks, timeoutDuration,
+                LockKeyExtractors.constant(lockName),
+                SynchronizedMethodUtils.getReturnType(targetClass, signatureMethod));
+    }
+
+    @SuppressWarnings("unchecked")
+    private SynchronizedKeysPlan newArgumentPlan(final Class<?> targetClass, final Method signatureMethod) {
+        final List<MethodParameterAnnotation> annotations = SynchronizedMethodUtils.getSynchronizedAnnotations(
+                targetClass, signatureMethod);
+        Preconditions.checkArgument(!annotations.isEmpty(), "Can't find @Synchronized parameter.");
+
+        final List<SynchronizedMethodPlan> plans = Lists.newArrayList();
+        final List<SynchronizerLockKeyFactory<Object>> keyFactories = Lists.newArrayList();
+
+        for (final MethodParameterAnnotation annotation : annotations) {
+            final SynchronizedMethodPlan plan = newArgumentPlan(targetClass, signatureMethod, annotation);
+            plans.add(plan);
+            keyFactories.add((SynchronizerLockKeyFactory<Object>) lockDefinitions.get(plan.getLockName())
+                    .getLockKeyFactory());
+        }
+
+        final SynchronizedKeysPlan keysPlan = new SynchronizedKeysPlan(plans, keyFactories,
+                signatureMethod.getParameterTypes());
+
+        if (keysPlan.getSinglePlan() == null) {
+            for (final SynchronizedMethodPlan plan : plans) {
+                final Synchronized sync = plan.getAnnotation();
+                final boolean plain = !sync.skipIfLocked() && !sync.singleFlight() && sync.combineWith().isEmpty();
+                Preconditions.checkArgument(plain, "Can't skip, collapse or combine calls that lock several keys: %s",
+                        signatureMethod);
+            }
+        }
+
+        return keysPlan;
+    }
+
+    private SynchronizedMethodPlan newArgumentPlan(final Class<?> targetClass, final Method signatureMethod,
+            final MethodParameterAnnotation annotation) {
+        final int parameterIndex = annotation.getParameterIndex();
+        final Synchronized sync = Synchronized.class.cast(annotation.getAnnotation());
+        final String lockName = sync.value();
+
+        final LockRegistry<Object> lockRegistry = lockRegistries.get(lockName);
+        Preconditions.checkArgument(lockRegistry != null, "No interprocess lock registry named %s", lockName);
+
+        final PositiveDuration timeoutDuration = getTimeoutDuration(sync, lockRegistry);
+        Preconditions.checkArgument(timeoutDuration != null, "Undefined timeout duration for registry %s.", lockName);
+
+        final Class<?> returnType = SynchronizedMethodUtils.getReturnType(targetClass, signatureMethod);
+        final FlatCombiner combiner = sync.combineWith().isEmpty() ? null : newCombiner(targetClass,
+                signatureMethod, sync, parameterIndex, lockRegistry, timeoutDuration, returnType);
+
+        return new SynchronizedMethodPlan(parameterIndex, sync, lockRegistry, timeoutDuration,
+                LockKeyExtractors.argument(parameterIndex, sync), returnType, combiner);
+    }
+
+    private FlatCombiner newCombiner(final Class<?> targetClass, final Method signatureMethod,
+            final Synchronized sync, final int parameterIndex, final LockRegistry<Object> lockRegistry,
+            final PositiveDuration timeoutDuration, final Class<?> returnType) {
+        Preconditions.checkArgument(!sync.skipIfLocked() && !sync.singleFlight(),
+                "Can't combine calls that are skipped or collapsed: %s", signatureMethod);
+        Preconditions.checkArgument(!ListenableFuture.class.isAssignableFrom(returnType),
+                "Can't combine calls that return a ListenableFuture: %s", signatureMethod);
+
+        final Method batchMethod = SynchronizedMethodUtils.getBatchMethod(targetClass, signatureMethod,
+                sync.combineWith(), parameterIndex);
+        final SynchronizerLockRegistryConfiguration definition = lockDefinitions.get(sync.value());
+        final int maxBatchSize = definition == null ? 0 : definition.getMaxBatchSize();
+        final PositiveDuration maxBatchLinger = definition == null ? null : definition.getMaxBatchLinger();
+
+        return new FlatCombiner(sync.value(), lockRegistry, timeoutDuration, batchMethod, parameterIndex,
+                returnType != void.class, maxBatchSize, maxBatchLinger);
+    }
+
+    private SynchronizedReadWritePlan newReadWritePlan(final Class<?> targetClass, final Method signatureMethod,
+            final boolean write) {
+        final Class<? extends Annotation> annotationType = write ? SynchronizedWrite.class : SynchronizedRead.class;
+        final MethodParameterAnnotation annotation = SynchronizedMethodUtils.getParameterAnnotation(targetClass,
+                signatureMethod, annotationType);
+        Preconditions.checkArgument(annotation != null, "Can't find @%s parameter.", annotationType.getSimpleName());
+
+        final int parameterIndex = annotation.getParameterIndex();
+        final String lockName;
+        final String keyExpression;
+        final PositiveDuration annotationTimeout;
+
+        if (write) {
+            final SynchronizedWrite sync = SynchronizedWrite.class.cast(annotation.getAnnotation());
+            lockName = sync.value();
+            keyExpression = sync.key();
+            annotationTimeout = toTimeoutDuration(sync.timeoutDuration(), sync.timeoutUnits(), sync);
+        } else {
+            final SynchronizedRead sync = SynchronizedRead.class.cast(annotation.getAnnotation());
+            lockName = sync.value();
+            keyExpression = sync.key();
+            annotationTimeout = toTimeoutDuration(sync.timeoutDuration(), sync.timeoutUnits(), sync);
+        }
+
+        final ReadWriteLockRegistry<Object> lockRegistry = getReadWriteLockRegistry(lockName);
+        Preconditions.checkArgument(lockRegistry != null, "No interprocess lock registry named %s", lockName);
+
+        final PositiveDuration timeoutDuration = getTimeoutDuration(annotationTimeout,
+                lockRegistry.getTimeoutDuration());
+        Preconditions.checkArgument(timeoutDuration != null, "Undefined timeout duration for registry %s.", lockName);
+
+        return new SynchronizedReadWritePlan(parameterIndex, lockName, write, lockRegistry, timeoutDuration,
+                LockKeyExtractors.argument(parameterIndex, keyExpression));
+    }
+
     private PositiveDuration getTimeoutDuration(final Synchronized annotation, final LockRegistry<?> registry) {
-        final PositiveDuration annotationTimeout = toTimeoutDuration(annotation);
+        return getTimeoutDuration(toTimeoutDuration(annotation), registry.getTimeoutDuration());
+    }
 
+    private PositiveDuration getTimeoutDuration(final PositiveDuration annotationTimeout,
+            final PositiveDuration registryTimeout) {
         if (annotationTimeout != null) {
             return annotationTimeout;
         }
 
-        final PositiveDuration registryTimeout = registry.getTimeoutDuration();
         return registryTimeout != null ? registryTimeout : globalTimeoutDuration;
     }
 
@@ -165,6 +822,17 @@ public class SynchronizerAdvice {
         return factory.newLockRegistry(keylessRegistryConfig);
     }
 
+    private static ImmutableMap<String, SynchronizerLockRegistryConfiguration> indexDefinitions(
+            final SynchronizerLockRegistryConfiguration[] locks) {
+        final Map<String, SynchronizerLockRegistryConfiguration> definitions = Maps.newHashMap();
+
+        for (final SynchronizerLockRegistryConfiguration lockDefinition : locks) {
+            definitions.put(lockDefinition.getName().getValue(), lockDefinition);
+        }
+
+        return ImmutableMap.copyOf(definitions);
+    }
+
     private static ImmutableMap<String, LockRegistry<Object>> buildRegistries(
             final SynchronizerLockRegistryConfiguration[] locks, final LockRegistryFactory factory) {
         Preconditions.checkArgument(locks != null, "Undefined lock definitions.");
@@ -0,0 +1,119 @@
+package com.mass.concurrent.sync.springaop.config;
+
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationContextAware;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.mass.concurrent.sync.springaop.SynchronizerAdvice;
+
+/**
+ * Walks every bean in the application context, and prepares the synchronization plans of all of their @Synchronized
+ * methods when the context is refreshed. That way, misconfigured @Synchronized methods, like mismatching interface and
+ * implementation annotations, unknown lock registry names, or bad key expressions, fail the context refresh, instead
+ * of the first method call, and the first method call doesn't have to pay for all the reflection. Beans created after
+ * the refresh, like prototypes, are prepared as soon as they're initialized.
+ *
+ * @author kmassaroni
+ */
+public class SynchronizedBeanScanner implements BeanPostProcessor, ApplicationListener<ContextRefreshedEvent>,
+        ApplicationContextAware {
+    private static final Log log = LogFactory.getLog(SynchronizedBeanScanner.class);
+
+    private final Set<Class<?>> pendingClasses = Sets.newLinkedHashSet();
+    private final Set<Class<?>> preparedClasses = Sets.newHashSet();
+    private ApplicationContext context;
+    private SynchronizerAdvice advice;
+
+    @Override
+    public void setApplicationContext(final ApplicationContext applicationContext) throws BeansException {
+        Preconditions.checkArgument(applicationContext != null, "Undefined application context.");
+        context = applicationContext;
+    }
+
+    @Override
+    public Object postProcessBeforeInitialization(final Object bean, final String beanName) throws BeansException {
+        return bean;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(final Object bean, final String beanName) throws BeansException {
+        if (bean == null || bean instanceof SynchronizerAdvice) {
+            return bean;
+        }
+
+        final Class<?> targetClass = AopUtils.getTargetClass(bean);
+
+        synchronized (this) {
+            if (advice == null) {
+                pendingClasses.add(targetClass);
+            } else {
+                prepareAll(Lists.<Class<?>> newArrayList(targetClass));
+            }
+        }
+
+        return bean;
+    }
+
+    @Override
+    public void onApplicationEvent(final ContextRefreshedEvent event) {
+        if (context == null || event.getApplicationContext() != context) {
+            return;
+        }
+
+        final String[] adviceNames = context.getBeanNamesForType(SynchronizerAdvice.class);
+
+        if (adviceNames.length == 0) {
+            log.warn("No SynchronizerAdvice in the application context, so no @Synchronized methods to prepare.");
+            return;
+        }
+
+        synchronized (this) {
+            advice = context.getBean(SynchronizerAdvice.class);
+            final List<Class<?>> pending = Lists.newArrayList(pendingClasses);
+            pendingClasses.clear();
+            prepareAll(pending);
+        }
+    }
+
+    private void prepareAll(final List<Class<?>> targetClasses) {
+        final List<String> failures = Lists.newArrayList();
+        RuntimeException firstFailure = null;
+        int prepared = 0;
+
+        for (final Class<?> targetClass : targetClasses) {
+            if (!preparedClasses.add(targetClass)) {
+                continue;
+            }
+
+            try {
+                prepared += advice.prepare(targetClass);
+            } catch (final RuntimeException e) {
+                failures.add(targetClass.getName() + ": " + e.getMessage());
+                firstFailure = firstFailure == null ? e : firstFailure;
+            }
+        }
+
+        if (firstFailure != null) {
+            throw new BeanInitializationException("Invalid @Synchronized configuration. "
+                    + Joiner.on("; ").join(failures), firstFailure);
+        }
+
+        if (prepared > 0) {
+            log.info("Prepared " + prepared + " @Synchronized method plans.");
+        }
+    }
+}
@@ -3,8 +3,13 @@ package com.mass.concurrent.sync.springaop.config;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 
+import java.util.Map;
+
 import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.NoUniqueBeanDefinitionException;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
@@ -14,20 +19,29 @@ import org.springframework.context.annotation.Configuration;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSortedMap;
 import com.mass.concurrent.sync.springaop.SynchronizerAdvice;
 import com.mass.concurrent.sync.zookeeper.LockRegistries;
 import com.mass.concurrent.sync.zookeeper.LockRegistryFactory;
+import com.mass.concurrent.sync.zookeeper.ZooKeeperSessionPool;
 
 /**
  * This bean factory makes it easier to configure a Synchronizer spring application context, because it conditionally
  * queries the app context for the CuratorFramwork required for zookeeper locks. That way, you don't have to provide one
- * at all, if you just want to use local-jvm locks.
+ * at all, if you just want to use local-jvm locks. If there are several CuratorFrameworks, and none of them is the
+ * primary one, the zookeeper locks are spread over all of them, key by key, in the order of their bean names. If the
+ * configuration asks for more than one zookeeper session, the CuratorFramework gets a ZooKeeperSessionPool, which is
+ * closed with the application context. The other sessions of the pool are built by the CuratorFrameworkFactory.Builder
+ * in the application context, which has to build them like the CuratorFramework. The background work of the lock
+ * registries, like the sweeps of their idle lock paths, stops with the application context too.
  * 
  * @author kmassaroni
  */
 @Configuration
-public class SynchronizerAdviceConfigurationBean implements ApplicationContextAware {
+public class SynchronizerAdviceConfigurationBean implements ApplicationContextAware, DisposableBean {
     private ApplicationContext context;
+    private LockRegistryFactory registryFactory;
+    private ZooKeeperSessionPool sessionPool;
 
     @Autowired
     private SynchronizerConfiguration configuration;
@@ -41,13 +55,13 @@ public class SynchronizerAdviceConfigurationBean implements ApplicationContextAw
             checkArgument(configuration != null, "Can't build advice: Undefined synchronizer configuration.");
             checkArgument(context != null, "Can't build advice: Undefined application context.");
 
-            final LockRegistryFactory factory = registryFactory();
-            final SynchronizerAdvice advice = new SynchronizerAdvice(lockDefinitions, factory, configuration);
+            registryFactory = newRegistryFactory();
+            final SynchronizerAdvice advice = new SynchronizerAdvice(lockDefinitions, registryFactory, configuration);
             return advice;
         }
     });
 
-    private LockRegistryFactory registryFactory() {
+    private LockRegistryFactory newRegistryFactory() {
         final SynchronizerScope scope = configuration.getScope();
         final SynchronizerLockingPolicy defaultLockingPolicy = configuration.getDefaultLockingPolicy();
         final String zkBasePath = configuration.getZkMutexBasePath();
@@ -56,24 +70,72 @@ public class SynchronizerAdviceConfigurationBean implements ApplicationContextAw
         case LOCAL_JVM:
             return LockRegistries.newLocalLockRegistryFactory();
         case ZOOKEEPER:
-            final CuratorFramework zkClient = context.getBean(CuratorFramework.class);
+            final CuratorFramework zkClient;
+
+            try {
+                zkClient = context.getBean(CuratorFramework.class);
+            } catch (final NoUniqueBeanDefinitionException e) {
+                // sorted by bean name, so every node has the same shards
+                final ImmutableSortedMap<String, CuratorFramework> zkClients = ImmutableSortedMap.copyOf(context
+                        .getBeansOfType(CuratorFramework.class));
+                return LockRegistries.newShardedLockRegistryFactory(zkClients.values().asList(),
+                        defaultLockingPolicy, zkBasePath, true);
+            }
+
             checkState(zkClient != null,
                     "No CuratorFramework in the application context, required by Synchronizer for zookeeper inter-process locking.");
+
+            if (configuration.getZkSessions() > 1) {
+                sessionPool = new ZooKeeperSessionPool(zkClient, sessionBuilder(), configuration.getZkSessions());
+                return LockRegistries.newPooledLockRegistryFactory(sessionPool, defaultLockingPolicy, zkBasePath);
+            }
+
             return LockRegistries.newInterProcessLockRegistryFactory(zkClient, defaultLockingPolicy, zkBasePath);
         default:
             throw new IllegalStateException("Unexpected SynchronizerScope: " + scope);
         }
     }
 
+    private CuratorFrameworkFactory.Builder sessionBuilder() {
+        final Map<String, CuratorFrameworkFactory.Builder> builders = context
+                .getBeansOfType(CuratorFrameworkFactory.Builder.class);
+        checkState(builders.size() == 1,
+                "Synchronizer needs one CuratorFrameworkFactory.Builder in the application context, to build its other "
+                        + "zookeeper sessions like the CuratorFramework, but there are %s.", builders.size());
+        return builders.values().iterator().next();
+    }
+
     @Override
     public void setApplicationContext(final ApplicationContext applicationContext) throws BeansException {
         Preconditions.checkArgument(applicationContext != null, "Undefined application context.");
         context = applicationContext;
     }
 
+    /**
+     * Stop the background work of the lock registries, and close the zookeeper sessions that this started, if any.
+     */
+    @Override
+    public void destroy() {
+        if (registryFactory != null) {
+            registryFactory.close();
+        }
+
+        if (sessionPool != null) {
+            sessionPool.close();
+        }
+    }
+
     @Bean
     public SynchronizerAdvice synchronizer() throws Exception {
         return adviceSupplier.get();
     }
 
+    /**
+     * This is static, because it's a bean post processor, and it doesn't depend on the rest of this configuration.
+     */
+    @Bean
+    public static SynchronizedBeanScanner synchronizedBeanScanner() {
+        return new SynchronizedBeanScanner();
+    }
+
 }
@@ -17,6 +17,7 @@ public class SynchronizerConfiguration {
     private final String zkMutexBasePath;
     private final SynchronizerLockingPolicy defaultLockingPolicy;
     private final PositiveDuration globalTimeoutDuration;
+    private final int zkSessions;
 
     public static final PositiveDuration defaultTimeoutDuration = PositiveDuration.standardSeconds(5);
 
@@ -32,14 +33,30 @@ public class SynchronizerConfiguration {
     public SynchronizerConfiguration(final SynchronizerScope scope,
             final SynchronizerLockingPolicy defaultLockingPolicy, final String zkMutexBasePath,
             final PositiveDuration globalTimeoutDuration) {
+        this(scope, defaultLockingPolicy, zkMutexBasePath, globalTimeoutDuration, 1);
+    }
+
+    /**
+     * @param zkSessions
+     *            - how many zookeeper sessions the zookeeper locks of this JVM are spread over, key by key. The
+     *            CuratorFramework in the application context is the first one, and the others are built by the
+     *            CuratorFrameworkFactory.Builder in the application context, so they connect the same way. More
+     *            sessions spread the lock I/O and the watch events of lots of keys, and a lost connection only affects
+     *            the keys of its session.
+     */
+    public SynchronizerConfiguration(final SynchronizerScope scope,
+            final SynchronizerLockingPolicy defaultLockingPolicy, final String zkMutexBasePath,
+            final PositiveDuration globalTimeoutDuration, final int zkSessions) {
         checkArgument(scope != null, "Undefined synchronizer scope.");
         checkNotBlank(zkMutexBasePath, "Undefined zookeeper mutex base path.");
         checkArgument(defaultLockingPolicy != null, "Undefined default locking policy.");
         checkArgument(globalTimeoutDuration != null, "Undefined timeout duration.");
+        checkArgument(zkSessions > 0, "Zookeeper sessions must be positive: %s", zkSessions);
         this.scope = scope;
         this.defaultLockingPolicy = defaultLockingPolicy;
         this.zkMutexBasePath = zkMutexBasePath;
         this.globalTimeoutDuration = globalTimeoutDuration;
+        this.zkSessions = zkSessions;
     }
 
     public SynchronizerScope getScope() {
@@ -58,11 +75,15 @@ public class SynchronizerConfiguration {
         return globalTimeoutDuration;
     }
 
+    public int getZkSessions() {
+        return zkSessions;
+    }
+
     @Override
     public String toString() {
         return "SynchronizerConfiguration [scope=" + scope + ", zkMutexBasePath=" + zkMutexBasePath
                 + ", defaultLockingPolicy=" + defaultLockingPolicy + ", globalTimeoutDuration=" + globalTimeoutDuration
-                + "]";
+                + ", zkSessions=" + zkSessions + "]";
     }
 
 }
@@ -11,6 +11,12 @@ import com.mass.core.Word;
 /**
  * This is a user-provided per-lock configuration bean that you need in your spring application context. The name of
  * this definition corresponds to the lock name in the @Synchronized("myLockName") annotation.
+ * <p>
+ * The zookeeper options go together, except for lean locks, which can't be cohort or sticky locks, and can't group
+ * commit or release asynchronously. Lock stripes are only for the LOCAL_JVM scope. The read/write locks of
+ * the @SynchronizedRead and @SynchronizedWrite parameters only take the locking policy, the timeout and the lock path
+ * reaping, so a lock registry with any other zookeeper option can't have them. The zookeeper lock registry factory
+ * throws an IllegalArgumentException for the options that don't go together, instead of ignoring some of them.
  * 
  * @author kmassaroni
  */
@@ -19,6 +25,20 @@ public class SynchronizerLockRegistryConfiguration {
     private final SynchronizerLockKeyFactory<?> lockKeyFactory;
     private final SynchronizerLockingPolicy policyOverride;
     private final PositiveDuration timeoutDuration;
+    private int stripes;
+    private int cohortHandoffs;
+    private PositiveDuration stickyLinger;
+    private int maxBatchSize;
+    private PositiveDuration maxBatchLinger;
+    private long groupCommitTickMicros;
+    private boolean asyncRelease;
+    private boolean leanLocks;
+    private int hashBuckets;
+    private int hashBucketLevels = 1;
+    private boolean hashBucketMigration;
+    private PositiveDuration lockPathReapInterval;
+    private int lockPathReapOpsPerSecond = 100;
+    private PositiveDuration circuitProbeInterval;
 
     /**
      * @param name
@@ -95,6 +115,322 @@ public class SynchronizerLockRegistryConfiguration {
         return timeoutDuration;
     }
 
+    /**
+     * Get the number of lock stripes, for a striped local-jvm lock registry.
+     * 
+     * @return 0 if every key gets its own lock
+     */
+    public int getStripes() {
+        return stripes;
+    }
+
+    /**
+     * (optional) Share a fixed array of this many locks among all the keys in this lock registry, instead of giving
+     * each key its own lock. Keys are hashed to their locks, so unrelated keys sometimes block each other, but the lock
+     * registry never allocates locks, and its memory stays constant no matter how many keys there are. This only
+     * applies to the LOCAL_JVM scope, and the ZOOKEEPER scope rejects it. It's rounded up to a power of two.
+     * 
+     * @param stripes
+     *            - 0 to give every key its own lock, which is the default
+     */
+    public void setStripes(final int stripes) {
+        Preconditions.checkArgument(stripes >= 0, "Negative lock stripes: %s", stripes);
+        this.stripes = stripes;
+    }
+
+    /**
+     * Get the max number of times in a row that a zookeeper lock goes straight to another local thread.
+     * 
+     * @return 0 if every thread acquires and releases its own zookeeper lock
+     */
+    public int getCohortHandoffs() {
+        return cohortHandoffs;
+    }
+
+    /**
+     * (optional) When other threads in this JVM are waiting for a key, hand its zookeeper lock straight to the next
+     * one, instead of releasing it and acquiring it again, up to this many times in a row. After that, it's released,
+     * so other nodes get their turn. This saves zookeeper round trips on hot keys, at the cost of fairness between
+     * nodes. This only applies to the ZOOKEEPER scope.
+     * 
+     * @param cohortHandoffs
+     *            - 0 to release the zookeeper lock on every unlock, which is the default
+     */
+    public void setCohortHandoffs(final int cohortHandoffs) {
+        Preconditions.checkArgument(cohortHandoffs >= 0, "Negative cohort handoffs: %s", cohortHandoffs);
+        this.cohortHandoffs = cohortHandoffs;
+    }
+
+    /**
+     * Get how long a zookeeper lock lingers after it's released, for sticky locks.
+     * 
+     * @return null if zookeeper locks are released right away
+     */
+    public PositiveDuration getStickyLinger() {
+        return stickyLinger;
+    }
+
+    /**
+     * (optional) Make the zookeeper locks of this lock registry sticky: keep a zookeeper lock for this long after it's
+     * released, so the next lock of the same key on this JVM doesn't need any zookeeper I/O. When a sticky lock on
+     * another node waits for it, it asks for it with curator's revocation, and the lock is released right away, or as
+     * soon as the thread holding it is done. Plain locks on other nodes don't ask, so they can wait for up to the
+     * whole linger window. This only applies to the ZOOKEEPER scope.
+     * 
+     * @param stickyLinger
+     *            - null to release zookeeper locks right away, which is the default
+     */
+    public void setStickyLinger(final PositiveDuration stickyLinger) {
+        this.stickyLinger = stickyLinger;
+    }
+
+    /**
+     * Get the max number of calls that a @Synchronized(combineWith) method combines into one batch.
+     * 
+     * @return 0 if batches aren't limited
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * (optional) Limit the batches of @Synchronized(combineWith) methods that lock in this lock registry to this many
+     * calls. The calls after that wait for the next batch, and the next lock.
+     * 
+     * @param maxBatchSize
+     *            - 0 to combine all the calls that are waiting, which is the default
+     */
+    public void setMaxBatchSize(final int maxBatchSize) {
+        Preconditions.checkArgument(maxBatchSize >= 0, "Negative max batch size: %s", maxBatchSize);
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Get how long a @Synchronized(combineWith) method waits for more calls, with the lock, when its batch isn't full.
+     * 
+     * @return null if batches go with the calls that are already waiting
+     */
+    public PositiveDuration getMaxBatchLinger() {
+        return maxBatchLinger;
+    }
+
+    /**
+     * (optional) Let the batches of @Synchronized(combineWith) methods wait up to this long for more calls, when they
+     * aren't full yet. The lock is held in the meantime, so this trades latency for bigger batches.
+     * 
+     * @param maxBatchLinger
+     *            - null to run batches right away, which is the default
+     */
+    public void setMaxBatchLinger(final PositiveDuration maxBatchLinger) {
+        this.maxBatchLinger = maxBatchLinger;
+    }
+
+    /**
+     * Get how long the creates and deletes of zookeeper lock nodes queue up, to go to zookeeper together.
+     * 
+     * @return 0 if every lock node goes to zookeeper by itself
+     */
+    public long getGroupCommitTickMicros() {
+        return groupCommitTickMicros;
+    }
+
+    /**
+     * (optional) Group commit the zookeeper lock nodes of this lock registry: the creates and deletes of all the
+     * threads queue up for this many microseconds, and then go to zookeeper in one transaction. Every lock and unlock
+     * takes up to a tick longer, but a busy lock registry makes far fewer zookeeper requests. This only applies to the
+     * ZOOKEEPER scope, and not to lean locks.
+     * 
+     * @param groupCommitTickMicros
+     *            - 0 to send every lock node to zookeeper by itself, which is the default
+     */
+    public void setGroupCommitTickMicros(final long groupCommitTickMicros) {
+        Preconditions.checkArgument(groupCommitTickMicros >= 0, "Negative group commit tick: %s",
+                groupCommitTickMicros);
+        this.groupCommitTickMicros = groupCommitTickMicros;
+    }
+
+    /**
+     * @return true if zookeeper locks are released on a background thread
+     */
+    public boolean isAsyncRelease() {
+        return asyncRelease;
+    }
+
+    /**
+     * (optional) Release the zookeeper locks of this lock registry on a background thread, so unlock gives the JVM
+     * lock to the next thread right away, and the caller doesn't wait for zookeeper. The releases of each key still
+     * happen in order. Release failures are logged, instead of thrown, even with the STRICT policy. This only applies
+     * to the ZOOKEEPER scope, and not to lean locks.
+     * 
+     * @param asyncRelease
+     *            - false to release zookeeper locks on the unlocking thread, which is the default
+     */
+    public void setAsyncRelease(final boolean asyncRelease) {
+        this.asyncRelease = asyncRelease;
+    }
+
+    /**
+     * @return true if the zookeeper locks of this lock registry keep nothing per key but their paths
+     */
+    public boolean isLeanLocks() {
+        return leanLocks;
+    }
+
+    /**
+     * (optional) Use lean zookeeper locks in this lock registry, for lots of keys at a time. A lean lock keeps nothing
+     * per key but its path, and its lock node while it's held, instead of a whole curator mutex, and all the keys
+     * share the lock registry's one zookeeper watcher. This only applies to the ZOOKEEPER scope. Lean locks can't be
+     * cohort or sticky locks, and they can't group commit or release asynchronously, so the lock registry factory
+     * rejects those options with lean locks.
+     * 
+     * @param leanLocks
+     *            - false to back every key with a curator mutex, which is the default
+     */
+    public void setLeanLocks(final boolean leanLocks) {
+        this.leanLocks = leanLocks;
+    }
+
+    /**
+     * Get how many hash buckets the zookeeper locks of this lock registry are spread over, on each level.
+     * 
+     * @return 0 if every key's zookeeper lock goes right under the lock registry's zookeeper path
+     */
+    public int getHashBuckets() {
+        return hashBuckets;
+    }
+
+    /**
+     * (optional) Spread the zookeeper locks of this lock registry over this many hash buckets, on each level, like
+     * /locks/myLockName/~3f/~a9/myKey with 256 buckets on 2 levels, instead of putting them all right under
+     * /locks/myLockName/. With lots of keys, one znode with all their locks as children bloats the zookeeper snapshots,
+     * and can go past the jute.maxbuffer limit. This only applies to the ZOOKEEPER scope.
+     * <p>
+     * Nodes that spread their locks over buckets don't exclude the nodes that don't, so a lock registry that's already
+     * in use has to migrate first, with setHashBucketMigration.
+     * 
+     * @param hashBuckets
+     *            - 0 to put every lock right under the lock registry's zookeeper path, which is the default
+     */
+    public void setHashBuckets(final int hashBuckets) {
+        Preconditions.checkArgument(hashBuckets == 0 || hashBuckets > 1 && hashBuckets <= 1 << 16,
+                "Unsupported hash buckets: %s", hashBuckets);
+        this.hashBuckets = hashBuckets;
+    }
+
+    /**
+     * @return how many levels of hash buckets the zookeeper locks of this lock registry are spread over
+     */
+    public int getHashBucketLevels() {
+        return hashBucketLevels;
+    }
+
+    /**
+     * (optional) Nest the hash buckets of this lock registry's zookeeper locks 2 levels deep, for even more keys. This
+     * only applies with setHashBuckets. Changing it moves every lock, so it takes a migration too.
+     * 
+     * @param hashBucketLevels
+     *            - 1 or 2. 1 is the default.
+     */
+    public void setHashBucketLevels(final int hashBucketLevels) {
+        Preconditions.checkArgument(hashBucketLevels == 1 || hashBucketLevels == 2,
+                "Unsupported hash bucket levels: %s", hashBucketLevels);
+        this.hashBucketLevels = hashBucketLevels;
+    }
+
+    /**
+     * @return true if the zookeeper locks of this lock registry are locked both where they used to be and in their
+     *         hash buckets
+     */
+    public boolean isHashBucketMigration() {
+        return hashBucketMigration;
+    }
+
+    /**
+     * (optional) Move a lock registry that's already in use to hash buckets, without a moment when two nodes can hold
+     * the same key. Roll out setHashBuckets with the migration first: every key is locked right under the lock
+     * registry's zookeeper path, like before, and then in its hash bucket, so these nodes exclude both the nodes that
+     * aren't migrating yet, and the nodes that are done. Once every node is migrating, roll out setHashBuckets without
+     * the migration, so the locks are only in the buckets. This only applies with setHashBuckets.
+     * 
+     * @param hashBucketMigration
+     *            - false to only lock the hash buckets, which is the default
+     */
+    public void setHashBucketMigration(final boolean hashBucketMigration) {
+        this.hashBucketMigration = hashBucketMigration;
+    }
+
+    /**
+     * Get how often the idle zookeeper lock paths of this lock registry are reaped.
+     * 
+     * @return null if they're never reaped
+     */
+    public PositiveDuration getLockPathReapInterval() {
+        return lockPathReapInterval;
+    }
+
+    /**
+     * (optional) Reap the zookeeper lock paths of this lock registry, in the background, at this interval. Zookeeper
+     * keeps the lock path of every key that was ever locked, even though its lock nodes are gone, so a lock registry
+     * with lots of keys piles up empty znodes, that slow down zookeeper snapshots and restarts. A lock path that's
+     * been empty for a whole interval is deleted, and it's made again if the key is locked again. This only applies to
+     * the ZOOKEEPER scope.
+     * 
+     * @param lockPathReapInterval
+     *            - null to keep the lock paths, which is the default
+     */
+    public void setLockPathReapInterval(final PositiveDuration lockPathReapInterval) {
+        this.lockPathReapInterval = lockPathReapInterval;
+    }
+
+    /**
+     * @return how many zookeeper reads and deletes the reaping of this lock registry's lock paths makes per second
+     */
+    public int getLockPathReapOpsPerSecond() {
+        return lockPathReapOpsPerSecond;
+    }
+
+    /**
+     * (optional) Limit the zookeeper reads and deletes of the reaping of this lock registry's lock paths, on each
+     * node, so it doesn't load the zookeeper ensemble. This only applies with setLockPathReapInterval.
+     * 
+     * @param lockPathReapOpsPerSecond
+     *            - 100 is the default
+     */
+    public void setLockPathReapOpsPerSecond(final int lockPathReapOpsPerSecond) {
+        Preconditions.checkArgument(lockPathReapOpsPerSecond > 0, "Lock path reap rate must be positive: %s",
+                lockPathReapOpsPerSecond);
+        this.lockPathReapOpsPerSecond = lockPathReapOpsPerSecond;
+    }
+
+    /**
+     * Get how long the zookeeper locks of this lock registry fail fast, after the zookeeper connection goes down,
+     * before they check if it's back.
+     * 
+     * @return null if they never fail fast
+     */
+    public PositiveDuration getCircuitProbeInterval() {
+        return circuitProbeInterval;
+    }
+
+    /**
+     * (optional) Fail the zookeeper locks of this lock registry fast while the zookeeper connection is suspended or
+     * lost, instead of waiting on zookeeper: the locks that are waiting stop waiting, and the new ones don't try
+     * zookeeper at all. Strict locks throw, and best-effort locks fall back on the JVM lock. When the connection comes
+     * back, or after this interval, one lock checks if zookeeper is back, before the others go to it again. This only
+     * applies to the ZOOKEEPER scope.
+     * 
+     * @param circuitProbeInterval
+     *            - null to always wait on zookeeper, which is the default
+     */
+    public void setCircuitProbeInterval(final PositiveDuration circuitProbeInterval) {
+        this.circuitProbeInterval = circuitProbeInterval;
+    }
+
+    /**
+     * Only the name, key factory, locking policy and timeout, which are set when it's built, and can't change. The
+     * optional settings are mutable tuning, so they're left out, and a definition's hash code doesn't change while it's
+     * in a hash set.
+     */
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -106,6 +442,10 @@ public class SynchronizerLockRegistryConfiguration {
         return result;
     }
 
+    /**
+     * Like hashCode, this only compares the name, key factory, locking policy and timeout, and not the optional
+     * settings.
+     */
     @Override
     public boolean equals(final Object obj) {
         if (this == obj) {
@@ -148,6 +488,12 @@ public class SynchronizerLockRegistryConfiguration {
     @Override
     public String toString() {
         return "SynchronizerLockRegistryConfiguration [name=" + name + ", lockKeyFactory=" + lockKeyFactory
-                + ", policyOverride=" + policyOverride + "]";
+                + ", policyOverride=" + policyOverride + ", stripes=" + stripes + ", cohortHandoffs=" + cohortHandoffs
+                + ", stickyLinger=" + stickyLinger + ", maxBatchSize=" + maxBatchSize + ", maxBatchLinger="
+                + maxBatchLinger + ", groupCommitTickMicros=" + groupCommitTickMicros + ", asyncRelease=" + asyncRelease
+                + ", leanLocks=" + leanLocks + ", hashBuckets=" + hashBuckets + ", hashBucketLevels=" + hashBucketLevels
+                + ", hashBucketMigration=" + hashBucketMigration + ", lockPathReapInterval=" + lockPathReapInterval
+                + ", lockPathReapOpsPerSecond=" + lockPathReapOpsPerSecond + ", circuitProbeInterval="
+                + circuitProbeInterval + "]";
     }
 }
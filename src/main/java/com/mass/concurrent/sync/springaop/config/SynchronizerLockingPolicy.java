@@ -1,5 +1,12 @@
 package com.mass.concurrent.sync.springaop.config;
 
+/**
+ * What a cluster-scoped lock does when zookeeper fails. Every interprocess lock holds its JVM lock while it talks to
+ * zookeeper. When the lock is STRICT, the zookeeper failure is thrown, and the JVM lock is given back. When it's
+ * BEST_EFFORT, the failure is sent to the lock's fail observer, and the lock carries on with just the JVM lock.
+ *
+ * @author kmassaroni
+ */
 public enum SynchronizerLockingPolicy {
     /**
      * deny access to critical section, if synchronizer can't obtain a cluster-scoped lock
@@ -0,0 +1,79 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mass.concurrent.sync.zookeeper.BestEffortInterProcessReentrantLock.InterProcessLockFailObserver;
+
+/**
+ * Releases zookeeper leases off the caller's thread, so an unlock hands the JVM lock over right away, instead of
+ * waiting out the round trip of the lease node's delete. The leases are striped over single threads by their lock
+ * path, so the releases of the same key happen in order. The caller is gone by the time a release fails, so failures
+ * go to the fail observer, even for strict locks.
+ * <p>
+ * A lock of the same key can go ahead before the release is done. Its new lease node just waits in line behind the
+ * old one, like it would for any other node.
+ * <p>
+ * The stripes are daemon threads shared by every releaser in the JVM, one per processor, so lock registries that come
+ * and go don't leave their own threads behind.
+ *
+ * @author kmassaroni
+ */
+final class AsyncLeaseReleaser {
+    private static final ExecutorService[] stripes = newStripes(Runtime.getRuntime().availableProcessors());
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private static ExecutorService[] newStripes(final int stripeCount) {
+        final ThreadFactory threads = new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("zookeeper-lease-releaser-%d").build();
+        final ExecutorService[] stripes = new ExecutorService[stripeCount];
+
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = Executors.newSingleThreadExecutor(threads);
+        }
+
+        return stripes;
+    }
+
+    /**
+     * Queue up the release of a lease.
+     *
+     * @param failObserver
+     *            - (nullable) gets the release failure
+     */
+    public void release(final InterProcessLease lease, final String leasePath,
+            final InterProcessLockFailObserver failObserver) {
+        Preconditions.checkArgument(lease != null, "Undefined zookeeper lease.");
+        Preconditions.checkArgument(leasePath != null, "Undefined lease path.");
+        final int stripe = (lease.getBasePath().hashCode() & Integer.MAX_VALUE) % stripes.length;
+
+        pending.incrementAndGet();
+        stripes[stripe].execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lease.release(leasePath);
+                } catch (final Exception e) {
+                    if (failObserver != null) {
+                        failObserver.onInterProcessLockFail(new RuntimeException("Can't release interprocess lock.",
+                                e));
+                    }
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return how many releases are queued up or running
+     */
+    public int getPendingCount() {
+        return pending.get();
+    }
+}
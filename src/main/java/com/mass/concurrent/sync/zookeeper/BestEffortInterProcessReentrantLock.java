@@ -13,6 +13,10 @@ import org.joda.time.DateTimeUtils;
  * exception. This lock guarantees the in-process ReentrantLock contract, and makes a best-effort attempt at the
  * interprocess mutex contract. This will quietly send exceptions with interprocess locking to an observer. If the
  * observer throws an exception, then it will cause this lock to throw an exception.
+ * <p>
+ * With a fast lease, a zero-wait tryLock doesn't get in line behind the mutex: it tries for the zookeeper lock with
+ * the lease's node that has no sequence number, in one round trip, if the lock is taken. Reentrant locks of the same
+ * thread go with whichever one it has.
  * 
  * @author kmassaroni
  */
@@ -21,11 +25,25 @@ class BestEffortInterProcessReentrantLock extends ReentrantLock {
 
     private final InterProcessMutex mutex;
     private final InterProcessLockFailObserver failObserver;
+    private final transient InterProcessMutexLease fastLease;
+
+    // the node of a zero-wait tryLock, while it's held. Only the thread holding the JVM lock uses it.
+    private String fastPath;
 
     public BestEffortInterProcessReentrantLock(final InterProcessMutex mutex,
             final InterProcessLockFailObserver failObserver) {
+        this(mutex, null, failObserver);
+    }
+
+    /**
+     * @param fastLease
+     *            - (nullable) the lease of the same lock, for zero-wait tryLocks
+     */
+    public BestEffortInterProcessReentrantLock(final InterProcessMutex mutex, final InterProcessMutexLease fastLease,
+            final InterProcessLockFailObserver failObserver) {
         super();
         this.mutex = mutex;
+        this.fastLease = fastLease;
         this.failObserver = failObserver;
     }
 
@@ -43,7 +61,7 @@ class BestEffortInterProcessReentrantLock extends ReentrantLock {
     public void lock() {
         super.lock();
 
-        if (mutex == null) {
+        if (mutex == null || fastPath != null) {
             return;
         }
 
@@ -56,6 +74,23 @@ class BestEffortInterProcessReentrantLock extends ReentrantLock {
 
     @Override
     public void unlock() {
+        if (fastPath != null && isHeldByCurrentThread()) {
+            final boolean last = getHoldCount() == 1;
+            final String path = fastPath;
+
+            if (last) {
+                fastPath = null;
+            }
+
+            super.unlock();
+
+            if (last) {
+                releaseFastPath(path);
+            }
+
+            return;
+        }
+
         super.unlock();
 
         if (mutex == null) {
@@ -71,15 +106,50 @@ class BestEffortInterProcessReentrantLock extends ReentrantLock {
 
     @Override
     public boolean tryLock() {
+        if (mutex == null || fastLease == null || isHeldByCurrentThread()) {
+            try {
+                return tryLock(0, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                return false;
+            }
+        }
+
+        if (!super.tryLock()) {
+            return false;
+        }
+
         try {
-            return tryLock(0, TimeUnit.MILLISECONDS);
-        } catch (final InterruptedException e) {
+            fastPath = fastLease.tryAcquire();
+        } catch (final Exception t) {
+            onInterProcessLockFail(new RuntimeException("Can't get interprocess lock.", t));
+            return true;
+        }
+
+        if (fastPath == null) {
+            super.unlock();
             return false;
         }
+
+        return true;
+    }
+
+    private void releaseFastPath(final String path) {
+        try {
+            fastLease.release(path);
+        } catch (final Exception e) {
+            onInterProcessLockFail(new RuntimeException("Can't release interprocess lock.", e));
+        }
     }
 
+    /**
+     * A zero-wait tryLock takes the fast lease, like {@link #tryLock()}, unless the thread already holds the lock.
+     */
     @Override
     public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (timeout == 0 && mutex != null && fastLease != null && !isHeldByCurrentThread()) {
+            return tryLock();
+        }
+
         final boolean hasTimeout = unit != null && timeout > -1;
 
         final long startTime = DateTimeUtils.currentTimeMillis();
@@ -90,7 +160,7 @@ class BestEffortInterProcessReentrantLock extends ReentrantLock {
             return false;
         }
 
-        if (mutex == null) {
+        if (mutex == null || fastPath != null) {
             return true;
         }
 
@@ -102,7 +172,7 @@ class BestEffortInterProcessReentrantLock extends ReentrantLock {
                 final long now = DateTimeUtils.currentTimeMillis();
                 final long elapsed = now - startTime;
                 final long zkTimeout = totalTime - elapsed;
-                acquired = mutex.acquire(zkTimeout, unit);
+                acquired = mutex.acquire(zkTimeout, TimeUnit.MILLISECONDS);
             } else {
                 acquired = mutex.acquire(-1, null);
             }
@@ -123,7 +193,7 @@ class BestEffortInterProcessReentrantLock extends ReentrantLock {
     public void lockInterruptibly() throws InterruptedException {
         super.lockInterruptibly();
 
-        if (mutex == null) {
+        if (mutex == null || fastPath != null) {
             return;
         }
 
@@ -0,0 +1,84 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.CircuitBreakerMetrics;
+
+/**
+ * A curator mutex that only goes to zookeeper through a ZooKeeperCircuitBreaker, so its acquires fail fast while the
+ * connection is down. Reentrant acquires of the thread that holds it don't go to zookeeper, so they always go through,
+ * and a release always goes to zookeeper, unless there's nothing to release.
+ *
+ * @author kmassaroni
+ */
+class CircuitBreakingMutex extends InterProcessMutex {
+    private final ZooKeeperCircuitBreaker breaker;
+
+    // the thread that holds the mutex, and how many times. only the owner changes the hold count.
+    private volatile Thread owner;
+    private int holdCount;
+
+    public CircuitBreakingMutex(final CuratorFramework zkClient, final String path,
+            final ZooKeeperCircuitBreaker breaker) {
+        super(zkClient, path);
+        Preconditions.checkArgument(breaker != null, "Undefined zookeeper circuit breaker.");
+        this.breaker = breaker;
+    }
+
+    @Override
+    public void acquire() throws Exception {
+        acquire(-1, null);
+    }
+
+    @Override
+    public boolean acquire(final long time, final TimeUnit unit) throws Exception {
+        final Thread thread = Thread.currentThread();
+
+        if (owner == thread) {
+            super.acquire(time, unit);
+            holdCount++;
+            return true;
+        }
+
+        final boolean acquired = breaker.call(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                if (unit == null) {
+                    CircuitBreakingMutex.super.acquire();
+                    return true;
+                }
+
+                return CircuitBreakingMutex.super.acquire(time, unit);
+            }
+        });
+
+        if (acquired) {
+            owner = thread;
+            holdCount = 1;
+        }
+
+        return acquired;
+    }
+
+    /**
+     * @throws ZooKeeperCircuitOpenException
+     *             - if the thread doesn't hold the mutex, because its acquire failed fast, like a best-effort lock's
+     */
+    @Override
+    public void release() throws Exception {
+        if (owner != Thread.currentThread()) {
+            if (breaker.getState() != CircuitBreakerMetrics.CircuitState.CLOSED) {
+                throw new ZooKeeperCircuitOpenException("Didn't get the zookeeper lock while the circuit was open.");
+            }
+        } else if (--holdCount == 0) {
+            owner = null;
+        }
+
+        super.release();
+    }
+}
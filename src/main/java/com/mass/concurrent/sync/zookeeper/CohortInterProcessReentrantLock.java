@@ -0,0 +1,291 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.sync.zookeeper.BestEffortInterProcessReentrantLock.InterProcessLockFailObserver;
+
+/**
+ * A cohort lock: like the StrictInterProcessReentrantLock and the BestEffortInterProcessReentrantLock, this holds a
+ * zookeeper lock behind a JVM lock, but when other threads of this JVM are queued up on the JVM lock, unlock hands the
+ * zookeeper lease straight to the next one, instead of releasing it and making the next thread acquire it again. That
+ * saves the zookeeper round trips of every local handoff, on hot keys.
+ * <p>
+ * So that other nodes still get their turn, the lease is only handed off maxHandoffs times in a row, and then it's
+ * released, even if there are still local threads waiting. The JVM lock is fair, so the local threads take their turns
+ * in order too.
+ * <p>
+ * When the lock is sticky, the lease isn't released when the last local thread is done with it either. It lingers in
+ * the LingeringLeases, so the next lock of this key on this JVM can take it back without any zookeeper I/O, unless
+ * another node asks for it first.
+ * <p>
+ * With an AsyncLeaseReleaser, the lease is released on another thread, so unlock doesn't wait for zookeeper. The
+ * release failures go to the fail observer then, even when the lock is strict.
+ * <p>
+ * Every other zookeeper failure is handled like the lock's
+ * {@link com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy SynchronizerLockingPolicy} says.
+ *
+ * @author kmassaroni
+ */
+class CohortInterProcessReentrantLock extends ReentrantLock {
+    private static final long serialVersionUID = 3172516480929306145L;
+
+    private final transient InterProcessMutexLease lease;
+    private final transient InterProcessLockFailObserver failObserver;
+    private final boolean strict;
+    private final int maxHandoffs;
+    private final transient LingeringLeases lingering;
+    private final transient AsyncLeaseReleaser releaser;
+
+    // only written by the thread that holds the JVM lock. A lease can be left behind with no owner, when the waiter it
+    // was handed to gives up, so the threads that give up check for that.
+    private volatile String leasePath;
+    private int handoffs;
+    private volatile long totalHandoffs;
+
+    /**
+     * @param lease
+     * @param failObserver
+     *            - (nullable) gets the zookeeper failures of a best-effort lock
+     * @param strict
+     *            - throw zookeeper failures, instead of sending them to the fail observer
+     * @param maxHandoffs
+     *            - how many times in a row the zookeeper lease can go to another local thread, before it's released
+     */
+    public CohortInterProcessReentrantLock(final InterProcessMutexLease lease,
+            final InterProcessLockFailObserver failObserver, final boolean strict, final int maxHandoffs) {
+        this(lease, failObserver, strict, maxHandoffs, null);
+    }
+
+    /**
+     * @param lingering
+     *            - (nullable) keeps the lease after it's released, for sticky locks
+     */
+    public CohortInterProcessReentrantLock(final InterProcessMutexLease lease,
+            final InterProcessLockFailObserver failObserver, final boolean strict, final int maxHandoffs,
+            final LingeringLeases lingering) {
+        this(lease, failObserver, strict, maxHandoffs, lingering, null);
+    }
+
+    /**
+     * @param releaser
+     *            - (nullable) releases the lease off the unlocking thread
+     */
+    public CohortInterProcessReentrantLock(final InterProcessMutexLease lease,
+            final InterProcessLockFailObserver failObserver, final boolean strict, final int maxHandoffs,
+            final LingeringLeases lingering, final AsyncLeaseReleaser releaser) {
+        super(true);
+        Preconditions.checkArgument(lease != null, "Undefined zookeeper lease.");
+        Preconditions.checkArgument(maxHandoffs >= 0, "Negative max handoffs: %s", maxHandoffs);
+        this.lease = lease;
+        this.failObserver = failObserver;
+        this.strict = strict;
+        this.maxHandoffs = maxHandoffs;
+        this.lingering = lingering;
+        this.releaser = releaser;
+    }
+
+    /**
+     * @return true if this JVM holds the zookeeper lease right now, whether or not a thread holds the JVM lock
+     */
+    public boolean hasLease() {
+        return leasePath != null;
+    }
+
+    /**
+     * @return how many times the zookeeper lease went straight to another local thread
+     */
+    public long getHandoffCount() {
+        return totalHandoffs;
+    }
+
+    @Override
+    public void lock() {
+        super.lock();
+
+        try {
+            acquireLease(-1, null);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted getting interprocess lock.", e);
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        try {
+            super.lockInterruptibly();
+        } catch (final InterruptedException e) {
+            releaseStrandedLease();
+            throw e;
+        }
+
+        acquireLease(-1, null);
+    }
+
+    @Override
+    public boolean tryLock() {
+        try {
+            return tryLock(0, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long start = System.nanoTime();
+        final boolean jvmLockAcquired;
+
+        try {
+            jvmLockAcquired = super.tryLock(timeout, unit);
+        } catch (final InterruptedException e) {
+            releaseStrandedLease();
+            throw e;
+        }
+
+        if (!jvmLockAcquired) {
+            releaseStrandedLease();
+            return false;
+        }
+
+        final long remaining = unit.toNanos(timeout) - (System.nanoTime() - start);
+        return acquireLease(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void unlock() {
+        if (!isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("The current thread doesn't hold the cohort lock.");
+        }
+
+        String path = null;
+        boolean handedOff = false;
+
+        if (getHoldCount() == 1 && leasePath != null) {
+            if (handoffs < maxHandoffs && hasQueuedThreads() && !isRevoked(leasePath)) {
+                handoffs++;
+                totalHandoffs++;
+                handedOff = true;
+            } else {
+                path = leasePath;
+                leasePath = null;
+                handoffs = 0;
+            }
+        }
+
+        super.unlock();
+
+        if (path != null) {
+            releaseLease(path);
+        } else if (handedOff) {
+            // the waiter might have given up in the meantime
+            releaseStrandedLease();
+        }
+    }
+
+    /**
+     * Only called with the JVM lock. Reuse the lease if it was handed off to this thread.
+     *
+     * @return false if it timed out, and gave the JVM lock back
+     */
+    private boolean acquireLease(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (getHoldCount() > 1 || leasePath != null) {
+            return true;
+        }
+
+        handoffs = 0;
+        boolean acquired = false;
+
+        try {
+            final String lingeringPath = lingering == null ? null : lingering.claim(lease);
+
+            if (lingeringPath != null) {
+                leasePath = lingeringPath;
+                acquired = true;
+                return true;
+            }
+
+            // a zero-wait try only needs to know if the lock is free, so it doesn't get in line
+            final String path = timeout == 0 ? lease.tryAcquire() : lease.acquire(timeout, unit);
+            leasePath = path;
+            acquired = path != null;
+
+            if (acquired && lingering != null) {
+                lingering.watch(lease, path);
+            }
+
+            return acquired;
+        } catch (final InterruptedException e) {
+            throw e;
+        } catch (final Exception e) {
+            onInterProcessLockFail(new RuntimeException("Can't get interprocess lock.", e));
+            acquired = true;
+            return true;
+        } finally {
+            if (!acquired) {
+                super.unlock();
+            }
+        }
+    }
+
+    /**
+     * A lease that was handed off to a waiter that gave up has no owner. Whichever thread leaves last releases it,
+     * unless some other thread takes the JVM lock, and the lease with it.
+     */
+    private void releaseStrandedLease() {
+        if (leasePath == null || hasQueuedThreads() || !super.tryLock()) {
+            return;
+        }
+
+        String path = null;
+
+        try {
+            if (getHoldCount() == 1 && !hasQueuedThreads()) {
+                path = leasePath;
+                leasePath = null;
+                handoffs = 0;
+            }
+        } finally {
+            super.unlock();
+        }
+
+        if (path != null) {
+            releaseLease(path);
+        }
+    }
+
+    private boolean isRevoked(final String path) {
+        return lingering != null && lingering.isRevoked(path);
+    }
+
+    private void releaseLease(final String path) {
+        if (lingering != null) {
+            lingering.linger(lease, path);
+            return;
+        }
+
+        if (releaser != null) {
+            releaser.release(lease, path, failObserver);
+            return;
+        }
+
+        try {
+            lease.release(path);
+        } catch (final Exception e) {
+            onInterProcessLockFail(new RuntimeException("Can't release interprocess lock.", e));
+        }
+    }
+
+    private void onInterProcessLockFail(final RuntimeException failure) {
+        if (strict) {
+            throw failure;
+        }
+
+        if (failObserver != null) {
+            failObserver.onInterProcessLockFail(failure);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.mass.concurrent.LockHandle;
+
+/**
+ * The handle of several locks that were acquired together. It releases them all, in reverse order, once. If a release
+ * fails, the rest are still released, and then the first failure is thrown.
+ *
+ * @author kmassaroni
+ */
+class CompositeLockHandle implements LockHandle {
+    private final ImmutableList<LockHandle> handles;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    public CompositeLockHandle(final List<LockHandle> handles) {
+        Preconditions.checkArgument(handles != null, "Undefined lock handles.");
+        this.handles = ImmutableList.copyOf(handles);
+    }
+
+    @Override
+    public void release() {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+
+        RuntimeException failure = null;
+
+        for (final LockHandle handle : handles.reverse()) {
+            try {
+                handle.release();
+            } catch (final RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CompositeLockHandle [handles=" + handles + ", released=" + released + "]";
+    }
+}
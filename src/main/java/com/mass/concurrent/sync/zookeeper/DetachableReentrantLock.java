@@ -0,0 +1,138 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mass.concurrent.DetachableLock;
+import com.mass.concurrent.LockHandle;
+
+/**
+ * A reentrant lock that its holder can detach into a LockHandle. While it's detached, no thread owns the reentrant
+ * lock, but it stays locked: threads that get the reentrant lock wait on a condition, until the handle is released, so
+ * the detached hold excludes everybody, including the thread that detached it.
+ *
+ * @author kmassaroni
+ */
+class DetachableReentrantLock extends ReentrantLock implements DetachableLock {
+    private static final long serialVersionUID = -6370145420891521137L;
+
+    private final Condition reattached = super.newCondition();
+
+    // only written with the reentrant lock
+    private volatile boolean detached;
+
+    public DetachableReentrantLock() {
+        super();
+    }
+
+    public DetachableReentrantLock(final boolean fair) {
+        super(fair);
+    }
+
+    @Override
+    public void lock() {
+        super.lock();
+
+        while (detached) {
+            reattached.awaitUninterruptibly();
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        super.lockInterruptibly();
+
+        try {
+            while (detached) {
+                reattached.await();
+            }
+        } catch (final InterruptedException e) {
+            super.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!super.tryLock()) {
+            return false;
+        }
+
+        if (detached) {
+            super.unlock();
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        if (!super.tryLock(timeout, unit)) {
+            return false;
+        }
+
+        try {
+            long remaining = deadline - System.nanoTime();
+
+            while (detached) {
+                if (remaining <= 0) {
+                    super.unlock();
+                    return false;
+                }
+
+                remaining = reattached.awaitNanos(remaining);
+            }
+
+            return true;
+        } catch (final InterruptedException e) {
+            super.unlock();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isLocked() {
+        return detached || super.isLocked();
+    }
+
+    public boolean isDetached() {
+        return detached;
+    }
+
+    @Override
+    public LockHandle detach() {
+        if (getHoldCount() != 1) {
+            throw new IllegalMonitorStateException("Only a lock held once by the current thread can be detached.");
+        }
+
+        detached = true;
+        super.unlock();
+
+        return new LockHandle() {
+            private final AtomicBoolean released = new AtomicBoolean();
+
+            @Override
+            public void release() {
+                if (released.compareAndSet(false, true)) {
+                    reattach();
+                }
+            }
+        };
+    }
+
+    private void reattach() {
+        super.lock();
+
+        try {
+            detached = false;
+            reattached.signalAll();
+        } finally {
+            super.unlock();
+        }
+    }
+}
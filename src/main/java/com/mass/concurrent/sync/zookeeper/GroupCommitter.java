@@ -0,0 +1,212 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * Group commit of the lease nodes of one lock registry. The creates and deletes of all the threads queue up for one
+ * tick, and then they go to zookeeper together, in one multi() transaction, so a busy registry makes one request per
+ * tick, instead of one per lock and unlock. Each caller waits for its own result, so a lock or unlock takes up to a
+ * tick longer, in exchange for a lot more throughput out of the zookeeper session.
+ * <p>
+ * A transaction is all or nothing, so when any op in it fails, like a create under a parent that isn't there yet, or
+ * a delete of a node that expired, the ops of that transaction are done again one at a time, and each one gets its
+ * own result. Creates make ephemeral sequential nodes, and deletes are guaranteed, like the leases' own.
+ *
+ * @author kmassaroni
+ */
+final class GroupCommitter {
+    // zookeeper turns down requests over 1MB, by default, so transactions are kept well under that
+    static final int MAX_BATCH_SIZE = 1000;
+
+    private static final ScheduledExecutorService ticks = Executors.newScheduledThreadPool(Runtime.getRuntime()
+            .availableProcessors(), new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("zookeeper-group-commit-%d").build());
+
+    private final CuratorFramework zkClient;
+    private final long tickNanos;
+    private final Queue<Op> pending = new ConcurrentLinkedQueue<Op>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong commitCount = new AtomicLong();
+    private final AtomicLong opCount = new AtomicLong();
+
+    private final Runnable flusher = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param tickMicros
+     *            - how long ops queue up before they're committed
+     */
+    public GroupCommitter(final CuratorFramework zkClient, final long tickMicros) {
+        Preconditions.checkArgument(zkClient != null, "Undefined zookeeper client.");
+        Preconditions.checkArgument(tickMicros > 0, "Group commit tick must be positive: %s", tickMicros);
+        this.zkClient = zkClient;
+        tickNanos = TimeUnit.MICROSECONDS.toNanos(tickMicros);
+    }
+
+    /**
+     * Create an ephemeral sequential node with the next commit, and wait for it. This waits through interrupts, so
+     * the node can't be left behind, and restores the interrupt when it's done.
+     *
+     * @return the path of the new node
+     */
+    public String create(final String path) throws Exception {
+        return await(submit(new Op(path, true)));
+    }
+
+    /**
+     * Delete a node with the next commit, and wait for it. A node that's gone already doesn't count as a failure.
+     */
+    public void delete(final String path) throws Exception {
+        await(submit(new Op(path, false)));
+    }
+
+    /**
+     * @return how many transactions went to zookeeper
+     */
+    public long getCommitCount() {
+        return commitCount.get();
+    }
+
+    /**
+     * @return how many creates and deletes went to zookeeper, in all the transactions
+     */
+    public long getOpCount() {
+        return opCount.get();
+    }
+
+    private SettableFuture<String> submit(final Op op) {
+        Preconditions.checkArgument(op.path != null, "Undefined zookeeper path.");
+        pending.add(op);
+
+        if (scheduled.compareAndSet(false, true)) {
+            ticks.schedule(flusher, tickNanos, TimeUnit.NANOSECONDS);
+        }
+
+        return op.result;
+    }
+
+    private static String await(final SettableFuture<String> result) throws Exception {
+        try {
+            return Uninterruptibles.getUninterruptibly(result);
+        } catch (final ExecutionException e) {
+            Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Commit everything that's queued up, in transactions of up to MAX_BATCH_SIZE ops.
+     */
+    private void flush() {
+        scheduled.set(false);
+
+        while (true) {
+            final List<Op> batch = Lists.newArrayList();
+
+            for (Op op = pending.poll(); op != null; op = batch.size() < MAX_BATCH_SIZE ? pending.poll() : null) {
+                batch.add(op);
+            }
+
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            commit(batch);
+        }
+    }
+
+    private void commit(final List<Op> batch) {
+        commitCount.incrementAndGet();
+        opCount.addAndGet(batch.size());
+
+        final Collection<CuratorTransactionResult> results;
+
+        try {
+            CuratorTransaction transaction = zkClient.inTransaction();
+            CuratorTransactionFinal ops = null;
+
+            for (final Op op : batch) {
+                ops = op.create ? transaction.create().withMode(CreateMode.EPHEMERAL_SEQUENTIAL).forPath(op.path)
+                        .and() : transaction.delete().forPath(op.path).and();
+                transaction = ops;
+            }
+
+            results = ops.commit();
+        } catch (final Exception e) {
+            commitEach(batch);
+            return;
+        }
+
+        // the results are in the same order as the ops
+        final Iterator<CuratorTransactionResult> it = results.iterator();
+
+        for (final Op op : batch) {
+            op.result.set(it.next().getResultPath());
+        }
+    }
+
+    private void commitEach(final List<Op> batch) {
+        for (final Op op : batch) {
+            commitCount.incrementAndGet();
+
+            try {
+                if (op.create) {
+                    op.result.set(zkClient.create().creatingParentsIfNeeded()
+                            .withMode(CreateMode.EPHEMERAL_SEQUENTIAL).forPath(op.path));
+                } else {
+                    deleteNow(op.path);
+                    op.result.set(op.path);
+                }
+            } catch (final Exception e) {
+                op.result.setException(e);
+            }
+        }
+    }
+
+    private void deleteNow(final String path) throws Exception {
+        try {
+            zkClient.delete().guaranteed().forPath(path);
+        } catch (final KeeperException.NoNodeException e) {
+            // the session expired, and took it with it
+        }
+    }
+
+    private static class Op {
+        private final String path;
+        private final boolean create;
+        private final SettableFuture<String> result = SettableFuture.create();
+
+        public Op(final String path, final boolean create) {
+            this.path = path;
+            this.create = create;
+        }
+    }
+}
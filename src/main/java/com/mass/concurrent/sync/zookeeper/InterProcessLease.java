@@ -0,0 +1,743 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.api.BackgroundCallback;
+import org.apache.curator.framework.api.CuratorEvent;
+import org.apache.curator.framework.api.transaction.CuratorTransaction;
+import org.apache.curator.framework.api.transaction.CuratorTransactionFinal;
+import org.apache.curator.framework.api.transaction.CuratorTransactionResult;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * A zookeeper lock, where a lease isn't bound to the thread that acquired it, unlike curator's locks, so any thread can
+ * release it. A lease is a protected ephemeral sequential node, named and ordered the same way as curator's lock nodes,
+ * so leases exclude, and are excluded by, the curator locks on the same path. The subclasses decide which node ahead
+ * of a lease it has to wait for.
+ * <p>
+ * A lease can also be acquired asynchronously, with curator background callbacks and watchers, so no thread waits
+ * while the lease is in line. The only thread it takes is the one that times it out. Several leases can be acquired
+ * together, with their nodes created in one transaction.
+ * <p>
+ * A lease can also try for the lock without waiting, in one round trip, with a node that has the plain lock name, and
+ * no sequence number. Zookeeper only lets one such node exist, and it sorts ahead of all the sequential nodes, for
+ * curator's locks too, so everybody else waits in line behind it.
+ * <p>
+ * With a GroupCommitter, the synchronous acquires and releases create and delete their nodes with the group commits
+ * of the lock registry, along with the other threads' nodes. With a WatcherDispatcher, the synchronous acquires wait
+ * with the lock registry's one watcher, instead of one of their own.
+ *
+ * @author kmassaroni
+ */
+abstract class InterProcessLease {
+    // the prefix of curator's protected nodes
+    private static final String PROTECTED_PREFIX = "_c_";
+    private static final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("zookeeper-lease-timeouts-%d").build());
+
+    private final CuratorFramework zkClient;
+    private final GroupCommitter committer;
+    private final WatcherDispatcher dispatcher;
+    private final String basePath;
+    private final List<String> lockNames;
+
+    private final Comparator<String> sequenceOrder = new Comparator<String>() {
+        @Override
+        public int compare(final String lhs, final String rhs) {
+            return toSortable(lhs).compareTo(toSortable(rhs));
+        }
+    };
+
+    /**
+     * @param lockNames
+     *            - the names of the lock nodes that this lease competes with, like curator's "lock-"
+     */
+    protected InterProcessLease(final CuratorFramework zkClient, final String basePath, final String... lockNames) {
+        this(zkClient, null, null, basePath, lockNames);
+    }
+
+    /**
+     * @param committer
+     *            - (nullable) creates and deletes the lease nodes with group commits
+     * @param dispatcher
+     *            - (nullable) watches the nodes ahead of the lease
+     * @param lockNames
+     *            - the names of the lock nodes that this lease competes with, like curator's "lock-"
+     */
+    protected InterProcessLease(final CuratorFramework zkClient, final GroupCommitter committer,
+            final WatcherDispatcher dispatcher, final String basePath, final String... lockNames) {
+        Preconditions.checkArgument(zkClient != null, "Undefined zookeeper client.");
+        com.mass.core.Preconditions.checkNotBlank(basePath, "Undefined zookeeper lock path.");
+        Preconditions.checkArgument(lockNames.length > 0, "Undefined lock node names.");
+        this.zkClient = zkClient;
+        this.committer = committer;
+        this.dispatcher = dispatcher;
+        this.basePath = basePath;
+        this.lockNames = ImmutableList.copyOf(lockNames);
+    }
+
+    public String getBasePath() {
+        return basePath;
+    }
+
+    /**
+     * Release a lease, from any thread. The delete is guaranteed, so curator keeps retrying it in the background, if
+     * the connection drops.
+     */
+    public void release(final String leasePath) throws Exception {
+        Preconditions.checkArgument(leasePath != null, "Undefined lease path.");
+
+        if (lockNames.contains(ZKPaths.getNodeFromPath(leasePath))) {
+            releaseWellKnownNode(leasePath);
+            return;
+        }
+
+        if (committer != null) {
+            committer.delete(leasePath);
+            return;
+        }
+
+        try {
+            zkClient.delete().guaranteed().forPath(leasePath);
+        } catch (final KeeperException.NoNodeException e) {
+            // the session expired, and took the lease with it
+        }
+    }
+
+    /**
+     * Check if anybody holds or waits for this lock, with one read, and no writes or watches.
+     *
+     * @param ignoredPath
+     *            - (nullable) a lease node that doesn't count, like one that's lingering
+     */
+    public boolean hasLockNodes(final String ignoredPath) throws Exception {
+        final List<String> children;
+
+        try {
+            children = zkClient.getChildren().forPath(basePath);
+        } catch (final KeeperException.NoNodeException e) {
+            return false;
+        }
+
+        for (final String child : children) {
+            if (indexOfLockName(child) >= 0 && !ZKPaths.makePath(basePath, child).equals(ignoredPath)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Watch the data of a lease node, like for curator's revocation requests.
+     */
+    public void watchData(final String leasePath, final Watcher watcher) throws Exception {
+        zkClient.getData().usingWatcher(watcher).forPath(leasePath);
+    }
+
+    /**
+     * Called every time a lease has to wait for another node. This does nothing, unless a subclass asks the node's
+     * owner to give it up.
+     */
+    protected void onBlocked(final CuratorFramework zkClient, final String blockerPath) throws Exception {
+    }
+
+    /**
+     * @param nodes
+     *            - the lock nodes, in sequence order
+     * @param index
+     *            - the index of this lease's node
+     * @return the node that this lease has to wait for, or null if it holds the lock
+     */
+    protected abstract String getBlocker(String lockName, List<String> nodes, int index);
+
+    /**
+     * @param timeout
+     *            - negative to wait forever
+     * @return the path of the lease node, or null if it timed out
+     */
+    protected String acquire(final String lockName, final long timeout, final TimeUnit unit) throws Exception {
+        final boolean hasTimeout = unit != null && timeout >= 0;
+        final long deadline = hasTimeout ? System.nanoTime() + unit.toNanos(timeout) : 0;
+
+        final String protectedId = committer == null ? null : UUID.randomUUID().toString();
+        final String leasePath = createLeaseNode(lockName, protectedId);
+        final String leaseNode = ZKPaths.getNodeFromPath(leasePath);
+        boolean acquired = false;
+
+        try {
+            while (true) {
+                final List<String> nodes = getSortedLockNodes();
+
+                if (protectedId != null) {
+                    deleteLeftovers(nodes, leaseNode, protectedId);
+                }
+
+                final int index = nodes.indexOf(leaseNode);
+
+                if (index < 0) {
+                    throw new KeeperException.NoNodeException("Lost the lease node: " + leasePath);
+                }
+
+                final String blocker = getBlocker(lockName, nodes, index);
+
+                if (blocker == null) {
+                    acquired = true;
+                    return leasePath;
+                }
+
+                final String blockerPath = ZKPaths.makePath(basePath, blocker);
+                onBlocked(zkClient, blockerPath);
+                final CountDownLatch deleted = watch(blockerPath);
+
+                if (deleted == null) {
+                    continue;
+                }
+
+                if (!hasTimeout) {
+                    deleted.await();
+                    continue;
+                }
+
+                final long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0 || !deleted.await(remaining, TimeUnit.NANOSECONDS)) {
+                    return null;
+                }
+            }
+        } finally {
+            if (!acquired) {
+                deleteQuietly(leasePath);
+            }
+        }
+    }
+
+    /**
+     * @return the latch that opens when the node changes, or null if it's gone already
+     */
+    private CountDownLatch watch(final String path) throws Exception {
+        if (dispatcher != null) {
+            return dispatcher.watch(zkClient, path);
+        }
+
+        final CountDownLatch changed = new CountDownLatch(1);
+        final Stat stat = zkClient.checkExists().usingWatcher(new Watcher() {
+            @Override
+            public void process(final WatchedEvent event) {
+                changed.countDown();
+            }
+        }).forPath(path);
+
+        return stat == null ? null : changed;
+    }
+
+    /**
+     * Create the lease node, with the group commits, if there are any, or else by itself, like curator's.
+     *
+     * @param protectedId
+     *            - the protection id of a group committed node
+     */
+    private String createLeaseNode(final String lockName, final String protectedId) throws Exception {
+        if (protectedId == null) {
+            return zkClient.create().creatingParentsIfNeeded().withProtection()
+                    .withMode(CreateMode.EPHEMERAL_SEQUENTIAL).forPath(ZKPaths.makePath(basePath, lockName));
+        }
+
+        return committer.create(ZKPaths.makePath(basePath, PROTECTED_PREFIX + protectedId + "-" + lockName));
+    }
+
+    /**
+     * Try for the lock without waiting in line, in one round trip: create the node with the plain lock name. If it's
+     * there already, somebody has the lock. Otherwise this checks the other lock nodes, since a sequential node that
+     * was already there might have the lock, and gives it back if there are any.
+     * <p>
+     * The node is created with the zookeeper handle itself, since curator retries a create when the connection drops,
+     * and its retry would fail on the node it just made, so this lease would think the lock is taken by somebody else.
+     * The node gets curator's default, open ACL.
+     *
+     * @return the path of the node, or null if the lock is taken
+     */
+    protected String tryAcquireNode(final String lockName) throws Exception {
+        final String path = ZKPaths.makePath(basePath, lockName);
+        final ZooKeeper zooKeeper = zkClient.getZookeeperClient().getZooKeeper();
+        final String zkPath = ZKPaths.fixForNamespace(zkClient.getNamespace(), path);
+
+        try {
+            createWellKnownNode(zooKeeper, zkPath);
+        } catch (final KeeperException.NodeExistsException e) {
+            return null;
+        }
+
+        boolean acquired = false;
+
+        try {
+            acquired = getSortedLockNodes().size() == 1;
+            return acquired ? path : null;
+        } finally {
+            if (!acquired) {
+                deleteQuietly(path);
+            }
+        }
+    }
+
+    private void createWellKnownNode(final ZooKeeper zooKeeper, final String zkPath) throws Exception {
+        for (int attempt = 0;; attempt++) {
+            try {
+                zooKeeper.create(zkPath, new byte[0], ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                return;
+            } catch (final KeeperException.NoNodeException e) {
+                if (attempt > 0) {
+                    throw e;
+                }
+
+                try {
+                    zkClient.create().creatingParentsIfNeeded().forPath(basePath);
+                } catch (final KeeperException.NodeExistsException alreadyCreated) {
+                    // by another lock, in the meantime
+                }
+            } catch (final KeeperException.NodeExistsException e) {
+                throw e;
+            } catch (final KeeperException e) {
+                // it might have been created anyway
+                try {
+                    deleteIfOwned(zooKeeper, zkPath);
+                } catch (final Exception cleanup) {
+                    // it goes with the session
+                }
+
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Delete a node with the plain lock name. Nobody else can have it until it's deleted, but then anybody can, so a
+     * delete that failed is only tried again if the node is still this session's.
+     */
+    private void releaseWellKnownNode(final String leasePath) throws Exception {
+        final ZooKeeper zooKeeper = zkClient.getZookeeperClient().getZooKeeper();
+        final String zkPath = ZKPaths.fixForNamespace(zkClient.getNamespace(), leasePath);
+
+        try {
+            zooKeeper.delete(zkPath, -1);
+        } catch (final KeeperException.NoNodeException e) {
+            // the session expired, and took the lease with it
+        } catch (final KeeperException e) {
+            deleteIfOwned(zooKeeper, zkPath);
+        }
+    }
+
+    private static void deleteIfOwned(final ZooKeeper zooKeeper, final String zkPath) throws Exception {
+        final Stat stat = zooKeeper.exists(zkPath, false);
+
+        if (stat != null && stat.getEphemeralOwner() == zooKeeper.getSessionId()) {
+            zooKeeper.delete(zkPath, stat.getVersion());
+        }
+    }
+
+    /**
+     * Start acquiring a lease, without waiting for it.
+     *
+     * @param timeout
+     *            - negative to wait forever
+     * @return the path of the lease node, once it's acquired. It fails with a TimeoutException if it times out.
+     */
+    protected ListenableFuture<String> acquireAsync(final String lockName, final long timeout, final TimeUnit unit) {
+        final AsyncAcquisition acquisition = new AsyncAcquisition(lockName, timeout, unit);
+        acquisition.start();
+        return acquisition.future;
+    }
+
+    /**
+     * Acquire several leases together: create all their nodes in one zookeeper transaction, and then wait for all of
+     * them in parallel, so it takes about as long as the slowest one, instead of all of them in a row. Leases acquired
+     * together get their nodes in the same transaction, so two bulk acquisitions of the same locks are lined up the
+     * same way on every lock, and can't deadlock each other. The nodes are protected like curator's, so the nodes of a
+     * transaction that was retried after a connection loss can be told apart, and cleaned up.
+     *
+     * @param leases
+     *            - leases on different paths, with the same zookeeper client
+     * @param timeout
+     *            - negative to wait forever
+     * @return the paths of the lease nodes, in the same order as the leases, or null if they weren't all acquired in
+     *         time, in which case none of them are held
+     */
+    protected static List<String> acquireAll(final List<? extends InterProcessLease> leases, final String lockName,
+            final long timeout, final TimeUnit unit) throws Exception {
+        Preconditions.checkArgument(leases != null && !leases.isEmpty(), "Undefined zookeeper leases.");
+        final InterProcessLease first = leases.get(0);
+        final CuratorFramework zkClient = first.zkClient;
+        final String protectedId = UUID.randomUUID().toString();
+        final List<String> leasePaths = createAll(zkClient, leases, PROTECTED_PREFIX + protectedId + "-" + lockName);
+
+        final List<SettableFuture<String>> acquisitions = Lists.newArrayListWithCapacity(leases.size());
+
+        for (int i = 0; i < leases.size(); i++) {
+            final InterProcessLease lease = leases.get(i);
+            final AsyncAcquisition acquisition = lease.new AsyncAcquisition(lockName, timeout, unit);
+            acquisition.resume(leasePaths.get(i), protectedId);
+            acquisitions.add(acquisition.future);
+        }
+
+        boolean acquired = false;
+
+        try {
+            Futures.allAsList(acquisitions).get();
+            acquired = true;
+            return leasePaths;
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof TimeoutException) {
+                return null;
+            }
+
+            Throwables.propagateIfInstanceOf(e.getCause(), Exception.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            if (!acquired) {
+                for (int i = 0; i < acquisitions.size(); i++) {
+                    // the ones that aren't acquired yet give up their nodes when they're cancelled
+                    final InterProcessLease lease = leases.get(i);
+
+                    if (!acquisitions.get(i).cancel(false)) {
+                        lease.deleteQuietly(leasePaths.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Create the lease nodes in one transaction. The parents are only created if the transaction fails without them.
+     */
+    private static List<String> createAll(final CuratorFramework zkClient,
+            final List<? extends InterProcessLease> leases, final String nodeName) throws Exception {
+        try {
+            return commitCreates(zkClient, leases, nodeName);
+        } catch (final KeeperException.NoNodeException e) {
+            for (final InterProcessLease lease : leases) {
+                try {
+                    zkClient.create().creatingParentsIfNeeded().forPath(lease.basePath);
+                } catch (final KeeperException.NodeExistsException alreadyCreated) {
+                    // by another lock, in the meantime
+                }
+            }
+
+            return commitCreates(zkClient, leases, nodeName);
+        }
+    }
+
+    private static List<String> commitCreates(final CuratorFramework zkClient,
+            final List<? extends InterProcessLease> leases, final String nodeName) throws Exception {
+        CuratorTransaction transaction = zkClient.inTransaction();
+        CuratorTransactionFinal creates = null;
+
+        for (final InterProcessLease lease : leases) {
+            creates = transaction.create().withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                    .forPath(ZKPaths.makePath(lease.basePath, nodeName)).and();
+            transaction = creates;
+        }
+
+        final List<String> leasePaths = Lists.newArrayListWithCapacity(leases.size());
+
+        for (final CuratorTransactionResult result : creates.commit()) {
+            leasePaths.add(result.getResultPath());
+        }
+
+        return leasePaths;
+    }
+
+    private List<String> getSortedLockNodes() throws Exception {
+        return sortLockNodes(zkClient.getChildren().forPath(basePath));
+    }
+
+    private List<String> sortLockNodes(final List<String> children) {
+        final List<String> nodes = Lists.newArrayList();
+
+        for (final String child : children) {
+            if (indexOfLockName(child) >= 0) {
+                nodes.add(child);
+            }
+        }
+
+        Collections.sort(nodes, sequenceOrder);
+        return nodes;
+    }
+
+    /**
+     * Sort on the sequence number that zookeeper appends after the lock name, ignoring the protection prefix.
+     */
+    private String toSortable(final String node) {
+        final int index = indexOfLockName(node);
+        return index >= 0 ? node.substring(index) : node;
+    }
+
+    /**
+     * @return the index just past the lock name in this node name, or -1 if it's not a lock node
+     */
+    private int indexOfLockName(final String node) {
+        for (final String lockName : lockNames) {
+            final int index = node.lastIndexOf(lockName);
+
+            if (index >= 0) {
+                return index + lockName.length();
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Delete the nodes that a retried create left behind, and take them out of line.
+     */
+    private void deleteLeftovers(final List<String> nodes, final String leaseNode, final String protectedId) {
+        for (final Iterator<String> it = nodes.iterator(); it.hasNext();) {
+            final String node = it.next();
+
+            if (node.contains(protectedId) && !node.equals(leaseNode)) {
+                deleteInBackground(ZKPaths.makePath(basePath, node));
+                it.remove();
+            }
+        }
+    }
+
+    private void deleteInBackground(final String path) {
+        try {
+            zkClient.delete().guaranteed().inBackground().forPath(path);
+        } catch (final Exception e) {
+            // the guaranteed delete keeps trying in the background
+        }
+    }
+
+    private void deleteQuietly(final String leasePath) {
+        try {
+            release(leasePath);
+        } catch (final Exception e) {
+            // the guaranteed delete keeps trying in the background
+        }
+    }
+
+    /**
+     * The steps of an asynchronous acquire: create the lease node, list the lock nodes, and watch the one ahead of the
+     * lease, if there is one, until the lease is at the front. Each step is started by the callback of the one before
+     * it, on curator's event thread.
+     */
+    private class AsyncAcquisition implements BackgroundCallback, Watcher, Runnable {
+        private final String lockName;
+        private final boolean hasTimeout;
+        private final long deadline;
+        private final SettableFuture<String> future = SettableFuture.create();
+
+        private volatile String leasePath;
+        private volatile String protectedId;
+        private volatile ScheduledFuture<?> expiry;
+
+        public AsyncAcquisition(final String lockName, final long timeout, final TimeUnit unit) {
+            this.lockName = lockName;
+            hasTimeout = unit != null && timeout >= 0;
+            deadline = hasTimeout ? System.nanoTime() + unit.toNanos(timeout) : 0;
+
+            if (hasTimeout && timeout > 0) {
+                expiry = timeouts.schedule(this, timeout, unit);
+            }
+        }
+
+        public void start() {
+            addDoneListener();
+
+            try {
+                zkClient.create().creatingParentsIfNeeded().withProtection().withMode(CreateMode.EPHEMERAL_SEQUENTIAL)
+                        .inBackground(this).forPath(ZKPaths.makePath(basePath, lockName));
+            } catch (final Exception e) {
+                future.setException(e);
+            }
+        }
+
+        /**
+         * Start from a lease node that's already created, like by a bulk acquisition.
+         *
+         * @param protectedId
+         *            - (nullable) the protection id of the lease node. Other nodes with the same id are left over from
+         *            a create that was retried, so they're deleted.
+         */
+        public void resume(final String leasePath, final String protectedId) {
+            this.leasePath = leasePath;
+            this.protectedId = protectedId;
+            addDoneListener();
+            checkLockNodes();
+        }
+
+        private void addDoneListener() {
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    onDone();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+
+        /**
+         * Time out.
+         */
+        @Override
+        public void run() {
+            future.setException(new TimeoutException("Timed out waiting for zookeeper lease: " + basePath));
+        }
+
+        /**
+         * The node ahead of the lease changed.
+         */
+        @Override
+        public void process(final WatchedEvent event) {
+            checkLockNodes();
+        }
+
+        @Override
+        public void processResult(final CuratorFramework client, final CuratorEvent event) {
+            final KeeperException.Code code = KeeperException.Code.get(event.getResultCode());
+
+            try {
+                switch (event.getType()) {
+                case CREATE:
+                    if (code != KeeperException.Code.OK) {
+                        throw KeeperException.create(code, event.getPath());
+                    }
+
+                    leasePath = event.getName();
+
+                    // it might have been cancelled before the lease node was there to delete
+                    if (future.isDone()) {
+                        deleteInBackground(leasePath);
+                    } else {
+                        checkLockNodes();
+                    }
+                    break;
+                case CHILDREN:
+                    if (code != KeeperException.Code.OK) {
+                        throw KeeperException.create(code, event.getPath());
+                    }
+
+                    onLockNodes(sortLockNodes(event.getChildren()));
+                    break;
+                case EXISTS:
+                    if (code == KeeperException.Code.NONODE) {
+                        checkLockNodes();
+                    } else if (code != KeeperException.Code.OK) {
+                        throw KeeperException.create(code, event.getPath());
+                    }
+                    break;
+                default:
+                    break;
+                }
+            } catch (final Exception e) {
+                future.setException(e);
+            }
+        }
+
+        private void checkLockNodes() {
+            if (future.isDone()) {
+                return;
+            }
+
+            try {
+                zkClient.getChildren().inBackground(this).forPath(basePath);
+            } catch (final Exception e) {
+                future.setException(e);
+            }
+        }
+
+        private void onLockNodes(final List<String> nodes) throws Exception {
+            if (future.isDone()) {
+                return;
+            }
+
+            final String leaseNode = ZKPaths.getNodeFromPath(leasePath);
+
+            if (protectedId != null) {
+                deleteLeftovers(nodes, leaseNode, protectedId);
+            }
+
+            final int index = nodes.indexOf(leaseNode);
+
+            if (index < 0) {
+                throw new KeeperException.NoNodeException("Lost the lease node: " + leasePath);
+            }
+
+            final String blocker = getBlocker(lockName, nodes, index);
+
+            if (blocker == null) {
+                future.set(leasePath);
+                return;
+            }
+
+            if (hasTimeout && System.nanoTime() - deadline >= 0) {
+                run();
+                return;
+            }
+
+            final String blockerPath = ZKPaths.makePath(basePath, blocker);
+            onBlocked(zkClient, blockerPath);
+            zkClient.checkExists().usingWatcher(this).inBackground(this).forPath(blockerPath);
+        }
+
+        /**
+         * Give the lease node back, unless the lease was acquired.
+         */
+        private void onDone() {
+            final ScheduledFuture<?> scheduled = expiry;
+
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+
+            final String path = leasePath;
+
+            if (path != null && !isAcquired()) {
+                deleteInBackground(path);
+            }
+        }
+
+        private boolean isAcquired() {
+            if (future.isCancelled()) {
+                return false;
+            }
+
+            try {
+                return future.get() != null;
+            } catch (final ExecutionException e) {
+                return false;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
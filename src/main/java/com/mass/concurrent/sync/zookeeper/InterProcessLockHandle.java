@@ -0,0 +1,66 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.LockHandle;
+import com.mass.concurrent.sync.zookeeper.BestEffortInterProcessReentrantLock.InterProcessLockFailObserver;
+
+/**
+ * The handle of a zookeeper lease that was acquired asynchronously. Any thread can release it, once.
+ *
+ * @author kmassaroni
+ */
+class InterProcessLockHandle implements LockHandle {
+    private final InterProcessLease lease;
+    private final String leasePath;
+    private final InterProcessLockFailObserver failObserver;
+    private final boolean strict;
+    private final AtomicBoolean released = new AtomicBoolean();
+
+    /**
+     * @param failObserver
+     *            - (nullable) gets the release failures of a best-effort lock
+     * @param strict
+     *            - throw release failures, instead of sending them to the fail observer
+     */
+    public InterProcessLockHandle(final InterProcessLease lease, final String leasePath,
+            final InterProcessLockFailObserver failObserver, final boolean strict) {
+        Preconditions.checkArgument(lease != null, "Undefined zookeeper lease.");
+        Preconditions.checkArgument(leasePath != null, "Undefined lease path.");
+        this.lease = lease;
+        this.leasePath = leasePath;
+        this.failObserver = failObserver;
+        this.strict = strict;
+    }
+
+    public String getLeasePath() {
+        return leasePath;
+    }
+
+    @Override
+    public void release() {
+        if (!released.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            lease.release(leasePath);
+        } catch (final Exception e) {
+            final RuntimeException failure = new RuntimeException("Can't release interprocess lock.", e);
+
+            if (strict) {
+                throw failure;
+            }
+
+            if (failObserver != null) {
+                failObserver.onInterProcessLockFail(failure);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InterProcessLockHandle [leasePath=" + leasePath + ", released=" + released + "]";
+    }
+}
@@ -1,14 +1,28 @@
 package com.mass.concurrent.sync.zookeeper;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.curator.framework.CuratorFramework;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mass.concurrent.AsyncLockRegistry;
+import com.mass.concurrent.BulkLockRegistry;
+import com.mass.concurrent.CircuitBreakerMetrics;
+import com.mass.concurrent.LockHandle;
+import com.mass.concurrent.LockPathReaperMetrics;
+import com.mass.concurrent.LockProbe;
 import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.LockRegistryMetrics;
+import com.mass.concurrent.StickyLockMetrics;
 import com.mass.concurrent.sync.SynchronizerLockKey;
 import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
 import com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy;
 import com.mass.core.PositiveDuration;
 import com.mass.core.Word;
@@ -17,14 +31,23 @@ import com.mass.core.Word;
  * Get best-effort reentrant locks backed by curator zookeeper mutexes, for synchronizing keys across the whole cluster
  * in a production environment. Best-effort means that even if there's a zookeeper error, the reentrant lock will still
  * synchronize your key within the scope of the whole jvm, and it won't throw an exception.
+ * <p>
+ * Keys can also be locked asynchronously, with a lock handle that isn't bound to a thread, and several keys can be
+ * locked together, with one zookeeper transaction. The zookeeper lock paths of keys that nobody uses anymore can be
+ * reaped in the background, with a LockPathReaper, and the locks can fail fast while the zookeeper connection is down,
+ * with a ZooKeeperCircuitBreaker.
  * 
  * @author kmassaroni
  * @param <K>
  */
-class InterProcessLockRegistry<K> implements LockRegistry<K> {
+class InterProcessLockRegistry<K> implements LockRegistry<K>, AsyncLockRegistry<K>, BulkLockRegistry<K>, LockProbe<K>,
+        LockRegistryMetrics, StickyLockMetrics, LockPathReaperMetrics, CircuitBreakerMetrics {
     private final InterProcessReentrantLockRegistry locks;
+    private final LockPathReaper reaper;
+    private final LongLockRegistry<K> longLocks;
     private final SynchronizerLockKeyFactory<K> keyFactory;
     private final PositiveDuration timeoutDuration;
+    private final boolean bestEffort;
 
     public InterProcessLockRegistry(final String rootZkPath, final Word lockRegistryName,
             final SynchronizerLockingPolicy lockingPolicy, final CuratorFramework zkClient,
@@ -37,23 +60,50 @@ class InterProcessLockRegistry<K> implements LockRegistry<K> {
     InterProcessLockRegistry(final String rootZkPath, final Word lockRegistryName,
             final SynchronizerLockingPolicy lockingPolicy, final InterProcessMutexFactory mutexFactory,
             final SynchronizerLockKeyFactory<K> keyFactory, final PositiveDuration timeoutDuration) {
+        this(rootZkPath, lockingPolicy, mutexFactory, new SynchronizerLockRegistryConfiguration(lockRegistryName
+                .getValue(), null, keyFactory, timeoutDuration), null);
+    }
+
+    /**
+     * @param lockingPolicy
+     *            - the lock registry's locking policy, or the default one, if it doesn't override it
+     * @param mutexFactory
+     *            - builds the zookeeper mutexes and leases of the lock registry
+     * @param definition
+     *            - the lock registry, for its name, its key factory, its timeout, and the options of its locks. The
+     *            key factory has to take the keys of this lock registry.
+     * @param reaper
+     *            - (nullable) reaps the idle zookeeper lock paths of the lock registry, and reports what it reclaims
+     */
+    @SuppressWarnings("unchecked")
+    InterProcessLockRegistry(final String rootZkPath, final SynchronizerLockingPolicy lockingPolicy,
+            final InterProcessMutexFactory mutexFactory, final SynchronizerLockRegistryConfiguration definition,
+            final LockPathReaper reaper) {
         Preconditions.checkArgument(mutexFactory != null);
         Preconditions.checkArgument(lockingPolicy != null, "Undefined locking policy.");
-        Preconditions.checkArgument(keyFactory != null, "Undefined key factory.");
+        Preconditions.checkArgument(definition != null, "Undefined lock registry definition.");
 
         switch (lockingPolicy) {
         case BEST_EFFORT:
-            locks = new BestEffortInterProcessReentrantLockRegistry(rootZkPath, lockRegistryName, mutexFactory);
+            locks = new BestEffortInterProcessReentrantLockRegistry(rootZkPath, mutexFactory, definition);
             break;
         case STRICT:
-            locks = new StrictInterProcessReentrantLockRegistry(rootZkPath, lockRegistryName, mutexFactory);
+            locks = new StrictInterProcessReentrantLockRegistry(rootZkPath, mutexFactory, definition);
             break;
         default:
             throw new IllegalArgumentException("Unexpected locking policy: " + lockingPolicy);
         }
 
-        this.keyFactory = keyFactory;
-        this.timeoutDuration = timeoutDuration;
+        keyFactory = (SynchronizerLockKeyFactory<K>) definition.getLockKeyFactory();
+        timeoutDuration = definition.getTimeoutDuration();
+        this.reaper = reaper;
+        bestEffort = lockingPolicy == SynchronizerLockingPolicy.BEST_EFFORT;
+
+        if (LongLockRegistry.supports(keyFactory)) {
+            longLocks = new LongLockRegistry<K>(locks.newLongLockFactory(), timeoutDuration);
+        } else {
+            longLocks = null;
+        }
     }
 
     @Override
@@ -63,9 +113,104 @@ class InterProcessLockRegistry<K> implements LockRegistry<K> {
 
     @Override
     public ReentrantLock getLock(final K key) {
+        if (longLocks != null) {
+            return longLocks.getLock(key);
+        }
+
         final SynchronizerLockKey lockKey = keyFactory.toKey(key);
         Preconditions.checkArgument(lockKey != null, "Null lock key.");
         return locks.getLock(lockKey);
     }
 
+    @Override
+    public ListenableFuture<LockHandle> acquireAsync(final K key, final long timeout, final TimeUnit unit) {
+        return locks.acquireAsync(toLockKey(key), timeout, unit);
+    }
+
+    @Override
+    public boolean isBestEffort() {
+        return bestEffort;
+    }
+
+    @Override
+    public LockHandle acquireAll(final Collection<K> keys, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        Preconditions.checkArgument(keys != null, "Undefined keys.");
+        final List<SynchronizerLockKey> lockKeys = Lists.newArrayListWithCapacity(keys.size());
+
+        for (final K key : keys) {
+            lockKeys.add(toLockKey(key));
+        }
+
+        return locks.acquireAll(lockKeys, timeout, unit);
+    }
+
+    @Override
+    public boolean isLocked(final K key) {
+        if (longLocks != null) {
+            return longLocks.isLocked(key) || locks.isLockedInZooKeeper(toLockKey(key));
+        }
+
+        return locks.isLocked(toLockKey(key));
+    }
+
+    /**
+     * Get the lock key of a key, with the zookeeper path of its reentrant lock. The keys of the long locks go by their
+     * long value, so an int key and a long key with the same value share a lock key, like they share a lock.
+     */
+    private SynchronizerLockKey toLockKey(final K key) {
+        if (longLocks != null) {
+            return new SynchronizerLockKey(Long.toString(LongLockRegistry.toLong(key)));
+        }
+
+        final SynchronizerLockKey lockKey = keyFactory.toKey(key);
+        Preconditions.checkArgument(lockKey != null, "Null lock key.");
+        return lockKey;
+    }
+
+    @Override
+    public int getLiveLockCount() {
+        return longLocks != null ? longLocks.getLiveLockCount() : locks.getLiveLockCount();
+    }
+
+    @Override
+    public long getStickyHitCount() {
+        return locks.getStickyHitCount();
+    }
+
+    @Override
+    public long getStickyMissCount() {
+        return locks.getStickyMissCount();
+    }
+
+    @Override
+    public double getStickyHitRatio() {
+        return locks.getStickyHitRatio();
+    }
+
+    @Override
+    public CircuitState getCircuitState() {
+        return locks.getCircuitState();
+    }
+
+    @Override
+    public long getCircuitTripCount() {
+        return locks.getCircuitTripCount();
+    }
+
+    @Override
+    public long getCircuitFastFailCount() {
+        return locks.getCircuitFastFailCount();
+    }
+
+    @Override
+    public long getReclaimedLockPathCount() {
+        return reaper == null ? 0 : reaper.getReclaimedCount();
+    }
+
+    @Override
+    public long getLockPathSweepCount() {
+        return reaper == null ? 0 : reaper.getSweepCount();
+    }
+
 }
@@ -3,21 +3,40 @@ package com.mass.concurrent.sync.zookeeper;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.mass.core.Preconditions.checkNotBlank;
 
+import java.util.Map;
+
 import org.apache.curator.framework.CuratorFramework;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
 import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
 import com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy;
 import com.mass.core.PositiveDuration;
+import com.mass.core.Word;
 
 class InterProcessLockRegistryFactory implements LockRegistryFactory {
     private final CuratorFramework zkClient;
     private final String zkBasePath;
     private final SynchronizerLockingPolicy defaultLockingPolicy;
+    private final boolean reapLockPaths;
+
+    // the reaper of each lock registry dir, shared by its locks and its read/write locks
+    private final Map<String, LockPathReaper> reapers = Maps.newHashMap();
 
     public InterProcessLockRegistryFactory(final CuratorFramework zkClient,
             final SynchronizerLockingPolicy defaultLockingPolicy, final String zkBasePath) {
+        this(zkClient, defaultLockingPolicy, zkBasePath, true);
+    }
+
+    /**
+     * @param reapLockPaths
+     *            - false if another factory already reaps the lock paths of the same zookeeper ensemble, like the one
+     *            of another session of the same ZooKeeperSessionPool
+     */
+    public InterProcessLockRegistryFactory(final CuratorFramework zkClient,
+            final SynchronizerLockingPolicy defaultLockingPolicy, final String zkBasePath,
+            final boolean reapLockPaths) {
         checkArgument(zkClient != null, "Undefined zookeeper client.");
         checkNotBlank(zkBasePath, "Blank zookeeper mutex base path.");
         checkArgument(defaultLockingPolicy != null, "Undefined default locking policy.");
@@ -25,17 +44,102 @@ class InterProcessLockRegistryFactory implements LockRegistryFactory {
         this.zkClient = zkClient;
         this.defaultLockingPolicy = defaultLockingPolicy;
         this.zkBasePath = zkBasePath;
+        this.reapLockPaths = reapLockPaths;
     }
 
     @Override
     @SuppressWarnings({ "rawtypes", "unchecked" })
     public InterProcessLockRegistry<Object> newLockRegistry(final SynchronizerLockRegistryConfiguration definition) {
         Preconditions.checkArgument(definition != null, "Undefined interprocess lock registry definition.");
+        checkOptions(definition);
+        final SynchronizerLockingPolicy overridePolicy = definition.getLockingPolicy();
+        final SynchronizerLockingPolicy lockingPolicy = overridePolicy != null ? overridePolicy : defaultLockingPolicy;
+        final InterProcessMutexFactory mutexFactory = new InterProcessMutexFactory(zkClient, definition);
+        return new InterProcessLockRegistry(zkBasePath, lockingPolicy, mutexFactory, definition, newReaper(definition,
+                LockPathLayout.of(definition)));
+    }
+
+    /**
+     * Reject the options that don't go together, instead of ignoring some of them. Lean locks don't keep a lease per
+     * key, so they can't be cohort or sticky locks, and they make and delete their own lock nodes, so they can't group
+     * commit them, or release them in the background. Lock stripes are only for the LOCAL_JVM scope.
+     */
+    private static void checkOptions(final SynchronizerLockRegistryConfiguration definition) {
+        final Word name = definition.getName();
+        checkArgument(definition.getStripes() == 0, "Lock registry %s can't stripe zookeeper locks.", name);
+
+        if (definition.isLeanLocks()) {
+            checkArgument(definition.getCohortHandoffs() == 0 && definition.getStickyLinger() == null,
+                    "Lock registry %s can't have lean locks that are cohort or sticky locks.", name);
+            checkArgument(definition.getGroupCommitTickMicros() == 0 && !definition.isAsyncRelease(),
+                    "Lock registry %s can't have lean locks that group commit or release asynchronously.", name);
+        }
+    }
+
+    /**
+     * Reject the options that read/write locks don't have, instead of ignoring them. They're a read/write lease per
+     * key, right in the lock registry's dir, so they only take the locking policy, the timeout and the lock path
+     * reaper.
+     */
+    private static void checkReadWriteOptions(final SynchronizerLockRegistryConfiguration definition) {
+        final Word name = definition.getName();
+        checkArgument(definition.getStripes() == 0, "Lock registry %s can't stripe zookeeper locks.", name);
+        checkArgument(definition.getCohortHandoffs() == 0 && definition.getStickyLinger() == null,
+                "Lock registry %s can't have read/write locks that are cohort or sticky locks.", name);
+        checkArgument(definition.getGroupCommitTickMicros() == 0 && !definition.isAsyncRelease(),
+                "Lock registry %s can't have read/write locks that group commit or release asynchronously.", name);
+        checkArgument(!definition.isLeanLocks() && definition.getHashBuckets() == 0,
+                "Lock registry %s can't have read/write locks that are lean, or in hash buckets.", name);
+        checkArgument(definition.getCircuitProbeInterval() == null,
+                "Lock registry %s can't have read/write locks that fail fast while zookeeper is down.", name);
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public InterProcessReadWriteLockRegistry<Object> newReadWriteLockRegistry(
+            final SynchronizerLockRegistryConfiguration definition) {
+        Preconditions.checkArgument(definition != null, "Undefined interprocess lock registry definition.");
+        checkReadWriteOptions(definition);
         final SynchronizerLockKeyFactory keyFactory = definition.getLockKeyFactory();
         final SynchronizerLockingPolicy overridePolicy = definition.getLockingPolicy();
         final SynchronizerLockingPolicy lockingPolicy = overridePolicy != null ? overridePolicy : defaultLockingPolicy;
         final PositiveDuration timeoutDuration = definition.getTimeoutDuration();
-        return new InterProcessLockRegistry(zkBasePath, definition.getName(), lockingPolicy, zkClient, keyFactory,
-                timeoutDuration);
+        return new InterProcessReadWriteLockRegistry(zkBasePath, definition.getName(), lockingPolicy, zkClient,
+                keyFactory, timeoutDuration, newReaper(definition, LockPathLayout.of(definition)));
+    }
+
+    /**
+     * @return null if the lock registry's lock paths aren't reaped, or the reaper that's already sweeping its dir
+     */
+    private synchronized LockPathReaper newReaper(final SynchronizerLockRegistryConfiguration definition,
+            final LockPathLayout layout) {
+        final PositiveDuration reapInterval = definition.getLockPathReapInterval();
+
+        if (reapInterval == null || !reapLockPaths) {
+            return null;
+        }
+
+        final String dirPath = InterProcessReentrantLockRegistry.toZkDirPath(zkBasePath, definition.getName());
+        LockPathReaper reaper = reapers.get(dirPath);
+
+        if (reaper == null) {
+            reaper = new LockPathReaper(zkClient, dirPath, layout, reapInterval.getMillis(),
+                    definition.getLockPathReapOpsPerSecond()).start();
+            reapers.put(dirPath, reaper);
+        }
+
+        return reaper;
+    }
+
+    /**
+     * Stop the lock path reapers of the lock registries that this built.
+     */
+    @Override
+    public synchronized void close() {
+        for (final LockPathReaper reaper : reapers.values()) {
+            reaper.stop();
+        }
+
+        reapers.clear();
     }
 }
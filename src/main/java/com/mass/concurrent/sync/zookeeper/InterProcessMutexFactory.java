@@ -4,16 +4,100 @@ import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 
 import com.google.common.base.Preconditions;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
 
 class InterProcessMutexFactory {
     private final CuratorFramework zkClient;
+    private final GroupCommitter committer;
+    private final AsyncLeaseReleaser releaser;
+    private final ZooKeeperCircuitBreaker breaker;
+    private final WatcherDispatcher dispatcher = new WatcherDispatcher();
+    private final boolean lean;
 
     public InterProcessMutexFactory(final CuratorFramework zkClient) {
+        this(zkClient, 0, false, false, 0);
+    }
+
+    /**
+     * @param definition
+     *            - the lock registry, for its group commit tick, its async release, its lean locks, and its circuit
+     *            probe interval. See the GroupCommitter, the AsyncLeaseReleaser, the LeanInterProcessReentrantLock and
+     *            the ZooKeeperCircuitBreaker.
+     */
+    public InterProcessMutexFactory(final CuratorFramework zkClient,
+            final SynchronizerLockRegistryConfiguration definition) {
+        this(zkClient, definition.getGroupCommitTickMicros(), definition.isAsyncRelease(), definition.isLeanLocks(),
+                definition.getCircuitProbeInterval() == null ? 0 : definition.getCircuitProbeInterval().getMillis());
+    }
+
+    private InterProcessMutexFactory(final CuratorFramework zkClient, final long groupCommitTickMicros,
+            final boolean asyncRelease, final boolean lean, final long circuitProbeMillis) {
         Preconditions.checkArgument(zkClient != null, "Undefined zookeeper client.");
+        Preconditions.checkArgument(groupCommitTickMicros >= 0, "Negative group commit tick: %s",
+                groupCommitTickMicros);
+        Preconditions.checkArgument(circuitProbeMillis >= 0, "Negative circuit probe interval: %s", circuitProbeMillis);
         this.zkClient = zkClient;
+        committer = groupCommitTickMicros > 0 ? new GroupCommitter(zkClient, groupCommitTickMicros) : null;
+        releaser = asyncRelease ? new AsyncLeaseReleaser() : null;
+        this.lean = lean;
+        breaker = circuitProbeMillis > 0 ? new ZooKeeperCircuitBreaker(zkClient, circuitProbeMillis) : null;
+    }
+
+    /**
+     * @return true if the leases share group commits, which curator's mutexes can't do
+     */
+    public boolean isGroupCommitting() {
+        return committer != null;
+    }
+
+    /**
+     * @return true if the locks should be lean
+     */
+    public boolean isLean() {
+        return lean;
+    }
+
+    /**
+     * @return (nullable) releases the leases off the unlocking thread, which curator's mutexes can't do either
+     */
+    public AsyncLeaseReleaser getReleaser() {
+        return releaser;
+    }
+
+    /**
+     * @return (nullable) the group commits of the leases
+     */
+    public GroupCommitter getGroupCommitter() {
+        return committer;
+    }
+
+    /**
+     * @return the one watcher of all the leases
+     */
+    public WatcherDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    /**
+     * @return (nullable) fails the mutexes and leases fast while the zookeeper connection is down
+     */
+    public ZooKeeperCircuitBreaker getCircuitBreaker() {
+        return breaker;
     }
 
     public InterProcessMutex newMutex(final String zookeeperPath) {
+        if (breaker != null) {
+            return new CircuitBreakingMutex(zkClient, zookeeperPath, breaker);
+        }
+
         return new InterProcessMutex(zkClient, zookeeperPath);
     }
+
+    /**
+     * @param revokeBlockers
+     *            - ask the sticky lock ahead of the lease to give it up
+     */
+    public InterProcessMutexLease newMutexLease(final String zookeeperPath, final boolean revokeBlockers) {
+        return new InterProcessMutexLease(zkClient, committer, dispatcher, breaker, zookeeperPath, revokeBlockers);
+    }
 }
@@ -0,0 +1,149 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.Revoker;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * An exclusive zookeeper lock, where a lease isn't bound to the thread that acquired it, unlike curator's
+ * InterProcessMutex, so one thread can hand it off to another. The lock nodes are named and ordered the same way as
+ * the mutex's, so these leases exclude, and are excluded by, plain curator mutexes on the same path. A lease can ask
+ * the node ahead of it to give up its lock, with curator's Revoker, for sticky locks that keep their leases after
+ * they're released. With a ZooKeeperCircuitBreaker, the lease fails fast while the zookeeper connection is down.
+ *
+ * @author kmassaroni
+ */
+class InterProcessMutexLease extends InterProcessLease {
+    static final String LOCK_NAME = "lock-";
+
+    private final boolean revokeBlockers;
+    private final ZooKeeperCircuitBreaker breaker;
+
+    public InterProcessMutexLease(final CuratorFramework zkClient, final String basePath) {
+        this(zkClient, basePath, false);
+    }
+
+    /**
+     * @param revokeBlockers
+     *            - ask the owner of the node ahead of this lease to give it up, while this lease waits for it
+     */
+    public InterProcessMutexLease(final CuratorFramework zkClient, final String basePath,
+            final boolean revokeBlockers) {
+        this(zkClient, null, null, basePath, revokeBlockers);
+    }
+
+    /**
+     * @param committer
+     *            - (nullable) creates and deletes the lease nodes with group commits
+     * @param dispatcher
+     *            - (nullable) watches the nodes ahead of the lease
+     * @param revokeBlockers
+     *            - ask the owner of the node ahead of this lease to give it up, while this lease waits for it
+     */
+    public InterProcessMutexLease(final CuratorFramework zkClient, final GroupCommitter committer,
+            final WatcherDispatcher dispatcher, final String basePath, final boolean revokeBlockers) {
+        this(zkClient, committer, dispatcher, null, basePath, revokeBlockers);
+    }
+
+    /**
+     * @param breaker
+     *            - (nullable) fails the acquires fast while the zookeeper connection is down
+     */
+    public InterProcessMutexLease(final CuratorFramework zkClient, final GroupCommitter committer,
+            final WatcherDispatcher dispatcher, final ZooKeeperCircuitBreaker breaker, final String basePath,
+            final boolean revokeBlockers) {
+        super(zkClient, committer, dispatcher, basePath, LOCK_NAME);
+        this.revokeBlockers = revokeBlockers;
+        this.breaker = breaker;
+    }
+
+    /**
+     * @param timeout
+     *            - negative to wait forever
+     * @return the path of the lease node, or null if it timed out
+     */
+    public String acquire(final long timeout, final TimeUnit unit) throws Exception {
+        if (breaker == null) {
+            return acquire(LOCK_NAME, timeout, unit);
+        }
+
+        return breaker.call(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return acquire(LOCK_NAME, timeout, unit);
+            }
+        });
+    }
+
+    /**
+     * Try for the lock without waiting, in one round trip, if it's taken.
+     *
+     * @return the path of the lease node, or null if the lock is taken
+     */
+    public String tryAcquire() throws Exception {
+        if (breaker != null) {
+            breaker.checkClosed();
+        }
+
+        return tryAcquireNode(LOCK_NAME);
+    }
+
+    /**
+     * @param timeout
+     *            - negative to wait forever
+     * @return the path of the lease node, once it's acquired
+     */
+    public ListenableFuture<String> acquireAsync(final long timeout, final TimeUnit unit) {
+        if (breaker != null) {
+            try {
+                breaker.checkClosed();
+            } catch (final ZooKeeperCircuitOpenException e) {
+                return Futures.immediateFailedFuture(e);
+            }
+        }
+
+        return acquireAsync(LOCK_NAME, timeout, unit);
+    }
+
+    /**
+     * Acquire several mutex leases together, with one transaction for all their nodes.
+     *
+     * @param timeout
+     *            - negative to wait forever
+     * @return the paths of the lease nodes, in the same order as the leases, or null if they weren't all acquired in
+     *         time
+     */
+    public static List<String> acquireAll(final List<InterProcessMutexLease> leases, final long timeout,
+            final TimeUnit unit) throws Exception {
+        final ZooKeeperCircuitBreaker breaker = leases.isEmpty() ? null : leases.get(0).breaker;
+
+        if (breaker == null) {
+            return acquireAll(leases, LOCK_NAME, timeout, unit);
+        }
+
+        return breaker.call(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws Exception {
+                return acquireAll(leases, LOCK_NAME, timeout, unit);
+            }
+        });
+    }
+
+    @Override
+    protected void onBlocked(final CuratorFramework zkClient, final String blockerPath) throws Exception {
+        if (revokeBlockers) {
+            Revoker.attemptRevoke(zkClient, blockerPath);
+        }
+    }
+
+    @Override
+    protected String getBlocker(final String lockName, final List<String> nodes, final int index) {
+        return index == 0 ? null : nodes.get(index - 1);
+    }
+}
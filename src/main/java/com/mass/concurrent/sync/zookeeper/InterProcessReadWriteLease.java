@@ -0,0 +1,66 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+
+/**
+ * A zookeeper read/write lock, where a lease isn't bound to the thread that acquired it, unlike curator's
+ * InterProcessReadWriteLock. That way, the readers of a whole JVM can share one read lease, and whichever reader leaves
+ * last releases it. The lock nodes are named and ordered the same way as curator's, so these leases exclude, and are
+ * excluded by, plain curator read/write locks on the same path: a reader waits for every writer ahead of it, and a
+ * writer waits for every node ahead of it.
+ *
+ * @author kmassaroni
+ */
+class InterProcessReadWriteLease extends InterProcessLease {
+    static final String READ_LOCK_NAME = "__READ__";
+    static final String WRITE_LOCK_NAME = "__WRIT__";
+
+    public InterProcessReadWriteLease(final CuratorFramework zkClient, final String basePath) {
+        super(zkClient, basePath, READ_LOCK_NAME, WRITE_LOCK_NAME);
+    }
+
+    /**
+     * @param timeout
+     *            - negative to wait forever
+     * @return the path of the lease node, or null if it timed out
+     */
+    public String acquireRead(final long timeout, final TimeUnit unit) throws Exception {
+        return acquire(READ_LOCK_NAME, timeout, unit);
+    }
+
+    /**
+     * @param timeout
+     *            - negative to wait forever
+     * @return the path of the lease node, or null if it timed out
+     */
+    public String acquireWrite(final long timeout, final TimeUnit unit) throws Exception {
+        return acquire(WRITE_LOCK_NAME, timeout, unit);
+    }
+
+    @Override
+    protected String getBlocker(final String lockName, final List<String> nodes, final int index) {
+        if (READ_LOCK_NAME.equals(lockName)) {
+            return firstWriter(nodes, index);
+        }
+
+        return index == 0 ? null : nodes.get(index - 1);
+    }
+
+    /**
+     * @return the first write node ahead of this index, if there is one, like curator's read lock predicate
+     */
+    private static String firstWriter(final List<String> nodes, final int index) {
+        for (int i = 0; i < index; i++) {
+            final String node = nodes.get(i);
+
+            if (node.contains(WRITE_LOCK_NAME)) {
+                return node;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,112 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.curator.framework.CuratorFramework;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.LockPathReaperMetrics;
+import com.mass.concurrent.LockRegistryMetrics;
+import com.mass.concurrent.ReadWriteLockRegistry;
+import com.mass.concurrent.sync.SynchronizerLockKey;
+import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy;
+import com.mass.concurrent.sync.zookeeper.BestEffortInterProcessReentrantLock.InterProcessLockFailObserver;
+import com.mass.core.PositiveDuration;
+import com.mass.core.Word;
+
+/**
+ * Read/write locks backed by zookeeper read/write leases, for read-heavy keys across the whole cluster. The readers in a
+ * JVM share one read lease per key, so a burst of local readers costs one lease node, not one each. The lease nodes go
+ * in the same zookeeper path as the mutexes of the same lock registry, but they're separate locks: an @Synchronized
+ * lock doesn't exclude a read/write lock on the same key.
+ * 
+ * @author kmassaroni
+ * @param <K>
+ */
+class InterProcessReadWriteLockRegistry<K> implements ReadWriteLockRegistry<K>, LockRegistryMetrics,
+        LockPathReaperMetrics {
+    private final Log log = LogFactory.getLog(InterProcessReadWriteLockRegistry.class);
+    private final InterProcessLockFailObserver observer = new InterProcessLockFailObserver() {
+        @Override
+        public void onInterProcessLockFail(final Throwable failure) {
+            log.error("Inter process read/write locking failed.", failure);
+        }
+    };
+
+    private final RefCountedLockTable<SynchronizerLockKey, InterProcessReentrantReadWriteLock> locks =
+            new RefCountedLockTable<SynchronizerLockKey, InterProcessReentrantReadWriteLock>(new LockFactory());
+    private final String rootZkPath;
+    private final CuratorFramework zkClient;
+    private final boolean strict;
+    private final SynchronizerLockKeyFactory<K> keyFactory;
+    private final PositiveDuration timeoutDuration;
+    private final LockPathReaper reaper;
+
+    public InterProcessReadWriteLockRegistry(final String rootZkPath, final Word lockRegistryName,
+            final SynchronizerLockingPolicy lockingPolicy, final CuratorFramework zkClient,
+            final SynchronizerLockKeyFactory<K> keyFactory, final PositiveDuration timeoutDuration) {
+        this(rootZkPath, lockRegistryName, lockingPolicy, zkClient, keyFactory, timeoutDuration, null);
+    }
+
+    /**
+     * @param reaper
+     *            - (nullable) reaps the idle zookeeper lock paths of the lock registry, and reports what it reclaims
+     */
+    public InterProcessReadWriteLockRegistry(final String rootZkPath, final Word lockRegistryName,
+            final SynchronizerLockingPolicy lockingPolicy, final CuratorFramework zkClient,
+            final SynchronizerLockKeyFactory<K> keyFactory, final PositiveDuration timeoutDuration,
+            final LockPathReaper reaper) {
+        com.mass.core.Preconditions.checkNotBlank(rootZkPath, "Undefined dir path for zookeeper mutexes base dir.");
+        Preconditions.checkArgument(lockRegistryName != null, "Undefined lock registry name.");
+        Preconditions.checkArgument(lockingPolicy != null, "Undefined locking policy.");
+        Preconditions.checkArgument(zkClient != null, "Undefined zookeeper client.");
+        Preconditions.checkArgument(keyFactory != null, "Undefined key factory.");
+
+        this.rootZkPath = InterProcessReentrantLockRegistry.toZkDirPath(rootZkPath, lockRegistryName);
+        this.zkClient = zkClient;
+        strict = lockingPolicy == SynchronizerLockingPolicy.STRICT;
+        this.keyFactory = keyFactory;
+        this.timeoutDuration = timeoutDuration;
+        this.reaper = reaper;
+    }
+
+    @Override
+    public PositiveDuration getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock(final K key) {
+        final SynchronizerLockKey lockKey = keyFactory.toKey(key);
+        Preconditions.checkArgument(lockKey != null, "Null lock key.");
+        return new RefCountedReadWriteLock<SynchronizerLockKey>(locks, lockKey);
+    }
+
+    @Override
+    public int getLiveLockCount() {
+        return locks.size();
+    }
+
+    @Override
+    public long getReclaimedLockPathCount() {
+        return reaper == null ? 0 : reaper.getReclaimedCount();
+    }
+
+    @Override
+    public long getLockPathSweepCount() {
+        return reaper == null ? 0 : reaper.getSweepCount();
+    }
+
+    private class LockFactory implements Function<SynchronizerLockKey, InterProcessReentrantReadWriteLock> {
+        @Override
+        public InterProcessReentrantReadWriteLock apply(final SynchronizerLockKey id) {
+            final InterProcessReadWriteLease lease = new InterProcessReadWriteLease(zkClient, rootZkPath
+                    + id.getValue());
+            return new InterProcessReentrantReadWriteLock(lease, observer, strict);
+        }
+    }
+}
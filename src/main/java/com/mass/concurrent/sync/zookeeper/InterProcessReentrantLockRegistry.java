@@ -1,7 +1,8 @@
 package com.mass.concurrent.sync.zookeeper;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.logging.Log;
@@ -10,22 +11,48 @@ import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mass.concurrent.CircuitBreakerMetrics;
+import com.mass.concurrent.LockHandle;
 import com.mass.concurrent.sync.SynchronizerLockKey;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
 import com.mass.concurrent.sync.zookeeper.BestEffortInterProcessReentrantLock.InterProcessLockFailObserver;
+import com.mass.core.PositiveDuration;
 import com.mass.core.Word;
 
+/**
+ * Keeps a reentrant lock, and its curator mutex, for each key that some thread holds or waits for. When the last thread
+ * lets go of a key, its lock and mutex are dropped, so the footprint stays bounded no matter how many keys there are.
+ *
+ * @author kmassaroni
+ */
 abstract class InterProcessReentrantLockRegistry {
-    private final Cache<SynchronizerLockKey, ReentrantLock> locks = CacheBuilder.newBuilder().softValues().build();
+    private final RefCountedLockTable<SynchronizerLockKey, ReentrantLock> locks =
+            new RefCountedLockTable<SynchronizerLockKey, ReentrantLock>(new LockFactory());
     private final String rootZkPath;
+    private final LockPathLayout layout;
     private final InterProcessMutexFactory mutexFactory;
+    private final int cohortHandoffs;
+    private final LingeringLeases lingering;
 
     private final Log log = LogFactory.getLog(InterProcessReentrantLockRegistry.class);
     private final InterProcessLockFailObserver observer = new InterProcessLockFailObserver() {
         @Override
         public void onInterProcessLockFail(final Throwable failure) {
+            // the circuit breaker already said that zookeeper is down
+            if (failure.getCause() instanceof ZooKeeperCircuitOpenException) {
+                log.debug("Inter process locking failed fast.", failure);
+                return;
+            }
+
             log.error("Inter process locking failed.", failure);
         }
     };
@@ -38,11 +65,34 @@ abstract class InterProcessReentrantLockRegistry {
     @VisibleForTesting
     InterProcessReentrantLockRegistry(final String rootZkPath, final Word lockRegistryName,
             final InterProcessMutexFactory mutexFactory) {
+        this(rootZkPath, lockRegistryName, mutexFactory, 0, null, LockPathLayout.FLAT);
+    }
+
+    /**
+     * @param definition
+     *            - the lock registry, for its name, and the options of its locks: its cohort handoffs, so a zookeeper
+     *            lock goes straight to the next local thread waiting for it (see the CohortInterProcessReentrantLock),
+     *            its sticky linger, so this JVM can lock a released zookeeper lock again without any zookeeper I/O
+     *            (see the LingeringLeases), and its hash buckets (see the LockPathLayout)
+     */
+    InterProcessReentrantLockRegistry(final String rootZkPath, final InterProcessMutexFactory mutexFactory,
+            final SynchronizerLockRegistryConfiguration definition) {
+        this(rootZkPath, definition.getName(), mutexFactory, definition.getCohortHandoffs(), definition
+                .getStickyLinger(), LockPathLayout.of(definition));
+    }
+
+    private InterProcessReentrantLockRegistry(final String rootZkPath, final Word lockRegistryName,
+            final InterProcessMutexFactory mutexFactory, final int cohortHandoffs, final PositiveDuration stickyLinger,
+            final LockPathLayout layout) {
+        Preconditions.checkArgument(cohortHandoffs >= 0, "Negative cohort handoffs: %s", cohortHandoffs);
         this.rootZkPath = toZkDirPath(rootZkPath, lockRegistryName);
+        this.layout = layout;
         this.mutexFactory = mutexFactory;
+        this.cohortHandoffs = cohortHandoffs;
+        lingering = stickyLinger == null ? null : new LingeringLeases(stickyLinger.getMillis());
     }
 
-    private static String toZkDirPath(final String path, final Word lockRegistryName) {
+    static String toZkDirPath(final String path, final Word lockRegistryName) {
         com.mass.core.Preconditions.checkNotBlank(path, "Undefined dir path for zookeeper mutexes base dir.");
 
         if (path.endsWith("/")) {
@@ -54,36 +104,301 @@ abstract class InterProcessReentrantLockRegistry {
 
     public ReentrantLock getLock(final SynchronizerLockKey key) {
         Preconditions.checkArgument(key != null, "Undefined key.");
-        final LockFactory factory = new LockFactory(key);
+        return locks.getLock(key, RefCountedLockTable.REENTRANT);
+    }
+
+    /**
+     * Start acquiring the zookeeper lock of a key, with curator background callbacks, so no thread waits for it. The
+     * lock excludes the reentrant locks of the same key, on every JVM, through zookeeper, even though it has no JVM
+     * lock. Whatever the locking policy, zookeeper failures fail the future, since there's no JVM lock to fall back on.
+     * While the path layout is migrating, it locks the key's flat path first, like the reentrant locks.
+     *
+     * @param timeout
+     *            - negative to wait forever
+     */
+    public ListenableFuture<LockHandle> acquireAsync(final SynchronizerLockKey key, final long timeout,
+            final TimeUnit unit) {
+        Preconditions.checkArgument(key != null, "Undefined key.");
+        Preconditions.checkState(mutexFactory != null, "Can't lock asynchronously without a zookeeper client.");
+
+        final String path = layout.toPath(rootZkPath, key.getValue());
+
+        if (!layout.isMigrating()) {
+            return acquireAsync(path, timeout, unit);
+        }
+
+        final long start = System.nanoTime();
+        final ListenableFuture<LockHandle> flatHandle = acquireAsync(layout.toFlatPath(rootZkPath, key.getValue()),
+                timeout, unit);
+
+        return Futures.transform(flatHandle, new AsyncFunction<LockHandle, LockHandle>() {
+            @Override
+            public ListenableFuture<LockHandle> apply(final LockHandle flat) {
+                final ListenableFuture<LockHandle> handle = acquireAsync(path, remainingNanos(timeout, unit, start),
+                        TimeUnit.NANOSECONDS);
+
+                Futures.addCallback(handle, new FutureCallback<LockHandle>() {
+                    @Override
+                    public void onSuccess(final LockHandle result) {
+                    }
+
+                    @Override
+                    public void onFailure(final Throwable failure) {
+                        flat.release();
+                    }
+                });
+
+                return Futures.transform(handle, new Function<LockHandle, LockHandle>() {
+                    @Override
+                    public LockHandle apply(final LockHandle bucketed) {
+                        return new CompositeLockHandle(ImmutableList.of(flat, bucketed));
+                    }
+                });
+            }
+        });
+    }
+
+    private ListenableFuture<LockHandle> acquireAsync(final String path, final long timeout, final TimeUnit unit) {
+        final InterProcessMutexLease lease = mutexFactory.newMutexLease(path, lingering != null);
+
+        return Futures.transform(lease.acquireAsync(timeout, unit), new Function<String, LockHandle>() {
+            @Override
+            public LockHandle apply(final String leasePath) {
+                return newLockHandle(lease, leasePath, observer);
+            }
+        });
+    }
+
+    /**
+     * Acquire the zookeeper locks of several keys together, with one zookeeper transaction for all their lock nodes,
+     * and then wait for all of them in parallel. Like acquireAsync, the locks exclude the reentrant locks of the same
+     * keys through zookeeper, and zookeeper failures are thrown, whatever the locking policy. While the path layout is
+     * migrating, all the flat paths are locked first, and then all the bucketed ones, so a bulk lock never holds a
+     * bucketed path while it waits for a flat one, like the reentrant locks.
+     *
+     * @param timeout
+     *            - negative to wait forever
+     * @return a handle that releases all the locks, or null if they weren't all acquired in time
+     */
+    public LockHandle acquireAll(final Collection<SynchronizerLockKey> keys, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        Preconditions.checkArgument(keys != null && !keys.isEmpty(), "Undefined keys.");
+        Preconditions.checkState(mutexFactory != null, "Can't lock in bulk without a zookeeper client.");
+
+        final List<String> paths = Lists.newArrayList();
+        final List<String> flatPaths = Lists.newArrayList();
+
+        for (final SynchronizerLockKey key : Sets.newLinkedHashSet(keys)) {
+            Preconditions.checkArgument(key != null, "Undefined key.");
+            paths.add(layout.toPath(rootZkPath, key.getValue()));
+            flatPaths.add(layout.toFlatPath(rootZkPath, key.getValue()));
+        }
+
+        if (!layout.isMigrating()) {
+            return acquireAll(paths, timeout, unit);
+        }
+
+        final long start = System.nanoTime();
+        final LockHandle flatHandle = acquireAll(flatPaths, timeout, unit);
+
+        if (flatHandle == null) {
+            return null;
+        }
+
+        LockHandle handle = null;
 
         try {
-            return locks.get(key, factory);
-        } catch (final ExecutionException e) {
-            throw new RuntimeException(e);
+            handle = acquireAll(paths, remainingNanos(timeout, unit, start), TimeUnit.NANOSECONDS);
+            return handle == null ? null : new CompositeLockHandle(ImmutableList.of(flatHandle, handle));
+        } finally {
+            if (handle == null) {
+                flatHandle.release();
+            }
         }
     }
 
-    protected abstract ReentrantLock newLock(InterProcessMutex mutex, InterProcessLockFailObserver observer);
+    private LockHandle acquireAll(final List<String> paths, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        final List<InterProcessMutexLease> leases = Lists.newArrayListWithCapacity(paths.size());
+
+        for (final String path : paths) {
+            leases.add(mutexFactory.newMutexLease(path, lingering != null));
+        }
+
+        final List<String> leasePaths;
 
-    private class LockFactory implements Callable<ReentrantLock> {
-        private final SynchronizerLockKey id;
+        try {
+            leasePaths = InterProcessMutexLease.acquireAll(leases, timeout, unit);
+        } catch (final InterruptedException e) {
+            throw e;
+        } catch (final Exception e) {
+            throw new RuntimeException("Can't get interprocess locks.", e);
+        }
 
-        public LockFactory(final SynchronizerLockKey id) {
-            this.id = id;
+        if (leasePaths == null) {
+            return null;
         }
 
-        @Override
-        public ReentrantLock call() throws Exception {
-            if (mutexFactory == null) {
-                return new ReentrantLock(true);
+        final List<LockHandle> handles = Lists.newArrayListWithCapacity(leases.size());
+
+        for (int i = 0; i < leases.size(); i++) {
+            handles.add(newLockHandle(leases.get(i), leasePaths.get(i), observer));
+        }
+
+        return new CompositeLockHandle(handles);
+    }
+
+    /**
+     * Check if the lock of a key is taken, without taking it: first by a thread of this JVM, and then by anybody,
+     * with isLockedInZooKeeper.
+     */
+    public boolean isLocked(final SynchronizerLockKey key) {
+        Preconditions.checkArgument(key != null, "Undefined key.");
+        return locks.getLock(key, RefCountedLockTable.REENTRANT).isLocked() || isLockedInZooKeeper(key);
+    }
+
+    /**
+     * Check if the lock of a key is taken by anybody, with a read of its zookeeper lock nodes. A lease that's lingering
+     * on this JVM doesn't count. If zookeeper fails, this says it's not taken, and leaves it to the lock to find out.
+     * While the path layout is migrating, nodes that are still flat only lock the flat path, so that's read too. While
+     * the zookeeper circuit is open, it isn't read.
+     */
+    public boolean isLockedInZooKeeper(final SynchronizerLockKey key) {
+        Preconditions.checkArgument(key != null, "Undefined key.");
+
+        if (mutexFactory == null) {
+            return false;
+        }
+
+        try {
+            if (mutexFactory.getCircuitBreaker() != null) {
+                mutexFactory.getCircuitBreaker().checkClosed();
             }
 
-            final String path = rootZkPath + id.getValue();
-            final InterProcessMutex mutex = mutexFactory.newMutex(path);
-            final ReentrantLock lock = newLock(mutex, observer);
-            Preconditions.checkState(lock != null, "Can't build a new lock.");
+            return hasLockNodes(layout.toPath(rootZkPath, key.getValue()))
+                    || layout.isMigrating() && hasLockNodes(layout.toFlatPath(rootZkPath, key.getValue()));
+        } catch (final Exception e) {
+            observer.onInterProcessLockFail(new RuntimeException("Can't read interprocess lock.", e));
+            return false;
+        }
+    }
+
+    private boolean hasLockNodes(final String path) throws Exception {
+        final InterProcessMutexLease lease = mutexFactory.newMutexLease(path, false);
+        return lease.hasLockNodes(lingering == null ? null : lingering.getLingeringPath(lease));
+    }
+
+    public int getLiveLockCount() {
+        return locks.size();
+    }
+
+    public long getStickyHitCount() {
+        return lingering == null ? 0 : lingering.getHitCount();
+    }
+
+    public long getStickyMissCount() {
+        return lingering == null ? 0 : lingering.getMissCount();
+    }
+
+    public double getStickyHitRatio() {
+        return lingering == null ? 0 : lingering.getHitRatio();
+    }
+
+    public CircuitBreakerMetrics.CircuitState getCircuitState() {
+        final ZooKeeperCircuitBreaker breaker = mutexFactory == null ? null : mutexFactory.getCircuitBreaker();
+        return breaker == null ? CircuitBreakerMetrics.CircuitState.CLOSED : breaker.getState();
+    }
+
+    public long getCircuitTripCount() {
+        final ZooKeeperCircuitBreaker breaker = mutexFactory == null ? null : mutexFactory.getCircuitBreaker();
+        return breaker == null ? 0 : breaker.getTripCount();
+    }
+
+    public long getCircuitFastFailCount() {
+        final ZooKeeperCircuitBreaker breaker = mutexFactory == null ? null : mutexFactory.getCircuitBreaker();
+        return breaker == null ? 0 : breaker.getFastFailCount();
+    }
+
+    /**
+     * @param fastLease
+     *            - the lease of the same lock, for zero-wait tryLocks
+     */
+    protected abstract ReentrantLock newLock(InterProcessMutex mutex, InterProcessMutexLease fastLease,
+            InterProcessLockFailObserver observer);
 
-            return lock;
+    protected abstract ReentrantLock newCohortLock(InterProcessMutexLease lease, InterProcessLockFailObserver observer,
+            int maxHandoffs, LingeringLeases lingering, AsyncLeaseReleaser releaser);
+
+    protected abstract ReentrantLock newLeanLock(InterProcessMutexFactory mutexFactory, String path,
+            InterProcessLockFailObserver observer);
+
+    protected abstract LockHandle newLockHandle(InterProcessMutexLease lease, String leasePath,
+            InterProcessLockFailObserver observer);
+
+    /**
+     * Build the lock for a key, with a mutex under this lock registry's zookeeper path, where the path layout puts it.
+     */
+    ReentrantLock newLock(final String id) {
+        if (mutexFactory == null) {
+            return new ReentrantLock(true);
+        }
+
+        final String path = layout.toPath(rootZkPath, id);
+
+        if (layout.isMigrating()) {
+            return new MigratingReentrantLock(newLockAt(layout.toFlatPath(rootZkPath, id)), newLockAt(path));
+        }
+
+        return newLockAt(path);
+    }
+
+    private ReentrantLock newLockAt(final String path) {
+        final ReentrantLock lock;
+
+        // curator's mutexes make their own nodes, and only release them on the thread that locked them, so group
+        // commits and async releases need the leases
+        final AsyncLeaseReleaser releaser = mutexFactory.getReleaser();
+
+        if (cohortHandoffs > 0 || lingering != null) {
+            final InterProcessMutexLease lease = mutexFactory.newMutexLease(path, lingering != null);
+            lock = newCohortLock(lease, observer, cohortHandoffs, lingering, releaser);
+        } else if (mutexFactory.isLean()) {
+            lock = newLeanLock(mutexFactory, path, observer);
+        } else if (mutexFactory.isGroupCommitting() || releaser != null) {
+            final InterProcessMutexLease lease = mutexFactory.newMutexLease(path, false);
+            lock = newCohortLock(lease, observer, 0, null, releaser);
+        } else {
+            lock = newLock(mutexFactory.newMutex(path), mutexFactory.newMutexLease(path, false), observer);
+        }
+
+        Preconditions.checkState(lock != null, "Can't build a new lock.");
+
+        return lock;
+    }
+
+    /**
+     * @return what's left of a timeout that started at a System.nanoTime(), in nanoseconds, or a negative timeout
+     */
+    static long remainingNanos(final long timeout, final TimeUnit unit, final long start) {
+        return timeout < 0 ? timeout : Math.max(0, unit.toNanos(timeout) - (System.nanoTime() - start));
+    }
+
+    /**
+     * Build the locks of a LongLockTable, so the zookeeper path of a numeric key is only built when it's locked.
+     */
+    LongLockTable.LongLockFactory newLongLockFactory() {
+        return new LongLockTable.LongLockFactory() {
+            @Override
+            public ReentrantLock newLock(final long key) {
+                return InterProcessReentrantLockRegistry.this.newLock(Long.toString(key));
+            }
+        };
+    }
+
+    private class LockFactory implements Function<SynchronizerLockKey, ReentrantLock> {
+        @Override
+        public ReentrantLock apply(final SynchronizerLockKey id) {
+            return newLock(id.getValue());
         }
     }
 
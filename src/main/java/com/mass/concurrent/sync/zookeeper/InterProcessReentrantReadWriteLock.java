@@ -0,0 +1,433 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.sync.zookeeper.BestEffortInterProcessReentrantLock.InterProcessLockFailObserver;
+
+/**
+ * A ReentrantReadWriteLock that also holds a zookeeper read or write lease, so you can swap out intra-process read/write
+ * locks with inter-process ones, without changing the client code. The JVM lock comes first, so a JVM only ever asks
+ * zookeeper for one lease on a key at a time: the first reader in takes a read lease, the rest of the JVM's readers
+ * share it, and the last reader out releases it, whichever thread that is. A writer takes a write lease of its own.
+ * <p>
+ * A writer can take the read lock too, like any ReentrantReadWriteLock, but its write lease covers those reads, so the
+ * write lease is only released once the writer lets go of both.
+ * <p>
+ * Zookeeper failures of both leases are handled like the lock's
+ * {@link com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy SynchronizerLockingPolicy} says.
+ *
+ * @author kmassaroni
+ */
+class InterProcessReentrantReadWriteLock extends ReentrantReadWriteLock {
+    private static final long serialVersionUID = -4318232045733510932L;
+
+    private final transient InterProcessReadWriteLease lease;
+    private final transient InterProcessLockFailObserver failObserver;
+    private final boolean strict;
+    private final InterProcessReadLock readLock = new InterProcessReadLock(this);
+    private final InterProcessWriteLock writeLock = new InterProcessWriteLock(this);
+
+    // readers hold the acquire lock while they wait on zookeeper, so the JVM's readers queue up behind the first one,
+    // instead of taking leases of their own. The lease state is guarded by the state lock, which is never held while
+    // waiting on zookeeper, so releases never wait for acquisitions.
+    private final ReentrantLock acquireLock = new ReentrantLock();
+    private final ReentrantLock stateLock = new ReentrantLock();
+    private int leaseReaders;
+    private String readLeasePath;
+    private String writeLeasePath;
+    private Thread coveredReader;
+    private int coveredReads;
+
+    /**
+     * @param lease
+     * @param failObserver
+     *            - (nullable) gets the zookeeper failures of a best-effort lock
+     * @param strict
+     *            - throw zookeeper failures, instead of sending them to the fail observer
+     */
+    public InterProcessReentrantReadWriteLock(final InterProcessReadWriteLease lease,
+            final InterProcessLockFailObserver failObserver, final boolean strict) {
+        super();
+        Preconditions.checkArgument(lease != null, "Undefined zookeeper lease.");
+        this.lease = lease;
+        this.failObserver = failObserver;
+        this.strict = strict;
+    }
+
+    @Override
+    public ReentrantReadWriteLock.ReadLock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public ReentrantReadWriteLock.WriteLock writeLock() {
+        return writeLock;
+    }
+
+    /**
+     * @return true if this JVM holds a zookeeper read lease right now
+     */
+    public boolean hasReadLease() {
+        stateLock.lock();
+
+        try {
+            return readLeasePath != null;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * @return true if this JVM holds a zookeeper write lease right now
+     */
+    public boolean hasWriteLease() {
+        stateLock.lock();
+
+        try {
+            return writeLeasePath != null;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void onInterProcessLockFail(final RuntimeException failure) {
+        if (strict) {
+            throw failure;
+        }
+
+        if (failObserver != null) {
+            failObserver.onInterProcessLockFail(failure);
+        }
+    }
+
+    /**
+     * @return false if it timed out
+     */
+    private boolean acquireReadLease(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (joinLease()) {
+            return true;
+        }
+
+        final boolean hasTimeout = unit != null && timeout >= 0;
+        final long deadline = hasTimeout ? System.nanoTime() + unit.toNanos(timeout) : 0;
+
+        if (hasTimeout) {
+            if (!acquireLock.tryLock(timeout, unit)) {
+                return false;
+            }
+        } else {
+            acquireLock.lockInterruptibly();
+        }
+
+        try {
+            // somebody else might have taken the lease while we waited
+            if (joinLease()) {
+                return true;
+            }
+
+            String path = null;
+
+            try {
+                final long remaining = hasTimeout ? Math.max(0, deadline - System.nanoTime()) : -1;
+                path = lease.acquireRead(remaining, hasTimeout ? TimeUnit.NANOSECONDS : null);
+
+                if (path == null) {
+                    return false;
+                }
+            } catch (final InterruptedException e) {
+                throw e;
+            } catch (final Exception e) {
+                onInterProcessLockFail(new RuntimeException("Can't get interprocess read lock.", e));
+            }
+
+            stateLock.lock();
+
+            try {
+                readLeasePath = path;
+                leaseReaders++;
+            } finally {
+                stateLock.unlock();
+            }
+
+            return true;
+        } finally {
+            acquireLock.unlock();
+        }
+    }
+
+    /**
+     * Share the JVM's read lease, or the current thread's write lease, if there is one.
+     */
+    private boolean joinLease() {
+        stateLock.lock();
+
+        try {
+            if (isWriteLockedByCurrentThread() || coveredReads > 0 && coveredReader == Thread.currentThread()) {
+                coveredReader = Thread.currentThread();
+                coveredReads++;
+                return true;
+            }
+
+            if (leaseReaders > 0) {
+                leaseReaders++;
+                return true;
+            }
+
+            return false;
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    private void releaseReadLease() {
+        final String path;
+        stateLock.lock();
+
+        try {
+            if (coveredReads > 0 && coveredReader == Thread.currentThread()) {
+                if (--coveredReads == 0) {
+                    coveredReader = null;
+                    releaseWriteLeaseIfDone();
+                }
+
+                return;
+            }
+
+            if (--leaseReaders > 0 || readLeasePath == null) {
+                return;
+            }
+
+            path = readLeasePath;
+            readLeasePath = null;
+        } finally {
+            stateLock.unlock();
+        }
+
+        try {
+            lease.release(path);
+        } catch (final Exception e) {
+            onInterProcessLockFail(new RuntimeException("Can't release interprocess read lock.", e));
+        }
+    }
+
+    /**
+     * @return false if it timed out
+     */
+    private boolean acquireWriteLease(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (getWriteHoldCount() > 1) {
+            return true;
+        }
+
+        try {
+            final String path = lease.acquireWrite(timeout, unit);
+
+            if (path == null) {
+                return false;
+            }
+
+            stateLock.lock();
+
+            try {
+                writeLeasePath = path;
+            } finally {
+                stateLock.unlock();
+            }
+        } catch (final InterruptedException e) {
+            throw e;
+        } catch (final Exception e) {
+            onInterProcessLockFail(new RuntimeException("Can't get interprocess write lock.", e));
+        }
+
+        return true;
+    }
+
+    private void releaseWriteLease() {
+        if (getWriteHoldCount() > 0) {
+            return;
+        }
+
+        stateLock.lock();
+
+        try {
+            releaseWriteLeaseIfDone();
+        } finally {
+            stateLock.unlock();
+        }
+    }
+
+    /**
+     * Only the writer calls this, with the state lock. The write lease covers the writer's reads, so it's kept until
+     * the writer lets go of both.
+     */
+    private void releaseWriteLeaseIfDone() {
+        if (writeLeasePath == null || coveredReads > 0 || isWriteLockedByCurrentThread()) {
+            return;
+        }
+
+        final String path = writeLeasePath;
+        writeLeasePath = null;
+
+        try {
+            lease.release(path);
+        } catch (final Exception e) {
+            onInterProcessLockFail(new RuntimeException("Can't release interprocess write lock.", e));
+        }
+    }
+
+    private static class InterProcessReadLock extends ReentrantReadWriteLock.ReadLock {
+        private static final long serialVersionUID = 6205896123645371407L;
+
+        private final InterProcessReentrantReadWriteLock lock;
+
+        protected InterProcessReadLock(final InterProcessReentrantReadWriteLock lock) {
+            super(lock);
+            this.lock = lock;
+        }
+
+        @Override
+        public void lock() {
+            super.lock();
+            acquireLease(-1, null);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            super.lockInterruptibly();
+            acquireLeaseInterruptibly(-1, null);
+        }
+
+        @Override
+        public boolean tryLock() {
+            try {
+                return tryLock(0, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+            final long start = System.nanoTime();
+
+            if (!super.tryLock(timeout, unit)) {
+                return false;
+            }
+
+            final long remaining = unit.toNanos(timeout) - (System.nanoTime() - start);
+            return acquireLeaseInterruptibly(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void unlock() {
+            super.unlock();
+            lock.releaseReadLease();
+        }
+
+        private void acquireLease(final long timeout, final TimeUnit unit) {
+            try {
+                acquireLeaseInterruptibly(timeout, unit);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted getting interprocess read lock.", e);
+            }
+        }
+
+        /**
+         * Give the JVM read lock back if we can't get the lease.
+         */
+        private boolean acquireLeaseInterruptibly(final long timeout, final TimeUnit unit)
+                throws InterruptedException {
+            boolean acquired = false;
+
+            try {
+                acquired = lock.acquireReadLease(timeout, unit);
+                return acquired;
+            } finally {
+                if (!acquired) {
+                    super.unlock();
+                }
+            }
+        }
+    }
+
+    private static class InterProcessWriteLock extends ReentrantReadWriteLock.WriteLock {
+        private static final long serialVersionUID = -1538950851329946311L;
+
+        private final InterProcessReentrantReadWriteLock lock;
+
+        protected InterProcessWriteLock(final InterProcessReentrantReadWriteLock lock) {
+            super(lock);
+            this.lock = lock;
+        }
+
+        @Override
+        public void lock() {
+            super.lock();
+            acquireLease(-1, null);
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            super.lockInterruptibly();
+            acquireLeaseInterruptibly(-1, null);
+        }
+
+        @Override
+        public boolean tryLock() {
+            try {
+                return tryLock(0, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        @Override
+        public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+            final long start = System.nanoTime();
+
+            if (!super.tryLock(timeout, unit)) {
+                return false;
+            }
+
+            final long remaining = unit.toNanos(timeout) - (System.nanoTime() - start);
+            return acquireLeaseInterruptibly(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void unlock() {
+            super.unlock();
+            lock.releaseWriteLease();
+        }
+
+        private void acquireLease(final long timeout, final TimeUnit unit) {
+            try {
+                acquireLeaseInterruptibly(timeout, unit);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted getting interprocess write lock.", e);
+            }
+        }
+
+        /**
+         * Give the JVM write lock back if we can't get the lease.
+         */
+        private boolean acquireLeaseInterruptibly(final long timeout, final TimeUnit unit)
+                throws InterruptedException {
+            boolean acquired = false;
+
+            try {
+                acquired = lock.acquireWriteLease(timeout, unit);
+                return acquired;
+            } finally {
+                if (!acquired) {
+                    super.unlock();
+                }
+            }
+        }
+    }
+}
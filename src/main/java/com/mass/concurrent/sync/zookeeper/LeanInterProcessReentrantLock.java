@@ -0,0 +1,162 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.sync.zookeeper.BestEffortInterProcessReentrantLock.InterProcessLockFailObserver;
+
+/**
+ * A zookeeper lock that keeps nothing per key but its lock path, and the path of its lease node while it's held.
+ * Unlike the StrictInterProcessReentrantLock and the BestEffortInterProcessReentrantLock, there's no curator mutex
+ * behind it, with its own lock internals, thread map and watcher. Each acquire builds a short-lived lease from the lock
+ * registry's mutex factory, and waits with the registry's one WatcherDispatcher, so everything else is shared by all
+ * the keys of the registry.
+ * <p>
+ * Zookeeper failures are handled like the lock's
+ * {@link com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy SynchronizerLockingPolicy} says.
+ *
+ * @author kmassaroni
+ */
+class LeanInterProcessReentrantLock extends ReentrantLock {
+    private static final long serialVersionUID = -2926335128946630477L;
+
+    private final transient InterProcessMutexFactory mutexFactory;
+    private final String path;
+    private final transient InterProcessLockFailObserver failObserver;
+    private final boolean strict;
+
+    // only written by the thread that holds the JVM lock
+    private volatile String leasePath;
+
+    /**
+     * @param failObserver
+     *            - (nullable) gets the zookeeper failures of a best-effort lock, and the failed async releases
+     * @param strict
+     *            - throw zookeeper failures, instead of sending them to the fail observer
+     */
+    public LeanInterProcessReentrantLock(final InterProcessMutexFactory mutexFactory, final String path,
+            final InterProcessLockFailObserver failObserver, final boolean strict) {
+        super();
+        Preconditions.checkArgument(mutexFactory != null, "Undefined mutex factory.");
+        Preconditions.checkArgument(path != null, "Undefined zookeeper lock path.");
+        this.mutexFactory = mutexFactory;
+        this.path = path;
+        this.failObserver = failObserver;
+        this.strict = strict;
+    }
+
+    @Override
+    public void lock() {
+        super.lock();
+
+        try {
+            acquireLease(-1, null);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted getting interprocess lock.", e);
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        super.lockInterruptibly();
+        acquireLease(-1, null);
+    }
+
+    @Override
+    public boolean tryLock() {
+        try {
+            return tryLock(0, TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    @Override
+    public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long start = System.nanoTime();
+
+        if (!super.tryLock(timeout, unit)) {
+            return false;
+        }
+
+        final long remaining = unit.toNanos(timeout) - (System.nanoTime() - start);
+        return acquireLease(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void unlock() {
+        final String path = getHoldCount() == 1 ? leasePath : null;
+
+        if (path != null) {
+            leasePath = null;
+        }
+
+        super.unlock();
+
+        if (path != null) {
+            releaseLease(path);
+        }
+    }
+
+    /**
+     * Only called with the JVM lock.
+     *
+     * @return false if it timed out, and gave the JVM lock back
+     */
+    private boolean acquireLease(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (getHoldCount() > 1) {
+            return true;
+        }
+
+        boolean acquired = false;
+
+        try {
+            final InterProcessMutexLease lease = mutexFactory.newMutexLease(path, false);
+
+            // a zero-wait try only needs to know if the lock is free, so it doesn't get in line
+            final String acquiredPath = timeout == 0 ? lease.tryAcquire() : lease.acquire(timeout, unit);
+            leasePath = acquiredPath;
+            acquired = acquiredPath != null;
+            return acquired;
+        } catch (final InterruptedException e) {
+            throw e;
+        } catch (final Exception e) {
+            onInterProcessLockFail(new RuntimeException("Can't get interprocess lock.", e));
+            acquired = true;
+            return true;
+        } finally {
+            if (!acquired) {
+                super.unlock();
+            }
+        }
+    }
+
+    private void releaseLease(final String releasedPath) {
+        final InterProcessMutexLease lease = mutexFactory.newMutexLease(path, false);
+        final AsyncLeaseReleaser releaser = mutexFactory.getReleaser();
+
+        if (releaser != null) {
+            releaser.release(lease, releasedPath, failObserver);
+            return;
+        }
+
+        try {
+            lease.release(releasedPath);
+        } catch (final Exception e) {
+            onInterProcessLockFail(new RuntimeException("Can't release interprocess lock.", e));
+        }
+    }
+
+    private void onInterProcessLockFail(final RuntimeException failure) {
+        if (strict) {
+            throw failure;
+        }
+
+        if (failObserver != null) {
+            failObserver.onInterProcessLockFail(failure);
+        }
+    }
+}
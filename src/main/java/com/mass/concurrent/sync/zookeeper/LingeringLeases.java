@@ -0,0 +1,221 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.EventType;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * The zookeeper leases that a JVM keeps for a while after its last thread lets go of them, so that the next lock of
+ * the same key can re-enter without any zookeeper I/O. A lease lingers for the linger window, and then it's released,
+ * unless another node asks for it first. Other nodes ask with curator's Revoker, which writes a revocation message to
+ * the lease node. A lingering lease is released as soon as that happens, and a lease that's held when it happens is
+ * released when its holder is done with it, instead of lingering.
+ *
+ * @author kmassaroni
+ */
+class LingeringLeases {
+    private final Log log = LogFactory.getLog(LingeringLeases.class);
+
+    private final long lingerMillis;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setDaemon(true).setNameFormat("lingering-zookeeper-leases-%d").build());
+
+    // lingering leases, by the base path of their lock
+    private final ConcurrentMap<String, Lingering> lingering = Maps.newConcurrentMap();
+    private final Set<String> revoked = Sets.newConcurrentHashSet();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param lingerMillis
+     *            - how long a lease is kept after it's released
+     */
+    public LingeringLeases(final long lingerMillis) {
+        Preconditions.checkArgument(lingerMillis > 0, "Linger window out of range: %s", lingerMillis);
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * Take the lingering lease for this lock, if there is one.
+     *
+     * @return the path of the lease node, or null if the lock has to acquire a new lease
+     */
+    public String claim(final InterProcessLease lease) {
+        final Lingering entry = lingering.remove(lease.getBasePath());
+
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+
+        entry.cancel();
+
+        if (revoked.contains(entry.leasePath)) {
+            release(lease, entry.leasePath);
+            misses.incrementAndGet();
+            return null;
+        }
+
+        hits.incrementAndGet();
+        return entry.leasePath;
+    }
+
+    /**
+     * Watch a new lease for revocation requests from other nodes.
+     */
+    public void watch(final InterProcessLease lease, final String leasePath) {
+        try {
+            lease.watchData(leasePath, new RevocationWatcher(lease, leasePath));
+        } catch (final Exception e) {
+            log.warn("Can't watch zookeeper lease for revocation: " + leasePath, e);
+        }
+    }
+
+    /**
+     * Keep a lease that was just released, for the linger window, unless another node asked for it.
+     */
+    public void linger(final InterProcessLease lease, final String leasePath) {
+        if (revoked.contains(leasePath)) {
+            release(lease, leasePath);
+            return;
+        }
+
+        final Lingering entry = new Lingering(leasePath);
+        final Lingering existing = lingering.putIfAbsent(lease.getBasePath(), entry);
+
+        if (existing != null) {
+            // there's already a lease lingering for this lock, so don't keep two
+            release(lease, leasePath);
+            return;
+        }
+
+        entry.expiry = timer.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (lingering.remove(lease.getBasePath(), entry)) {
+                    release(lease, leasePath);
+                }
+            }
+        }, lingerMillis, TimeUnit.MILLISECONDS);
+
+        // the revocation might have come in while it was being parked
+        if (revoked.contains(leasePath)) {
+            revoke(lease, leasePath);
+        }
+    }
+
+    /**
+     * @return the path of the lease that's lingering for this lock, or null
+     */
+    public String getLingeringPath(final InterProcessLease lease) {
+        final Lingering entry = lingering.get(lease.getBasePath());
+        return entry == null ? null : entry.leasePath;
+    }
+
+    public boolean isRevoked(final String leasePath) {
+        return revoked.contains(leasePath);
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public double getHitRatio() {
+        final long hitCount = hits.get();
+        final long total = hitCount + misses.get();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * @return the number of leases lingering right now
+     */
+    public int size() {
+        return lingering.size();
+    }
+
+    private void revoke(final InterProcessLease lease, final String leasePath) {
+        revoked.add(leasePath);
+        final Lingering entry = lingering.get(lease.getBasePath());
+
+        if (entry != null && entry.leasePath.equals(leasePath) && lingering.remove(lease.getBasePath(), entry)) {
+            entry.cancel();
+            release(lease, leasePath);
+        }
+    }
+
+    /**
+     * Release the lease on the timer thread, so watcher callbacks never wait on zookeeper.
+     */
+    private void release(final InterProcessLease lease, final String leasePath) {
+        timer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    lease.release(leasePath);
+                } catch (final Exception e) {
+                    log.error("Can't release lingering zookeeper lease: " + leasePath, e);
+                } finally {
+                    revoked.remove(leasePath);
+                }
+            }
+        });
+    }
+
+    private static class Lingering {
+        private final String leasePath;
+        private volatile ScheduledFuture<?> expiry;
+
+        public Lingering(final String leasePath) {
+            this.leasePath = leasePath;
+        }
+
+        /**
+         * The expiry is scheduled right after the lease starts lingering, so it might not be there yet.
+         */
+        public void cancel() {
+            final ScheduledFuture<?> scheduled = expiry;
+
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+        }
+    }
+
+    private class RevocationWatcher implements Watcher {
+        private final InterProcessLease lease;
+        private final String leasePath;
+
+        public RevocationWatcher(final InterProcessLease lease, final String leasePath) {
+            this.lease = lease;
+            this.leasePath = leasePath;
+        }
+
+        @Override
+        public void process(final WatchedEvent event) {
+            if (event.getType() == EventType.NodeDataChanged) {
+                revoke(lease, leasePath);
+            } else if (event.getType() == EventType.NodeDeleted) {
+                revoked.remove(leasePath);
+            }
+        }
+    }
+}
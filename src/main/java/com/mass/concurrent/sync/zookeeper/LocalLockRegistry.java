@@ -1,27 +1,26 @@
 package com.mass.concurrent.sync.zookeeper;
 
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.locks.ReentrantLock;
 
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.LockRegistryMetrics;
 import com.mass.concurrent.sync.SynchronizerLockKey;
 import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
 import com.mass.core.PositiveDuration;
 
 /**
  * This is a fake interprocess lock registry that does all locking in memory. This will protect a single JVM, but it's
- * unsuitable for use in a cluster.
+ * unsuitable for use in a cluster. Locks are only kept while some thread holds them, or waits for them, or while
+ * they're detached from their thread.
  * 
  * @author kmassaroni
  * @param <K>
  */
-class LocalLockRegistry<K> implements LockRegistry<K> {
-    private final Cache<SynchronizerLockKey, ReentrantLock> locks = CacheBuilder.newBuilder().softValues().build();
-    private final LockFactory lockFactory = new LockFactory();
+class LocalLockRegistry<K> implements LockRegistry<K>, LockRegistryMetrics {
+    private final RefCountedLockTable<SynchronizerLockKey, ReentrantLock> locks =
+            new RefCountedLockTable<SynchronizerLockKey, ReentrantLock>(new LockFactory());
     private final SynchronizerLockKeyFactory<K> lockKeyFactory;
     private final PositiveDuration timeoutDuration;
 
@@ -50,17 +49,18 @@ class LocalLockRegistry<K> implements LockRegistry<K> {
         final SynchronizerLockKey lockKey = lockKeyFactory.toKey(key);
         Preconditions.checkArgument(lockKey != null, "Lock factory produced a null lock key.");
 
-        try {
-            return locks.get(lockKey, lockFactory);
-        } catch (final ExecutionException e) {
-            throw new RuntimeException(e);
-        }
+        return locks.getLock(lockKey, RefCountedLockTable.REENTRANT);
+    }
+
+    @Override
+    public int getLiveLockCount() {
+        return locks.size();
     }
 
-    private static class LockFactory implements Callable<ReentrantLock> {
+    private static class LockFactory implements Function<SynchronizerLockKey, ReentrantLock> {
         @Override
-        public ReentrantLock call() throws Exception {
-            return new ReentrantLock();
+        public ReentrantLock apply(final SynchronizerLockKey key) {
+            return new DetachableReentrantLock();
         }
     }
 }
@@ -2,11 +2,13 @@ package com.mass.concurrent.sync.zookeeper;
 
 import com.google.common.base.Preconditions;
 import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.ReadWriteLockRegistry;
 import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
 
 /**
  * Produces lock registries scoped to this JVM, and have no external dependencies. This is not suitable for use in a
- * cluster.
+ * cluster. Lock registries configured with lock stripes share a fixed array of locks among all their keys, and lock
+ * registries with int or long keys lock them as primitive longs.
  * 
  * @author kmassaroni
  */
@@ -16,7 +18,31 @@ class LocalLockRegistryFactory implements LockRegistryFactory {
     @SuppressWarnings({ "rawtypes", "unchecked" })
     public LockRegistry<Object> newLockRegistry(final SynchronizerLockRegistryConfiguration definition) {
         Preconditions.checkArgument(definition != null, "Undefined lock registry definition.");
+
+        if (definition.getStripes() > 0) {
+            return new StripedLockRegistry(definition.getLockKeyFactory(), definition.getStripes(),
+                    definition.getTimeoutDuration());
+        }
+
+        if (LongLockRegistry.supports(definition.getLockKeyFactory())) {
+            return new LongLockRegistry(LongLockRegistry.localLockFactory(), definition.getTimeoutDuration());
+        }
+
         return new LocalLockRegistry(definition.getLockKeyFactory(), definition.getTimeoutDuration());
     }
 
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public ReadWriteLockRegistry<Object> newReadWriteLockRegistry(
+            final SynchronizerLockRegistryConfiguration definition) {
+        Preconditions.checkArgument(definition != null, "Undefined lock registry definition.");
+        return new LocalReadWriteLockRegistry(definition.getLockKeyFactory(), definition.getTimeoutDuration());
+    }
+
+    /**
+     * Local lock registries don't do anything in the background.
+     */
+    @Override
+    public void close() {
+    }
 }
@@ -0,0 +1,65 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.LockRegistryMetrics;
+import com.mass.concurrent.ReadWriteLockRegistry;
+import com.mass.concurrent.sync.SynchronizerLockKey;
+import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
+import com.mass.core.PositiveDuration;
+
+/**
+ * Read/write locks that only protect a single JVM, backed by plain ReentrantReadWriteLocks. Like the LocalLockRegistry,
+ * the locks are only kept while some thread holds them, or waits for them.
+ * 
+ * @author kmassaroni
+ * @param <K>
+ */
+class LocalReadWriteLockRegistry<K> implements ReadWriteLockRegistry<K>, LockRegistryMetrics {
+    private final RefCountedLockTable<SynchronizerLockKey, ReentrantReadWriteLock> locks =
+            new RefCountedLockTable<SynchronizerLockKey, ReentrantReadWriteLock>(new LockFactory());
+    private final SynchronizerLockKeyFactory<K> lockKeyFactory;
+    private final PositiveDuration timeoutDuration;
+
+    /**
+     * @param lockKeyFactory
+     * @param timeoutDuration
+     *            - (optional) (nullable) Use this timeout duration for all lock attempts for this lock registry.
+     */
+    public LocalReadWriteLockRegistry(final SynchronizerLockKeyFactory<K> lockKeyFactory,
+            final PositiveDuration timeoutDuration) {
+        Preconditions.checkArgument(lockKeyFactory != null, "Undefined lock key factory.");
+        this.lockKeyFactory = lockKeyFactory;
+        this.timeoutDuration = timeoutDuration;
+    }
+
+    @Override
+    public PositiveDuration getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock(final K key) {
+        Preconditions.checkArgument(key != null, "Undefined key.");
+
+        final SynchronizerLockKey lockKey = lockKeyFactory.toKey(key);
+        Preconditions.checkArgument(lockKey != null, "Lock factory produced a null lock key.");
+
+        return new RefCountedReadWriteLock<SynchronizerLockKey>(locks, lockKey);
+    }
+
+    @Override
+    public int getLiveLockCount() {
+        return locks.size();
+    }
+
+    private static class LockFactory implements Function<SynchronizerLockKey, ReentrantReadWriteLock> {
+        @Override
+        public ReentrantReadWriteLock apply(final SynchronizerLockKey key) {
+            return new ReentrantReadWriteLock();
+        }
+    }
+}
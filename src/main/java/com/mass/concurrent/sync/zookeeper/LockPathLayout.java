@@ -0,0 +1,129 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+
+/**
+ * Where the zookeeper lock of each key goes, under the dir of its lock registry. The flat layout puts every key right
+ * in the dir, so a lock registry with millions of keys makes one znode with millions of children, which bloats the
+ * zookeeper snapshots, makes listing the dir expensive, and can go past the jute.maxbuffer limit. The hashed layout
+ * spreads the keys over buckets, one or two levels deep, like /locks/myLockName/~3f/~a9/myKey, so every dir stays
+ * small. The bucket of a key is a murmur3 hash of the key, so it's the same on every node. Lock keys are words, so the
+ * ~ keeps bucket names apart from keys, which share the dir with them while migrating.
+ * <p>
+ * A lock registry that's already in use moves from the flat layout to buckets in two rollouts. First, every node
+ * migrates: it locks the flat path of a key, and then its bucketed path, so it excludes both the nodes that are still
+ * flat, and the nodes that have already moved. Once no node is flat anymore, every node can drop the migration, and
+ * just lock the bucketed path.
+ *
+ * @author kmassaroni
+ */
+final class LockPathLayout {
+    public static final LockPathLayout FLAT = new LockPathLayout(0, 0, false);
+
+    private static final int MAX_LEVELS = 2;
+    private static final int MAX_BUCKETS = 1 << 16;
+    private static final char BUCKET_PREFIX = '~';
+
+    private final int levels;
+    private final int buckets;
+    private final boolean migrating;
+    private final int digits;
+
+    private LockPathLayout(final int levels, final int buckets, final boolean migrating) {
+        this.levels = levels;
+        this.buckets = buckets;
+        this.migrating = migrating;
+        digits = buckets == 0 ? 0 : Integer.toHexString(buckets - 1).length();
+    }
+
+    /**
+     * @param levels
+     *            - 1 or 2 levels of buckets
+     * @param buckets
+     *            - how many buckets on each level
+     * @param migrating
+     *            - also lock the flat path of every key, first, while some nodes might still be flat
+     */
+    public static LockPathLayout hashed(final int levels, final int buckets, final boolean migrating) {
+        Preconditions.checkArgument(levels > 0 && levels <= MAX_LEVELS, "Unsupported hash bucket levels: %s", levels);
+        Preconditions.checkArgument(buckets > 1 && buckets <= MAX_BUCKETS, "Unsupported hash buckets: %s", buckets);
+        return new LockPathLayout(levels, buckets, migrating);
+    }
+
+    /**
+     * @return the layout of a lock registry's hash bucket options
+     */
+    public static LockPathLayout of(final SynchronizerLockRegistryConfiguration definition) {
+        Preconditions.checkArgument(definition != null, "Undefined lock registry definition.");
+
+        if (definition.getHashBuckets() == 0) {
+            return FLAT;
+        }
+
+        return hashed(definition.getHashBucketLevels(), definition.getHashBuckets(),
+                definition.isHashBucketMigration());
+    }
+
+    /**
+     * @return the path of a key's lock
+     */
+    public String toPath(final String dirPath, final String id) {
+        if (levels == 0) {
+            return dirPath + id;
+        }
+
+        final long hash = Hashing.murmur3_128().hashString(id, Charsets.UTF_8).asLong();
+        final StringBuilder path = new StringBuilder(dirPath);
+
+        for (int level = 0; level < levels; level++) {
+            final long bucket = ((hash >>> level * 32) & 0xffffffffL) % buckets;
+            path.append(BUCKET_PREFIX).append(Strings.padStart(Long.toHexString(bucket), digits, '0')).append('/');
+        }
+
+        return path.append(id).toString();
+    }
+
+    /**
+     * @return the path of a key's lock in the flat layout, that's locked first while migrating
+     */
+    public String toFlatPath(final String dirPath, final String id) {
+        return dirPath + id;
+    }
+
+    /**
+     * @return true if a child of the lock registry's dir, or of a bucket, can be a bucket, rather than a key
+     */
+    public boolean isBucket(final String name) {
+        if (levels == 0 || name.length() != digits + 1 || name.charAt(0) != BUCKET_PREFIX) {
+            return false;
+        }
+
+        for (int i = 1; i < name.length(); i++) {
+            if (Character.digit(name.charAt(i), 16) < 0 || Character.isUpperCase(name.charAt(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public boolean isMigrating() {
+        return migrating;
+    }
+
+    /**
+     * @return 0 if keys aren't hashed to buckets
+     */
+    public int getLevels() {
+        return levels;
+    }
+
+    @Override
+    public String toString() {
+        return "LockPathLayout [levels=" + levels + ", buckets=" + buckets + ", migrating=" + migrating + "]";
+    }
+}
@@ -0,0 +1,221 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.utils.ZKPaths;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Deletes the zookeeper lock paths of the keys that nobody's locked for a while. The lock nodes are ephemeral, but
+ * their parents, one per key, stay in zookeeper forever after a key is locked once, so a lock registry with lots of
+ * keys piles up millions of empty znodes, that slow down zookeeper snapshots, restarts and leader elections. Zookeeper
+ * 3.4 has no container nodes that delete themselves, so this sweeps them, in the background.
+ * <p>
+ * A sweep walks the lock registry's dir, and its hash buckets, and remembers the lock paths that are empty. The next
+ * sweep deletes the ones that are still empty, and whose children haven't changed since, so a lock path has to be idle
+ * for a whole sweep interval before it goes. Zookeeper won't delete a node that has children, so a lock that's created
+ * right before the delete keeps its path, and a lock that's created right after it makes the path again, like every
+ * lock does. Ephemeral nodes are never deleted, since they're the lock nodes themselves. Idle hash buckets are reaped
+ * like lock paths, since a bucket is made again just the same.
+ * <p>
+ * All the zookeeper reads and deletes of the sweeps go through a rate limiter, so a big sweep doesn't load the
+ * ensemble. Every node with the lock registry sweeps, and deleting a path that's already gone is harmless. A node only
+ * needs one reaper per lock registry dir, though, since the sweeps of a dir don't depend on the session they go
+ * through.
+ *
+ * @author kmassaroni
+ */
+final class LockPathReaper {
+    // a sweep remembers this many empty lock paths, at most, and the rest wait for the next sweeps
+    static final int MAX_CANDIDATES = 100000;
+
+    private static final ScheduledExecutorService sweeps = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("zookeeper-lock-path-reaper-%d").build());
+
+    private final Log log = LogFactory.getLog(LockPathReaper.class);
+    private final CuratorFramework zkClient;
+    private final String dirPath;
+    private final LockPathLayout layout;
+    private final long intervalMillis;
+    private final RateLimiter ops;
+    private final Object lifecycle = new Object();
+    private final AtomicLong sweepCount = new AtomicLong();
+    private final AtomicLong reclaimedCount = new AtomicLong();
+
+    // the empty lock paths of the last sweep, with their child versions. only used by the sweeps, one at a time.
+    private Map<String, Integer> candidates = Maps.newHashMap();
+
+    // guarded by the lifecycle
+    private ScheduledFuture<?> schedule;
+    private boolean stopped;
+
+    private final Runnable sweeper = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                final int reclaimed = sweep();
+
+                if (reclaimed > 0) {
+                    log.info(String.format("Reclaimed %d idle zookeeper lock paths under %s", reclaimed, dirPath));
+                }
+            } catch (final Exception e) {
+                log.warn("Can't sweep zookeeper lock paths under " + dirPath, e);
+            }
+        }
+    };
+
+    /**
+     * @param dirPath
+     *            - the lock registry's dir, that the layout puts the lock paths under
+     * @param intervalMillis
+     *            - how long between sweeps, and how long a lock path has to be idle before it's deleted
+     * @param opsPerSecond
+     *            - how many zookeeper reads and deletes the sweeps make per second, at most
+     */
+    public LockPathReaper(final CuratorFramework zkClient, final String dirPath, final LockPathLayout layout,
+            final long intervalMillis, final int opsPerSecond) {
+        Preconditions.checkArgument(zkClient != null, "Undefined zookeeper client.");
+        com.mass.core.Preconditions.checkNotBlank(dirPath, "Undefined dir path for zookeeper mutexes base dir.");
+        Preconditions.checkArgument(layout != null, "Undefined zookeeper lock path layout.");
+        Preconditions.checkArgument(intervalMillis > 0, "Sweep interval must be positive: %s", intervalMillis);
+        Preconditions.checkArgument(opsPerSecond > 0, "Sweep rate must be positive: %s", opsPerSecond);
+        this.zkClient = zkClient;
+        this.dirPath = dirPath.endsWith("/") && dirPath.length() > 1 ? dirPath.substring(0, dirPath.length() - 1)
+                : dirPath;
+        this.layout = layout;
+        this.intervalMillis = intervalMillis;
+        ops = RateLimiter.create(opsPerSecond);
+    }
+
+    /**
+     * Sweep every interval, in the background, from now on. Starting it again, or once it's stopped, does nothing.
+     */
+    public LockPathReaper start() {
+        synchronized (lifecycle) {
+            if (schedule == null && !stopped) {
+                schedule = sweeps.scheduleWithFixedDelay(sweeper, intervalMillis, intervalMillis,
+                        TimeUnit.MILLISECONDS);
+            }
+        }
+
+        return this;
+    }
+
+    /**
+     * Stop sweeping in the background. A sweep that's already running finishes.
+     */
+    public void stop() {
+        synchronized (lifecycle) {
+            stopped = true;
+
+            if (schedule != null) {
+                schedule.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Sweep the lock paths once: delete the ones that were empty in the last sweep, and haven't changed since, and
+     * remember the ones that are empty now, for the next sweep.
+     *
+     * @return how many lock paths were deleted
+     */
+    public synchronized int sweep() throws Exception {
+        final Map<String, Integer> nextCandidates = Maps.newHashMap();
+        final int reclaimed = sweep(dirPath, 0, nextCandidates);
+
+        candidates = nextCandidates;
+        sweepCount.incrementAndGet();
+        reclaimedCount.addAndGet(reclaimed);
+        return reclaimed;
+    }
+
+    public long getSweepCount() {
+        return sweepCount.get();
+    }
+
+    public long getReclaimedCount() {
+        return reclaimedCount.get();
+    }
+
+    private int sweep(final String path, final int level, final Map<String, Integer> nextCandidates)
+            throws Exception {
+        final List<String> children;
+
+        try {
+            ops.acquire();
+            children = zkClient.getChildren().forPath(path);
+        } catch (final KeeperException.NoNodeException e) {
+            return 0;
+        }
+
+        int reclaimed = 0;
+
+        for (final String child : children) {
+            final String childPath = ZKPaths.makePath(path, child);
+
+            // while migrating to buckets, the old lock paths are next to the buckets
+            if (level < layout.getLevels() && layout.isBucket(child)) {
+                reclaimed += sweep(childPath, level + 1, nextCandidates);
+            }
+
+            if (reap(childPath, nextCandidates)) {
+                reclaimed++;
+            }
+        }
+
+        return reclaimed;
+    }
+
+    private boolean reap(final String path, final Map<String, Integer> nextCandidates) throws Exception {
+        ops.acquire();
+        final Stat stat = zkClient.checkExists().forPath(path);
+
+        if (stat == null || stat.getNumChildren() > 0 || stat.getEphemeralOwner() != 0) {
+            return false;
+        }
+
+        final Integer cversion = candidates.get(path);
+
+        if (cversion == null || cversion != stat.getCversion()) {
+            if (nextCandidates.size() < MAX_CANDIDATES) {
+                nextCandidates.put(path, stat.getCversion());
+            }
+
+            return false;
+        }
+
+        try {
+            ops.acquire();
+            zkClient.delete().withVersion(stat.getVersion()).forPath(path);
+            return true;
+        } catch (final KeeperException.NotEmptyException e) {
+            return false;
+        } catch (final KeeperException.NoNodeException e) {
+            return false;
+        } catch (final KeeperException.BadVersionException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LockPathReaper [dirPath=" + dirPath + ", layout=" + layout + ", intervalMillis=" + intervalMillis
+                + ", sweepCount=" + sweepCount + ", reclaimedCount=" + reclaimedCount + "]";
+    }
+}
@@ -1,7 +1,10 @@
 package com.mass.concurrent.sync.zookeeper;
 
+import java.util.List;
+
 import org.apache.curator.framework.CuratorFramework;
 
+import com.google.common.base.Preconditions;
 import com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy;
 
 public final class LockRegistries {
@@ -16,4 +19,32 @@ public final class LockRegistries {
             final SynchronizerLockingPolicy defaultLockingPolicy, final String zkBasePath) {
         return new InterProcessLockRegistryFactory(zkClient, defaultLockingPolicy, zkBasePath);
     }
+
+    /**
+     * Spread the zookeeper locks over several zookeeper ensembles. See the ShardedLockRegistryFactory.
+     * 
+     * @param zkClients
+     *            - a client for each zookeeper ensemble, in the same order on every node
+     * @param shardKeys
+     *            - route every key to its own ensemble, instead of every lock registry
+     */
+    public static LockRegistryFactory newShardedLockRegistryFactory(final List<CuratorFramework> zkClients,
+            final SynchronizerLockingPolicy defaultLockingPolicy, final String zkBasePath, final boolean shardKeys) {
+        return new ShardedLockRegistryFactory(zkClients, defaultLockingPolicy, zkBasePath, shardKeys);
+    }
+
+    /**
+     * Spread the zookeeper locks of this JVM over the sessions of a pool, key by key. See the ZooKeeperSessionPool.
+     */
+    public static LockRegistryFactory newPooledLockRegistryFactory(final ZooKeeperSessionPool sessionPool,
+            final SynchronizerLockingPolicy defaultLockingPolicy, final String zkBasePath) {
+        Preconditions.checkArgument(sessionPool != null, "Undefined zookeeper session pool.");
+
+        if (sessionPool.size() == 1) {
+            return new InterProcessLockRegistryFactory(sessionPool.getSessions().get(0), defaultLockingPolicy,
+                    zkBasePath);
+        }
+
+        return new ShardedLockRegistryFactory(sessionPool.getSessions(), defaultLockingPolicy, zkBasePath, true, true);
+    }
 }
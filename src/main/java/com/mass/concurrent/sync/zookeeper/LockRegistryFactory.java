@@ -1,8 +1,21 @@
 package com.mass.concurrent.sync.zookeeper;
 
 import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.ReadWriteLockRegistry;
 import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
 
 public interface LockRegistryFactory {
     public LockRegistry<Object> newLockRegistry(final SynchronizerLockRegistryConfiguration definition);
+
+    /**
+     * Build the read/write locks for the @SynchronizedRead and @SynchronizedWrite parameters of a lock registry.
+     */
+    public ReadWriteLockRegistry<Object> newReadWriteLockRegistry(
+            final SynchronizerLockRegistryConfiguration definition);
+
+    /**
+     * Stop the background work of the lock registries that this built, like the sweeps of their idle zookeeper lock
+     * paths. Their locks still work.
+     */
+    public void close();
 }
@@ -0,0 +1,105 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.LockRegistryMetrics;
+import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.keyfactories.LongLockKeyFactory;
+import com.mass.core.PositiveDuration;
+
+/**
+ * A lock registry for int and long keys, that locks them as primitive longs, in a LongLockTable. This replaces the
+ * IntegerLockKeyFactory and LongLockKeyFactory, which would turn every key into a string, and then into a lock key,
+ * before looking up its lock. An int key and a long key with the same value share a lock, just like they share a lock
+ * key, and a zookeeper path.
+ * 
+ * @author kmassaroni
+ * @param <K>
+ *            - Integer or Long
+ */
+class LongLockRegistry<K> implements LockRegistry<K>, LockRegistryMetrics {
+    private final LongLockTable locks;
+    private final PositiveDuration timeoutDuration;
+
+    /**
+     * @param lockFactory
+     *            - builds the lock of a key, the first time it's locked
+     * @param timeoutDuration
+     *            - (optional) (nullable) Use this timeout duration for all lock attempts for this lock registry.
+     */
+    public LongLockRegistry(final LongLockTable.LongLockFactory lockFactory, final PositiveDuration timeoutDuration) {
+        Preconditions.checkArgument(lockFactory != null, "Undefined lock factory.");
+        locks = new LongLockTable(lockFactory);
+        this.timeoutDuration = timeoutDuration;
+    }
+
+    /**
+     * @return true if the keys of this key factory can be locked by a LongLockRegistry. Subclasses of the numeric key
+     *         factories don't count, because they might build their lock keys differently.
+     */
+    public static boolean supports(final SynchronizerLockKeyFactory<?> keyFactory) {
+        if (keyFactory == null) {
+            return false;
+        }
+
+        final Class<?> type = keyFactory.getClass();
+        return type == IntegerLockKeyFactory.class || type == LongLockKeyFactory.class;
+    }
+
+    /**
+     * Builds detachable reentrant locks, for the local-jvm scope.
+     */
+    public static LongLockTable.LongLockFactory localLockFactory() {
+        return new LongLockTable.LongLockFactory() {
+            @Override
+            public ReentrantLock newLock(final long key) {
+                return new DetachableReentrantLock();
+            }
+        };
+    }
+
+    @Override
+    public PositiveDuration getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    @Override
+    public ReentrantLock getLock(final K key) {
+        return locks.getLock(toLong(key));
+    }
+
+    /**
+     * @return true if a thread of this JVM holds the lock of this key
+     */
+    public boolean isLocked(final K key) {
+        return locks.isLocked(toLong(key));
+    }
+
+    /**
+     * @return the value of an int or long key, which an int key and a long key with the same value share
+     */
+    public static long toLong(final Object key) {
+        // no Preconditions here, because their varargs would allocate on every call
+        if (key == null) {
+            throw new IllegalArgumentException("Undefined key.");
+        }
+
+        if (key instanceof Long || key instanceof Integer) {
+            return ((Number) key).longValue();
+        }
+
+        throw new IllegalArgumentException("Expected an int or long lock key: " + key);
+    }
+
+    /**
+     * @return the number of locks that are held, or waited for, right now, not counting the idle ones that are kept for
+     *         reuse
+     */
+    @Override
+    public int getLiveLockCount() {
+        return locks.activeSize();
+    }
+}
@@ -0,0 +1,452 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.mass.concurrent.DetachableLock;
+import com.mass.concurrent.LockHandle;
+
+/**
+ * A lock table for primitive long keys, so numeric lock keys never get boxed, turned into strings, or validated as
+ * words. The table is split into segments, and each segment is an open-addressing hash table, with parallel arrays of
+ * keys and entries, guarded by the segment's monitor.
+ * <p>
+ * Each entry is a lock, counting the threads that hold it or wait for it. An entry that nobody uses stays in the table,
+ * so locking a hot key again doesn't allocate anything, but only up to maxIdleLocks idle entries per table. Past that,
+ * the segment drops all of its idle entries, and anybody holding on to a dropped entry gets redirected to the live one
+ * for the same key. The backing lock of an entry, like a zookeeper mutex, is built the first time it's locked.
+ *
+ * @author kmassaroni
+ */
+class LongLockTable {
+    private static final int SEGMENT_BITS = 6;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+    private static final int MIN_CAPACITY = 8;
+
+    public static final int DEFAULT_MAX_IDLE_LOCKS = 16 * 1024;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongLockFactory lockFactory;
+
+    public interface LongLockFactory {
+        public ReentrantLock newLock(long key);
+    }
+
+    public LongLockTable(final LongLockFactory lockFactory) {
+        this(lockFactory, DEFAULT_MAX_IDLE_LOCKS);
+    }
+
+    /**
+     * @param lockFactory
+     *            - builds the backing lock of an entry, the first time it's locked
+     * @param maxIdleLocks
+     *            - how many unused locks the table keeps around, so they don't have to be rebuilt
+     */
+    public LongLockTable(final LongLockFactory lockFactory, final int maxIdleLocks) {
+        Preconditions.checkArgument(lockFactory != null, "Undefined lock factory.");
+        Preconditions.checkArgument(maxIdleLocks >= 0, "Negative max idle locks: %s", maxIdleLocks);
+        this.lockFactory = lockFactory;
+
+        final int maxIdlePerSegment = Math.max(1, maxIdleLocks / SEGMENTS);
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(maxIdlePerSegment);
+        }
+    }
+
+    public ReentrantLock getLock(final long key) {
+        final int hash = hash(key);
+        return segments[hash >>> 32 - SEGMENT_BITS].get(key, hash);
+    }
+
+    /**
+     * @return true if some thread holds the lock of this key, without adding an entry for it
+     */
+    public boolean isLocked(final long key) {
+        final int hash = hash(key);
+        return segments[hash >>> 32 - SEGMENT_BITS].isLocked(key);
+    }
+
+    /**
+     * @return the number of locks in the table, including the idle ones
+     */
+    public int size() {
+        int size = 0;
+
+        for (final Segment segment : segments) {
+            size += segment.size();
+        }
+
+        return size;
+    }
+
+    /**
+     * @return the number of locks that some thread holds or waits for right now
+     */
+    public int activeSize() {
+        int active = 0;
+
+        for (final Segment segment : segments) {
+            active += segment.activeSize();
+        }
+
+        return active;
+    }
+
+    /**
+     * Fibonacci hashing, so consecutive ids spread over the segments, and over the slots.
+     */
+    private static int hash(final long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ h >>> 32);
+    }
+
+    private class Segment {
+        private final int maxIdle;
+        private long[] keys = new long[MIN_CAPACITY];
+        private Entry[] entries = new Entry[MIN_CAPACITY];
+        private int size;
+        private int active;
+
+        public Segment(final int maxIdle) {
+            this.maxIdle = maxIdle;
+        }
+
+        public synchronized int size() {
+            return size;
+        }
+
+        public synchronized int activeSize() {
+            return active;
+        }
+
+        public synchronized Entry get(final long key, final int hash) {
+            final Entry entry = find(key, hash);
+            return entry != null ? entry : insert(key, hash);
+        }
+
+        /**
+         * Count another thread on this entry, or on the live entry for its key, if this one was dropped.
+         */
+        public synchronized Entry retain(final Entry entry) {
+            final Entry live = entry.retired ? get(entry.key, hash(entry.key)) : entry;
+
+            if (live.references++ == 0) {
+                active++;
+            }
+
+            if (live.lock == null) {
+                live.lock = lockFactory.newLock(live.key);
+                Preconditions.checkState(live.lock != null, "Can't build a new lock.");
+            }
+
+            return live;
+        }
+
+        public synchronized void release(final Entry entry) {
+            if (entry.references <= 0) {
+                throw new IllegalStateException("Lock entry released too many times: " + entry.key);
+            }
+
+            if (--entry.references == 0) {
+                active--;
+            }
+        }
+
+        /**
+         * @return the live entry for this key, if the current thread holds its lock
+         */
+        public synchronized Entry findHeld(final long key) {
+            final Entry entry = find(key, hash(key));
+            return entry != null && entry.lock != null && entry.lock.isHeldByCurrentThread() ? entry : null;
+        }
+
+        public synchronized boolean isLocked(final long key) {
+            final Entry entry = find(key, hash(key));
+            return entry != null && entry.lock != null && entry.lock.isLocked();
+        }
+
+        private Entry find(final long key, final int hash) {
+            final int mask = keys.length - 1;
+
+            for (int slot = hash & mask;; slot = slot + 1 & mask) {
+                final Entry entry = entries[slot];
+
+                if (entry == null) {
+                    return null;
+                }
+
+                if (keys[slot] == key) {
+                    return entry;
+                }
+            }
+        }
+
+        private Entry insert(final long key, final int hash) {
+            if (size - active >= maxIdle) {
+                dropIdleEntries();
+            }
+
+            if (size + 1 << 1 > keys.length) {
+                rehash(keys.length << 1);
+            }
+
+            final Entry entry = new Entry(key, this);
+            put(entry, hash);
+            size++;
+            return entry;
+        }
+
+        private void put(final Entry entry, final int hash) {
+            final int mask = keys.length - 1;
+            int slot = hash & mask;
+
+            while (entries[slot] != null) {
+                slot = slot + 1 & mask;
+            }
+
+            keys[slot] = entry.key;
+            entries[slot] = entry;
+        }
+
+        private void dropIdleEntries() {
+            for (final Entry entry : entries) {
+                if (entry != null && entry.references == 0) {
+                    entry.retired = true;
+                    size--;
+                }
+            }
+
+            int capacity = MIN_CAPACITY;
+
+            while (capacity < size + 1 << 1) {
+                capacity <<= 1;
+            }
+
+            rehash(capacity);
+        }
+
+        private void rehash(final int capacity) {
+            final Entry[] oldEntries = entries;
+            keys = new long[capacity];
+            entries = new Entry[capacity];
+
+            for (final Entry entry : oldEntries) {
+                if (entry != null && !entry.retired) {
+                    put(entry, hash(entry.key));
+                }
+            }
+        }
+    }
+
+    /**
+     * The lock handed out for a key. The reference count, the backing lock, and the retired flag are guarded by the
+     * segment's monitor. Like the locks of the RefCountedLockTable, the conditions of an entry go to conditions of the
+     * backing lock, and the final queue methods of ReentrantLock only see the entry itself.
+     */
+    private static class Entry extends ReentrantLock implements DetachableLock {
+        private static final long serialVersionUID = -1849131066512338422L;
+
+        private final long key;
+        private final transient Segment segment;
+        private ReentrantLock lock;
+        private int references;
+        private boolean retired;
+
+        // the conditions of the backing lock, by the entries' conditions. guarded by this.
+        private Map<Condition, Condition> conditions;
+
+        public Entry(final long key, final Segment segment) {
+            this.key = key;
+            this.segment = segment;
+        }
+
+        @Override
+        public void lock() {
+            final Entry live = segment.retain(this);
+            boolean locked = false;
+
+            try {
+                live.lock.lock();
+                locked = true;
+            } finally {
+                if (!locked) {
+                    segment.release(live);
+                }
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            final Entry live = segment.retain(this);
+            boolean locked = false;
+
+            try {
+                live.lock.lockInterruptibly();
+                locked = true;
+            } finally {
+                if (!locked) {
+                    segment.release(live);
+                }
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            final Entry live = segment.retain(this);
+            boolean locked = false;
+
+            try {
+                locked = live.lock.tryLock();
+                return locked;
+            } finally {
+                if (!locked) {
+                    segment.release(live);
+                }
+            }
+        }
+
+        @Override
+        public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+            final Entry live = segment.retain(this);
+            boolean locked = false;
+
+            try {
+                locked = live.lock.tryLock(timeout, unit);
+                return locked;
+            } finally {
+                if (!locked) {
+                    segment.release(live);
+                }
+            }
+        }
+
+        @Override
+        public void unlock() {
+            final Entry held = getHeld();
+
+            try {
+                held.lock.unlock();
+            } finally {
+                segment.release(held);
+            }
+        }
+
+        /**
+         * The detached hold keeps the entry, so it isn't dropped while it's held.
+         */
+        @Override
+        public LockHandle detach() {
+            final Entry held = getHeld();
+
+            if (!(held.lock instanceof DetachableLock)) {
+                throw new UnsupportedOperationException("The lock for " + key + " can't be detached.");
+            }
+
+            final LockHandle handle = ((DetachableLock) held.lock).detach();
+
+            return new LockHandle() {
+                private final AtomicBoolean released = new AtomicBoolean();
+
+                @Override
+                public void release() {
+                    if (!released.compareAndSet(false, true)) {
+                        return;
+                    }
+
+                    try {
+                        handle.release();
+                    } finally {
+                        held.segment.release(held);
+                    }
+                }
+            };
+        }
+
+        private Entry getHeld() {
+            // this thread saw the backing lock when it retained this entry, and a held entry is never retired
+            final ReentrantLock backing = lock;
+            final Entry held = backing != null && backing.isHeldByCurrentThread() ? this : segment.findHeld(key);
+
+            if (held == null) {
+                throw new IllegalMonitorStateException("The current thread doesn't hold the lock for " + key);
+            }
+
+            return held;
+        }
+
+        @Override
+        public boolean isHeldByCurrentThread() {
+            return segment.findHeld(key) != null;
+        }
+
+        @Override
+        public int getHoldCount() {
+            final Entry held = segment.findHeld(key);
+            return held == null ? 0 : held.lock.getHoldCount();
+        }
+
+        @Override
+        public boolean isLocked() {
+            return segment.isLocked(key);
+        }
+
+        @Override
+        public Condition newCondition() {
+            return new ResolvingCondition() {
+                @Override
+                protected Condition resolve() {
+                    return getHeld().getCondition(this);
+                }
+            };
+        }
+
+        @Override
+        public boolean hasWaiters(final Condition condition) {
+            Preconditions.checkArgument(condition != null, "Undefined condition.");
+            final Entry held = getHeld();
+            final Condition heldCondition = held.findCondition(condition);
+            return heldCondition != null && held.lock.hasWaiters(heldCondition);
+        }
+
+        @Override
+        public int getWaitQueueLength(final Condition condition) {
+            Preconditions.checkArgument(condition != null, "Undefined condition.");
+            final Entry held = getHeld();
+            final Condition heldCondition = held.findCondition(condition);
+            return heldCondition == null ? 0 : held.lock.getWaitQueueLength(heldCondition);
+        }
+
+        /**
+         * Only called on a held entry, which is never retired, so its backing lock stays the same.
+         */
+        private synchronized Condition getCondition(final Condition entryCondition) {
+            if (conditions == null) {
+                conditions = Maps.newHashMap();
+            }
+
+            Condition condition = conditions.get(entryCondition);
+
+            if (condition == null) {
+                condition = lock.newCondition();
+                conditions.put(entryCondition, condition);
+            }
+
+            return condition;
+        }
+
+        private synchronized Condition findCondition(final Condition entryCondition) {
+            return conditions == null ? null : conditions.get(entryCondition);
+        }
+
+        @Override
+        public String toString() {
+            return "LongLock[" + key + "]";
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The lock of a key while its lock registry moves to another zookeeper path layout: it locks the key on its old path,
+ * and then on its new path, and unlocks them in reverse order. Every node that migrates takes the old path first, so a
+ * node that still only locks the old path, and a node that already only locks the new one, both exclude it, and it
+ * can't deadlock with either. See the LockPathLayout.
+ * <p>
+ * The lock itself is never locked, it's just the two locks it's made of. It doesn't support conditions, since waiting
+ * on one would have to give back both.
+ *
+ * @author kmassaroni
+ */
+class MigratingReentrantLock extends ReentrantLock {
+    private static final long serialVersionUID = 4286016871659312453L;
+
+    private final ReentrantLock oldLock;
+    private final ReentrantLock newLock;
+
+    public MigratingReentrantLock(final ReentrantLock oldLock, final ReentrantLock newLock) {
+        super();
+        Preconditions.checkArgument(oldLock != null, "Undefined old lock.");
+        Preconditions.checkArgument(newLock != null, "Undefined new lock.");
+        this.oldLock = oldLock;
+        this.newLock = newLock;
+    }
+
+    @Override
+    public void lock() {
+        oldLock.lock();
+        boolean locked = false;
+
+        try {
+            newLock.lock();
+            locked = true;
+        } finally {
+            if (!locked) {
+                oldLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void lockInterruptibly() throws InterruptedException {
+        oldLock.lockInterruptibly();
+        boolean locked = false;
+
+        try {
+            newLock.lockInterruptibly();
+            locked = true;
+        } finally {
+            if (!locked) {
+                oldLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!oldLock.tryLock()) {
+            return false;
+        }
+
+        boolean locked = false;
+
+        try {
+            locked = newLock.tryLock();
+            return locked;
+        } finally {
+            if (!locked) {
+                oldLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+        final long start = System.nanoTime();
+
+        if (!oldLock.tryLock(timeout, unit)) {
+            return false;
+        }
+
+        boolean locked = false;
+
+        try {
+            final long remaining = unit.toNanos(timeout) - (System.nanoTime() - start);
+            locked = newLock.tryLock(Math.max(0, remaining), TimeUnit.NANOSECONDS);
+            return locked;
+        } finally {
+            if (!locked) {
+                oldLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            newLock.unlock();
+        } finally {
+            oldLock.unlock();
+        }
+    }
+
+    /**
+     * A thread only holds this lock once it holds the new lock, since it holds the old one while it waits for that.
+     */
+    @Override
+    public boolean isHeldByCurrentThread() {
+        return newLock.isHeldByCurrentThread();
+    }
+
+    @Override
+    public int getHoldCount() {
+        return newLock.getHoldCount();
+    }
+
+    @Override
+    public boolean isLocked() {
+        return oldLock.isLocked() || newLock.isLocked();
+    }
+
+    @Override
+    public Condition newCondition() {
+        throw new UnsupportedOperationException("Migrating locks don't support conditions.");
+    }
+
+    @Override
+    public String toString() {
+        return "MigratingReentrantLock [oldLock=" + oldLock + ", newLock=" + newLock + "]";
+    }
+}
@@ -0,0 +1,454 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.mass.concurrent.DetachableLock;
+import com.mass.concurrent.LockHandle;
+
+/**
+ * A table of locks, where each entry only lives while some thread holds its lock, or waits for it. Every lock attempt
+ * retains the entry, and every unlock, or failed lock attempt, releases it. The entry is removed from the table as soon
+ * as its reference count drops to zero, along with whatever backs the lock, like a curator mutex. So the table only
+ * ever holds as many entries as there are threads using it, no matter how many keys there are, and the garbage
+ * collector never has to deal with soft references.
+ * <p>
+ * The locks handed out by getLock are lightweight handles that look up the live entry on each call. They're only
+ * meant for lock, tryLock and unlock, and their conditions. A condition of a handle goes to a condition of the entry's
+ * lock, made the first time it's used. A thread waiting on it still counts on the entry, so the entry stays live, and
+ * the thread that signals it finds the same condition. The queue methods of ReentrantLock, like getQueueLength, are
+ * final, so a handle can't report the entry's queue: they always say that nobody's waiting. The entries can be plain
+ * reentrant locks, or read/write locks, with a handle for each side. A lock can be detached from its thread, if its
+ * entry's lock is a DetachableLock, and the detached hold keeps the entry until it's released.
+ *
+ * @author kmassaroni
+ * @param <K>
+ * @param <V>
+ *            - the backing lock of an entry
+ */
+class RefCountedLockTable<K, V> {
+    private static final int RETIRED = -1;
+    private static final int CONCURRENCY_LEVEL = 64;
+
+    private final ConcurrentMap<K, Entry<K, V>> entries = new MapMaker().concurrencyLevel(CONCURRENCY_LEVEL).makeMap();
+    private final Function<? super K, ? extends V> lockFactory;
+
+    /**
+     * Which lock of an entry a handle acquires.
+     */
+    public interface LockView<V> {
+        public Lock getLock(V value);
+
+        /**
+         * @return how many times the current thread holds this lock
+         */
+        public int getHoldCount(V value);
+
+        public boolean isLocked(V value);
+
+        /**
+         * @param condition
+         *            - a condition of this lock
+         */
+        public boolean hasWaiters(V value, Condition condition);
+
+        /**
+         * @param condition
+         *            - a condition of this lock
+         */
+        public int getWaitQueueLength(V value, Condition condition);
+    }
+
+    public static final LockView<ReentrantLock> REENTRANT = new LockView<ReentrantLock>() {
+        @Override
+        public Lock getLock(final ReentrantLock value) {
+            return value;
+        }
+
+        @Override
+        public int getHoldCount(final ReentrantLock value) {
+            return value.getHoldCount();
+        }
+
+        @Override
+        public boolean isLocked(final ReentrantLock value) {
+            return value.isLocked();
+        }
+
+        @Override
+        public boolean hasWaiters(final ReentrantLock value, final Condition condition) {
+            return value.hasWaiters(condition);
+        }
+
+        @Override
+        public int getWaitQueueLength(final ReentrantLock value, final Condition condition) {
+            return value.getWaitQueueLength(condition);
+        }
+    };
+
+    public static final LockView<ReentrantReadWriteLock> READ = new LockView<ReentrantReadWriteLock>() {
+        @Override
+        public Lock getLock(final ReentrantReadWriteLock value) {
+            return value.readLock();
+        }
+
+        @Override
+        public int getHoldCount(final ReentrantReadWriteLock value) {
+            return value.getReadHoldCount();
+        }
+
+        @Override
+        public boolean isLocked(final ReentrantReadWriteLock value) {
+            return value.getReadLockCount() > 0;
+        }
+
+        @Override
+        public boolean hasWaiters(final ReentrantReadWriteLock value, final Condition condition) {
+            return value.hasWaiters(condition);
+        }
+
+        @Override
+        public int getWaitQueueLength(final ReentrantReadWriteLock value, final Condition condition) {
+            return value.getWaitQueueLength(condition);
+        }
+    };
+
+    public static final LockView<ReentrantReadWriteLock> WRITE = new LockView<ReentrantReadWriteLock>() {
+        @Override
+        public Lock getLock(final ReentrantReadWriteLock value) {
+            return value.writeLock();
+        }
+
+        @Override
+        public int getHoldCount(final ReentrantReadWriteLock value) {
+            return value.getWriteHoldCount();
+        }
+
+        @Override
+        public boolean isLocked(final ReentrantReadWriteLock value) {
+            return value.isWriteLocked();
+        }
+
+        @Override
+        public boolean hasWaiters(final ReentrantReadWriteLock value, final Condition condition) {
+            return value.hasWaiters(condition);
+        }
+
+        @Override
+        public int getWaitQueueLength(final ReentrantReadWriteLock value, final Condition condition) {
+            return value.getWaitQueueLength(condition);
+        }
+    };
+
+    /**
+     * @param lockFactory
+     *            - builds the backing lock of a new entry. It may be called more than once for the same key, when
+     *            threads race to create an entry, so it shouldn't have side effects.
+     */
+    public RefCountedLockTable(final Function<? super K, ? extends V> lockFactory) {
+        Preconditions.checkArgument(lockFactory != null, "Undefined lock factory.");
+        this.lockFactory = lockFactory;
+    }
+
+    /**
+     * @param view
+     *            - which lock of the entry to acquire, like REENTRANT, READ, or WRITE
+     */
+    public ReentrantLock getLock(final K key, final LockView<? super V> view) {
+        Preconditions.checkArgument(key != null, "Undefined key.");
+        Preconditions.checkArgument(view != null, "Undefined lock view.");
+        return new RefCountedLock<K, V>(this, key, view);
+    }
+
+    /**
+     * @return the number of keys that some thread is holding or waiting for right now
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    Entry<K, V> retain(final K key) {
+        while (true) {
+            Entry<K, V> entry = entries.get(key);
+
+            if (entry == null) {
+                final V lock = lockFactory.apply(key);
+                Preconditions.checkState(lock != null, "Can't build a new lock.");
+
+                final Entry<K, V> newEntry = new Entry<K, V>(key, lock);
+                entry = entries.putIfAbsent(key, newEntry);
+
+                if (entry == null) {
+                    return newEntry;
+                }
+            }
+
+            if (entry.retain()) {
+                return entry;
+            }
+
+            // it was retired after we found it, so help remove it, and try again
+            entries.remove(key, entry);
+        }
+    }
+
+    void release(final Entry<K, V> entry) {
+        if (entry.release()) {
+            entries.remove(entry.key, entry);
+        }
+    }
+
+    /**
+     * @return the live entry for a key that the current thread holds
+     */
+    Entry<K, V> getHeldEntry(final K key, final LockView<? super V> view) {
+        final Entry<K, V> entry = entries.get(key);
+
+        if (entry == null || view.getHoldCount(entry.lock) == 0) {
+            throw new IllegalMonitorStateException("The current thread doesn't hold the lock for " + key);
+        }
+
+        return entry;
+    }
+
+    Entry<K, V> getEntry(final K key) {
+        return entries.get(key);
+    }
+
+    static class Entry<K, V> {
+        private final K key;
+        private final V lock;
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        // the conditions of the lock, by the handles' conditions. guarded by this.
+        private Map<Condition, Condition> conditions;
+
+        public Entry(final K key, final V lock) {
+            this.key = key;
+            this.lock = lock;
+        }
+
+        public V getLock() {
+            return lock;
+        }
+
+        synchronized Condition getCondition(final Condition handleCondition, final LockView<? super V> view) {
+            if (conditions == null) {
+                conditions = Maps.newHashMap();
+            }
+
+            Condition condition = conditions.get(handleCondition);
+
+            if (condition == null) {
+                condition = view.getLock(lock).newCondition();
+                conditions.put(handleCondition, condition);
+            }
+
+            return condition;
+        }
+
+        /**
+         * @return null if the handle's condition was never used with this entry
+         */
+        synchronized Condition findCondition(final Condition handleCondition) {
+            return conditions == null ? null : conditions.get(handleCondition);
+        }
+
+        private boolean retain() {
+            while (true) {
+                final int count = references.get();
+
+                if (count == RETIRED) {
+                    return false;
+                }
+
+                if (references.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * @return true if this was the last reference, and the entry is retired
+         */
+        private boolean release() {
+            final int count = references.decrementAndGet();
+            Preconditions.checkState(count >= 0, "Lock entry released too many times: %s", key);
+            return count == 0 && references.compareAndSet(0, RETIRED);
+        }
+    }
+
+    private static class RefCountedLock<K, V> extends ReentrantLock implements DetachableLock {
+        private static final long serialVersionUID = 2270407929713931316L;
+
+        private final transient RefCountedLockTable<K, V> table;
+        private final K key;
+        private final transient LockView<? super V> view;
+
+        public RefCountedLock(final RefCountedLockTable<K, V> table, final K key, final LockView<? super V> view) {
+            this.table = table;
+            this.key = key;
+            this.view = view;
+        }
+
+        @Override
+        public void lock() {
+            final Entry<K, V> entry = table.retain(key);
+            boolean locked = false;
+
+            try {
+                view.getLock(entry.lock).lock();
+                locked = true;
+            } finally {
+                if (!locked) {
+                    table.release(entry);
+                }
+            }
+        }
+
+        @Override
+        public void lockInterruptibly() throws InterruptedException {
+            final Entry<K, V> entry = table.retain(key);
+            boolean locked = false;
+
+            try {
+                view.getLock(entry.lock).lockInterruptibly();
+                locked = true;
+            } finally {
+                if (!locked) {
+                    table.release(entry);
+                }
+            }
+        }
+
+        @Override
+        public boolean tryLock() {
+            final Entry<K, V> entry = table.retain(key);
+            boolean locked = false;
+
+            try {
+                locked = view.getLock(entry.lock).tryLock();
+                return locked;
+            } finally {
+                if (!locked) {
+                    table.release(entry);
+                }
+            }
+        }
+
+        @Override
+        public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+            final Entry<K, V> entry = table.retain(key);
+            boolean locked = false;
+
+            try {
+                locked = view.getLock(entry.lock).tryLock(timeout, unit);
+                return locked;
+            } finally {
+                if (!locked) {
+                    table.release(entry);
+                }
+            }
+        }
+
+        @Override
+        public void unlock() {
+            final Entry<K, V> entry = table.getHeldEntry(key, view);
+
+            try {
+                view.getLock(entry.lock).unlock();
+            } finally {
+                table.release(entry);
+            }
+        }
+
+        @Override
+        public LockHandle detach() {
+            final Entry<K, V> entry = table.getHeldEntry(key, view);
+            final Lock lock = view.getLock(entry.lock);
+
+            if (!(lock instanceof DetachableLock)) {
+                throw new UnsupportedOperationException("The lock for " + key + " can't be detached.");
+            }
+
+            final LockHandle handle = ((DetachableLock) lock).detach();
+
+            return new LockHandle() {
+                private final AtomicBoolean released = new AtomicBoolean();
+
+                @Override
+                public void release() {
+                    if (!released.compareAndSet(false, true)) {
+                        return;
+                    }
+
+                    try {
+                        handle.release();
+                    } finally {
+                        table.release(entry);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public boolean isHeldByCurrentThread() {
+            final Entry<K, V> entry = table.getEntry(key);
+            return entry != null && view.getHoldCount(entry.lock) > 0;
+        }
+
+        @Override
+        public int getHoldCount() {
+            final Entry<K, V> entry = table.getEntry(key);
+            return entry == null ? 0 : view.getHoldCount(entry.lock);
+        }
+
+        @Override
+        public boolean isLocked() {
+            final Entry<K, V> entry = table.getEntry(key);
+            return entry != null && view.isLocked(entry.lock);
+        }
+
+        @Override
+        public Condition newCondition() {
+            return new ResolvingCondition() {
+                @Override
+                protected Condition resolve() {
+                    return table.getHeldEntry(key, view).getCondition(this, view);
+                }
+            };
+        }
+
+        @Override
+        public boolean hasWaiters(final Condition condition) {
+            Preconditions.checkArgument(condition != null, "Undefined condition.");
+            final Entry<K, V> entry = table.getHeldEntry(key, view);
+            final Condition entryCondition = entry.findCondition(condition);
+            return entryCondition != null && view.hasWaiters(entry.lock, entryCondition);
+        }
+
+        @Override
+        public int getWaitQueueLength(final Condition condition) {
+            Preconditions.checkArgument(condition != null, "Undefined condition.");
+            final Entry<K, V> entry = table.getHeldEntry(key, view);
+            final Condition entryCondition = entry.findCondition(condition);
+            return entryCondition == null ? 0 : view.getWaitQueueLength(entry.lock, entryCondition);
+        }
+
+        @Override
+        public String toString() {
+            return "RefCountedLock[" + key + "]";
+        }
+    }
+}
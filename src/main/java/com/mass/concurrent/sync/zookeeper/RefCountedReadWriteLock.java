@@ -0,0 +1,31 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The read and write handles of one key in a RefCountedLockTable of read/write locks.
+ * 
+ * @author kmassaroni
+ * @param <K>
+ */
+class RefCountedReadWriteLock<K> implements ReadWriteLock {
+    private final Lock readLock;
+    private final Lock writeLock;
+
+    public RefCountedReadWriteLock(final RefCountedLockTable<K, ? extends ReentrantReadWriteLock> table, final K key) {
+        readLock = table.getLock(key, RefCountedLockTable.READ);
+        writeLock = table.getLock(key, RefCountedLockTable.WRITE);
+    }
+
+    @Override
+    public Lock readLock() {
+        return readLock;
+    }
+
+    @Override
+    public Lock writeLock() {
+        return writeLock;
+    }
+}
@@ -0,0 +1,57 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+/**
+ * The condition of a lock handle, like the ones of the RefCountedLockTable, that doesn't own a backing lock. Every call
+ * looks up the condition of the backing lock that the current thread holds, so it has to hold the handle's lock, like
+ * with any condition. A thread that waits on the condition still counts on its entry, so the entry stays live, and the
+ * thread that signals it finds the same backing condition.
+ *
+ * @author kmassaroni
+ */
+abstract class ResolvingCondition implements Condition {
+    /**
+     * @return the condition of the backing lock that the current thread holds, for this condition
+     * @throws IllegalMonitorStateException
+     *             - if the current thread doesn't hold the lock
+     */
+    protected abstract Condition resolve();
+
+    @Override
+    public void await() throws InterruptedException {
+        resolve().await();
+    }
+
+    @Override
+    public void awaitUninterruptibly() {
+        resolve().awaitUninterruptibly();
+    }
+
+    @Override
+    public long awaitNanos(final long nanosTimeout) throws InterruptedException {
+        return resolve().awaitNanos(nanosTimeout);
+    }
+
+    @Override
+    public boolean await(final long time, final TimeUnit unit) throws InterruptedException {
+        return resolve().await(time, unit);
+    }
+
+    @Override
+    public boolean awaitUntil(final Date deadline) throws InterruptedException {
+        return resolve().awaitUntil(deadline);
+    }
+
+    @Override
+    public void signal() {
+        resolve().signal();
+    }
+
+    @Override
+    public void signalAll() {
+        resolve().signalAll();
+    }
+}
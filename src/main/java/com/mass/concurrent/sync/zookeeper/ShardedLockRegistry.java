@@ -0,0 +1,240 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mass.concurrent.AsyncLockRegistry;
+import com.mass.concurrent.BulkLockRegistry;
+import com.mass.concurrent.CircuitBreakerMetrics;
+import com.mass.concurrent.LockHandle;
+import com.mass.concurrent.LockPathReaperMetrics;
+import com.mass.concurrent.LockProbe;
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.LockRegistryMetrics;
+import com.mass.concurrent.StickyLockMetrics;
+import com.mass.concurrent.sync.SynchronizerLockKey;
+import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
+import com.mass.core.PositiveDuration;
+
+/**
+ * A zookeeper lock registry with its keys spread over several zookeeper ensembles: every key goes to the lock registry
+ * of its shard, by a consistent hash of its lock key. See the ShardedLockRegistryFactory.
+ * <p>
+ * Keys that are locked together, in bulk, are locked shard by shard, in shard order, with one transaction per shard,
+ * so two bulk locks of the same keys can't deadlock each other.
+ *
+ * @author kmassaroni
+ * @param <K>
+ */
+class ShardedLockRegistry<K> implements LockRegistry<K>, AsyncLockRegistry<K>, BulkLockRegistry<K>, LockProbe<K>,
+        LockRegistryMetrics, StickyLockMetrics, LockPathReaperMetrics, CircuitBreakerMetrics {
+    private final SynchronizerLockKeyFactory<K> keyFactory;
+    private final ImmutableList<InterProcessLockRegistry<K>> shards;
+    private final PositiveDuration timeoutDuration;
+
+    /**
+     * @param shards
+     *            - the lock registry of each shard, in the same order on every node
+     * @param timeoutDuration
+     *            - (nullable) the timeout duration of all the shards
+     */
+    public ShardedLockRegistry(final SynchronizerLockKeyFactory<K> keyFactory,
+            final List<InterProcessLockRegistry<K>> shards, final PositiveDuration timeoutDuration) {
+        Preconditions.checkArgument(keyFactory != null, "Undefined key factory.");
+        Preconditions.checkArgument(shards != null && !shards.isEmpty(), "Undefined lock registry shards.");
+        this.keyFactory = keyFactory;
+        this.shards = ImmutableList.copyOf(shards);
+        this.timeoutDuration = timeoutDuration;
+    }
+
+    @Override
+    public PositiveDuration getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    @Override
+    public ReentrantLock getLock(final K key) {
+        return shards.get(shardOf(key)).getLock(key);
+    }
+
+    @Override
+    public ListenableFuture<LockHandle> acquireAsync(final K key, final long timeout, final TimeUnit unit) {
+        return shards.get(shardOf(key)).acquireAsync(key, timeout, unit);
+    }
+
+    @Override
+    public boolean isBestEffort() {
+        // the shards are built from the same definition, so they have the same locking policy
+        return shards.get(0).isBestEffort();
+    }
+
+    @Override
+    public LockHandle acquireAll(final Collection<K> keys, final long timeout, final TimeUnit unit)
+            throws InterruptedException {
+        Preconditions.checkArgument(keys != null && !keys.isEmpty(), "Undefined keys.");
+        final Map<Integer, List<K>> keysByShard = Maps.newTreeMap();
+
+        for (final K key : keys) {
+            final int shard = shardOf(key);
+
+            if (!keysByShard.containsKey(shard)) {
+                keysByShard.put(shard, Lists.<K> newArrayList());
+            }
+
+            keysByShard.get(shard).add(key);
+        }
+
+        final long start = System.nanoTime();
+        final List<LockHandle> handles = Lists.newArrayListWithCapacity(keysByShard.size());
+        boolean acquired = false;
+
+        try {
+            for (final Map.Entry<Integer, List<K>> shardKeys : keysByShard.entrySet()) {
+                final LockHandle handle = shards.get(shardKeys.getKey()).acquireAll(shardKeys.getValue(),
+                        InterProcessReentrantLockRegistry.remainingNanos(timeout, unit, start), TimeUnit.NANOSECONDS);
+
+                if (handle == null) {
+                    return null;
+                }
+
+                handles.add(handle);
+            }
+
+            acquired = true;
+            return handles.size() == 1 ? handles.get(0) : new CompositeLockHandle(handles);
+        } finally {
+            if (!acquired) {
+                new CompositeLockHandle(handles).release();
+            }
+        }
+    }
+
+    @Override
+    public boolean isLocked(final K key) {
+        return shards.get(shardOf(key)).isLocked(key);
+    }
+
+    @Override
+    public int getLiveLockCount() {
+        int count = 0;
+
+        for (final InterProcessLockRegistry<K> shard : shards) {
+            count += shard.getLiveLockCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getStickyHitCount() {
+        long count = 0;
+
+        for (final InterProcessLockRegistry<K> shard : shards) {
+            count += shard.getStickyHitCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getStickyMissCount() {
+        long count = 0;
+
+        for (final InterProcessLockRegistry<K> shard : shards) {
+            count += shard.getStickyMissCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public double getStickyHitRatio() {
+        final long hits = getStickyHitCount();
+        final long total = hits + getStickyMissCount();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return the most open state of the shards' circuits
+     */
+    @Override
+    public CircuitState getCircuitState() {
+        CircuitState state = CircuitState.CLOSED;
+
+        for (final InterProcessLockRegistry<K> shard : shards) {
+            final CircuitState shardState = shard.getCircuitState();
+
+            if (shardState == CircuitState.OPEN) {
+                return shardState;
+            }
+
+            if (shardState == CircuitState.HALF_OPEN) {
+                state = shardState;
+            }
+        }
+
+        return state;
+    }
+
+    @Override
+    public long getCircuitTripCount() {
+        long count = 0;
+
+        for (final InterProcessLockRegistry<K> shard : shards) {
+            count += shard.getCircuitTripCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getCircuitFastFailCount() {
+        long count = 0;
+
+        for (final InterProcessLockRegistry<K> shard : shards) {
+            count += shard.getCircuitFastFailCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getReclaimedLockPathCount() {
+        long count = 0;
+
+        for (final InterProcessLockRegistry<K> shard : shards) {
+            count += shard.getReclaimedLockPathCount();
+        }
+
+        return count;
+    }
+
+    @Override
+    public long getLockPathSweepCount() {
+        long count = 0;
+
+        for (final InterProcessLockRegistry<K> shard : shards) {
+            count += shard.getLockPathSweepCount();
+        }
+
+        return count;
+    }
+
+    /**
+     * @return the index of the shard of a key
+     */
+    int shardOf(final K key) {
+        Preconditions.checkArgument(key != null, "Undefined key.");
+        final SynchronizerLockKey lockKey = keyFactory.toKey(key);
+        Preconditions.checkArgument(lockKey != null, "Null lock key.");
+        return ShardedLockRegistryFactory.shardOf(lockKey.getValue(), shards.size());
+    }
+}
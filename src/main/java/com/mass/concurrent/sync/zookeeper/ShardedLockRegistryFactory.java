@@ -0,0 +1,122 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+
+import org.apache.curator.framework.CuratorFramework;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.ReadWriteLockRegistry;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy;
+
+/**
+ * Spreads the zookeeper locks over several zookeeper ensembles, one zookeeper client each, so the lock rate isn't
+ * capped by the write throughput of one ensemble. Either every lock registry goes to one ensemble, by its name, or
+ * every key goes to one ensemble, by its lock key, and the lock registries route each key to its shard.
+ * <p>
+ * The shard of a name or lock key is a consistent hash of it, so every node routes it to the same ensemble, as long as
+ * they all have the same zookeeper clients, in the same order. Adding an ensemble at the end only moves the keys that
+ * go to it, but nodes with different shards don't exclude each other on those keys, so that takes a full stop.
+ * <p>
+ * The shards can also be the sessions of a ZooKeeperSessionPool, all on the same ensemble, to spread the lock I/O and
+ * the watch events of one JVM over several sessions. Then the nodes don't have to agree on the shards, and only the
+ * first session reaps the idle lock paths, since they're the same for all of them.
+ *
+ * @author kmassaroni
+ */
+class ShardedLockRegistryFactory implements LockRegistryFactory {
+    private final ImmutableList<InterProcessLockRegistryFactory> shards;
+    private final boolean shardKeys;
+
+    /**
+     * @param zkClients
+     *            - a client for each zookeeper ensemble, in the same order on every node
+     * @param shardKeys
+     *            - route every key to its own shard, instead of every lock registry
+     */
+    public ShardedLockRegistryFactory(final List<CuratorFramework> zkClients,
+            final SynchronizerLockingPolicy defaultLockingPolicy, final String zkBasePath, final boolean shardKeys) {
+        this(zkClients, defaultLockingPolicy, zkBasePath, shardKeys, false);
+    }
+
+    /**
+     * @param oneEnsemble
+     *            - the clients are sessions of the same zookeeper ensemble
+     */
+    public ShardedLockRegistryFactory(final List<CuratorFramework> zkClients,
+            final SynchronizerLockingPolicy defaultLockingPolicy, final String zkBasePath, final boolean shardKeys,
+            final boolean oneEnsemble) {
+        checkArgument(zkClients != null && !zkClients.isEmpty(), "Undefined zookeeper clients.");
+        final List<InterProcessLockRegistryFactory> factories = Lists.newArrayListWithCapacity(zkClients.size());
+
+        for (final CuratorFramework zkClient : zkClients) {
+            final boolean reapLockPaths = !oneEnsemble || factories.isEmpty();
+            factories.add(new InterProcessLockRegistryFactory(zkClient, defaultLockingPolicy, zkBasePath,
+                    reapLockPaths));
+        }
+
+        shards = ImmutableList.copyOf(factories);
+        this.shardKeys = shardKeys;
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public LockRegistry<Object> newLockRegistry(final SynchronizerLockRegistryConfiguration definition) {
+        Preconditions.checkArgument(definition != null, "Undefined interprocess lock registry definition.");
+
+        if (!shardKeys) {
+            return shards.get(shardOf(definition.getName().getValue(), shards.size())).newLockRegistry(definition);
+        }
+
+        final List<InterProcessLockRegistry<Object>> registries = Lists.newArrayListWithCapacity(shards.size());
+
+        for (final InterProcessLockRegistryFactory shard : shards) {
+            registries.add(shard.newLockRegistry(definition));
+        }
+
+        return new ShardedLockRegistry(definition.getLockKeyFactory(), registries, definition.getTimeoutDuration());
+    }
+
+    @Override
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public ReadWriteLockRegistry<Object> newReadWriteLockRegistry(
+            final SynchronizerLockRegistryConfiguration definition) {
+        Preconditions.checkArgument(definition != null, "Undefined interprocess lock registry definition.");
+
+        if (!shardKeys) {
+            return shards.get(shardOf(definition.getName().getValue(), shards.size())).newReadWriteLockRegistry(
+                    definition);
+        }
+
+        final List<InterProcessReadWriteLockRegistry<Object>> registries = Lists.newArrayListWithCapacity(shards
+                .size());
+
+        for (final InterProcessLockRegistryFactory shard : shards) {
+            registries.add(shard.newReadWriteLockRegistry(definition));
+        }
+
+        return new ShardedReadWriteLockRegistry(definition.getLockKeyFactory(), registries,
+                definition.getTimeoutDuration());
+    }
+
+    @Override
+    public void close() {
+        for (final InterProcessLockRegistryFactory shard : shards) {
+            shard.close();
+        }
+    }
+
+    /**
+     * @return the shard of a lock registry name or lock key, the same on every node
+     */
+    static int shardOf(final String id, final int shardCount) {
+        return Hashing.consistentHash(Hashing.murmur3_128().hashString(id, Charsets.UTF_8), shardCount);
+    }
+}
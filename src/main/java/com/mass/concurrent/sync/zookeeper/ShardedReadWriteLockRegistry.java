@@ -0,0 +1,64 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.mass.concurrent.LockRegistryMetrics;
+import com.mass.concurrent.ReadWriteLockRegistry;
+import com.mass.concurrent.sync.SynchronizerLockKey;
+import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
+import com.mass.core.PositiveDuration;
+
+/**
+ * A zookeeper read/write lock registry with its keys spread over several zookeeper ensembles, like the
+ * ShardedLockRegistry. A key's read/write locks go to the same shard as its mutex.
+ *
+ * @author kmassaroni
+ * @param <K>
+ */
+class ShardedReadWriteLockRegistry<K> implements ReadWriteLockRegistry<K>, LockRegistryMetrics {
+    private final SynchronizerLockKeyFactory<K> keyFactory;
+    private final ImmutableList<InterProcessReadWriteLockRegistry<K>> shards;
+    private final PositiveDuration timeoutDuration;
+
+    /**
+     * @param shards
+     *            - the read/write lock registry of each shard, in the same order on every node
+     * @param timeoutDuration
+     *            - (nullable) the timeout duration of all the shards
+     */
+    public ShardedReadWriteLockRegistry(final SynchronizerLockKeyFactory<K> keyFactory,
+            final List<InterProcessReadWriteLockRegistry<K>> shards, final PositiveDuration timeoutDuration) {
+        Preconditions.checkArgument(keyFactory != null, "Undefined key factory.");
+        Preconditions.checkArgument(shards != null && !shards.isEmpty(), "Undefined lock registry shards.");
+        this.keyFactory = keyFactory;
+        this.shards = ImmutableList.copyOf(shards);
+        this.timeoutDuration = timeoutDuration;
+    }
+
+    @Override
+    public PositiveDuration getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    @Override
+    public ReadWriteLock getReadWriteLock(final K key) {
+        Preconditions.checkArgument(key != null, "Undefined key.");
+        final SynchronizerLockKey lockKey = keyFactory.toKey(key);
+        Preconditions.checkArgument(lockKey != null, "Null lock key.");
+        return shards.get(ShardedLockRegistryFactory.shardOf(lockKey.getValue(), shards.size())).getReadWriteLock(key);
+    }
+
+    @Override
+    public int getLiveLockCount() {
+        int count = 0;
+
+        for (final InterProcessReadWriteLockRegistry<K> shard : shards) {
+            count += shard.getLiveLockCount();
+        }
+
+        return count;
+    }
+}
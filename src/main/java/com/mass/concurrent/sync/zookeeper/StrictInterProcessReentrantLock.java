@@ -12,6 +12,10 @@ import com.google.common.base.Preconditions;
  * This is an adapter that provides a plain java concurrent ReentrantLock interface for an underlying Curator
  * InterProcessMutex, so that you can swap out intra-process locks with inter-process locks, without changing the client
  * code. This will throw exceptions if it can't get the interprocess zookeeper lock.
+ * <p>
+ * With a fast lease, a zero-wait tryLock doesn't get in line behind the mutex: it tries for the zookeeper lock with
+ * the lease's node that has no sequence number, in one round trip, if the lock is taken. Reentrant locks of the same
+ * thread go with whichever one it has.
  * 
  * @author kmassaroni
  */
@@ -19,17 +23,34 @@ class StrictInterProcessReentrantLock extends ReentrantLock {
     private static final long serialVersionUID = 5812223349797413401L;
 
     private final InterProcessMutex mutex;
+    private final transient InterProcessMutexLease fastLease;
+
+    // the node of a zero-wait tryLock, while it's held. Only the thread holding the JVM lock uses it.
+    private String fastPath;
 
     public StrictInterProcessReentrantLock(final InterProcessMutex mutex) {
+        this(mutex, null);
+    }
+
+    /**
+     * @param fastLease
+     *            - (nullable) the lease of the same lock, for zero-wait tryLocks
+     */
+    public StrictInterProcessReentrantLock(final InterProcessMutex mutex, final InterProcessMutexLease fastLease) {
         super();
         Preconditions.checkArgument(mutex != null);
         this.mutex = mutex;
+        this.fastLease = fastLease;
     }
 
     @Override
     public void lock() {
         super.lock();
 
+        if (fastPath != null) {
+            return;
+        }
+
         try {
             mutex.acquire();
         } catch (final Exception t) {
@@ -40,6 +61,23 @@ class StrictInterProcessReentrantLock extends ReentrantLock {
 
     @Override
     public void unlock() {
+        if (fastPath != null && isHeldByCurrentThread()) {
+            final boolean last = getHoldCount() == 1;
+            final String path = fastPath;
+
+            if (last) {
+                fastPath = null;
+            }
+
+            super.unlock();
+
+            if (last) {
+                releaseFastPath(path);
+            }
+
+            return;
+        }
+
         super.unlock();
 
         try {
@@ -51,15 +89,50 @@ class StrictInterProcessReentrantLock extends ReentrantLock {
 
     @Override
     public boolean tryLock() {
+        if (fastLease == null || isHeldByCurrentThread()) {
+            try {
+                return tryLock(0, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                return false;
+            }
+        }
+
+        if (!super.tryLock()) {
+            return false;
+        }
+
         try {
-            return tryLock(0, TimeUnit.MILLISECONDS);
-        } catch (final InterruptedException e) {
+            fastPath = fastLease.tryAcquire();
+        } catch (final Exception t) {
+            super.unlock();
+            throw new RuntimeException("Can't get interprocess lock.", t);
+        }
+
+        if (fastPath == null) {
+            super.unlock();
             return false;
         }
+
+        return true;
+    }
+
+    private void releaseFastPath(final String path) {
+        try {
+            fastLease.release(path);
+        } catch (final Exception e) {
+            throw new RuntimeException("Can't release interprocess lock.", e);
+        }
     }
 
+    /**
+     * A zero-wait tryLock takes the fast lease, like {@link #tryLock()}, unless the thread already holds the lock.
+     */
     @Override
     public boolean tryLock(final long timeout, final TimeUnit unit) throws InterruptedException {
+        if (timeout == 0 && fastLease != null && !isHeldByCurrentThread()) {
+            return tryLock();
+        }
+
         final boolean hasTimeout = unit != null && timeout > -1;
 
         final long startTime = DateTimeUtils.currentTimeMillis();
@@ -70,6 +143,10 @@ class StrictInterProcessReentrantLock extends ReentrantLock {
             return false;
         }
 
+        if (fastPath != null) {
+            return true;
+        }
+
         try {
             final boolean acquired;
 
@@ -78,7 +155,7 @@ class StrictInterProcessReentrantLock extends ReentrantLock {
                 final long now = DateTimeUtils.currentTimeMillis();
                 final long elapsed = now - startTime;
                 final long zkTimeout = totalTime - elapsed;
-                acquired = mutex.acquire(zkTimeout, unit);
+                acquired = mutex.acquire(zkTimeout, TimeUnit.MILLISECONDS);
             } else {
                 acquired = mutex.acquire(-1, null);
             }
@@ -99,6 +176,10 @@ class StrictInterProcessReentrantLock extends ReentrantLock {
     public void lockInterruptibly() throws InterruptedException {
         super.lockInterruptibly();
 
+        if (fastPath != null) {
+            return;
+        }
+
         try {
             mutex.acquire();
         } catch (final Exception t) {
@@ -5,6 +5,8 @@ import java.util.concurrent.locks.ReentrantLock;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
 
+import com.mass.concurrent.LockHandle;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
 import com.mass.concurrent.sync.zookeeper.BestEffortInterProcessReentrantLock.InterProcessLockFailObserver;
 import com.mass.core.Word;
 
@@ -26,9 +28,34 @@ class StrictInterProcessReentrantLockRegistry extends InterProcessReentrantLockR
         super(rootZkPath, lockRegistryName, mutexFactory);
     }
 
+    public StrictInterProcessReentrantLockRegistry(final String rootZkPath, final InterProcessMutexFactory mutexFactory,
+            final SynchronizerLockRegistryConfiguration definition) {
+        super(rootZkPath, mutexFactory, definition);
+    }
+
+    @Override
+    protected ReentrantLock newLock(final InterProcessMutex mutex, final InterProcessMutexLease fastLease,
+            final InterProcessLockFailObserver observer) {
+        return new StrictInterProcessReentrantLock(mutex, fastLease);
+    }
+
+    @Override
+    protected ReentrantLock newCohortLock(final InterProcessMutexLease lease,
+            final InterProcessLockFailObserver observer, final int maxHandoffs, final LingeringLeases lingering,
+            final AsyncLeaseReleaser releaser) {
+        return new CohortInterProcessReentrantLock(lease, observer, true, maxHandoffs, lingering, releaser);
+    }
+
+    @Override
+    protected ReentrantLock newLeanLock(final InterProcessMutexFactory mutexFactory, final String path,
+            final InterProcessLockFailObserver observer) {
+        return new LeanInterProcessReentrantLock(mutexFactory, path, observer, true);
+    }
+
     @Override
-    protected ReentrantLock newLock(final InterProcessMutex mutex, final InterProcessLockFailObserver observer) {
-        return new StrictInterProcessReentrantLock(mutex);
+    protected LockHandle newLockHandle(final InterProcessMutexLease lease, final String leasePath,
+            final InterProcessLockFailObserver observer) {
+        return new InterProcessLockHandle(lease, leasePath, observer, true);
     }
 
 }
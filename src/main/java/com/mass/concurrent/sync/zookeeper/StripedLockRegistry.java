@@ -0,0 +1,104 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.LockRegistryMetrics;
+import com.mass.concurrent.sync.SynchronizerLockKey;
+import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
+import com.mass.core.PositiveDuration;
+
+/**
+ * A local-jvm lock registry that hashes every key onto a fixed array of locks, allocated up front. Two keys on the same
+ * stripe block each other, but getLock never allocates a lock, and the footprint doesn't grow with the number of keys.
+ * Use this for huge key spaces, like per-user keys, where an occasional false collision is cheaper than a lock per key.
+ * This is unsuitable for use in a cluster.
+ * <p>
+ * The keys of the IntegerLockKeyFactory and LongLockKeyFactory are hashed by their value, like the LongLockRegistry
+ * locks them, so getLock doesn't build their lock keys either. Other keys are hashed by their lock key.
+ * 
+ * @author kmassaroni
+ * @param <K>
+ */
+class StripedLockRegistry<K> implements LockRegistry<K>, LockRegistryMetrics {
+    private static final int MAX_STRIPES = 1 << 30;
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+    private final SynchronizerLockKeyFactory<K> lockKeyFactory;
+    private final boolean primitiveKeys;
+    private final PositiveDuration timeoutDuration;
+
+    /**
+     * @param lockKeyFactory
+     * @param stripes
+     *            - the number of locks, rounded up to a power of two
+     * @param timeoutDuration
+     *            - (optional) (nullable) Use this timeout duration for all lock attempts for this lock registry.
+     */
+    public StripedLockRegistry(final SynchronizerLockKeyFactory<K> lockKeyFactory, final int stripes,
+            final PositiveDuration timeoutDuration) {
+        Preconditions.checkArgument(lockKeyFactory != null, "Undefined lock key factory.");
+        Preconditions.checkArgument(stripes > 0 && stripes <= MAX_STRIPES, "Lock stripes out of range: %s", stripes);
+
+        final int size = ceilingPowerOfTwo(stripes);
+        locks = new ReentrantLock[size];
+
+        for (int i = 0; i < size; i++) {
+            locks[i] = new DetachableReentrantLock();
+        }
+
+        mask = size - 1;
+        this.lockKeyFactory = lockKeyFactory;
+        primitiveKeys = LongLockRegistry.supports(lockKeyFactory);
+        this.timeoutDuration = timeoutDuration;
+    }
+
+    @Override
+    public PositiveDuration getTimeoutDuration() {
+        return timeoutDuration;
+    }
+
+    @Override
+    public ReentrantLock getLock(final K key) {
+        Preconditions.checkArgument(key != null, "Undefined key.");
+
+        if (primitiveKeys) {
+            final long value = LongLockRegistry.toLong(key);
+            return locks[stripe((int) (value ^ value >>> 32))];
+        }
+
+        final SynchronizerLockKey lockKey = lockKeyFactory.toKey(key);
+        Preconditions.checkArgument(lockKey != null, "Lock factory produced a null lock key.");
+
+        return locks[stripe(lockKey.hashCode())];
+    }
+
+    /**
+     * @return the number of stripes, since they're all allocated up front
+     */
+    @Override
+    public int getLiveLockCount() {
+        return locks.length;
+    }
+
+    @VisibleForTesting
+    int stripe(final int hashCode) {
+        return smear(hashCode) & mask;
+    }
+
+    /**
+     * String hash codes of similar keys, like consecutive numbers, differ mostly in their low bits, so spread the high
+     * bits down before masking. This is the supplemental hash from java.util.HashMap.
+     */
+    private static int smear(int hashCode) {
+        hashCode ^= hashCode >>> 20 ^ hashCode >>> 12;
+        return hashCode ^ hashCode >>> 7 ^ hashCode >>> 4;
+    }
+
+    private static int ceilingPowerOfTwo(final int value) {
+        return value == 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
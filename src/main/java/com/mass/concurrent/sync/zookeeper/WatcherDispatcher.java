@@ -0,0 +1,76 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+
+import com.google.common.collect.Maps;
+
+/**
+ * One zookeeper watcher for all the leases of a lock registry, instead of a watcher and a latch for every wait. The
+ * leases waiting for the same node ahead of them share one latch, in the table of watched nodes, and it opens when
+ * that node changes. When the connection changes, every latch opens, and the leases all check where they stand.
+ * <p>
+ * A latch is dropped from the table as soon as it opens, so the table only holds the nodes that somebody is waiting
+ * for right now.
+ *
+ * @author kmassaroni
+ */
+final class WatcherDispatcher implements Watcher {
+    private final ConcurrentMap<String, CountDownLatch> watched = Maps.newConcurrentMap();
+
+    /**
+     * Watch a node, and get the latch that opens when it changes.
+     *
+     * @return null if the node is gone already
+     */
+    public CountDownLatch watch(final CuratorFramework zkClient, final String path) throws Exception {
+        CountDownLatch latch = watched.get(path);
+
+        if (latch == null) {
+            final CountDownLatch newLatch = new CountDownLatch(1);
+            latch = watched.putIfAbsent(path, newLatch);
+            latch = latch == null ? newLatch : latch;
+        }
+
+        if (zkClient.checkExists().usingWatcher(this).forPath(path) == null) {
+            open(path, latch);
+            return null;
+        }
+
+        return latch;
+    }
+
+    /**
+     * @return how many nodes are being waited for
+     */
+    public int getWatchedCount() {
+        return watched.size();
+    }
+
+    @Override
+    public void process(final WatchedEvent event) {
+        if (event.getType() != Event.EventType.None && event.getPath() != null) {
+            final CountDownLatch latch = watched.get(event.getPath());
+
+            if (latch != null) {
+                open(event.getPath(), latch);
+            }
+
+            return;
+        }
+
+        for (final Map.Entry<String, CountDownLatch> entry : watched.entrySet()) {
+            open(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void open(final String path, final CountDownLatch latch) {
+        watched.remove(path, latch);
+        latch.countDown();
+    }
+}
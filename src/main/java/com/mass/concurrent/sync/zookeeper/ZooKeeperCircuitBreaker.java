@@ -0,0 +1,241 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.CircuitBreakerMetrics.CircuitState.CLOSED;
+import static com.mass.concurrent.CircuitBreakerMetrics.CircuitState.HALF_OPEN;
+import static com.mass.concurrent.CircuitBreakerMetrics.CircuitState.OPEN;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.state.ConnectionState;
+import org.apache.curator.framework.state.ConnectionStateListener;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import com.mass.concurrent.CircuitBreakerMetrics;
+
+/**
+ * Keeps the zookeeper locks of a lock registry from waiting on a zookeeper connection that's down. Curator retries
+ * every zookeeper call through its retry policy, and a lock that's waiting in line keeps waiting while the connection
+ * is suspended, so without this, every lock blocks for as long as the retries, or its whole timeout, while zookeeper
+ * is slow or partitioned.
+ * <p>
+ * The breaker listens to the zookeeper client's connection state. When the connection is suspended, lost, or read
+ * only, the circuit opens: the threads waiting on zookeeper are woken up with an interrupt, and the zookeeper calls
+ * fail right away with a ZooKeeperCircuitOpenException, without trying zookeeper at all, so strict locks throw, and
+ * best-effort locks fall back on the JVM lock. When the connection comes back, or after the probe interval, the circuit
+ * is half open: the next caller checks zookeeper with one read, while the others keep failing fast. If the read goes
+ * through, the circuit closes, and if it doesn't, it opens again for another probe interval.
+ * <p>
+ * An interrupt from the breaker is cleared before the zookeeper call returns, so it never leaks to the caller.
+ *
+ * @author kmassaroni
+ */
+final class ZooKeeperCircuitBreaker implements ConnectionStateListener {
+    private final Log log = LogFactory.getLog(ZooKeeperCircuitBreaker.class);
+    private final CuratorFramework zkClient;
+    private final long probeIntervalNanos;
+    private final AtomicLong tripCount = new AtomicLong();
+    private final AtomicLong fastFailCount = new AtomicLong();
+
+    // the threads in a zookeeper call, and the ones that the breaker interrupted. guarded by this.
+    private final Set<Thread> waiters = Sets.newHashSet();
+    private final Set<Thread> tripped = Sets.newHashSet();
+
+    private volatile CircuitBreakerMetrics.CircuitState state = CLOSED;
+
+    // guarded by this
+    private long openedAt;
+    private boolean probing;
+
+    /**
+     * @param probeIntervalMillis
+     *            - how long the circuit stays open, before it checks if zookeeper is back, without a reconnect
+     */
+    public ZooKeeperCircuitBreaker(final CuratorFramework zkClient, final long probeIntervalMillis) {
+        Preconditions.checkArgument(zkClient != null, "Undefined zookeeper client.");
+        Preconditions.checkArgument(probeIntervalMillis > 0, "Circuit probe interval must be positive: %s",
+                probeIntervalMillis);
+        this.zkClient = zkClient;
+        probeIntervalNanos = TimeUnit.MILLISECONDS.toNanos(probeIntervalMillis);
+        zkClient.getConnectionStateListenable().addListener(this);
+    }
+
+    @Override
+    public void stateChanged(final CuratorFramework client, final ConnectionState newState) {
+        switch (newState) {
+        case SUSPENDED:
+        case LOST:
+        case READ_ONLY:
+            trip(newState);
+            break;
+        case CONNECTED:
+        case RECONNECTED:
+            halfOpen();
+            break;
+        default:
+            break;
+        }
+    }
+
+    private synchronized void trip(final ConnectionState cause) {
+        openedAt = System.nanoTime();
+
+        if (state != OPEN) {
+            state = OPEN;
+            tripCount.incrementAndGet();
+            log.warn("Zookeeper connection is " + cause + ", failing zookeeper locks fast.");
+        }
+
+        for (final Thread waiter : waiters) {
+            if (tripped.add(waiter)) {
+                waiter.interrupt();
+            }
+        }
+    }
+
+    private synchronized void halfOpen() {
+        if (state == OPEN) {
+            state = HALF_OPEN;
+        }
+    }
+
+    /**
+     * Make a zookeeper call, unless the circuit is open. If the circuit opens while the call is waiting, the call is
+     * interrupted, and fails with a ZooKeeperCircuitOpenException.
+     */
+    public <T> T call(final Callable<T> zkCall) throws Exception {
+        checkClosed();
+
+        final Thread thread = Thread.currentThread();
+
+        synchronized (this) {
+            waiters.add(thread);
+        }
+
+        // it opened in the meantime, before it knew about this thread
+        if (state != CLOSED) {
+            leave(thread);
+            fastFailCount.incrementAndGet();
+            throw new ZooKeeperCircuitOpenException("Zookeeper connection is down, circuit is " + state + ".");
+        }
+
+        final T result;
+
+        try {
+            result = zkCall.call();
+        } catch (final Exception e) {
+            if (leave(thread)) {
+                fastFailCount.incrementAndGet();
+                throw new ZooKeeperCircuitOpenException("Zookeeper connection is down.", e);
+            }
+
+            throw e;
+        } catch (final Error e) {
+            leave(thread);
+            throw e;
+        }
+
+        leave(thread);
+        return result;
+    }
+
+    /**
+     * Check that a zookeeper call can go through, for the calls that don't wait, like the asynchronous ones.
+     *
+     * @throws ZooKeeperCircuitOpenException
+     *             - if the circuit is open, or the probe of a half open one fails
+     */
+    public void checkClosed() throws ZooKeeperCircuitOpenException {
+        if (!isClosed()) {
+            fastFailCount.incrementAndGet();
+            throw new ZooKeeperCircuitOpenException("Zookeeper connection is down, circuit is " + state + ".");
+        }
+    }
+
+    /**
+     * @return true if the circuit is closed, maybe after this thread probed zookeeper
+     */
+    private boolean isClosed() {
+        if (state == CLOSED) {
+            return true;
+        }
+
+        synchronized (this) {
+            if (state == OPEN && System.nanoTime() - openedAt >= probeIntervalNanos) {
+                state = HALF_OPEN;
+            }
+
+            if (state != HALF_OPEN || probing) {
+                return state == CLOSED;
+            }
+
+            probing = true;
+        }
+
+        final boolean reachable = probe();
+
+        synchronized (this) {
+            probing = false;
+
+            if (state == HALF_OPEN) {
+                if (reachable) {
+                    state = CLOSED;
+                    log.info("Zookeeper is back, closing the zookeeper lock circuit.");
+                } else {
+                    state = OPEN;
+                    openedAt = System.nanoTime();
+                }
+            }
+
+            return state == CLOSED;
+        }
+    }
+
+    private boolean probe() {
+        try {
+            zkClient.checkExists().forPath("/");
+            return true;
+        } catch (final Exception e) {
+            log.debug("Zookeeper circuit probe failed.", e);
+            return false;
+        }
+    }
+
+    /**
+     * @return true if the breaker interrupted the thread, which is cleared now
+     */
+    private synchronized boolean leave(final Thread thread) {
+        waiters.remove(thread);
+
+        if (!tripped.remove(thread)) {
+            return false;
+        }
+
+        Thread.interrupted();
+        return true;
+    }
+
+    public CircuitBreakerMetrics.CircuitState getState() {
+        return state;
+    }
+
+    public long getTripCount() {
+        return tripCount.get();
+    }
+
+    public long getFastFailCount() {
+        return fastFailCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ZooKeeperCircuitBreaker [state=" + state + ", tripCount=" + tripCount + ", fastFailCount="
+                + fastFailCount + "]";
+    }
+}
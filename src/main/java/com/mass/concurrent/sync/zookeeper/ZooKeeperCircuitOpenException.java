@@ -0,0 +1,19 @@
+package com.mass.concurrent.sync.zookeeper;
+
+/**
+ * A zookeeper lock wasn't tried, or stopped waiting, because the connection to zookeeper is down. Strict locks throw
+ * it as the cause of their exception, and best-effort locks fall back on the JVM lock.
+ *
+ * @author kmassaroni
+ */
+public class ZooKeeperCircuitOpenException extends Exception {
+    private static final long serialVersionUID = -3127849916610937015L;
+
+    public ZooKeeperCircuitOpenException(final String message) {
+        super(message);
+    }
+
+    public ZooKeeperCircuitOpenException(final String message, final Throwable cause) {
+        super(message, cause);
+    }
+}
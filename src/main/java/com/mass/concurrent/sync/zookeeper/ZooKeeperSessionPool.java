@@ -0,0 +1,112 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.io.Closeable;
+import java.util.List;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.utils.CloseableUtils;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * Several zookeeper sessions to the same ensemble, for the locks of one JVM. A session sends all its requests down one
+ * socket, in order, and runs all its watchers on one event thread, so with lots of keys, their lock I/O and their
+ * watch events queue up behind each other. The lock registries of a pooled lock registry factory spread their keys
+ * over the sessions by hash, and a key always goes through the same session, so its lock nodes are owned by that
+ * session. When a session's connection is lost, only the keys on that session are affected.
+ * <p>
+ * The first session is the zookeeper client that the pool is built from, and the others are built by a curator
+ * builder from the caller, so they connect the same way: the same ensemble, namespace, ACLs, authorization, and
+ * everything else that the builder carries. The pool starts the new ones, and closes them, but it leaves the first one
+ * to its owner. Since all the sessions are on the same ensemble, the nodes of the cluster don't have to agree on the
+ * size of their pools.
+ *
+ * @author kmassaroni
+ */
+public final class ZooKeeperSessionPool implements Closeable {
+    private final ImmutableList<CuratorFramework> sessions;
+
+    /**
+     * @param sessionBuilder
+     *            - builds the other sessions, like the zookeeper client was built, with the same namespace
+     * @param size
+     *            - how many sessions, including the zookeeper client's own
+     */
+    public ZooKeeperSessionPool(final CuratorFramework zkClient, final CuratorFrameworkFactory.Builder sessionBuilder,
+            final int size) {
+        Preconditions.checkArgument(zkClient != null, "Undefined zookeeper client.");
+        Preconditions.checkArgument(sessionBuilder != null, "Undefined zookeeper session builder.");
+        Preconditions.checkArgument(size > 0, "Session pool size must be positive: %s", size);
+        // curator says there's no namespace with an empty one
+        Preconditions.checkArgument(Objects.equal(Strings.emptyToNull(sessionBuilder.getNamespace()),
+                Strings.emptyToNull(zkClient.getNamespace())), "The sessions' namespace %s isn't the client's: %s",
+                sessionBuilder.getNamespace(), zkClient.getNamespace());
+
+        final List<CuratorFramework> sessions = Lists.newArrayListWithCapacity(size);
+        sessions.add(zkClient);
+
+        try {
+            for (int i = 1; i < size; i++) {
+                final CuratorFramework session = sessionBuilder.build();
+                sessions.add(session);
+                session.start();
+            }
+        } catch (final RuntimeException e) {
+            // don't leak the sessions that already started
+            close(sessions);
+            throw e;
+        }
+
+        this.sessions = ImmutableList.copyOf(sessions);
+    }
+
+    /**
+     * @return the sessions, in the order that keys are assigned to them
+     */
+    public List<CuratorFramework> getSessions() {
+        return sessions;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * @return how many of the sessions are connected right now
+     */
+    public int getConnectedCount() {
+        int count = 0;
+
+        for (final CuratorFramework session : sessions) {
+            if (session.getZookeeperClient().isConnected()) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Close the sessions that the pool started. The zookeeper client that it was built from stays open.
+     */
+    @Override
+    public void close() {
+        close(sessions);
+    }
+
+    private static void close(final List<CuratorFramework> sessions) {
+        for (final CuratorFramework session : sessions.subList(1, sessions.size())) {
+            CloseableUtils.closeQuietly(session);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZooKeeperSessionPool [size=" + sessions.size() + ", connected=" + getConnectedCount() + "]";
+    }
+}
@@ -2,7 +2,10 @@ package com.mass.util;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Set;
 
 import org.aspectj.lang.JoinPoint.StaticPart;
 import org.aspectj.lang.ProceedingJoinPoint;
@@ -10,12 +13,14 @@ import org.aspectj.lang.Signature;
 import org.aspectj.lang.reflect.MethodSignature;
 import org.springframework.aop.TargetSource;
 import org.springframework.aop.framework.Advised;
+import org.springframework.util.ClassUtils;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import com.google.common.collect.Sets;
 import com.mass.concurrent.sync.springaop.Synchronized;
 import com.mass.lang.MethodParameterAnnotation;
 
@@ -199,6 +204,10 @@ public final class ReflectionUtils {
 
     public static Method getSynchronizedSignatureMethod(final ProceedingJoinPoint joinPoint) {
         final Method signatureMethod = getSignatureMethod(joinPoint);
+        return getSynchronizedSignatureMethod(signatureMethod);
+    }
+
+    public static Method getSynchronizedSignatureMethod(final Method signatureMethod) {
         return hasSynchronizedParameter.apply(signatureMethod) ? signatureMethod : null;
     }
 
@@ -234,27 +243,64 @@ public final class ReflectionUtils {
                 "Expected MethodSignature, but was %s", signature);
 
         final MethodSignature methodSig = MethodSignature.class.cast(signature);
-        final Method superMethod = methodSig.getMethod();
+        return getSynchronizedTargetMethod(targetClass, methodSig.getMethod());
+    }
+
+    /**
+     * Get the concrete @Synchronized Method of the target class, that overrides or implements the signature method.
+     * 
+     * @param targetClass
+     * @param superMethod
+     * @return
+     */
+    public static Method getSynchronizedTargetMethod(final Class<?> targetClass, final Method superMethod) {
+        return getAnnotatedTargetMethod(targetClass, superMethod, Synchronized.class);
+    }
+
+    /**
+     * Get the concrete Method of the target class, that overrides or implements the signature method, and has a
+     * parameter with this annotation.
+     * 
+     * @param targetClass
+     * @param superMethod
+     * @param parameterAnnotationType
+     * @return null if there's no such method
+     */
+    public static Method getAnnotatedTargetMethod(final Class<?> targetClass, final Method superMethod,
+            final Class<? extends Annotation> parameterAnnotationType) {
+        Preconditions.checkArgument(targetClass != null, "Undefined target class.");
+        Preconditions.checkArgument(superMethod != null, "Undefined signature method.");
+        Preconditions.checkArgument(parameterAnnotationType != null, "Undefined parameter annotation type.");
 
         if (targetClass.equals(superMethod.getDeclaringClass())) {
             return superMethod;
         }
 
+        final HasParameterAnnotationPredicate hasAnnotatedParameter = Synchronized.class
+                .equals(parameterAnnotationType) ? hasSynchronizedParameter : new HasParameterAnnotationPredicate(
+                parameterAnnotationType);
         final String name = superMethod.getName();
         final Method[] targetClassMethods = targetClass.getMethods();
 
         Method override = null;
+        final int parameterCount = superMethod.getParameterTypes().length;
+
         for (final Method method : targetClassMethods) {
             if (!name.equals(method.getName())) {
                 continue;
             }
 
-            if (!hasSynchronizedParameter.apply(method)) {
+            // the compiler copies parameter annotations onto the bridge methods of generic overrides
+            if (method.isBridge() || method.getParameterTypes().length != parameterCount) {
                 continue;
             }
 
-            Preconditions.checkArgument(override == null, "More than one @Synchronized method matches signature: %s",
-                    signature);
+            if (!hasAnnotatedParameter.apply(method)) {
+                continue;
+            }
+
+            Preconditions.checkArgument(override == null, "More than one @%s method matches signature: %s",
+                    parameterAnnotationType.getSimpleName(), superMethod);
             override = method;
         }
 
@@ -287,6 +333,19 @@ public final class ReflectionUtils {
         final Class<?> targetClass = proxyTarget.getClass();
 
         final Method ifaceMethod = getSignatureMethod(joinPoint);
+        return getTargetMethod(targetClass, ifaceMethod);
+    }
+
+    /**
+     * Get the concrete Method of the target class, that overrides or implements the signature method.
+     * 
+     * @param targetClass
+     * @param ifaceMethod
+     * @return
+     */
+    public static Method getTargetMethod(final Class<?> targetClass, final Method ifaceMethod) {
+        Preconditions.checkArgument(targetClass != null, "Undefined target class.");
+        Preconditions.checkArgument(ifaceMethod != null, "Undefined signature method.");
 
         if (targetClass.equals(ifaceMethod.getDeclaringClass())) {
             return ifaceMethod;
@@ -299,8 +358,34 @@ public final class ReflectionUtils {
         } catch (final SecurityException e) {
             throw new RuntimeException(e);
         } catch (final NoSuchMethodException e) {
-            throw new RuntimeException("Can't find method for join point.", e);
+            throw new RuntimeException("Can't find target method for signature method: " + ifaceMethod, e);
+        }
+    }
+
+    /**
+     * Get all the methods that a Spring AOP proxy of this target class could report as a join point signature method:
+     * the public methods of the class itself, for class proxies, and the methods of all its interfaces, for interface
+     * proxies.
+     * 
+     * @param targetClass
+     * @return
+     */
+    public static Set<Method> getProxiedMethods(final Class<?> targetClass) {
+        Preconditions.checkArgument(targetClass != null, "Undefined target class.");
+
+        final Set<Method> methods = Sets.newLinkedHashSet();
+
+        for (final Method method : targetClass.getMethods()) {
+            if (!Modifier.isStatic(method.getModifiers()) && !Object.class.equals(method.getDeclaringClass())) {
+                methods.add(method);
+            }
+        }
+
+        for (final Class<?> iface : ClassUtils.getAllInterfacesForClassAsSet(targetClass)) {
+            methods.addAll(Arrays.asList(iface.getMethods()));
         }
+
+        return methods;
     }
 
     public static Multimap<Class<? extends Annotation>, MethodParameterAnnotation> getMethodParameterAnnotations(
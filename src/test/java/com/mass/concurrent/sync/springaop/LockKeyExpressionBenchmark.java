@@ -0,0 +1,69 @@
+package com.mass.concurrent.sync.springaop;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.ExpressionParser;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+
+import com.mass.concurrent.sync.springaop.SynchronizedMethodUtilsTest.ComplexKey;
+import com.mass.concurrent.sync.springaop.SynchronizedMethodUtilsTest.NestedComplexKey;
+
+/**
+ * Compares the ways of evaluating a @Synchronized key expression: parsing on every call, like we used to, a cached SpEL
+ * expression, and a cached property chain of direct getter calls. This is a plain main() program, not a unit test.
+ *
+ * @author kmassaroni
+ */
+public class LockKeyExpressionBenchmark {
+    private static final String EXPRESSION = "nestedLock.nestedValue";
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int ITERATIONS = 2000000;
+
+    public static void main(final String[] args) {
+        final ComplexKey key = new ComplexKey("shallow key", new NestedComplexKey("deep key"));
+
+        final LockKeyExpression parsePerCall = new LockKeyExpression() {
+            @Override
+            public String getExpressionString() {
+                return EXPRESSION;
+            }
+
+            @Override
+            public Object getValue(final Object root) {
+                final ExpressionParser parser = new SpelExpressionParser();
+                final Expression exp = parser.parseExpression(EXPRESSION);
+                final EvaluationContext context = new StandardEvaluationContext(root);
+                return exp.getValue(context);
+            }
+        };
+
+        final LockKeyExpression spel = LockKeyExpressions.newSpelExpression(EXPRESSION);
+        final LockKeyExpression chain = LockKeyExpressions.newPropertyChainExpression(EXPRESSION);
+
+        for (int round = 0; round < 3; round++) {
+            run("parse per call", parsePerCall, key, ITERATIONS / 10);
+            run("cached spel", spel, key, ITERATIONS);
+            run("property chain", chain, key, ITERATIONS);
+        }
+    }
+
+    private static void run(final String name, final LockKeyExpression expression, final Object root,
+            final int iterations) {
+        int checksum = 0;
+
+        for (int i = 0; i < WARMUP_ITERATIONS / 10; i++) {
+            checksum += expression.getValue(root).hashCode();
+        }
+
+        final long start = System.nanoTime();
+
+        for (int i = 0; i < iterations; i++) {
+            checksum += expression.getValue(root).hashCode();
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-16s %10.1f ns/op (checksum %d)", name, (double) elapsed / iterations,
+                checksum));
+    }
+}
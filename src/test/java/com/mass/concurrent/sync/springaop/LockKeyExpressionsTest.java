@@ -0,0 +1,83 @@
+package com.mass.concurrent.sync.springaop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.expression.spel.SpelEvaluationException;
+
+import com.mass.concurrent.sync.springaop.SynchronizedMethodUtilsTest.ComplexKey;
+import com.mass.concurrent.sync.springaop.SynchronizedMethodUtilsTest.NestedComplexKey;
+
+public class LockKeyExpressionsTest {
+    private final ComplexKey complexKey = new ComplexKey("shallow key", new NestedComplexKey("deep key"));
+
+    @Test
+    public void testIsPropertyChain() {
+        assertTrue(LockKeyExpressions.isPropertyChain("owner"));
+        assertTrue(LockKeyExpressions.isPropertyChain("owner.id"));
+        assertTrue(LockKeyExpressions.isPropertyChain("nestedLock.nestedValue"));
+
+        assertFalse(LockKeyExpressions.isPropertyChain(""));
+        assertFalse(LockKeyExpressions.isPropertyChain("owner."));
+        assertFalse(LockKeyExpressions.isPropertyChain("owner.id + 'x'"));
+        assertFalse(LockKeyExpressions.isPropertyChain("owner?.id"));
+        assertFalse(LockKeyExpressions.isPropertyChain("getOwner()"));
+        assertFalse(LockKeyExpressions.isPropertyChain("#root.owner"));
+        assertFalse(LockKeyExpressions.isPropertyChain("null"));
+        assertFalse(LockKeyExpressions.isPropertyChain("owner.true"));
+    }
+
+    @Test
+    public void testExpressionsAreCached() {
+        assertSame(LockKeyExpressions.forExpression("nestedLock.nestedValue"),
+                LockKeyExpressions.forExpression("nestedLock.nestedValue"));
+        assertSame(LockKeyExpressions.forExpression("lockValue + '-x'"),
+                LockKeyExpressions.forExpression("lockValue + '-x'"));
+    }
+
+    @Test
+    public void testPropertyChainMatchesSpel() {
+        final LockKeyExpression chain = LockKeyExpressions.newPropertyChainExpression("nestedLock.nestedValue");
+        final LockKeyExpression spel = LockKeyExpressions.newSpelExpression("nestedLock.nestedValue");
+
+        assertEquals("deep key", chain.getValue(complexKey));
+        assertEquals(spel.getValue(complexKey), chain.getValue(complexKey));
+    }
+
+    @Test
+    public void testComplexExpression() {
+        assertEquals("shallow key-x", LockKeyExpressions.forExpression("lockValue + '-x'").getValue(complexKey));
+    }
+
+    @Test
+    public void testPropertyChainFallsBackToSpelForPublicFields() {
+        final PublicFieldKey key = new PublicFieldKey();
+        key.id = "field key";
+
+        assertEquals("field key", LockKeyExpressions.newPropertyChainExpression("id").getValue(key));
+    }
+
+    @Test
+    public void testBooleanIsGetter() {
+        assertEquals(Boolean.TRUE, LockKeyExpressions.newPropertyChainExpression("active").getValue(new BooleanKey()));
+    }
+
+    @Test(expected = SpelEvaluationException.class)
+    public void testNullLinkFailsLikeSpel() {
+        final ComplexKey nullNested = new ComplexKey("shallow key", null);
+        LockKeyExpressions.newPropertyChainExpression("nestedLock.nestedValue").getValue(nullNested);
+    }
+
+    public static class PublicFieldKey {
+        public String id;
+    }
+
+    public static class BooleanKey {
+        public boolean isActive() {
+            return true;
+        }
+    }
+}
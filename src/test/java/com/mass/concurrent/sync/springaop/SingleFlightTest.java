@@ -0,0 +1,124 @@
+package com.mass.concurrent.sync.springaop;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+public class SingleFlightTest {
+    @Test
+    public void testWaitersShareException() throws Throwable {
+        final SingleFlight flights = new SingleFlight();
+        final IllegalStateException failure = new IllegalStateException("Cache fill failed.");
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicReference<Throwable> waiterFailure = new AtomicReference<Throwable>();
+
+        final Thread leader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    flights.call("abc", new SingleFlight.Call() {
+                        @Override
+                        public Object call() throws Throwable {
+                            entered.countDown();
+                            release.await();
+                            throw failure;
+                        }
+                    });
+                } catch (final Throwable e) {
+                    // the leader gets it too
+                }
+            }
+        };
+        leader.start();
+        assertTrue(entered.await(10, SECONDS));
+
+        final Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    flights.call("abc", new SingleFlight.Call() {
+                        @Override
+                        public Object call() {
+                            return "not collapsed";
+                        }
+                    });
+                } catch (final Throwable e) {
+                    waiterFailure.set(e);
+                }
+            }
+        };
+        waiter.start();
+
+        for (int i = 0; i < 1000 && flights.getCollapsedCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        release.countDown();
+        leader.join();
+        waiter.join();
+
+        assertSame(failure, waiterFailure.get());
+        assertEquals(1, flights.getCollapsedCount());
+        assertEquals(0, flights.size());
+    }
+
+    @Test
+    public void testReentrantCallIsntCollapsed() throws Throwable {
+        final SingleFlight flights = new SingleFlight();
+        final AtomicInteger calls = new AtomicInteger();
+
+        final Object result = flights.call("abc", new SingleFlight.Call() {
+            @Override
+            public Object call() throws Throwable {
+                calls.incrementAndGet();
+                return flights.call("abc", new SingleFlight.Call() {
+                    @Override
+                    public Object call() {
+                        return calls.incrementAndGet();
+                    }
+                });
+            }
+        });
+
+        assertEquals(2, result);
+        assertEquals(0, flights.getCollapsedCount());
+    }
+
+    @Test
+    public void testPendingFutureStaysInFlight() throws Throwable {
+        final SingleFlight flights = new SingleFlight();
+        final SettableFuture<String> future = SettableFuture.create();
+
+        final SingleFlight.Call call = new SingleFlight.Call() {
+            @Override
+            public Object call() {
+                return future;
+            }
+        };
+
+        assertSame(future, flights.call("abc", call));
+        assertEquals(1, flights.size());
+
+        // shares the future, instead of starting another one
+        assertSame(future, flights.call("abc", new SingleFlight.Call() {
+            @Override
+            public Object call() {
+                return SettableFuture.create();
+            }
+        }));
+        assertEquals(1, flights.getCollapsedCount());
+
+        future.set("abc");
+        assertEquals(0, flights.size());
+    }
+}
@@ -0,0 +1,25 @@
+package com.mass.concurrent.sync.springaop;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.springframework.beans.factory.BeanInitializationException;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+/**
+ * Misconfigured @Synchronized methods should fail the application context refresh, not the first method call.
+ */
+public class StartupValidationSpringIntegrationTest {
+
+    @Test
+    public void testUnknownLockRegistryFailsRefresh() {
+        try {
+            new ClassPathXmlApplicationContext("test-app-context-invalid.xml").close();
+        } catch (final BeanInitializationException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("no-such-lock-registry"));
+            return;
+        }
+
+        throw new AssertionError("Expected the context refresh to fail.");
+    }
+}
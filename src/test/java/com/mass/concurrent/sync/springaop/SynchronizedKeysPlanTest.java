@@ -0,0 +1,73 @@
+package com.mass.concurrent.sync.springaop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.joda.time.Duration;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.sync.SynchronizerLockKeyFactory;
+import com.mass.concurrent.sync.keyfactories.LongLockKeyFactory;
+import com.mass.concurrent.sync.keyfactories.StringLockKeyFactory;
+import com.mass.concurrent.sync.springaop.SynchronizedKeysPlan.PlannedKey;
+import com.mass.core.PositiveDuration;
+
+public class SynchronizedKeysPlanTest {
+    @Test
+    public void testCanonicalOrder() throws Exception {
+        final SynchronizedKeysPlan plan = newPlan(TestService.class.getMethod("move", String.class, long[].class));
+        assertNull(plan.getSinglePlan());
+        assertEquals(20, plan.getTimeoutDuration().getMillis());
+
+        // by registry name, and then by key, without duplicates. The string key factory encodes "xyz".
+        final List<PlannedKey> keys = plan.getLockKeys(new Object[] { "xyz", new long[] { 3, 1, 3 } });
+        assertEquals("[a-registry/1, a-registry/3, b-registry/eHl6]", keys.toString());
+        assertEquals(1L, keys.get(0).getLockKey());
+    }
+
+    @Test
+    public void testSingleKey() throws Exception {
+        final SynchronizedKeysPlan plan = newPlan(TestService.class.getMethod("rename", String.class, String.class));
+        assertNotNull(plan.getSinglePlan());
+        assertEquals(1, plan.getSinglePlan().getParameterIndex());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SynchronizedKeysPlan newPlan(final Method method) {
+        final List<SynchronizedMethodPlan> plans = Lists.newArrayList();
+        final List<SynchronizerLockKeyFactory<Object>> keyFactories = Lists.newArrayList();
+        final Class<?>[] parameterTypes = method.getParameterTypes();
+
+        for (int i = 0; i < parameterTypes.length; i++) {
+            if (method.getParameterAnnotations()[i].length == 0) {
+                continue;
+            }
+
+            final Synchronized sync = (Synchronized) method.getParameterAnnotations()[i][0];
+            final long timeoutMillis = sync.value().startsWith("a") ? 20 : 30;
+            plans.add(new SynchronizedMethodPlan(i, sync, mock(LockRegistry.class), new PositiveDuration(Duration
+                    .millis(timeoutMillis)), LockKeyExtractors.argument(i, sync)));
+
+            final SynchronizerLockKeyFactory<?> keyFactory = parameterTypes[i] == long[].class
+                    ? new LongLockKeyFactory() : new StringLockKeyFactory();
+            keyFactories.add((SynchronizerLockKeyFactory<Object>) keyFactory);
+        }
+
+        return new SynchronizedKeysPlan(plans, keyFactories, parameterTypes);
+    }
+
+    public static class TestService {
+        public void move(@Synchronized("b-registry") final String to, @Synchronized("a-registry") final long[] from) {
+        }
+
+        public void rename(final String from, @Synchronized("b-registry") final String to) {
+        }
+    }
+}
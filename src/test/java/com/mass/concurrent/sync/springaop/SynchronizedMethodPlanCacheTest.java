@@ -0,0 +1,64 @@
+package com.mass.concurrent.sync.springaop;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import java.lang.reflect.Method;
+
+import org.junit.Test;
+
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.sync.springaop.SynchronizerAdviceTest.AnnotationTimeoutTestService;
+import com.mass.concurrent.sync.springaop.SynchronizerAdviceTest.TestService;
+import com.mass.concurrent.sync.springaop.SynchronizerAdviceTest.TestServiceInterface;
+import com.mass.core.PositiveDuration;
+
+public class SynchronizedMethodPlanCacheTest {
+
+    @Test
+    public void testPlansArePerTargetClass() throws Exception {
+        final Method concat = TestServiceInterface.class.getMethod("concat", String.class, String.class);
+        final SynchronizedMethodPlanCache<SynchronizedMethodPlan> cache =
+                new SynchronizedMethodPlanCache<SynchronizedMethodPlan>();
+
+        final SynchronizedMethodPlan plan = newPlan("abc");
+        final SynchronizedMethodPlan otherPlan = newPlan("def");
+
+        assertNull(cache.get(concat, TestService.class));
+        assertSame(plan, cache.putIfAbsent(concat, TestService.class, plan));
+        assertSame(otherPlan, cache.putIfAbsent(concat, AnnotationTimeoutTestService.class, otherPlan));
+
+        assertSame(plan, cache.get(concat, TestService.class));
+        assertSame(otherPlan, cache.get(concat, AnnotationTimeoutTestService.class));
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void testFirstPlanWins() throws Exception {
+        final Method concat = TestServiceInterface.class.getMethod("concat", String.class, String.class);
+        final SynchronizedMethodPlanCache<SynchronizedMethodPlan> cache =
+                new SynchronizedMethodPlanCache<SynchronizedMethodPlan>();
+
+        final SynchronizedMethodPlan plan = newPlan("abc");
+
+        assertSame(plan, cache.putIfAbsent(concat, TestService.class, plan));
+        assertSame(plan, cache.putIfAbsent(concat, TestService.class, newPlan("abc")));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testConstantLockKey() throws Exception {
+        final SynchronizedMethodPlan plan = newPlan("abc");
+        assertEquals("abc", plan.getLockKey(new Object[] {}));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SynchronizedMethodPlan newPlan(final String lockKey) throws Exception {
+        final Method keyless = TestService.class.getMethod("concat", String.class, String.class, String.class);
+        final Synchronized annotation = keyless.getAnnotation(Synchronized.class);
+        return new SynchronizedMethodPlan(SynchronizedMethodPlan.NO_PARAMETER, annotation, mock(LockRegistry.class),
+                PositiveDuration.standardSeconds(1), LockKeyExtractors.constant(lockKey));
+    }
+}
@@ -46,6 +46,21 @@ public class SynchronizedMethodTypeErasureTest {
             public String key() {
                 return "";
             }
+
+            @Override
+            public boolean skipIfLocked() {
+                return false;
+            }
+
+            @Override
+            public boolean singleFlight() {
+                return false;
+            }
+
+            @Override
+            public String combineWith() {
+                return "";
+            }
         };
 
         final PositiveDuration actual = SynchronizedMethodUtils.toTimeoutDuration(annotation);
@@ -70,6 +85,14 @@ public class SynchronizedMethodTypeErasureTest {
         spy.verifyAdviceWasCalled();
     }
 
+    @Test
+    public void testPrepare_BridgeMethods() throws Throwable {
+        final SynchronizedAdviceSpy spy = new SynchronizedAdviceSpy("test-lock-registry", "abc");
+
+        // concat(String, String), its bridge concat(Object, String), and the interface method
+        assertEquals(3, spy.getAdviceSpy().prepare(TestServiceImpl.class));
+    }
+
     public static interface TestService<T> {
         public String concat(final T syncArg, final String arg2);
     }
@@ -41,6 +41,21 @@ public class SynchronizedMethodUtilsTest {
             public String key() {
                 return "";
             }
+
+            @Override
+            public boolean skipIfLocked() {
+                return false;
+            }
+
+            @Override
+            public boolean singleFlight() {
+                return false;
+            }
+
+            @Override
+            public String combineWith() {
+                return "";
+            }
         };
 
         final PositiveDuration actual = SynchronizedMethodUtils.toTimeoutDuration(annotation);
@@ -3,17 +3,46 @@ package com.mass.concurrent.sync.springaop;
 import static com.mass.concurrent.sync.springaop.config.SynchronizerConfiguration.defaultTimeoutDuration;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.joda.time.Duration.standardMinutes;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
-
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
 import org.joda.time.Duration;
 import org.junit.Test;
 import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.UncheckedTimeoutException;
+import com.mass.concurrent.CircuitBreakerMetrics;
+import com.mass.concurrent.CircuitBreakerMetrics.CircuitState;
+import com.mass.concurrent.LockRegistryMetrics;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.keyfactories.StringLockKeyFactory;
 import com.mass.concurrent.sync.springaop.SynchronizedMethodUtilsTest.ComplexKey;
 import com.mass.concurrent.sync.springaop.SynchronizedMethodUtilsTest.NestedComplexKey;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy;
+import com.mass.concurrent.sync.zookeeper.LockRegistries;
 import com.mass.core.PositiveDuration;
 
 public class SynchronizerAdviceTest {
@@ -276,6 +305,538 @@ public class SynchronizerAdviceTest {
         proxy.concat("abc", "def");
     }
 
+    @Test
+    public void testPrepare() throws Throwable {
+        final SynchronizedAdviceSpy spy = new SynchronizedAdviceSpy("test-lock-registry", "abc");
+
+        // the concrete and interface signatures of concat(a, b) and concat(a, b, c)
+        assertEquals(4, spy.getAdviceSpy().prepare(TestService.class));
+        assertEquals(0, spy.getAdviceSpy().prepare(String.class));
+    }
+
+    @Test(expected = MismatchingSynchronizedAnnotationsException.class)
+    public void testPrepare_MismatchingInterfaceAndSubclassAnnotations() throws Throwable {
+        final SynchronizedAdviceSpy spy = new SynchronizedAdviceSpy("test-lock-registry", "abc");
+        spy.getAdviceSpy().prepare(MismatchingTestSubclass.class);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrepare_UnknownLockRegistry() throws Throwable {
+        final SynchronizedAdviceSpy spy = new SynchronizedAdviceSpy("test-lock-registry", "abc");
+        spy.getAdviceSpy().prepare(UnknownRegistryTestService.class);
+    }
+
+    @Test
+    public void testAopProxy_ReadWrite() throws Throwable {
+        final ReadWriteTestService target = new ReadWriteTestService();
+        final AspectJProxyFactory factory = new AspectJProxyFactory(target);
+
+        final SynchronizerLockRegistryConfiguration[] locks = { new SynchronizerLockRegistryConfiguration(
+                "rw-lock-registry", new StringLockKeyFactory()) };
+        final SynchronizerAdvice advice = new SynchronizerAdvice(locks, LockRegistries.newLocalLockRegistryFactory());
+
+        factory.addAspect(advice);
+        final ReadWriteTestService proxy = factory.getProxy();
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread reader = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    proxy.read("abc", entered, release);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        reader.start();
+        assertTrue(entered.await(10, SECONDS));
+
+        // readers share the key, and writers of other keys don't wait
+        assertEquals("abc", proxy.read("abc"));
+        assertEquals("def", proxy.write("def"));
+
+        try {
+            proxy.write("abc");
+            fail("The writer should time out while the reader holds the key.");
+        } catch (final UncheckedTimeoutException e) {
+            // expected
+        }
+
+        release.countDown();
+        reader.join();
+
+        assertEquals("abc", proxy.write("abc"));
+        assertEquals(0, ((LockRegistryMetrics) advice.getReadWriteLockRegistry("rw-lock-registry")).getLiveLockCount());
+    }
+
+    @Test
+    public void testPrepare_ReadWrite() throws Throwable {
+        final SynchronizerLockRegistryConfiguration[] locks = { new SynchronizerLockRegistryConfiguration(
+                "rw-lock-registry", new StringLockKeyFactory()) };
+        final SynchronizerAdvice advice = new SynchronizerAdvice(locks, LockRegistries.newLocalLockRegistryFactory());
+
+        // both read(..) methods, and write(..)
+        assertEquals(3, advice.prepare(ReadWriteTestService.class));
+        assertNull(advice.getReadWriteLockRegistry("no-such-lock-registry"));
+    }
+
+    @Test
+    public void testAopProxy_HoldLockUntilFutureIsDone() throws Throwable {
+        final FutureTestService target = new FutureTestService();
+        final AspectJProxyFactory factory = new AspectJProxyFactory(target);
+
+        final SynchronizerLockRegistryConfiguration[] locks = { new SynchronizerLockRegistryConfiguration(
+                "future-lock-registry", new StringLockKeyFactory()) };
+        final SynchronizerAdvice advice = new SynchronizerAdvice(locks, LockRegistries.newLocalLockRegistryFactory());
+
+        factory.addAspect(advice);
+        final FutureTestService proxy = factory.getProxy();
+
+        final SettableFuture<String> pending = SettableFuture.create();
+        assertSame(pending, proxy.start("abc", pending));
+
+        // the method returned, but the key stays locked until its future is done
+        try {
+            proxy.start("abc", Futures.immediateFuture("abc"));
+            fail("The key should stay locked while its future is pending.");
+        } catch (final UncheckedTimeoutException e) {
+            // expected
+        }
+
+        assertEquals("def", proxy.start("def", Futures.immediateFuture("def")).get());
+
+        pending.set("abc");
+        assertEquals("abc", proxy.start("abc", Futures.immediateFuture("abc")).get());
+        assertEquals(0, ((LockRegistryMetrics) advice.getLockRegistry("future-lock-registry")).getLiveLockCount());
+    }
+
+    @Test
+    public void testAopProxy_Keyless_HoldLockUntilFutureIsDone() throws Throwable {
+        final FutureTestService target = new FutureTestService();
+        final AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        final SynchronizerAdvice advice = new SynchronizerAdvice(null, LockRegistries.newLocalLockRegistryFactory());
+
+        factory.addAspect(advice);
+        final FutureTestService proxy = factory.getProxy();
+
+        final SettableFuture<String> pending = SettableFuture.create();
+        proxy.start(pending);
+
+        try {
+            proxy.start(Futures.immediateFuture("abc"));
+            fail("The keyless lock should stay locked while its future is pending.");
+        } catch (final UncheckedTimeoutException e) {
+            // expected
+        }
+
+        // cancelled counts as done
+        pending.cancel(false);
+        assertEquals("abc", proxy.start(Futures.immediateFuture("abc")).get());
+    }
+
+    @Test
+    public void testAopProxy_NestedFutureReentersLock() throws Throwable {
+        final TestingServer server = new TestingServer();
+        final CuratorFramework zkClient = newClient(server);
+
+        try {
+            final NestedTestService proxy = newNestedTarget(zkClient, SynchronizerLockingPolicy.STRICT).self;
+
+            // the future-returning call can't wait for a lock handle behind its own caller's zookeeper lock
+            assertEquals("abc", proxy.run("abc"));
+            assertEquals("abc", proxy.start("abc").get());
+        } finally {
+            zkClient.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testAopProxy_BestEffortFutureFallsBackOnLock() throws Throwable {
+        final TestingServer server = new TestingServer();
+        final CuratorFramework zkClient = newClient(server);
+
+        try {
+            final NestedTestService target = newNestedTarget(zkClient, SynchronizerLockingPolicy.BEST_EFFORT);
+            final NestedTestService proxy = target.self;
+            server.stop();
+
+            while (target.registry.getCircuitState() != CircuitState.OPEN) {
+                Thread.sleep(10);
+            }
+
+            assertEquals("abc", proxy.start("abc").get());
+            assertEquals("abc", proxy.run("abc"));
+        } finally {
+            zkClient.close();
+            server.close();
+        }
+    }
+
+    @Test
+    public void testAopProxy_SkipIfLocked_IntegerKeys() throws Throwable {
+        final TestingServer server = new TestingServer();
+        final CuratorFramework zkClient = newClient(server);
+
+        try {
+            final SynchronizerLockRegistryConfiguration[] locks = { new SynchronizerLockRegistryConfiguration(
+                    "count-lock-registry", new IntegerLockKeyFactory()) };
+            final SynchronizerAdvice advice = new SynchronizerAdvice(locks,
+                    LockRegistries.newInterProcessLockRegistryFactory(zkClient, SynchronizerLockingPolicy.STRICT,
+                            "/locks"));
+
+            final CountTestService target = new CountTestService();
+            final AspectJProxyFactory factory = new AspectJProxyFactory(target);
+            factory.addAspect(advice);
+            final CountTestService proxy = factory.getProxy();
+
+            final CountDownLatch entered = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            final Thread job = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        proxy.run(777, entered, release);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            job.start();
+            assertTrue(entered.await(10, SECONDS));
+
+            // the keys are locked as longs, so an int key and a long key share a lock, even for the probe
+            assertEquals(0, proxy.run(777));
+            assertNull(proxy.start(777L).get());
+            assertEquals(1, proxy.run(778));
+
+            release.countDown();
+            job.join();
+
+            assertEquals(1, proxy.run(777));
+            assertEquals(Long.valueOf(777), proxy.start(777L).get());
+        } finally {
+            zkClient.close();
+            server.close();
+        }
+    }
+
+    private static CuratorFramework newClient(final TestingServer server) throws InterruptedException {
+        final CuratorFramework zkClient = CuratorFrameworkFactory.newClient(server.getConnectString(), 30000, 1000,
+                new RetryOneTime(100));
+        zkClient.start();
+        zkClient.getZookeeperClient().blockUntilConnectedOrTimedOut();
+        return zkClient;
+    }
+
+    private static NestedTestService newNestedTarget(final CuratorFramework zkClient,
+            final SynchronizerLockingPolicy policy) {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration(
+                "nested-lock-registry", new StringLockKeyFactory());
+        definition.setCircuitProbeInterval(PositiveDuration.standardSeconds(60));
+        final SynchronizerLockRegistryConfiguration[] locks = { definition };
+        final SynchronizerAdvice advice = new SynchronizerAdvice(locks,
+                LockRegistries.newInterProcessLockRegistryFactory(zkClient, policy, "/locks"));
+
+        final NestedTestService target = new NestedTestService();
+        final AspectJProxyFactory factory = new AspectJProxyFactory(target);
+        factory.addAspect(advice);
+        target.self = factory.getProxy();
+        target.registry = (CircuitBreakerMetrics) advice.getLockRegistry("nested-lock-registry");
+        return target;
+    }
+
+    @Test
+    public void testAopProxy_SkipIfLocked() throws Throwable {
+        final SkipTestService target = new SkipTestService();
+        final AspectJProxyFactory factory = new AspectJProxyFactory(target);
+
+        final SynchronizerLockRegistryConfiguration[] locks = { new SynchronizerLockRegistryConfiguration(
+                "skip-lock-registry", new StringLockKeyFactory()) };
+        final SynchronizerAdvice advice = new SynchronizerAdvice(locks, LockRegistries.newLocalLockRegistryFactory());
+
+        factory.addAspect(advice);
+        final SkipTestService proxy = factory.getProxy();
+
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Thread job = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    proxy.run("abc", entered, release);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        job.start();
+        assertTrue(entered.await(10, SECONDS));
+
+        // skipped right away, instead of timing out
+        assertEquals(0, proxy.run("abc"));
+        assertNull(proxy.name("abc"));
+        assertNull(proxy.start("abc").get());
+        assertEquals(1, proxy.run("def"));
+
+        release.countDown();
+        job.join();
+
+        assertEquals(1, proxy.run("abc"));
+        assertEquals("abc", proxy.name("abc"));
+        assertEquals(1, target.runs.get("abc").intValue());
+    }
+
+    @Test
+    public void testAopProxy_SingleFlight() throws Throwable {
+        final FlightTestService target = new FlightTestService();
+        final AspectJProxyFactory factory = new AspectJProxyFactory(target);
+
+        final SynchronizerLockRegistryConfiguration[] locks = { new SynchronizerLockRegistryConfiguration(
+                "flight-lock-registry", new StringLockKeyFactory()) };
+        final SynchronizerAdvice advice = new SynchronizerAdvice(locks, LockRegistries.newLocalLockRegistryFactory());
+
+        factory.addAspect(advice);
+        final FlightTestService proxy = factory.getProxy();
+
+        final List<String> results = Collections.synchronizedList(Lists.<String> newArrayList());
+        final List<Thread> callers = Lists.newArrayList();
+
+        for (int i = 0; i < 8; i++) {
+            final Thread caller = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        results.add(proxy.load("abc"));
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            callers.add(caller);
+            caller.start();
+        }
+
+        assertTrue(target.entered.await(10, SECONDS));
+
+        // the other callers wait for the call in flight, instead of queuing up on the lock
+        for (final Thread caller : callers) {
+            for (int i = 0; i < 1000 && caller.getState() != Thread.State.WAITING; i++) {
+                Thread.sleep(10);
+            }
+        }
+
+        target.release.countDown();
+
+        for (final Thread caller : callers) {
+            caller.join();
+        }
+
+        assertEquals(8, results.size());
+        assertEquals(Collections.nCopies(8, "abc1"), results);
+        assertEquals(1, target.loads.get());
+
+        // once it's landed, the next call is a new flight
+        assertEquals("abc2", proxy.load("abc"));
+    }
+
+    @Test
+    public void testAopProxy_CombineWith() throws Throwable {
+        final LedgerTestService target = new LedgerTestService();
+        final AspectJProxyFactory factory = new AspectJProxyFactory(target);
+
+        final SynchronizerLockRegistryConfiguration ledgerLocks = new SynchronizerLockRegistryConfiguration(
+                "ledger-lock-registry", new StringLockKeyFactory());
+        ledgerLocks.setMaxBatchSize(3);
+        final SynchronizerLockRegistryConfiguration[] locks = { ledgerLocks };
+        final SynchronizerAdvice advice = new SynchronizerAdvice(locks, LockRegistries.newLocalLockRegistryFactory());
+
+        factory.addAspect(advice);
+        final LedgerTestService proxy = factory.getProxy();
+
+        final List<Long> positions = Collections.synchronizedList(Lists.<Long> newArrayList());
+        final List<Thread> callers = Lists.newArrayList();
+
+        for (int i = 0; i < 6; i++) {
+            final String event = "event" + i;
+            final Thread caller = new Thread() {
+                @Override
+                public void run() {
+                    positions.add(proxy.append("abc", event));
+                }
+            };
+            callers.add(caller);
+            caller.start();
+
+            if (i == 0) {
+                // the first call holds the lock, while the others pile up
+                assertTrue(target.entered.await(10, SECONDS));
+            }
+        }
+
+        for (final Thread caller : callers) {
+            for (int i = 0; i < 1000 && caller.getState() != Thread.State.WAITING; i++) {
+                Thread.sleep(10);
+            }
+        }
+
+        target.release.countDown();
+
+        for (final Thread caller : callers) {
+            caller.join();
+        }
+
+        assertEquals(Lists.newArrayList(1, 3, 2), target.batchSizes);
+        assertEquals(6, Sets.newHashSet(positions).size());
+        assertEquals(6, target.ledger.size());
+    }
+
+    @Test
+    public void testAopProxy_MultipleKeys_NoDeadlock() throws Throwable {
+        final TransferTestService proxy = newTransferProxy();
+        final AtomicInteger failures = new AtomicInteger();
+        final Thread[] tellers = new Thread[2];
+
+        for (int t = 0; t < tellers.length; t++) {
+            final String from = t == 0 ? "abc" : "def";
+            final String to = t == 0 ? "def" : "abc";
+            tellers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        try {
+                            proxy.transfer(from, to);
+                        } catch (final UncheckedTimeoutException e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            tellers[t].start();
+        }
+
+        for (final Thread teller : tellers) {
+            teller.join();
+        }
+
+        // opposite transfers lock their accounts in the same order
+        assertEquals(0, failures.get());
+        assertEquals(1000, proxy.getTransfers());
+    }
+
+    @Test
+    public void testAopProxy_CollectionKeys() throws Throwable {
+        final TransferTestService proxy = newTransferProxy();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Thread holder = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    proxy.hold(new String[] { "abc", "def" }, entered, release);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        holder.start();
+        assertTrue(entered.await(10, SECONDS));
+
+        try {
+            proxy.audit(Lists.newArrayList("ghi", "def"));
+            fail("Expected the held account to time out.");
+        } catch (final UncheckedTimeoutException e) {
+            // expected
+        }
+
+        assertEquals(2, proxy.audit(Lists.newArrayList("ghi", "jkl", "ghi")));
+
+        release.countDown();
+        holder.join();
+        assertEquals(2, proxy.audit(Lists.newArrayList("def", "abc")));
+    }
+
+    @Test
+    public void testAopProxy_MultipleKeys_WaitForZooKeeperLock() throws Throwable {
+        final TestingServer server = new TestingServer();
+        final CuratorFramework zkClient = newClient(server);
+        final CuratorFramework otherClient = newClient(server);
+
+        try {
+            final MoveTestService proxy = newMoveProxy(zkClient);
+            final MoveTestService otherProxy = newMoveProxy(otherClient);
+            final CountDownLatch entered = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+
+            // another process holds the destination, so the keys of two registries are locked one at a time
+            final Thread holder = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        otherProxy.hold("def", entered, release);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            };
+            holder.start();
+            assertTrue(entered.await(10, SECONDS));
+
+            final Thread releaser = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(300);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    release.countDown();
+                }
+            };
+            releaser.start();
+
+            // waits for the zookeeper lock within the timeout of the call, instead of a few nanoseconds of it
+            assertEquals("abc->def", proxy.move("abc", "def"));
+
+            releaser.join();
+            holder.join();
+        } finally {
+            otherClient.close();
+            zkClient.close();
+            server.close();
+        }
+    }
+
+    private static MoveTestService newMoveProxy(final CuratorFramework zkClient) {
+        final PositiveDuration timeout = PositiveDuration.standardSeconds(10);
+        final SynchronizerLockRegistryConfiguration[] locks = {
+                new SynchronizerLockRegistryConfiguration("from-lock-registry", null, new StringLockKeyFactory(),
+                        timeout),
+                new SynchronizerLockRegistryConfiguration("to-lock-registry", null, new StringLockKeyFactory(),
+                        timeout) };
+        final SynchronizerAdvice advice = new SynchronizerAdvice(locks,
+                LockRegistries.newInterProcessLockRegistryFactory(zkClient, SynchronizerLockingPolicy.STRICT,
+                        "/locks"));
+
+        final AspectJProxyFactory factory = new AspectJProxyFactory(new MoveTestService());
+        factory.addAspect(advice);
+        return factory.getProxy();
+    }
+
+    private static TransferTestService newTransferProxy() {
+        final AspectJProxyFactory factory = new AspectJProxyFactory(new TransferTestService());
+
+        final SynchronizerLockRegistryConfiguration[] locks = { new SynchronizerLockRegistryConfiguration(
+                "account-lock-registry", null, new StringLockKeyFactory(), new PositiveDuration(Duration.millis(50))) };
+        final SynchronizerAdvice advice = new SynchronizerAdvice(locks, LockRegistries.newLocalLockRegistryFactory());
+
+        factory.addAspect(advice);
+        return factory.getProxy();
+    }
+
     @Test
     public void testSynchronizerConfigEquality() {
         assertEquals(SynchronizerAdvice.keylessLocksConfiguration(), SynchronizerAdvice.keylessLocksConfiguration());
@@ -369,6 +930,183 @@ public class SynchronizerAdviceTest {
         }
     }
 
+    public static class UnknownRegistryTestService {
+        public String concat(@Synchronized("no-such-lock-registry") final String arg1, final String arg2) {
+            return arg1 + arg2;
+        }
+    }
+
+    public static class ReadWriteTestService {
+        public String read(@SynchronizedRead("rw-lock-registry") final String key, final CountDownLatch entered,
+                final CountDownLatch release) throws InterruptedException {
+            entered.countDown();
+            release.await();
+            return key;
+        }
+
+        public String read(@SynchronizedRead("rw-lock-registry") final String key) {
+            return key;
+        }
+
+        public String write(
+                @SynchronizedWrite(value = "rw-lock-registry", timeoutDuration = 50, timeoutUnits = MILLISECONDS) final String key) {
+            return key;
+        }
+    }
+
+    public static class FutureTestService {
+        public ListenableFuture<String> start(
+                @Synchronized(value = "future-lock-registry", timeoutDuration = 50, timeoutUnits = MILLISECONDS) final String key,
+                final ListenableFuture<String> future) {
+            return future;
+        }
+
+        @Synchronized(value = "future-keyless", timeoutDuration = 50, timeoutUnits = MILLISECONDS)
+        public ListenableFuture<String> start(final ListenableFuture<String> future) {
+            return future;
+        }
+    }
+
+    public static class FlightTestService {
+        private final AtomicInteger loads = new AtomicInteger();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public String load(@Synchronized(value = "flight-lock-registry", singleFlight = true) final String key)
+                throws InterruptedException {
+            entered.countDown();
+            release.await();
+            return key + loads.incrementAndGet();
+        }
+    }
+
+    public static class LedgerTestService {
+        private final List<String> ledger = Lists.newArrayList();
+        private final List<Integer> batchSizes = Lists.newArrayList();
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public long append(
+                @Synchronized(value = "ledger-lock-registry", combineWith = "appendAll") final String account,
+                final String event) {
+            throw new UnsupportedOperationException("Only called in batches.");
+        }
+
+        public List<Long> appendAll(final String account, final List<String> events) throws InterruptedException {
+            entered.countDown();
+            release.await();
+
+            final List<Long> positions = Lists.newArrayList();
+            batchSizes.add(events.size());
+
+            for (final String event : events) {
+                positions.add((long) ledger.size());
+                ledger.add(event);
+            }
+
+            return positions;
+        }
+    }
+
+    public static class TransferTestService {
+        private int transfers;
+
+        public void transfer(@Synchronized("account-lock-registry") final String from,
+                @Synchronized("account-lock-registry") final String to) {
+            transfers++;
+        }
+
+        public int getTransfers() {
+            return transfers;
+        }
+
+        public void hold(@Synchronized("account-lock-registry") final String[] accounts, final CountDownLatch entered,
+                final CountDownLatch release) throws InterruptedException {
+            entered.countDown();
+            release.await();
+        }
+
+        /**
+         * @return the number of distinct accounts audited
+         */
+        public int audit(@Synchronized("account-lock-registry") final List<String> accounts) {
+            return Sets.newHashSet(accounts).size();
+        }
+    }
+
+    public static class MoveTestService {
+        public String move(@Synchronized("from-lock-registry") final String from,
+                @Synchronized("to-lock-registry") final String to) {
+            return from + "->" + to;
+        }
+
+        public void hold(@Synchronized("to-lock-registry") final String key, final CountDownLatch entered,
+                final CountDownLatch release) throws InterruptedException {
+            entered.countDown();
+            release.await();
+        }
+    }
+
+    public static class CountTestService {
+        public int run(@Synchronized(value = "count-lock-registry", skipIfLocked = true) final int key,
+                final CountDownLatch entered, final CountDownLatch release) throws InterruptedException {
+            entered.countDown();
+            release.await();
+            return 1;
+        }
+
+        public int run(@Synchronized(value = "count-lock-registry", skipIfLocked = true) final int key) {
+            return 1;
+        }
+
+        public ListenableFuture<Long> start(
+                @Synchronized(value = "count-lock-registry", skipIfLocked = true) final long key) {
+            return Futures.immediateFuture(key);
+        }
+    }
+
+    public static class NestedTestService {
+        private NestedTestService self;
+        private CircuitBreakerMetrics registry;
+
+        public String run(
+                @Synchronized(value = "nested-lock-registry", timeoutDuration = 1, timeoutUnits = SECONDS) final String key)
+                throws Exception {
+            return self.start(key).get();
+        }
+
+        public ListenableFuture<String> start(
+                @Synchronized(value = "nested-lock-registry", timeoutDuration = 1, timeoutUnits = SECONDS) final String key) {
+            return Futures.immediateFuture(key);
+        }
+    }
+
+    public static class SkipTestService {
+        private final Map<String, Integer> runs = Maps.newConcurrentMap();
+
+        public int run(@Synchronized(value = "skip-lock-registry", skipIfLocked = true) final String key,
+                final CountDownLatch entered, final CountDownLatch release) throws InterruptedException {
+            entered.countDown();
+            release.await();
+            return 1;
+        }
+
+        public int run(@Synchronized(value = "skip-lock-registry", skipIfLocked = true) final String key) {
+            final Integer count = runs.get(key);
+            runs.put(key, count == null ? 1 : count + 1);
+            return 1;
+        }
+
+        public String name(@Synchronized(value = "skip-lock-registry", skipIfLocked = true) final String key) {
+            return key;
+        }
+
+        public ListenableFuture<String> start(
+                @Synchronized(value = "skip-lock-registry", skipIfLocked = true) final String key) {
+            return Futures.immediateFuture(key);
+        }
+    }
+
     public static interface MismatchingTestInterface {
         public String concat(@Synchronized("mismatching") String arg1, String arg2);
     }
@@ -0,0 +1,111 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static com.mass.core.Word.word;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.mass.concurrent.LockHandle;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+
+public class AsyncInterProcessLockTest {
+    private static final String lockPath = "/locks/async/777";
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+    private InterProcessLockRegistry<Integer> registry;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+        registry = new InterProcessLockRegistry<Integer>("/locks", word("async"), STRICT, zkClient,
+                new IntegerLockKeyFactory(), null);
+    }
+
+    @Test
+    public void testWaitsInLineWithoutAThread() throws Exception {
+        final LockHandle first = registry.acquireAsync(777, -1, null).get(10, TimeUnit.SECONDS);
+        final ListenableFuture<LockHandle> second = registry.acquireAsync(777, -1, null);
+
+        waitForLockNodes(2);
+        assertFalse(second.isDone());
+
+        // released by another thread than the one that acquired it
+        final Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                first.release();
+            }
+        };
+        releaser.start();
+        releaser.join();
+
+        second.get(10, TimeUnit.SECONDS).release();
+        assertEquals(0, getLockNodes().size());
+    }
+
+    @Test
+    public void testTimesOutBehindReentrantLock() throws Exception {
+        final ReentrantLock lock = registry.getLock(777);
+        lock.lock();
+
+        try {
+            registry.acquireAsync(777, 200, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+            fail("Expected a timeout.");
+        } catch (final ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        } finally {
+            lock.unlock();
+        }
+
+        waitForLockNodes(0);
+
+        final LockHandle handle = registry.acquireAsync(777, 0, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+        assertFalse(lock.tryLock(100, TimeUnit.MILLISECONDS));
+        handle.release();
+        assertTrue(lock.tryLock(10, TimeUnit.SECONDS));
+        lock.unlock();
+    }
+
+    @Test
+    public void testCancelGivesUpPlaceInLine() throws Exception {
+        final LockHandle first = registry.acquireAsync(777, -1, null).get(10, TimeUnit.SECONDS);
+        final ListenableFuture<LockHandle> second = registry.acquireAsync(777, -1, null);
+        waitForLockNodes(2);
+
+        assertTrue(second.cancel(false));
+        waitForLockNodes(1);
+
+        first.release();
+        first.release();
+        assertEquals(0, getLockNodes().size());
+    }
+
+    private List<String> getLockNodes() throws Exception {
+        return zkClient.getChildren().forPath(lockPath);
+    }
+
+    private void waitForLockNodes(final int count) throws Exception {
+        for (int i = 0; i < 500 && getLockNodes().size() != count; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(count, getLockNodes().size());
+    }
+}
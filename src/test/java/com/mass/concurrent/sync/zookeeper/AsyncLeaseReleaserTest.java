@@ -0,0 +1,98 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+import com.mass.concurrent.sync.zookeeper.BestEffortInterProcessReentrantLock.InterProcessLockFailObserver;
+
+public class AsyncLeaseReleaserTest {
+    private static final String lockPath = "/locks/async-release/777";
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+    }
+
+    @Test
+    public void testUnlockReleasesInTheBackground() throws Exception {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration(
+                "async-release", new IntegerLockKeyFactory());
+        definition.setAsyncRelease(true);
+        final InterProcessLockRegistry<Integer> registry = new InterProcessLockRegistry<Integer>("/locks", STRICT,
+                new InterProcessMutexFactory(zkClient, definition), definition, null);
+        final ReentrantLock lock = registry.getLock(777);
+
+        for (int i = 0; i < 3; i++) {
+            lock.lock();
+            lock.unlock();
+        }
+
+        // the remote mutex waits in line behind whatever hasn't been released yet
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zkClient, lockPath);
+        assertTrue(remoteMutex.acquire(5, TimeUnit.SECONDS));
+        assertEquals(1, zkClient.getChildren().forPath(lockPath).size());
+        remoteMutex.release();
+    }
+
+    @Test
+    public void testReleaseFailureGoesToObserver() throws Exception {
+        final InterProcessMutexLease lease = mock(InterProcessMutexLease.class);
+        when(lease.getBasePath()).thenReturn(lockPath);
+        doThrow(new IllegalStateException("boom")).when(lease).release("/lease");
+        final InterProcessLockFailObserver observer = mock(InterProcessLockFailObserver.class);
+
+        final AsyncLeaseReleaser releaser = new AsyncLeaseReleaser();
+        releaser.release(lease, "/lease", observer);
+
+        verify(observer, timeout(5000)).onInterProcessLockFail(any(RuntimeException.class));
+    }
+
+    @Test
+    public void testReleasersShareTheirThreads() throws Exception {
+        final InterProcessMutexLease lease = mock(InterProcessMutexLease.class);
+        final InterProcessLockFailObserver observer = mock(InterProcessLockFailObserver.class);
+
+        for (int i = 0; i < 50; i++) {
+            when(lease.getBasePath()).thenReturn(lockPath + i);
+            new AsyncLeaseReleaser().release(lease, "/lease", observer);
+        }
+
+        verify(lease, timeout(5000).times(50)).release("/lease");
+        assertTrue(countReleaserThreads() <= Runtime.getRuntime().availableProcessors());
+    }
+
+    private static int countReleaserThreads() {
+        int count = 0;
+
+        for (final Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("zookeeper-lease-releaser-")) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
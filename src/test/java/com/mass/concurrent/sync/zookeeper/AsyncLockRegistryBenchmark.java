@@ -0,0 +1,131 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static com.mass.core.Word.word;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.mass.concurrent.LockHandle;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+
+/**
+ * Compares the threads it takes to queue up lots of callers on a few contended zookeeper locks, with blocking
+ * getLock().lock() calls, and with acquireAsync. Each caller holds its lock for a moment. The async callers "work" on a
+ * scheduler, so the only threads they take are curator's and the scheduler's. This is a plain main() program, not a
+ * unit test.
+ * 
+ * @author kmassaroni
+ */
+public class AsyncLockRegistryBenchmark {
+    private static final int CALLERS = 200;
+    private static final int KEYS = 4;
+    private static final long HOLD_MILLIS = 2;
+
+    public static void main(final String[] args) throws Exception {
+        final TestingServer server = new TestingServer();
+        final CuratorFramework zkClient = CuratorFrameworkFactory.newClient(server.getConnectString(),
+                new RetryOneTime(100));
+        zkClient.start();
+
+        try {
+            final InterProcessLockRegistry<Integer> registry = new InterProcessLockRegistry<Integer>("/benchmark",
+                    word("async"), STRICT, zkClient, new IntegerLockKeyFactory(), null);
+
+            for (int round = 0; round < 3; round++) {
+                runBlocking(registry);
+                runAsync(registry);
+            }
+        } finally {
+            zkClient.close();
+            server.close();
+        }
+    }
+
+    private static void runBlocking(final InterProcessLockRegistry<Integer> registry) throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final int baseline = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+        final long startTime = System.nanoTime();
+
+        for (int i = 0; i < CALLERS; i++) {
+            final int key = i % KEYS;
+
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final ReentrantLock lock = registry.getLock(key);
+                    lock.lock();
+
+                    try {
+                        Thread.sleep(HOLD_MILLIS);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+        report("blocking", startTime, threads.getPeakThreadCount() - baseline);
+    }
+
+    private static void runAsync(final InterProcessLockRegistry<Integer> registry) throws Exception {
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final int baseline = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        final ScheduledExecutorService work = Executors.newSingleThreadScheduledExecutor();
+        final CountDownLatch done = new CountDownLatch(CALLERS);
+        final long startTime = System.nanoTime();
+
+        for (int i = 0; i < CALLERS; i++) {
+            Futures.addCallback(registry.acquireAsync(i % KEYS, -1, null), new FutureCallback<LockHandle>() {
+                @Override
+                public void onSuccess(final LockHandle handle) {
+                    work.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            handle.release();
+                            done.countDown();
+                        }
+                    }, HOLD_MILLIS, TimeUnit.MILLISECONDS);
+                }
+
+                @Override
+                public void onFailure(final Throwable failure) {
+                    failure.printStackTrace();
+                    done.countDown();
+                }
+            });
+        }
+
+        done.await(10, TimeUnit.MINUTES);
+        work.shutdown();
+        report("async", startTime, threads.getPeakThreadCount() - baseline);
+    }
+
+    private static void report(final String name, final long startTime, final int extraThreads) {
+        final long elapsed = System.nanoTime() - startTime;
+        System.out.println(String.format("%-8s %d callers on %d keys: %6d ms, %4d extra threads at peak", name,
+                CALLERS, KEYS, TimeUnit.NANOSECONDS.toMillis(elapsed), extraThreads));
+    }
+}
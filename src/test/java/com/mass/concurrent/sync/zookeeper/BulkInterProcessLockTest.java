@@ -0,0 +1,72 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static com.mass.core.Word.word;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.mass.concurrent.LockHandle;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+
+public class BulkInterProcessLockTest {
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+    private InterProcessLockRegistry<Integer> registry;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+        registry = new InterProcessLockRegistry<Integer>("/locks", word("bulk"), STRICT, zkClient,
+                new IntegerLockKeyFactory(), null);
+    }
+
+    @Test
+    public void testAcquireAll() throws Exception {
+        final LockHandle handle = registry.acquireAll(Arrays.asList(1, 2, 3, 2), 5, TimeUnit.SECONDS);
+        assertNotNull(handle);
+
+        for (final int key : new int[] { 1, 2, 3 }) {
+            assertEquals(1, zkClient.getChildren().forPath("/locks/bulk/" + key).size());
+        }
+
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zkClient, "/locks/bulk/2");
+        assertFalse(remoteMutex.acquire(50, TimeUnit.MILLISECONDS));
+
+        handle.release();
+
+        for (final int key : new int[] { 1, 2, 3 }) {
+            assertTrue(zkClient.getChildren().forPath("/locks/bulk/" + key).isEmpty());
+        }
+    }
+
+    @Test
+    public void testAcquireAllTimesOut() throws Exception {
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zkClient, "/locks/bulk/2");
+        remoteMutex.acquire();
+
+        assertNull(registry.acquireAll(Arrays.asList(1, 2), 200, TimeUnit.MILLISECONDS));
+
+        // none of the nodes are left behind, not even the ones that got their locks
+        assertTrue(zkClient.getChildren().forPath("/locks/bulk/1").isEmpty());
+        assertEquals(1, zkClient.getChildren().forPath("/locks/bulk/2").size());
+
+        remoteMutex.release();
+        final LockHandle handle = registry.acquireAll(Arrays.asList(1, 2), 5, TimeUnit.SECONDS);
+        assertNotNull(handle);
+        handle.release();
+    }
+}
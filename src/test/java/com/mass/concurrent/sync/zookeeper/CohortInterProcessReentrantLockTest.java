@@ -0,0 +1,155 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CohortInterProcessReentrantLockTest {
+    private static final String lockPath = "/locks/cohort/777";
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+    }
+
+    @Test
+    public void testHandoffToLocalWaiter() throws Exception {
+        final CohortInterProcessReentrantLock lock = newLock(8);
+
+        lock.lock();
+        final List<String> leaseNodes = getLockNodes();
+        assertEquals(1, leaseNodes.size());
+
+        final Waiter waiter = new Waiter(lock);
+        waiter.start();
+        waitForQueuedThreads(lock, 1);
+
+        lock.unlock();
+        assertTrue(waiter.locked.await(10, TimeUnit.SECONDS));
+
+        // the waiter got the same zookeeper lock node, without another round trip
+        assertEquals(leaseNodes, getLockNodes());
+        assertEquals(1, lock.getHandoffCount());
+
+        waiter.release.countDown();
+        waiter.join();
+
+        assertFalse(lock.hasLease());
+        assertEquals(0, getLockNodes().size());
+    }
+
+    @Test
+    public void testReleaseAfterMaxHandoffs() throws Exception {
+        final CohortInterProcessReentrantLock lock = newLock(1);
+
+        lock.lock();
+        final List<String> firstLeaseNodes = getLockNodes();
+
+        final Waiter first = new Waiter(lock);
+        first.start();
+        waitForQueuedThreads(lock, 1);
+
+        final Waiter second = new Waiter(lock);
+        second.start();
+        waitForQueuedThreads(lock, 2);
+
+        lock.unlock();
+        assertTrue(first.locked.await(10, TimeUnit.SECONDS));
+        assertEquals(firstLeaseNodes, getLockNodes());
+
+        // that was the one handoff it gets, so the second waiter has to take a new turn on zookeeper
+        first.release.countDown();
+        assertTrue(second.locked.await(10, TimeUnit.SECONDS));
+        assertEquals(1, getLockNodes().size());
+        assertNotEquals(firstLeaseNodes, getLockNodes());
+        assertEquals(1, lock.getHandoffCount());
+
+        second.release.countDown();
+        first.join();
+        second.join();
+        assertEquals(0, getLockNodes().size());
+    }
+
+    @Test
+    public void testExcludesCuratorMutex() throws Exception {
+        final CohortInterProcessReentrantLock lock = newLock(8);
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zooKeeper.newClient(), lockPath);
+
+        lock.lock();
+
+        try {
+            assertFalse(remoteMutex.acquire(100, TimeUnit.MILLISECONDS));
+        } finally {
+            lock.unlock();
+        }
+
+        assertTrue(remoteMutex.acquire(1, TimeUnit.SECONDS));
+
+        try {
+            assertFalse(lock.tryLock(100, TimeUnit.MILLISECONDS));
+        } finally {
+            remoteMutex.release();
+        }
+
+        assertTrue(lock.tryLock(1, TimeUnit.SECONDS));
+        lock.unlock();
+    }
+
+    private CohortInterProcessReentrantLock newLock(final int maxHandoffs) {
+        return new CohortInterProcessReentrantLock(new InterProcessMutexLease(zkClient, lockPath), null, true,
+                maxHandoffs);
+    }
+
+    private List<String> getLockNodes() throws Exception {
+        return zkClient.getChildren().forPath(lockPath);
+    }
+
+    private static void waitForQueuedThreads(final CohortInterProcessReentrantLock lock, final int count)
+            throws InterruptedException {
+        for (int i = 0; i < 1000 && lock.getQueueLength() < count; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(count, lock.getQueueLength());
+    }
+
+    private static class Waiter extends Thread {
+        private final CohortInterProcessReentrantLock lock;
+        private final CountDownLatch locked = new CountDownLatch(1);
+        private final CountDownLatch release = new CountDownLatch(1);
+
+        public Waiter(final CohortInterProcessReentrantLock lock) {
+            this.lock = lock;
+        }
+
+        @Override
+        public void run() {
+            lock.lock();
+
+            try {
+                locked.countDown();
+                release.await();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+import com.google.common.base.Function;
+import com.mass.concurrent.DetachableLock;
+import com.mass.concurrent.LockHandle;
+
+public class DetachableReentrantLockTest {
+    @Test
+    public void testDetachedLockExcludesEverybody() throws Exception {
+        final DetachableReentrantLock lock = new DetachableReentrantLock();
+
+        lock.lock();
+        final LockHandle handle = lock.detach();
+
+        assertFalse(lock.isHeldByCurrentThread());
+        assertTrue(lock.isLocked());
+        assertFalse(lock.tryLock());
+        assertFalse(lock.tryLock(50, TimeUnit.MILLISECONDS));
+
+        final CountDownLatch locked = new CountDownLatch(1);
+        final Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                lock.lock();
+                locked.countDown();
+                lock.unlock();
+            }
+        };
+        waiter.start();
+        assertFalse(locked.await(50, TimeUnit.MILLISECONDS));
+
+        // released by another thread than the one that detached it
+        final Thread releaser = new Thread() {
+            @Override
+            public void run() {
+                handle.release();
+            }
+        };
+        releaser.start();
+        releaser.join();
+
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+        waiter.join();
+
+        handle.release();
+        assertTrue(lock.tryLock());
+        lock.unlock();
+        assertFalse(lock.isLocked());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testDetachReentrantHold() {
+        final DetachableReentrantLock lock = new DetachableReentrantLock();
+        lock.lock();
+        lock.lock();
+        lock.detach();
+    }
+
+    @Test
+    public void testDetachedHoldKeepsRefCountedEntry() {
+        final RefCountedLockTable<String, ReentrantLock> table = new RefCountedLockTable<String, ReentrantLock>(
+                new Function<String, ReentrantLock>() {
+                    @Override
+                    public ReentrantLock apply(final String key) {
+                        return new DetachableReentrantLock();
+                    }
+                });
+        final ReentrantLock lock = table.getLock("a", RefCountedLockTable.REENTRANT);
+
+        lock.lock();
+        final LockHandle handle = ((DetachableLock) lock).detach();
+        assertEquals(1, table.size());
+        assertFalse(table.getLock("a", RefCountedLockTable.REENTRANT).tryLock());
+
+        handle.release();
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testDetachedHoldKeepsLongLockEntry() {
+        final LongLockTable table = new LongLockTable(LongLockRegistry.localLockFactory(), 0);
+        final ReentrantLock lock = table.getLock(42L);
+
+        lock.lock();
+        final LockHandle handle = ((DetachableLock) lock).detach();
+        assertEquals(1, table.activeSize());
+
+        // idle locks of other keys are dropped, but not this one
+        table.getLock(43L).lock();
+        table.getLock(43L).unlock();
+        assertFalse(table.getLock(42L).tryLock());
+
+        handle.release();
+        handle.release();
+        assertEquals(0, table.activeSize());
+        assertTrue(table.getLock(42L).tryLock());
+        table.getLock(42L).unlock();
+    }
+}
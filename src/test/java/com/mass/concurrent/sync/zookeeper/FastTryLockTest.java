@@ -0,0 +1,115 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+
+public class FastTryLockTest {
+    private static final String lockPath = "/locks/fast/777";
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+    }
+
+    @Test
+    public void testTryLockTakesWellKnownNode() throws Exception {
+        final ReentrantLock lock = newRegistry(0).getLock(777);
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zkClient, lockPath);
+
+        assertTrue(lock.tryLock());
+        assertEquals(Collections.singletonList("lock-"), zkClient.getChildren().forPath(lockPath));
+
+        // reentrant locks go with the node the thread already has
+        lock.lock();
+        assertFalse(remoteMutex.acquire(50, TimeUnit.MILLISECONDS));
+        lock.unlock();
+        assertEquals(1, zkClient.getChildren().forPath(lockPath).size());
+
+        lock.unlock();
+        assertTrue(zkClient.getChildren().forPath(lockPath).isEmpty());
+
+        // a sequential node that holds the lock turns the try down, and the try leaves nothing behind
+        remoteMutex.acquire();
+        assertFalse(zooKeeper.tryLockElsewhere(newRegistry(0).getLock(777)));
+        assertEquals(1, zkClient.getChildren().forPath(lockPath).size());
+        remoteMutex.release();
+    }
+
+    @Test
+    public void testZeroWaitTimedTryLockTakesWellKnownNode() throws Exception {
+        final ReentrantLock lock = newRegistry(0).getLock(777);
+
+        // a method that's skipped when it's locked tries with no wait, rather than with tryLock()
+        assertTrue(lock.tryLock(0, TimeUnit.MILLISECONDS));
+        assertEquals(Collections.singletonList("lock-"), zkClient.getChildren().forPath(lockPath));
+        lock.unlock();
+        assertTrue(zkClient.getChildren().forPath(lockPath).isEmpty());
+    }
+
+    @Test
+    public void testBlockingAcquirersWaitBehindTry() throws Exception {
+        assertBlockingAcquirersWaitBehindTry(newRegistry(0).getLock(777));
+    }
+
+    @Test
+    public void testBlockingAcquirersWaitBehindCohortTry() throws Exception {
+        assertBlockingAcquirersWaitBehindTry(newRegistry(4).getLock(777));
+    }
+
+    private void assertBlockingAcquirersWaitBehindTry(final ReentrantLock lock) throws Exception {
+        assertTrue(lock.tryLock());
+        assertFalse(zooKeeper.tryLockElsewhere(newRegistry(0).getLock(777)));
+
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zkClient, lockPath);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<Boolean> remote = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final boolean acquired = remoteMutex.acquire(5, TimeUnit.SECONDS);
+                    remoteMutex.release();
+                    return acquired;
+                }
+            });
+
+            Thread.sleep(100);
+            assertFalse(remote.isDone());
+
+            lock.unlock();
+            assertTrue(remote.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private InterProcessLockRegistry<Integer> newRegistry(final int cohortHandoffs) {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration("fast",
+                new IntegerLockKeyFactory());
+        definition.setCohortHandoffs(cohortHandoffs);
+        return zooKeeper.newRegistry(definition);
+    }
+}
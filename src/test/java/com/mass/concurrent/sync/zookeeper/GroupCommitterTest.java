@@ -0,0 +1,123 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+
+public class GroupCommitterTest {
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        zkClient = zooKeeper.getClient();
+        zkClient.create().creatingParentsIfNeeded().forPath("/group");
+        executor = Executors.newFixedThreadPool(8);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentOpsShareCommits() throws Exception {
+        // a long tick, so the creates of all the threads pile up
+        final GroupCommitter committer = new GroupCommitter(zkClient, 20000);
+        final List<Future<String>> creates = Lists.newArrayList();
+
+        for (int i = 0; i < 8; i++) {
+            creates.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return committer.create("/group/lock-");
+                }
+            }));
+        }
+
+        for (final Future<String> create : creates) {
+            create.get(5, TimeUnit.SECONDS);
+        }
+
+        assertEquals(8, zkClient.getChildren().forPath("/group").size());
+        assertEquals(8, committer.getOpCount());
+        assertTrue(committer.getCommitCount() < 8);
+
+        for (final Future<String> create : creates) {
+            committer.delete(create.get());
+        }
+
+        assertTrue(zkClient.getChildren().forPath("/group").isEmpty());
+    }
+
+    @Test
+    public void testFailedTransactionFallsBackToEachOp() throws Exception {
+        final GroupCommitter committer = new GroupCommitter(zkClient, 20000);
+
+        final Future<String> missingParent = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return committer.create("/group/missing/lock-");
+            }
+        });
+        final Future<String> missingNode = executor.submit(new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                committer.delete("/group/gone");
+                return null;
+            }
+        });
+
+        // neither op can go in a transaction, but each one still works out by itself
+        assertTrue(missingParent.get(5, TimeUnit.SECONDS).startsWith("/group/missing/lock-"));
+        assertNull(missingNode.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testGroupCommittedLocks() throws Exception {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration("group",
+                new IntegerLockKeyFactory());
+        definition.setGroupCommitTickMicros(500);
+        final InterProcessLockRegistry<Integer> registry = new InterProcessLockRegistry<Integer>("/locks", STRICT,
+                new InterProcessMutexFactory(zkClient, definition), definition, null);
+        final ReentrantLock lock = registry.getLock(777);
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zkClient, "/locks/group/777");
+
+        lock.lock();
+
+        try {
+            assertEquals(1, zkClient.getChildren().forPath("/locks/group/777").size());
+            assertFalse(remoteMutex.acquire(50, TimeUnit.MILLISECONDS));
+        } finally {
+            lock.unlock();
+        }
+
+        assertTrue(zkClient.getChildren().forPath("/locks/group/777").isEmpty());
+        assertTrue(remoteMutex.acquire(1, TimeUnit.SECONDS));
+        remoteMutex.release();
+    }
+}
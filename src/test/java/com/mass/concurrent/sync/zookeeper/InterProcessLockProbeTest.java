@@ -0,0 +1,68 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+import com.mass.core.PositiveDuration;
+
+public class InterProcessLockProbeTest {
+    private static final String lockPath = "/locks/probe/777";
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+    }
+
+    @Test
+    public void testProbeSeesRemoteMutex() throws Exception {
+        final InterProcessLockRegistry<Integer> registry = newRegistry(null);
+        assertFalse(registry.isLocked(777));
+
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zkClient, lockPath);
+        remoteMutex.acquire();
+        assertTrue(registry.isLocked(777));
+        assertFalse(registry.isLocked(778));
+
+        remoteMutex.release();
+        assertFalse(registry.isLocked(777));
+    }
+
+    @Test
+    public void testProbeIgnoresLingeringLease() throws Exception {
+        final InterProcessLockRegistry<Integer> registry = newRegistry(PositiveDuration.standardSeconds(60));
+        final ReentrantLock lock = registry.getLock(777);
+
+        lock.lock();
+        assertTrue(registry.isLocked(777));
+        lock.unlock();
+
+        // the lease is still there, but it's this JVM's to take back
+        assertEquals(1, zkClient.getChildren().forPath(lockPath).size());
+        assertFalse(registry.isLocked(777));
+    }
+
+    private InterProcessLockRegistry<Integer> newRegistry(final PositiveDuration stickyLinger) {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration("probe",
+                new IntegerLockKeyFactory());
+        definition.setStickyLinger(stickyLinger);
+        return new InterProcessLockRegistry<Integer>("/locks", STRICT, new InterProcessMutexFactory(zkClient),
+                definition, null);
+    }
+}
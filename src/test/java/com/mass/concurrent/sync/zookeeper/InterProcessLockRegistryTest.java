@@ -26,7 +26,9 @@ public class InterProcessLockRegistryTest {
                 word("mylocks"), STRICT, mockMutexFactory, new IntegerLockKeyFactory(),
                 PositiveDuration.standardSeconds(5));
 
-        registry.getLock(777);
+        // the mutex is only built once somebody locks the key
+        registry.getLock(777).lock();
+        registry.getLock(777).unlock();
 
         verify(mockMutexFactory, times(1)).newMutex(Mockito.eq(expectedMutexPath));
     }
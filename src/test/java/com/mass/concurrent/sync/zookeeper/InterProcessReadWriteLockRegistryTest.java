@@ -0,0 +1,178 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static com.mass.core.Word.word;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+import com.mass.core.PositiveDuration;
+
+public class InterProcessReadWriteLockRegistryTest {
+    private static final String leasePath = "/locks/rw/777";
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+    private CuratorFramework remoteZkClient;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+        remoteZkClient = zooKeeper.newClient();
+    }
+
+    @Test
+    public void testReadersShareOneLease() throws Exception {
+        final InterProcessReadWriteLockRegistry<Integer> registry = newRegistry(zkClient);
+        final ReadWriteLock lock = registry.getReadWriteLock(777);
+        final CountDownLatch locked = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        final Thread reader = new Thread() {
+            @Override
+            public void run() {
+                final ReadWriteLock lock = registry.getReadWriteLock(777);
+                lock.readLock().lock();
+
+                try {
+                    locked.countDown();
+                    done.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    lock.readLock().unlock();
+                }
+            }
+        };
+        reader.start();
+        assertTrue(locked.await(10, TimeUnit.SECONDS));
+
+        assertTrue(lock.readLock().tryLock(1, TimeUnit.SECONDS));
+        assertEquals(1, getLeaseNodes().size());
+
+        // the other thread leaves first, and this one releases the shared lease
+        done.countDown();
+        reader.join();
+        assertEquals(1, getLeaseNodes().size());
+
+        lock.readLock().unlock();
+        assertEquals(0, getLeaseNodes().size());
+        assertEquals(0, registry.getLiveLockCount());
+    }
+
+    @Test
+    public void testRemoteReaderExcludesWriter() throws Exception {
+        final ReadWriteLock lock = newRegistry(zkClient).getReadWriteLock(777);
+        final ReadWriteLock remoteLock = newRegistry(remoteZkClient).getReadWriteLock(777);
+
+        remoteLock.readLock().lock();
+
+        try {
+            assertTrue(lock.readLock().tryLock(1, TimeUnit.SECONDS));
+            lock.readLock().unlock();
+
+            assertFalse(lock.writeLock().tryLock(100, TimeUnit.MILLISECONDS));
+        } finally {
+            remoteLock.readLock().unlock();
+        }
+
+        assertTrue(lock.writeLock().tryLock(1, TimeUnit.SECONDS));
+
+        try {
+            assertFalse(remoteLock.readLock().tryLock(100, TimeUnit.MILLISECONDS));
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        assertEquals(0, getLeaseNodes().size());
+    }
+
+    @Test
+    public void testWriteLeaseCoversWritersReads() throws Exception {
+        final ReadWriteLock lock = newRegistry(zkClient).getReadWriteLock(777);
+
+        lock.writeLock().lock();
+        lock.readLock().lock();
+        assertEquals(1, getLeaseNodes().size());
+
+        // downgrade: the write lease stays until the writer lets go of its read lock too
+        lock.writeLock().unlock();
+        assertEquals(1, getLeaseNodes().size());
+
+        lock.readLock().unlock();
+        assertEquals(0, getLeaseNodes().size());
+    }
+
+    @Test
+    public void testFactoryRejectsOptionsThatReadWriteLocksIgnore() {
+        final InterProcessLockRegistryFactory factory = new InterProcessLockRegistryFactory(zkClient, STRICT, "/locks");
+
+        final SynchronizerLockRegistryConfiguration cohort = newDefinition();
+        cohort.setCohortHandoffs(4);
+        assertRejected(factory, cohort);
+
+        final SynchronizerLockRegistryConfiguration groupCommit = newDefinition();
+        groupCommit.setGroupCommitTickMicros(500);
+        assertRejected(factory, groupCommit);
+
+        final SynchronizerLockRegistryConfiguration asyncRelease = newDefinition();
+        asyncRelease.setAsyncRelease(true);
+        assertRejected(factory, asyncRelease);
+
+        final SynchronizerLockRegistryConfiguration lean = newDefinition();
+        lean.setLeanLocks(true);
+        assertRejected(factory, lean);
+
+        final SynchronizerLockRegistryConfiguration hashed = newDefinition();
+        hashed.setHashBuckets(16);
+        assertRejected(factory, hashed);
+
+        final SynchronizerLockRegistryConfiguration circuit = newDefinition();
+        circuit.setCircuitProbeInterval(PositiveDuration.standardSeconds(1));
+        assertRejected(factory, circuit);
+
+        final SynchronizerLockRegistryConfiguration reaped = newDefinition();
+        reaped.setLockPathReapInterval(PositiveDuration.standardSeconds(60));
+        assertNotNull(factory.newReadWriteLockRegistry(reaped).getReadWriteLock(777));
+        factory.close();
+    }
+
+    private static SynchronizerLockRegistryConfiguration newDefinition() {
+        return new SynchronizerLockRegistryConfiguration("rw", new IntegerLockKeyFactory());
+    }
+
+    private static void assertRejected(final InterProcessLockRegistryFactory factory,
+            final SynchronizerLockRegistryConfiguration definition) {
+        try {
+            factory.newReadWriteLockRegistry(definition);
+            fail("Read/write locks ignore these options: " + definition);
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private List<String> getLeaseNodes() throws Exception {
+        return zkClient.getChildren().forPath(leasePath);
+    }
+
+    private static InterProcessReadWriteLockRegistry<Integer> newRegistry(final CuratorFramework zkClient) {
+        return new InterProcessReadWriteLockRegistry<Integer>("/locks", word("rw"), STRICT, zkClient,
+                new IntegerLockKeyFactory(), null);
+    }
+}
@@ -0,0 +1,175 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.locks.InterProcessMutex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+import com.mass.core.PositiveDuration;
+
+public class LeanInterProcessReentrantLockTest {
+    private static final String lockPath = "/locks/lean/777";
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+    private InterProcessMutexFactory mutexFactory;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+        mutexFactory = new InterProcessMutexFactory(zkClient, newLeanDefinition());
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testLeanLock() throws Exception {
+        final ReentrantLock lock = newRegistry().getLock(777);
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zkClient, lockPath);
+
+        lock.lock();
+        lock.lock();
+        assertEquals(1, zkClient.getChildren().forPath(lockPath).size());
+        assertFalse(remoteMutex.acquire(50, TimeUnit.MILLISECONDS));
+
+        lock.unlock();
+        assertEquals(1, zkClient.getChildren().forPath(lockPath).size());
+        lock.unlock();
+        assertTrue(zkClient.getChildren().forPath(lockPath).isEmpty());
+
+        remoteMutex.acquire();
+        assertFalse(zooKeeper.tryLockElsewhere(lock));
+        remoteMutex.release();
+    }
+
+    @Test
+    public void testFactoryRejectsOptionsThatLeanLocksIgnore() {
+        final InterProcessLockRegistryFactory factory = new InterProcessLockRegistryFactory(zkClient, STRICT, "/locks");
+
+        final SynchronizerLockRegistryConfiguration cohort = newLeanDefinition();
+        cohort.setCohortHandoffs(4);
+        assertRejected(factory, cohort);
+
+        final SynchronizerLockRegistryConfiguration sticky = newLeanDefinition();
+        sticky.setStickyLinger(PositiveDuration.standardSeconds(1));
+        assertRejected(factory, sticky);
+
+        final SynchronizerLockRegistryConfiguration groupCommit = newLeanDefinition();
+        groupCommit.setGroupCommitTickMicros(500);
+        assertRejected(factory, groupCommit);
+
+        final SynchronizerLockRegistryConfiguration asyncRelease = newLeanDefinition();
+        asyncRelease.setAsyncRelease(true);
+        assertRejected(factory, asyncRelease);
+
+        assertTrue(factory.newLockRegistry(newLeanDefinition()).getLock(777) != null);
+    }
+
+    private static SynchronizerLockRegistryConfiguration newLeanDefinition() {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration("lean",
+                new IntegerLockKeyFactory());
+        definition.setLeanLocks(true);
+        return definition;
+    }
+
+    private static void assertRejected(final InterProcessLockRegistryFactory factory,
+            final SynchronizerLockRegistryConfiguration definition) {
+        try {
+            factory.newLockRegistry(definition);
+            fail("Lean locks ignore these options: " + definition);
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testWaitersShareWatcher() throws Exception {
+        final InterProcessMutex remoteMutex = new InterProcessMutex(zkClient, lockPath);
+        remoteMutex.acquire();
+
+        // two registries on the same mutex factory, so both waiters share its dispatcher
+        final List<Future<Boolean>> waiters = Lists.newArrayList();
+
+        for (int i = 0; i < 2; i++) {
+            final ReentrantLock lock = newRegistry().getLock(777);
+
+            waiters.add(executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final boolean locked = lock.tryLock(5, TimeUnit.SECONDS);
+
+                    if (locked) {
+                        lock.unlock();
+                    }
+
+                    return locked;
+                }
+            }));
+        }
+
+        while (zkClient.getChildren().forPath(lockPath).size() < 3) {
+            Thread.sleep(10);
+        }
+
+        // each waiter watches the node ahead of it, with the one watcher
+        Thread.sleep(100);
+        assertEquals(2, mutexFactory.getDispatcher().getWatchedCount());
+
+        remoteMutex.release();
+
+        for (final Future<Boolean> waiter : waiters) {
+            assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        }
+
+        assertEquals(0, mutexFactory.getDispatcher().getWatchedCount());
+        assertTrue(zkClient.getChildren().forPath(lockPath).isEmpty());
+    }
+
+    @Test
+    public void testDispatcherSharesLatch() throws Exception {
+        final WatcherDispatcher dispatcher = new WatcherDispatcher();
+        zkClient.create().creatingParentsIfNeeded().forPath(lockPath);
+
+        final CountDownLatch latch = dispatcher.watch(zkClient, lockPath);
+        assertSame(latch, dispatcher.watch(zkClient, lockPath));
+        assertEquals(1, dispatcher.getWatchedCount());
+
+        zkClient.delete().forPath(lockPath);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getWatchedCount());
+        assertNull(dispatcher.watch(zkClient, lockPath));
+    }
+
+    private InterProcessLockRegistry<Integer> newRegistry() {
+        return zooKeeper.newRegistry(mutexFactory, newLeanDefinition());
+    }
+}
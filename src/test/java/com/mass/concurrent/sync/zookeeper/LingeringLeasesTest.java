@@ -0,0 +1,122 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LingeringLeasesTest {
+    private static final String lockPath = "/locks/sticky/777";
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+    private CuratorFramework remoteZkClient;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+        remoteZkClient = zooKeeper.newClient();
+    }
+
+    @Test
+    public void testStickyReentry() throws Exception {
+        final LingeringLeases lingering = new LingeringLeases(300);
+        final CohortInterProcessReentrantLock lock = newStickyLock(zkClient, lingering);
+
+        lock.lock();
+        final List<String> leaseNodes = getLockNodes();
+        lock.unlock();
+
+        // the lease lingers, and the next lock takes it back
+        assertEquals(leaseNodes, getLockNodes());
+        assertEquals(1, lingering.size());
+
+        lock.lock();
+        assertEquals(leaseNodes, getLockNodes());
+        lock.unlock();
+
+        assertEquals(1, lingering.getHitCount());
+        assertEquals(1, lingering.getMissCount());
+        assertEquals(0.5, lingering.getHitRatio(), 0.001);
+
+        waitForLockNodes(0);
+        assertEquals(0, lingering.size());
+    }
+
+    @Test
+    public void testLingeringLeaseRevokedByStickyPeer() throws Exception {
+        final LingeringLeases lingering = new LingeringLeases(TimeUnit.MINUTES.toMillis(1));
+        final CohortInterProcessReentrantLock lock = newStickyLock(zkClient, lingering);
+        final CohortInterProcessReentrantLock remoteLock = newStickyLock(remoteZkClient,
+                new LingeringLeases(TimeUnit.MINUTES.toMillis(1)));
+
+        lock.lock();
+        lock.unlock();
+        assertEquals(1, lingering.size());
+
+        // the remote lock asks for it, instead of waiting out the linger window
+        assertTrue(remoteLock.tryLock(10, TimeUnit.SECONDS));
+        remoteLock.unlock();
+        assertEquals(0, lingering.size());
+    }
+
+    @Test
+    public void testHeldLeaseRevokedByStickyPeer() throws Exception {
+        final LingeringLeases lingering = new LingeringLeases(TimeUnit.MINUTES.toMillis(1));
+        final CohortInterProcessReentrantLock lock = newStickyLock(zkClient, lingering);
+        final CohortInterProcessReentrantLock remoteLock = newStickyLock(remoteZkClient,
+                new LingeringLeases(TimeUnit.MINUTES.toMillis(1)));
+        final CountDownLatch remoteLocked = new CountDownLatch(1);
+
+        lock.lock();
+        final List<String> leaseNodes = getLockNodes();
+
+        final Thread remote = new Thread() {
+            @Override
+            public void run() {
+                remoteLock.lock();
+                remoteLocked.countDown();
+                remoteLock.unlock();
+            }
+        };
+        remote.start();
+
+        waitForLockNodes(2);
+        for (int i = 0; i < 500 && !lingering.isRevoked(lockPath + "/" + leaseNodes.get(0)); i++) {
+            Thread.sleep(10);
+        }
+
+        // asked to give it up while it was held, so it doesn't linger
+        lock.unlock();
+        assertTrue(remoteLocked.await(10, TimeUnit.SECONDS));
+        assertEquals(0, lingering.size());
+        remote.join();
+    }
+
+    private static CohortInterProcessReentrantLock newStickyLock(final CuratorFramework zkClient,
+            final LingeringLeases lingering) {
+        return new CohortInterProcessReentrantLock(new InterProcessMutexLease(zkClient, lockPath, true), null, true,
+                0, lingering);
+    }
+
+    private List<String> getLockNodes() throws Exception {
+        return zkClient.getChildren().forPath(lockPath);
+    }
+
+    private void waitForLockNodes(final int count) throws Exception {
+        for (int i = 0; i < 500 && getLockNodes().size() != count; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(count, getLockNodes().size());
+    }
+}
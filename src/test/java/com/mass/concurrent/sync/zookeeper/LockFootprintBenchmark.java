@@ -0,0 +1,83 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.core.Word.word;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+
+/**
+ * Compares the heap footprint per key of the zookeeper locks backed by curator mutexes with the lean locks: per idle
+ * lock, that's built but not held, and then what holding it adds. The lock registries only keep the locks of the keys
+ * in use, so the idle footprint is what a key costs while threads are lined up for it. This is a plain main() program,
+ * not a unit test, and it runs against an in-process zookeeper.
+ *
+ * @author kmassaroni
+ */
+public class LockFootprintBenchmark {
+    private static final int IDLE_KEYS = 100000;
+    private static final int ACTIVE_KEYS = 2000;
+
+    public static void main(final String[] args) throws Exception {
+        final TestingServer server = new TestingServer();
+        final CuratorFramework zkClient = CuratorFrameworkFactory.newClient(server.getConnectString(),
+                new RetryOneTime(100));
+        zkClient.start();
+        final SynchronizerLockRegistryConfiguration lean = new SynchronizerLockRegistryConfiguration("lean",
+                new IntegerLockKeyFactory());
+        lean.setLeanLocks(true);
+
+        try {
+            for (int round = 0; round < 2; round++) {
+                run("curator mutex", new StrictInterProcessReentrantLockRegistry("/footprint", word("mutex"),
+                        new InterProcessMutexFactory(zkClient)));
+                run("lean", new StrictInterProcessReentrantLockRegistry("/footprint", new InterProcessMutexFactory(
+                        zkClient, lean), lean));
+            }
+        } finally {
+            zkClient.close();
+            server.close();
+        }
+    }
+
+    private static void run(final String name, final InterProcessReentrantLockRegistry registry) throws Exception {
+        final ReentrantLock[] locks = new ReentrantLock[IDLE_KEYS];
+        final long start = usedHeap();
+
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = registry.newLock(Integer.toString(i));
+        }
+
+        final long idle = usedHeap();
+
+        for (int i = 0; i < ACTIVE_KEYS; i++) {
+            locks[i].lock();
+        }
+
+        final long active = usedHeap();
+
+        for (int i = 0; i < ACTIVE_KEYS; i++) {
+            locks[i].unlock();
+        }
+
+        System.out.println(String.format("%-14s %8d bytes per idle key %8d more bytes per held key (%d locks)", name,
+                (idle - start) / IDLE_KEYS, (active - idle) / ACTIVE_KEYS, locks.length));
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,160 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.mass.concurrent.LockHandle;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+
+public class LockPathLayoutTest {
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+    }
+
+    @Test
+    public void testHashedPaths() {
+        final LockPathLayout layout = LockPathLayout.hashed(2, 256, false);
+        final String path = layout.toPath("/locks/layout/", "777");
+
+        assertTrue(path, path.matches("/locks/layout/~[0-9a-f]{2}/~[0-9a-f]{2}/777"));
+        assertEquals(path, LockPathLayout.hashed(2, 256, false).toPath("/locks/layout/", "777"));
+        assertTrue(LockPathLayout.hashed(1, 4096, false).toPath("/locks/layout/", "777").matches(
+                "/locks/layout/~[0-9a-f]{3}/777"));
+        assertEquals("/locks/layout/777", LockPathLayout.FLAT.toPath("/locks/layout/", "777"));
+        assertEquals("/locks/layout/777", layout.toFlatPath("/locks/layout/", "777"));
+    }
+
+    @Test
+    public void testBucketedLocks() throws Exception {
+        final LockPathLayout layout = LockPathLayout.hashed(2, 16, false);
+        final ReentrantLock lock = newRegistry(2, 16, false).getLock(777);
+
+        lock.lock();
+        assertEquals(1, zkClient.getChildren().forPath(layout.toPath("/locks/layout/", "777")).size());
+        assertEquals(1, zkClient.getChildren().forPath("/locks/layout").size());
+        assertFalse(zooKeeper.tryLockElsewhere(newRegistry(2, 16, false).getLock(777)));
+        lock.unlock();
+
+        assertTrue(zooKeeper.tryLockElsewhere(newRegistry(2, 16, false).getLock(777)));
+    }
+
+    @Test
+    public void testMigratingLockExcludesBothLayouts() throws Exception {
+        final ReentrantLock lock = newRegistry(1, 16, true).getLock(777);
+
+        lock.lock();
+        assertFalse(zooKeeper.tryLockElsewhere(newFlatRegistry().getLock(777)));
+        assertFalse(zooKeeper.tryLockElsewhere(newRegistry(1, 16, false).getLock(777)));
+        lock.unlock();
+
+        assertTrue(zooKeeper.tryLockElsewhere(newFlatRegistry().getLock(777)));
+        assertTrue(zooKeeper.tryLockElsewhere(newRegistry(1, 16, false).getLock(777)));
+
+        // a node that's still flat holds the key
+        final ReentrantLock flatLock = newFlatRegistry().getLock(777);
+        flatLock.lock();
+        assertFalse(zooKeeper.tryLockElsewhere(newRegistry(1, 16, true).getLock(777)));
+        flatLock.unlock();
+    }
+
+    @Test
+    public void testMigratingLockWaitsForBothLayouts() throws Exception {
+        final ReentrantLock bucketedLock = newRegistry(1, 16, false).getLock(777);
+        final Thread holder = new Thread() {
+            @Override
+            public void run() {
+                bucketedLock.lock();
+
+                try {
+                    Thread.sleep(300);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    bucketedLock.unlock();
+                }
+            }
+        };
+        holder.start();
+
+        while (!bucketedLock.isLocked()) {
+            Thread.sleep(10);
+        }
+
+        // the new path is left whatever is left of the timeout, after the old one
+        final ReentrantLock lock = newRegistry(1, 16, true).getLock(777);
+        assertTrue(lock.tryLock(5, TimeUnit.SECONDS));
+        lock.unlock();
+        holder.join();
+    }
+
+    @Test
+    public void testBucketsDontCollideWithKeys() throws Exception {
+        final LockPathLayout layout = LockPathLayout.hashed(1, 16, true);
+        assertTrue(layout.isBucket("~1"));
+        assertFalse(layout.isBucket("1"));
+        assertFalse(layout.isBucket("f"));
+
+        // -2 hashes to the 2nd bucket, whose dir would be the flat path of key 1, if buckets were named like keys
+        final ReentrantLock lock = newRegistry(1, 16, true).getLock(-2);
+        lock.lock();
+
+        try {
+            assertTrue(zooKeeper.tryLockElsewhere(newRegistry(1, 16, true).getLock(1), 1, TimeUnit.SECONDS));
+            assertTrue(zooKeeper.tryLockElsewhere(newFlatRegistry().getLock(1), 1, TimeUnit.SECONDS));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Test
+    public void testMigratingBulkAndAsyncLocks() throws Exception {
+        final InterProcessLockRegistry<Integer> registry = newRegistry(1, 16, true);
+
+        final LockHandle handle = registry.acquireAll(Arrays.asList(777, 778), 5, TimeUnit.SECONDS);
+        assertNotNull(handle);
+        assertFalse(zooKeeper.tryLockElsewhere(newFlatRegistry().getLock(778)));
+        assertFalse(zooKeeper.tryLockElsewhere(newRegistry(1, 16, false).getLock(777)));
+        assertTrue(registry.isLocked(778));
+        handle.release();
+
+        final LockHandle asyncHandle = registry.acquireAsync(777, 5, TimeUnit.SECONDS).get(5, TimeUnit.SECONDS);
+        assertFalse(zooKeeper.tryLockElsewhere(newFlatRegistry().getLock(777)));
+        assertFalse(zooKeeper.tryLockElsewhere(newRegistry(1, 16, false).getLock(777)));
+        asyncHandle.release();
+
+        assertFalse(registry.isLocked(777));
+        assertFalse(registry.isLocked(778));
+    }
+
+    private InterProcessLockRegistry<Integer> newFlatRegistry() {
+        return newRegistry(1, 0, false);
+    }
+
+    private InterProcessLockRegistry<Integer> newRegistry(final int levels, final int buckets,
+            final boolean migrating) {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration("layout",
+                new IntegerLockKeyFactory());
+        definition.setHashBuckets(buckets);
+        definition.setHashBucketLevels(levels);
+        definition.setHashBucketMigration(migrating);
+        return zooKeeper.newRegistry(definition);
+    }
+}
@@ -0,0 +1,175 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.joda.time.Duration;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.mass.concurrent.LockPathReaperMetrics;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+import com.mass.core.PositiveDuration;
+
+public class LockPathReaperTest {
+    private static final String dirPath = "/locks/reap/";
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+
+    @Before
+    public void setUp() {
+        zkClient = zooKeeper.getClient();
+    }
+
+    @Test
+    public void testReapsIdleLockPaths() throws Exception {
+        final LockPathReaper reaper = new LockPathReaper(zkClient, dirPath, LockPathLayout.FLAT, 60000, 1000);
+        final InterProcessLockRegistry<Integer> registry = newRegistry(newDefinition(), reaper);
+
+        for (int key = 1; key <= 3; key++) {
+            lockOnce(registry, key);
+        }
+
+        final ReentrantLock held = registry.getLock(4);
+        held.lock();
+
+        // the first sweep only finds the empty lock paths
+        assertEquals(0, reaper.sweep());
+
+        // a key that's locked in the meantime isn't idle
+        lockOnce(registry, 3);
+        assertEquals(2, reaper.sweep());
+        assertEquals(Sets.newHashSet("3", "4"), Sets.newHashSet(zkClient.getChildren().forPath("/locks/reap")));
+
+        assertEquals(1, reaper.sweep());
+        assertEquals(0, reaper.sweep());
+        assertEquals(3, registry.getReclaimedLockPathCount());
+        assertEquals(4, registry.getLockPathSweepCount());
+        held.unlock();
+
+        // a reaped key locks like before
+        lockOnce(registry, 1);
+        assertNotNull(zkClient.checkExists().forPath("/locks/reap/1"));
+    }
+
+    @Test
+    public void testReapsMigratingLockPaths() throws Exception {
+        final SynchronizerLockRegistryConfiguration definition = newDefinition();
+        definition.setHashBuckets(16);
+        definition.setHashBucketMigration(true);
+        final LockPathLayout layout = LockPathLayout.of(definition);
+        final LockPathReaper reaper = new LockPathReaper(zkClient, dirPath, layout, 60000, 1000);
+        final InterProcessLockRegistry<Integer> registry = newRegistry(definition, reaper);
+        final String bucketedPath = layout.toPath(dirPath, "2");
+
+        lockOnce(registry, 2);
+        assertNotNull(zkClient.checkExists().forPath("/locks/reap/2"));
+        assertNotNull(zkClient.checkExists().forPath(bucketedPath));
+
+        assertEquals(0, reaper.sweep());
+        assertEquals(2, reaper.sweep());
+        assertNull(zkClient.checkExists().forPath("/locks/reap/2"));
+        assertNull(zkClient.checkExists().forPath(bucketedPath));
+
+        // the bucket was only emptied by the last sweep
+        assertEquals(1, zkClient.getChildren().forPath("/locks/reap").size());
+        assertEquals(1, reaper.sweep());
+        assertEquals(0, zkClient.getChildren().forPath("/locks/reap").size());
+    }
+
+    @Test
+    public void testStopEndsTheSweeps() throws Exception {
+        final LockPathReaper reaper = new LockPathReaper(zkClient, dirPath, LockPathLayout.FLAT, 20, 1000).start();
+        awaitSweeps(reaper, 2);
+
+        reaper.stop();
+        Thread.sleep(100);
+        final long sweeps = reaper.getSweepCount();
+        Thread.sleep(200);
+        assertEquals(sweeps, reaper.getSweepCount());
+
+        // a stopped reaper doesn't start again
+        reaper.start();
+        Thread.sleep(200);
+        assertEquals(sweeps, reaper.getSweepCount());
+    }
+
+    @Test
+    public void testFactoryReapsEachDirOnce() throws Exception {
+        final InterProcessLockRegistryFactory factory = new InterProcessLockRegistryFactory(zkClient, STRICT, "/locks");
+        final SynchronizerLockRegistryConfiguration definition = newReapedDefinition();
+        final LockPathReaperMetrics locks = factory.newLockRegistry(definition);
+        awaitSweeps(locks, 3);
+
+        // the read/write locks of the lock registry share the reaper that's already sweeping its dir
+        final LockPathReaperMetrics readWriteLocks = factory.newReadWriteLockRegistry(definition);
+        assertTrue(readWriteLocks.getLockPathSweepCount() >= 3);
+
+        factory.close();
+        Thread.sleep(100);
+        final long sweeps = locks.getLockPathSweepCount();
+        Thread.sleep(200);
+        assertEquals(sweeps, locks.getLockPathSweepCount());
+        assertEquals(sweeps, readWriteLocks.getLockPathSweepCount());
+    }
+
+    @Test
+    public void testPooledSessionsReapOnce() throws Exception {
+        final ShardedLockRegistryFactory factory = new ShardedLockRegistryFactory(Collections.nCopies(4, zkClient),
+                STRICT, "/locks", true, true);
+        final LockPathReaperMetrics locks = (LockPathReaperMetrics) factory.newLockRegistry(newReapedDefinition());
+
+        // every 50ms, for 300ms, is 6 sweeps at most for one reaper, and about 24 for a reaper per session
+        Thread.sleep(300);
+        factory.close();
+        assertTrue(locks.getLockPathSweepCount() <= 6);
+    }
+
+    private static SynchronizerLockRegistryConfiguration newDefinition() {
+        return new SynchronizerLockRegistryConfiguration("reap", new IntegerLockKeyFactory());
+    }
+
+    private static SynchronizerLockRegistryConfiguration newReapedDefinition() {
+        final SynchronizerLockRegistryConfiguration definition = newDefinition();
+        definition.setLockPathReapInterval(new PositiveDuration(Duration.millis(50)));
+        return definition;
+    }
+
+    private static void awaitSweeps(final LockPathReaper reaper, final long sweeps) throws InterruptedException {
+        while (reaper.getSweepCount() < sweeps) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitSweeps(final LockPathReaperMetrics metrics, final long sweeps)
+            throws InterruptedException {
+        while (metrics.getLockPathSweepCount() < sweeps) {
+            Thread.sleep(10);
+        }
+    }
+
+    private void lockOnce(final InterProcessLockRegistry<Integer> registry, final int key) {
+        final ReentrantLock lock = registry.getLock(key);
+        lock.lock();
+        lock.unlock();
+    }
+
+    private InterProcessLockRegistry<Integer> newRegistry(final SynchronizerLockRegistryConfiguration definition,
+            final LockPathReaper reaper) {
+        return new InterProcessLockRegistry<Integer>("/locks", STRICT, new InterProcessMutexFactory(zkClient),
+                definition, reaper);
+    }
+}
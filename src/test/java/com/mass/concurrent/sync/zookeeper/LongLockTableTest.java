@@ -0,0 +1,245 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.keyfactories.LongLockKeyFactory;
+import com.mass.concurrent.sync.keyfactories.StringLockKeyFactory;
+
+public class LongLockTableTest {
+    private final AtomicInteger createdLocks = new AtomicInteger();
+    private final LongLockTable.LongLockFactory countingFactory = new LongLockTable.LongLockFactory() {
+        @Override
+        public ReentrantLock newLock(final long key) {
+            createdLocks.incrementAndGet();
+            return new ReentrantLock();
+        }
+    };
+
+    @Test
+    public void testReentrantLockAndUnlock() {
+        final LongLockTable table = new LongLockTable(countingFactory);
+        final ReentrantLock lock = table.getLock(42L);
+
+        lock.lock();
+        assertTrue(lock.tryLock());
+        assertEquals(2, lock.getHoldCount());
+        assertEquals(1, table.activeSize());
+
+        lock.unlock();
+        lock.unlock();
+        assertFalse(lock.isHeldByCurrentThread());
+        assertFalse(lock.isLocked());
+        assertEquals(0, table.activeSize());
+    }
+
+    @Test
+    public void testIdleLocksAreReused() {
+        final LongLockTable table = new LongLockTable(countingFactory);
+
+        for (int i = 0; i < 100; i++) {
+            final ReentrantLock lock = table.getLock(7L);
+            lock.lock();
+            lock.unlock();
+        }
+
+        assertSame(table.getLock(7L), table.getLock(7L));
+        assertEquals(1, createdLocks.get());
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testIdleLocksAreBounded() {
+        final LongLockTable table = new LongLockTable(countingFactory, 64);
+
+        for (long key = 0; key < 100000; key++) {
+            final ReentrantLock lock = table.getLock(key);
+            lock.lock();
+            lock.unlock();
+        }
+
+        assertTrue("Too many idle locks: " + table.size(), table.size() <= 2 * 64);
+        assertEquals(0, table.activeSize());
+    }
+
+    @Test
+    public void testDroppedLockRedirectsToLiveLock() {
+        final LongLockTable table = new LongLockTable(countingFactory, 0);
+        final ReentrantLock stale = table.getLock(1L);
+
+        // enough new keys to drop the idle lock for key 1
+        for (long key = 2; key < 10000; key++) {
+            table.getLock(key);
+        }
+
+        final ReentrantLock live = table.getLock(1L);
+        live.lock();
+
+        try {
+            assertTrue(stale.isHeldByCurrentThread());
+            assertEquals(1, stale.getHoldCount());
+        } finally {
+            stale.unlock();
+        }
+
+        assertFalse(live.isHeldByCurrentThread());
+    }
+
+    @Test
+    public void testOtherThreadsAreExcluded() throws Exception {
+        final LongLockTable table = new LongLockTable(countingFactory);
+        table.getLock(5L).lock();
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<Boolean> attempt = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return table.getLock(5L).tryLock(10, TimeUnit.MILLISECONDS);
+                }
+            });
+
+            assertFalse(attempt.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        table.getLock(5L).unlock();
+        assertEquals(0, table.activeSize());
+    }
+
+    @Test
+    public void testConditionsGoToTheBackingLock() throws Exception {
+        final LongLockTable table = new LongLockTable(countingFactory);
+        final ReentrantLock lock = table.getLock(42L);
+        final Condition ready = lock.newCondition();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<Boolean> waiter = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    lock.lock();
+
+                    try {
+                        waiting.countDown();
+                        return ready.await(5, TimeUnit.SECONDS);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+
+            assertTrue(waiting.await(5, TimeUnit.SECONDS));
+            lock.lock();
+
+            try {
+                assertTrue(lock.hasWaiters(ready));
+                assertEquals(1, lock.getWaitQueueLength(ready));
+                ready.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertFalse(lock.isLocked());
+        assertEquals(0, table.activeSize());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockWithoutLock() {
+        new LongLockTable(countingFactory).getLock(3L).unlock();
+    }
+
+    @Test
+    public void testMutualExclusionUnderChurn() throws Exception {
+        final LongLockTable table = new LongLockTable(countingFactory, 0);
+        final int threads = 8;
+        final int iterations = 5000;
+        final int[] counter = new int[1];
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int t = 0; t < threads; t++) {
+                final long otherKey = 1000 + t;
+
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (final InterruptedException e) {
+                            return;
+                        }
+
+                        for (int i = 0; i < iterations; i++) {
+                            final ReentrantLock lock = table.getLock(0L);
+                            lock.lock();
+
+                            try {
+                                counter[0]++;
+                            } finally {
+                                lock.unlock();
+                            }
+
+                            // keep the idle locks churning
+                            table.getLock(otherKey + i * 8);
+                        }
+                    }
+                });
+            }
+
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * iterations, counter[0]);
+        assertEquals(0, table.activeSize());
+    }
+
+    @Test
+    public void testIntAndLongKeysShareLocks() {
+        final LongLockRegistry<Object> registry = new LongLockRegistry<Object>(LongLockRegistry.localLockFactory(),
+                null);
+        assertSame(registry.getLock(12), registry.getLock(12L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNonNumericKey() {
+        new LongLockRegistry<Object>(LongLockRegistry.localLockFactory(), null).getLock("12");
+    }
+
+    @Test
+    public void testSupportedKeyFactories() {
+        assertTrue(LongLockRegistry.supports(new IntegerLockKeyFactory()));
+        assertTrue(LongLockRegistry.supports(new LongLockKeyFactory()));
+        assertFalse(LongLockRegistry.supports(new StringLockKeyFactory()));
+        assertFalse(LongLockRegistry.supports(new LongLockKeyFactory() {
+        }));
+    }
+}
@@ -0,0 +1,216 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.junit.Test;
+
+import com.google.common.base.Function;
+
+public class RefCountedLockTableTest {
+    private final AtomicInteger createdLocks = new AtomicInteger();
+    private final RefCountedLockTable<String, ReentrantLock> table =
+            new RefCountedLockTable<String, ReentrantLock>(new Function<String, ReentrantLock>() {
+                @Override
+                public ReentrantLock apply(final String key) {
+                    createdLocks.incrementAndGet();
+                    return new ReentrantLock();
+                }
+            });
+
+    @Test
+    public void testEntryIsRemovedOnLastUnlock() {
+        final ReentrantLock lock = table.getLock("a", RefCountedLockTable.REENTRANT);
+        assertEquals(0, table.size());
+
+        lock.lock();
+        lock.lock();
+        assertEquals(1, table.size());
+        assertEquals(2, lock.getHoldCount());
+        assertTrue(lock.isHeldByCurrentThread());
+
+        lock.unlock();
+        assertEquals(1, table.size());
+
+        lock.unlock();
+        assertEquals(0, table.size());
+        assertFalse(lock.isHeldByCurrentThread());
+    }
+
+    @Test
+    public void testHandlesShareTheLiveEntry() {
+        table.getLock("a", RefCountedLockTable.REENTRANT).lock();
+        assertTrue(table.getLock("a", RefCountedLockTable.REENTRANT).isHeldByCurrentThread());
+        assertEquals(1, createdLocks.get());
+
+        table.getLock("a", RefCountedLockTable.REENTRANT).unlock();
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testFailedTryLockReleasesEntry() throws Exception {
+        table.getLock("a", RefCountedLockTable.REENTRANT).lock();
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<Boolean> attempt = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return table.getLock("a", RefCountedLockTable.REENTRANT).tryLock(10, TimeUnit.MILLISECONDS);
+                }
+            });
+
+            assertFalse(attempt.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        table.getLock("a", RefCountedLockTable.REENTRANT).unlock();
+        assertEquals(0, table.size());
+    }
+
+    @Test
+    public void testConditionsGoToTheEntryLock() throws Exception {
+        final ReentrantLock lock = table.getLock("a", RefCountedLockTable.REENTRANT);
+        final Condition ready = lock.newCondition();
+        final CountDownLatch waiting = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<Boolean> waiter = executor.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    lock.lock();
+
+                    try {
+                        waiting.countDown();
+                        return ready.await(5, TimeUnit.SECONDS);
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+
+            assertTrue(waiting.await(5, TimeUnit.SECONDS));
+
+            // another handle of the same key, once the waiter has let go of the lock
+            final ReentrantLock other = table.getLock("a", RefCountedLockTable.REENTRANT);
+            other.lock();
+
+            try {
+                assertTrue(other.hasWaiters(ready));
+                assertEquals(1, other.getWaitQueueLength(ready));
+                ready.signal();
+            } finally {
+                other.unlock();
+            }
+
+            assertTrue(waiter.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, createdLocks.get());
+        assertEquals(0, table.size());
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testConditionNeedsTheLock() throws Exception {
+        table.getLock("a", RefCountedLockTable.REENTRANT).newCondition().signal();
+    }
+
+    /**
+     * The queue methods of ReentrantLock are final, so the handles can't report the entry's queue.
+     */
+    @Test
+    public void testQueueMethodsOnlySeeTheHandle() throws Exception {
+        final ReentrantLock lock = table.getLock("a", RefCountedLockTable.REENTRANT);
+        lock.lock();
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try {
+            final Future<?> waiter = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    lock.lock();
+                    lock.unlock();
+                }
+            });
+
+            while (table.getEntry("a").getLock().getQueueLength() == 0) {
+                Thread.sleep(1);
+            }
+
+            assertTrue(lock.isLocked());
+            assertFalse(lock.hasQueuedThreads());
+            assertEquals(0, lock.getQueueLength());
+
+            lock.unlock();
+            waiter.get(5, TimeUnit.SECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnlockWithoutLock() {
+        table.getLock("a", RefCountedLockTable.REENTRANT).unlock();
+    }
+
+    @Test
+    public void testMutualExclusionUnderChurn() throws Exception {
+        final int threads = 8;
+        final int iterations = 5000;
+        final int[] counter = new int[1];
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            for (int t = 0; t < threads; t++) {
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (final InterruptedException e) {
+                            return;
+                        }
+
+                        for (int i = 0; i < iterations; i++) {
+                            final ReentrantLock lock = table.getLock("hot", RefCountedLockTable.REENTRANT);
+                            lock.lock();
+
+                            try {
+                                counter[0]++;
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+                    }
+                });
+            }
+
+            start.countDown();
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * iterations, counter[0]);
+        assertEquals(0, table.size());
+    }
+}
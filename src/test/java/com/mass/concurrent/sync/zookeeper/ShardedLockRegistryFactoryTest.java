@@ -0,0 +1,113 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.mass.concurrent.BulkLockRegistry;
+import com.mass.concurrent.LockHandle;
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+
+public class ShardedLockRegistryFactoryTest {
+    private static final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration(
+            "sharded", new IntegerLockKeyFactory());
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    @Rule
+    public final ZooKeeperServerRule otherZooKeeper = new ZooKeeperServerRule();
+
+    private List<CuratorFramework> zkClients;
+
+    @Before
+    public void setUp() {
+        zkClients = Arrays.asList(zooKeeper.getClient(), otherZooKeeper.getClient());
+    }
+
+    @Test
+    public void testKeysGoToTheirShard() throws Exception {
+        final LockRegistry<Object> registry = newFactory(true).newLockRegistry(definition);
+        final Set<Integer> usedShards = Sets.newHashSet();
+
+        for (int key = 0; key < 20; key++) {
+            final int shard = ShardedLockRegistryFactory.shardOf(Integer.toString(key), zkClients.size());
+            usedShards.add(shard);
+
+            final ReentrantLock lock = registry.getLock(key);
+            lock.lock();
+            assertEquals(1, zkClients.get(shard).getChildren().forPath("/locks/sharded/" + key).size());
+            assertNull(zkClients.get(1 - shard).checkExists().forPath("/locks/sharded/" + key));
+
+            // another node routes the key to the same ensemble
+            assertFalse(zooKeeper.tryLockElsewhere(newFactory(true).newLockRegistry(definition).getLock(key)));
+            lock.unlock();
+        }
+
+        assertEquals(Sets.newHashSet(0, 1), usedShards);
+    }
+
+    @Test
+    public void testRegistriesGoToTheirShard() throws Exception {
+        final int shard = ShardedLockRegistryFactory.shardOf("sharded", zkClients.size());
+        final LockRegistry<Object> registry = newFactory(false).newLockRegistry(definition);
+
+        for (int key = 0; key < 5; key++) {
+            registry.getLock(key).lock();
+        }
+
+        assertEquals(5, zkClients.get(shard).getChildren().forPath("/locks/sharded").size());
+        assertNull(zkClients.get(1 - shard).checkExists().forPath("/locks/sharded"));
+
+        for (int key = 0; key < 5; key++) {
+            registry.getLock(key).unlock();
+        }
+    }
+
+    @Test
+    public void testBulkLockAcrossShards() throws Exception {
+        final BulkLockRegistry<Object> registry = newKeyShardedRegistry();
+        final List<Object> keys = Arrays.<Object> asList(0, 1, 2, 3, 4, 5);
+
+        final LockHandle handle = registry.acquireAll(keys, 5, TimeUnit.SECONDS);
+        assertNotNull(handle);
+
+        for (final Object key : keys) {
+            assertFalse(zooKeeper.tryLockElsewhere(newFactory(true).newLockRegistry(definition).getLock(key)));
+        }
+
+        handle.release();
+
+        for (final Object key : keys) {
+            assertTrue(zooKeeper.tryLockElsewhere(newFactory(true).newLockRegistry(definition).getLock(key)));
+        }
+    }
+
+    /**
+     * A lock registry with its keys spread over the shards, which is always a ShardedLockRegistry.
+     */
+    private ShardedLockRegistry<Object> newKeyShardedRegistry() {
+        return (ShardedLockRegistry<Object>) newFactory(true).newLockRegistry(definition);
+    }
+
+    private LockRegistryFactory newFactory(final boolean shardKeys) {
+        return new ShardedLockRegistryFactory(zkClients, STRICT, "/locks", shardKeys);
+    }
+}
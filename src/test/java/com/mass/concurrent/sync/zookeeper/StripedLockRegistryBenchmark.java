@@ -0,0 +1,82 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.sync.keyfactories.LongLockKeyFactory;
+
+/**
+ * Compares lock/unlock throughput of the per-key LocalLockRegistry with the StripedLockRegistry, with several threads
+ * locking random keys from a huge key space. This is a plain main() program, not a unit test.
+ * 
+ * @author kmassaroni
+ */
+public class StripedLockRegistryBenchmark {
+    private static final int THREADS = Runtime.getRuntime().availableProcessors();
+    private static final int ITERATIONS = 2000000;
+    private static final long KEY_SPACE = 50000000L;
+
+    public static void main(final String[] args) throws Exception {
+        final LockRegistry<Long> perKey = new LocalLockRegistry<Long>(new LongLockKeyFactory(), null);
+        final LockRegistry<Long> striped = new StripedLockRegistry<Long>(new LongLockKeyFactory(), 1024, null);
+
+        for (int round = 0; round < 3; round++) {
+            run("per key", perKey);
+            run("striped 1024", striped);
+        }
+    }
+
+    private static void run(final String name, final LockRegistry<Long> registry) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicLong checksum = new AtomicLong();
+
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    final Random random = new Random(seed);
+                    long sum = 0;
+
+                    try {
+                        start.await();
+                    } catch (final InterruptedException e) {
+                        return;
+                    }
+
+                    for (int i = 0; i < ITERATIONS; i++) {
+                        final long key = (random.nextLong() >>> 1) % KEY_SPACE;
+                        final ReentrantLock lock = registry.getLock(key);
+                        lock.lock();
+
+                        try {
+                            sum += key;
+                        } finally {
+                            lock.unlock();
+                        }
+                    }
+
+                    checksum.addAndGet(sum);
+                }
+            });
+        }
+
+        final long startTime = System.nanoTime();
+        start.countDown();
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.MINUTES);
+
+        final long elapsed = System.nanoTime() - startTime;
+        final double opsPerThread = ITERATIONS;
+        System.out.println(String.format("%-14s %d threads %10.1f ns/op per thread (checksum %d)", name, THREADS,
+                elapsed / opsPerThread, checksum.get()));
+    }
+}
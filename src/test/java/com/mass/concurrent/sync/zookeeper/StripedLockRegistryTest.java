@@ -0,0 +1,86 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.sync.keyfactories.LongLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy;
+
+public class StripedLockRegistryTest {
+    @Test
+    public void testSameKeySameLock() {
+        final StripedLockRegistry<Long> registry = new StripedLockRegistry<Long>(new LongLockKeyFactory(), 16, null);
+        assertSame(registry.getLock(12345L), registry.getLock(12345L));
+    }
+
+    @Test
+    public void testStripesRoundUpToPowerOfTwo() {
+        assertEquals(1, new StripedLockRegistry<Long>(new LongLockKeyFactory(), 1, null).getLiveLockCount());
+        assertEquals(64, new StripedLockRegistry<Long>(new LongLockKeyFactory(), 64, null).getLiveLockCount());
+        assertEquals(128, new StripedLockRegistry<Long>(new LongLockKeyFactory(), 100, null).getLiveLockCount());
+    }
+
+    @Test
+    public void testConsecutiveKeysSpreadAcrossStripes() {
+        final StripedLockRegistry<Long> registry = new StripedLockRegistry<Long>(new LongLockKeyFactory(), 64, null);
+        final Set<Integer> stripes = Sets.newHashSet();
+
+        for (long key = 0; key < 1000; key++) {
+            stripes.add(registry.stripe(Long.toString(key).hashCode()));
+        }
+
+        assertEquals(64, stripes.size());
+    }
+
+    @Test
+    public void testPrimitiveKeysStripeByValue() {
+        final StripedLockRegistry<Long> registry = new StripedLockRegistry<Long>(new LongLockKeyFactory(), 64, null);
+        final Set<ReentrantLock> locks = Sets.newIdentityHashSet();
+
+        for (long key = 0; key < 64; key++) {
+            locks.add(registry.getLock(key));
+        }
+
+        // consecutive values get a stripe each
+        assertEquals(64, locks.size());
+    }
+
+    @Test
+    public void testFactoryBuildsStripedRegistry() {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration("users",
+                new LongLockKeyFactory());
+        definition.setStripes(32);
+
+        final LockRegistry<Object> registry = new LocalLockRegistryFactory().newLockRegistry(definition);
+        assertTrue(registry instanceof StripedLockRegistry);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZooKeeperScopeRejectsStripes() {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration("users",
+                new LongLockKeyFactory());
+        definition.setStripes(32);
+
+        // never started, since the definition is rejected before anything goes to zookeeper
+        final CuratorFramework zkClient = CuratorFrameworkFactory.newClient("localhost:2181", new RetryOneTime(100));
+        new InterProcessLockRegistryFactory(zkClient, SynchronizerLockingPolicy.STRICT, "/locks")
+                .newLockRegistry(definition);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeStripes() {
+        new SynchronizerLockRegistryConfiguration("users", new LongLockKeyFactory()).setStripes(-1);
+    }
+}
@@ -0,0 +1,141 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.CircuitBreakerMetrics.CircuitState.CLOSED;
+import static com.mass.concurrent.CircuitBreakerMetrics.CircuitState.OPEN;
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.BEST_EFFORT;
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy;
+import com.mass.core.PositiveDuration;
+
+public class ZooKeeperCircuitBreakerTest {
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+    private CuratorFramework otherZkClient;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        zkClient = newClient();
+        otherZkClient = newClient();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    private CuratorFramework newClient() throws Exception {
+        final CuratorFramework client = CuratorFrameworkFactory.newClient(zooKeeper.getServer().getConnectString(),
+                30000, 1000, new RetryOneTime(100));
+        client.start();
+        client.getZookeeperClient().blockUntilConnectedOrTimedOut();
+        return client;
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        zkClient.close();
+        otherZkClient.close();
+    }
+
+    @Test
+    public void testStrictWaiterFailsFastWhenSuspended() throws Exception {
+        final InterProcessLockRegistry<Object> registry = newRegistry(zkClient, STRICT);
+        final ReentrantLock otherNodeLock = newRegistry(otherZkClient, STRICT).getLock(1);
+        otherNodeLock.lock();
+
+        final Future<Throwable> waiter = executor.submit(new Callable<Throwable>() {
+            @Override
+            public Throwable call() {
+                try {
+                    registry.getLock(1).lock();
+                    return null;
+                } catch (final RuntimeException e) {
+                    return e;
+                }
+            }
+        });
+
+        // let it get in line behind the other node
+        Thread.sleep(500);
+        assertFalse(waiter.isDone());
+
+        zooKeeper.getServer().stop();
+
+        final Throwable failure = waiter.get(5, TimeUnit.SECONDS);
+        assertTrue(String.valueOf(failure), failure.getCause() instanceof ZooKeeperCircuitOpenException);
+        assertEquals(OPEN, registry.getCircuitState());
+        assertEquals(1, registry.getCircuitTripCount());
+        assertFalse(registry.getLock(1).isHeldByCurrentThread());
+
+        final long start = System.nanoTime();
+
+        try {
+            registry.getLock(2).lock();
+            fail("The circuit is open.");
+        } catch (final RuntimeException e) {
+            assertTrue(e.getCause() instanceof ZooKeeperCircuitOpenException);
+        }
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertEquals(2, registry.getCircuitFastFailCount());
+
+        // the reconnect half-opens it, and the next lock probes zookeeper, and closes it
+        zooKeeper.getServer().restart();
+        zkClient.getZookeeperClient().blockUntilConnectedOrTimedOut();
+
+        final ReentrantLock lock = registry.getLock(2);
+        assertTrue(lock.tryLock(5, TimeUnit.SECONDS));
+        assertEquals(CLOSED, registry.getCircuitState());
+        lock.unlock();
+    }
+
+    @Test
+    public void testBestEffortSkipsZooKeeperWhileOpen() throws Exception {
+        final InterProcessLockRegistry<Object> registry = newRegistry(zkClient, BEST_EFFORT);
+
+        zooKeeper.getServer().stop();
+
+        while (registry.getCircuitState() != OPEN) {
+            Thread.sleep(10);
+        }
+
+        final long start = System.nanoTime();
+        final ReentrantLock lock = registry.getLock(1);
+        lock.lock();
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(lock.isHeldByCurrentThread());
+        assertEquals(1, registry.getCircuitFastFailCount());
+        lock.unlock();
+    }
+
+    private static InterProcessLockRegistry<Object> newRegistry(final CuratorFramework zkClient,
+            final SynchronizerLockingPolicy policy) {
+        final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration(
+                "circuit", new IntegerLockKeyFactory());
+        definition.setCircuitProbeInterval(PositiveDuration.standardSeconds(60));
+        return new InterProcessLockRegistryFactory(zkClient, policy, "/locks").newLockRegistry(definition);
+    }
+}
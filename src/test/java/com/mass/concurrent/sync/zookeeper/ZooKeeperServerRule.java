@@ -0,0 +1,113 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.STRICT;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.TestingServer;
+import org.junit.rules.ExternalResource;
+
+import com.google.common.collect.Lists;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+
+/**
+ * Starts a zookeeper testing server, and a client of it, before each test, and closes them after it, with the clients
+ * that the test made and the thread that tries locks elsewhere.
+ *
+ * @author kmassaroni
+ */
+public class ZooKeeperServerRule extends ExternalResource {
+    private final List<CuratorFramework> clients = Lists.newArrayList();
+    private TestingServer server;
+    private CuratorFramework client;
+    private ExecutorService elsewhere;
+
+    @Override
+    protected void before() throws Exception {
+        server = new TestingServer();
+        client = newClient();
+        elsewhere = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void after() {
+        elsewhere.shutdownNow();
+
+        for (final CuratorFramework started : Lists.reverse(clients)) {
+            started.close();
+        }
+
+        clients.clear();
+
+        try {
+            server.close();
+        } catch (final Exception e) {
+            throw new IllegalStateException("Can't close the zookeeper testing server.", e);
+        }
+    }
+
+    public TestingServer getServer() {
+        return server;
+    }
+
+    public CuratorFramework getClient() {
+        return client;
+    }
+
+    /**
+     * @return another started client of the server, like the one of another node, that's closed after the test
+     */
+    public CuratorFramework newClient() {
+        final CuratorFramework started = CuratorFrameworkFactory.newClient(server.getConnectString(),
+                new RetryOneTime(100));
+        started.start();
+        clients.add(started);
+        return started;
+    }
+
+    /**
+     * @return a strict lock registry of the definition, under /locks
+     */
+    public <K> InterProcessLockRegistry<K> newRegistry(final SynchronizerLockRegistryConfiguration definition) {
+        return newRegistry(new InterProcessMutexFactory(client), definition);
+    }
+
+    public <K> InterProcessLockRegistry<K> newRegistry(final InterProcessMutexFactory mutexFactory,
+            final SynchronizerLockRegistryConfiguration definition) {
+        return new InterProcessLockRegistry<K>("/locks", STRICT, mutexFactory, definition, null);
+    }
+
+    /**
+     * Tries the lock in another thread, like another node, since the reentrant lock belongs to this one.
+     */
+    public boolean tryLockElsewhere(final ReentrantLock lock) throws Exception {
+        return tryLockElsewhere(lock, 0, null);
+    }
+
+    /**
+     * Tries the lock in another thread, for up to the timeout, or with a plain tryLock() when there's no unit.
+     */
+    public boolean tryLockElsewhere(final ReentrantLock lock, final long timeout, final TimeUnit unit)
+            throws Exception {
+        return elsewhere.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws InterruptedException {
+                final boolean locked = unit == null ? lock.tryLock() : lock.tryLock(timeout, unit);
+
+                if (locked) {
+                    lock.unlock();
+                }
+
+                return locked;
+            }
+        }).get();
+    }
+}
@@ -0,0 +1,202 @@
+package com.mass.concurrent.sync.zookeeper;
+
+import static com.mass.concurrent.sync.springaop.config.SynchronizerLockingPolicy.BEST_EFFORT;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.api.ACLProvider;
+import org.apache.curator.retry.RetryOneTime;
+import org.apache.curator.test.KillSession;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.ACL;
+import org.apache.zookeeper.data.Stat;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Sets;
+import com.mass.concurrent.LockRegistry;
+import com.mass.concurrent.sync.keyfactories.IntegerLockKeyFactory;
+import com.mass.concurrent.sync.springaop.config.SynchronizerLockRegistryConfiguration;
+
+public class ZooKeeperSessionPoolTest {
+    private static final SynchronizerLockRegistryConfiguration definition = new SynchronizerLockRegistryConfiguration(
+            "pooled", new IntegerLockKeyFactory());
+
+    @Rule
+    public final ZooKeeperServerRule zooKeeper = new ZooKeeperServerRule();
+
+    private CuratorFramework zkClient;
+    private ZooKeeperSessionPool pool;
+
+    @Before
+    public void setUp() throws Exception {
+        zkClient = newBuilder().build();
+        zkClient.start();
+        pool = new ZooKeeperSessionPool(zkClient, newBuilder(), 3);
+
+        for (final CuratorFramework session : pool.getSessions()) {
+            session.getZookeeperClient().blockUntilConnectedOrTimedOut();
+        }
+    }
+
+    private CuratorFrameworkFactory.Builder newBuilder() {
+        return CuratorFrameworkFactory.builder().connectString(zooKeeper.getServer().getConnectString())
+                .retryPolicy(new RetryOneTime(100)).authorization("digest", "locks:secret".getBytes(Charsets.UTF_8))
+                .aclProvider(new ACLProvider() {
+                    @Override
+                    public List<ACL> getDefaultAcl() {
+                        return ZooDefs.Ids.CREATOR_ALL_ACL;
+                    }
+
+                    @Override
+                    public List<ACL> getAclForPath(final String path) {
+                        return ZooDefs.Ids.CREATOR_ALL_ACL;
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        zkClient.close();
+    }
+
+    @Test
+    public void testKeysSpreadOverSessions() throws Exception {
+        assertEquals(3, pool.getConnectedCount());
+
+        final LockRegistry<Object> registry = LockRegistries.newPooledLockRegistryFactory(pool, BEST_EFFORT, "/locks")
+                .newLockRegistry(definition);
+
+        // a node with one session locks the same keys
+        final LockRegistry<Object> otherNode = LockRegistries.newInterProcessLockRegistryFactory(zkClient,
+                BEST_EFFORT, "/locks").newLockRegistry(definition);
+        final Set<Long> owners = Sets.newHashSet();
+
+        for (int key = 0; key < 30; key++) {
+            final ReentrantLock lock = registry.getLock(key);
+            lock.lock();
+
+            final long owner = getLockNodeOwner(key);
+            assertEquals(getSessionId(ShardedLockRegistryFactory.shardOf(Integer.toString(key), 3)), owner);
+            owners.add(owner);
+
+            assertFalse(zooKeeper.tryLockElsewhere(otherNode.getLock(key)));
+            lock.unlock();
+        }
+
+        assertEquals(3, owners.size());
+    }
+
+    @Test
+    public void testLostSessionOnlyLosesItsKeys() throws Exception {
+        final LockRegistry<Object> registry = LockRegistries.newPooledLockRegistryFactory(pool, BEST_EFFORT, "/locks")
+                .newLockRegistry(definition);
+
+        for (int key = 0; key < 30; key++) {
+            registry.getLock(key).lock();
+        }
+
+        final long lostSession = getSessionId(1);
+        KillSession.kill(pool.getSessions().get(1).getZookeeperClient().getZooKeeper(), zooKeeper.getServer()
+                .getConnectString());
+
+        for (int key = 0; key < 30; key++) {
+            final boolean lost = ShardedLockRegistryFactory.shardOf(Integer.toString(key), 3) == 1;
+            final List<String> nodes = zkClient.getChildren().forPath("/locks/pooled/" + key);
+
+            assertEquals(lost, nodes.isEmpty());
+
+            if (!lost) {
+                assertTrue(getLockNodeOwner(key) != lostSession);
+            }
+
+            registry.getLock(key).unlock();
+        }
+    }
+
+    private long getLockNodeOwner(final int key) throws Exception {
+        final List<String> nodes = zkClient.getChildren().forPath("/locks/pooled/" + key);
+        assertEquals(1, nodes.size());
+
+        final Stat stat = zkClient.checkExists().forPath("/locks/pooled/" + key + "/" + nodes.get(0));
+        assertNotNull(stat);
+        return stat.getEphemeralOwner();
+    }
+
+    private long getSessionId(final int session) throws Exception {
+        return pool.getSessions().get(session).getZookeeperClient().getZooKeeper().getSessionId();
+    }
+
+    @Test
+    public void testSessionsConnectLikeTheClient() throws Exception {
+        final LockRegistry<Object> registry = LockRegistries.newPooledLockRegistryFactory(pool, BEST_EFFORT, "/locks")
+                .newLockRegistry(definition);
+
+        for (int key = 0; key < 30; key++) {
+            registry.getLock(key).lock();
+
+            // the sessions have the client's authorization, so they get its ACLs, and it can read their nodes
+            final String path = "/locks/pooled/" + key;
+            final String node = path + "/" + zkClient.getChildren().forPath(path).get(0);
+            assertEquals(ZooDefs.Ids.CREATOR_ALL_ACL.get(0).getPerms(), zkClient.getACL().forPath(node).get(0)
+                    .getPerms());
+            assertEquals("digest", zkClient.getACL().forPath(node).get(0).getId().getScheme());
+
+            registry.getLock(key).unlock();
+        }
+    }
+
+    @Test
+    public void testNamespaceHasToMatch() throws Exception {
+        try {
+            new ZooKeeperSessionPool(zkClient, newBuilder().namespace("other"), 2);
+            fail("The sessions would lock other paths than the client.");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testClosesStartedSessionsWhenBuildFails() throws Exception {
+        final CuratorFramework started = mock(CuratorFramework.class);
+        final CuratorFrameworkFactory.Builder builder = mock(CuratorFrameworkFactory.Builder.class);
+        when(builder.build()).thenReturn(started).thenThrow(new IllegalStateException("Can't build a session."));
+
+        try {
+            new ZooKeeperSessionPool(zkClient, builder, 3);
+            fail("The second session can't be built.");
+        } catch (final IllegalStateException e) {
+            // expected
+        }
+
+        verify(started).start();
+        verify(started).close();
+        assertTrue(zkClient.getZookeeperClient().isConnected());
+    }
+
+    @Test
+    public void testClosesOnlyItsOwnSessions() throws Exception {
+        pool.close();
+
+        assertTrue(zkClient.getZookeeperClient().isConnected());
+        assertNull(zkClient.checkExists().forPath("/locks/pooled"));
+        assertEquals(1, pool.getConnectedCount());
+    }
+}